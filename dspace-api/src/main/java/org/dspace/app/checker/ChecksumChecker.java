@@ -76,6 +76,10 @@ public final class ChecksumChecker
      *            <dd>Report only errors in the logs</dd>
      *            <dt>-p</dt>
      *            <dd>Don't prune results before running checker</dd>
+     *            <dt>-t [threads]</dt>
+     *            <dd>number of threads checking bitstreams</dd>
+     *            <dt>-r [MB/s]</dt>
+     *            <dd>cap the read rate</dd>
      *            </dl>
      */
     public static void main(String[] args)
@@ -95,6 +99,8 @@ public final class ChecksumChecker
         options.addOption("c", "count", true, "Check count");
         options.addOption("a", "handle", true, "Specify a handle to check");
         options.addOption("v", "verbose", false, "Report all processing");
+        options.addOption("t", "threads", true, "Number of threads checking bitstreams");
+        options.addOption("r", "rate", true, "Maximum read rate in MB/s");
 
         OptionBuilder.withArgName("bitstream-ids").hasArgs().withDescription(
                 "Space separated list of bitstream ids");
@@ -227,10 +233,28 @@ public final class ChecksumChecker
             checker.setReportVerbose(true);
         }
 
+        try
+        {
+            if (line.hasOption('t'))
+            {
+                checker.setThreads(Integer.parseInt(line.getOptionValue('t')));
+            }
+            if (line.hasOption('r'))
+            {
+                checker.setRateLimit((long) (Double.parseDouble(line.getOptionValue('r')) * 1024 * 1024));
+            }
+        }
+        catch (NumberFormatException nfe)
+        {
+            System.err.println("Not a number: " + nfe.getMessage());
+            System.exit(1);
+        }
+
         checker.setProcessStartDate(processStart);
         checker.setDispatcher(dispatcher);
         checker.setCollector(logger);
         checker.process();
+        System.out.println("Checksum checker " + checker.getProgress());
         System.exit(0);
     }
 
@@ -258,6 +282,7 @@ public final class ChecksumChecker
         System.out
                 .println("\nCheck a defined number of bitstreams: ChecksumChecker -c 10");
         System.out.println("\nReport all processing (verbose)(default reports only errors): ChecksumChecker -v");
+        System.out.println("\nCheck with 4 threads, reading at most 50 MB/s: ChecksumChecker -l -t 4 -r 50");
         System.out.println("\nDefault (no arguments) is equivalent to '-c 1'");
         System.exit(0);
     }
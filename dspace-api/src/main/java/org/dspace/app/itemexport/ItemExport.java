@@ -15,6 +15,7 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
@@ -28,6 +29,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -93,6 +95,10 @@ public class ItemExport
      /** log4j logger */
      private static Logger log = Logger.getLogger(ItemExport.class);
 
+    /** the downloadable exports being written, by file name */
+    private static final Map<String, ItemExportProgress> exportsInProgress =
+            new ConcurrentHashMap<String, ItemExportProgress>();
+
     /*
 	 *
 	 */
@@ -402,15 +408,8 @@ public class ItemExport
     private static void writeMetadata(Context c, Item i, File destDir, boolean migrate)
             throws Exception
     {
-        Set<String> schemas = new HashSet<String>();
-        DCValue[] dcValues = i.getMetadata(Item.ANY, Item.ANY, Item.ANY, Item.ANY);
-        for (DCValue dcValue : dcValues)
-        {
-            schemas.add(dcValue.schema);
-        }
-
         // Save each of the schemas into it's own metadata file
-        for (String schema : schemas)
+        for (String schema : getMetadataSchemas(i))
         {
             writeMetadata(c, schema, i, destDir, migrate);
         }
@@ -420,17 +419,7 @@ public class ItemExport
     private static void writeMetadata(Context c, String schema, Item i,
             File destDir, boolean migrate) throws Exception
     {
-        String filename;
-        if (schema.equals(MetadataSchema.DC_SCHEMA))
-        {
-            filename = "dublin_core.xml";
-        }
-        else
-        {
-            filename = "metadata_" + schema + ".xml";
-        }
-
-        File outFile = new File(destDir, filename);
+        File outFile = new File(destDir, getMetadataFileName(schema));
 
         System.out.println("Attempting to create file " + outFile);
 
@@ -438,97 +427,134 @@ public class ItemExport
         {
             BufferedOutputStream out = new BufferedOutputStream(
                     new FileOutputStream(outFile));
+            try
+            {
+                writeMetadata(schema, i, out, migrate);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        else
+        {
+            throw new Exception("Cannot create dublin_core.xml in " + destDir);
+        }
+    }
 
-            DCValue[] dcorevalues = i.getMetadata(schema, Item.ANY, Item.ANY,
-                    Item.ANY);
+    /**
+     * @return the name of the file holding the item's metadata in the given schema
+     */
+    static String getMetadataFileName(String schema)
+    {
+        if (schema.equals(MetadataSchema.DC_SCHEMA))
+        {
+            return "dublin_core.xml";
+        }
+        return "metadata_" + schema + ".xml";
+    }
 
-            // XML preamble
-            byte[] utf8 = "<?xml version=\"1.0\" encoding=\"utf-8\" standalone=\"no\"?>\n"
-                    .getBytes("UTF-8");
-            out.write(utf8, 0, utf8.length);
+    /**
+     * @return the schemas of the item's metadata
+     */
+    static Set<String> getMetadataSchemas(Item i)
+    {
+        Set<String> schemas = new HashSet<String>();
+        DCValue[] dcValues = i.getMetadata(Item.ANY, Item.ANY, Item.ANY, Item.ANY);
+        for (DCValue dcValue : dcValues)
+        {
+            schemas.add(dcValue.schema);
+        }
+        return schemas;
+    }
 
-            String dcTag = "<dublin_core schema=\"" + schema + "\">\n";
-            utf8 = dcTag.getBytes("UTF-8");
-            out.write(utf8, 0, utf8.length);
+    // write the item's metadata in one schema as XML
+    static void writeMetadata(String schema, Item i, OutputStream out,
+            boolean migrate) throws IOException
+    {
+        DCValue[] dcorevalues = i.getMetadata(schema, Item.ANY, Item.ANY,
+                Item.ANY);
 
-            String dateIssued = null;
-            String dateAccessioned = null;
+        // XML preamble
+        byte[] utf8 = "<?xml version=\"1.0\" encoding=\"utf-8\" standalone=\"no\"?>\n"
+                .getBytes("UTF-8");
+        out.write(utf8, 0, utf8.length);
 
-            for (DCValue dcv : dcorevalues)
-            {
-                String qualifier = dcv.qualifier;
+        String dcTag = "<dublin_core schema=\"" + schema + "\">\n";
+        utf8 = dcTag.getBytes("UTF-8");
+        out.write(utf8, 0, utf8.length);
 
-                if (qualifier == null)
-                {
-                    qualifier = "none";
-                }
+        String dateIssued = null;
+        String dateAccessioned = null;
 
-                String language = dcv.language;
+        for (DCValue dcv : dcorevalues)
+        {
+            String qualifier = dcv.qualifier;
 
-                if (language != null)
-                {
-                    language = " language=\"" + language + "\"";
-                }
-                else
-                {
-                    language = "";
-                }
+            if (qualifier == null)
+            {
+                qualifier = "none";
+            }
 
-                utf8 = ("  <dcvalue element=\"" + dcv.element + "\" "
-                        + "qualifier=\"" + qualifier + "\""
-                        + language + ">"
-                        + Utils.addEntities(dcv.value) + "</dcvalue>\n")
-                        .getBytes("UTF-8");
-
-                if ((!migrate) ||
-                    (migrate && !(
-                     ("date".equals(dcv.element) && "issued".equals(qualifier)) ||
-                     ("date".equals(dcv.element) && "accessioned".equals(qualifier)) ||
-                     ("date".equals(dcv.element) && "available".equals(qualifier)) ||
-                     ("identifier".equals(dcv.element) && "uri".equals(qualifier) &&
-                      (dcv.value != null && dcv.value.startsWith("http://hdl.handle.net/" +
-                       HandleManager.getPrefix() + "/"))) ||
-                     ("description".equals(dcv.element) && "provenance".equals(qualifier)) ||
-                     ("format".equals(dcv.element) && "extent".equals(qualifier)) ||
-                     ("format".equals(dcv.element) && "mimetype".equals(qualifier)))))
-                {
-                    out.write(utf8, 0, utf8.length);
-                }
+            String language = dcv.language;
 
-                // Store the date issued and accession to see if they are different
-                // because we need to keep date.issued if they are, when migrating
-                if (("date".equals(dcv.element) && "issued".equals(qualifier)))
-                {
-                    dateIssued = dcv.value;
-                }
-                if (("date".equals(dcv.element) && "accessioned".equals(qualifier)))
-                {
-                    dateAccessioned = dcv.value;
-                }
+            if (language != null)
+            {
+                language = " language=\"" + language + "\"";
+            }
+            else
+            {
+                language = "";
             }
 
-            // When migrating, only keep date.issued if it is different to date.accessioned
-            if ((migrate) &&
-                (dateIssued != null) &&
-                (dateAccessioned != null) &&
-                (!dateIssued.equals(dateAccessioned)))
+            utf8 = ("  <dcvalue element=\"" + dcv.element + "\" "
+                    + "qualifier=\"" + qualifier + "\""
+                    + language + ">"
+                    + Utils.addEntities(dcv.value) + "</dcvalue>\n")
+                    .getBytes("UTF-8");
+
+            if ((!migrate) ||
+                (migrate && !(
+                 ("date".equals(dcv.element) && "issued".equals(qualifier)) ||
+                 ("date".equals(dcv.element) && "accessioned".equals(qualifier)) ||
+                 ("date".equals(dcv.element) && "available".equals(qualifier)) ||
+                 ("identifier".equals(dcv.element) && "uri".equals(qualifier) &&
+                  (dcv.value != null && dcv.value.startsWith("http://hdl.handle.net/" +
+                   HandleManager.getPrefix() + "/"))) ||
+                 ("description".equals(dcv.element) && "provenance".equals(qualifier)) ||
+                 ("format".equals(dcv.element) && "extent".equals(qualifier)) ||
+                 ("format".equals(dcv.element) && "mimetype".equals(qualifier)))))
             {
-                utf8 = ("  <dcvalue element=\"date\" "
-                        + "qualifier=\"issued\">"
-                        + Utils.addEntities(dateIssued) + "</dcvalue>\n")
-                        .getBytes("UTF-8");
                 out.write(utf8, 0, utf8.length);
             }
 
-            utf8 = "</dublin_core>\n".getBytes("UTF-8");
-            out.write(utf8, 0, utf8.length);
-
-            out.close();
+            // Store the date issued and accession to see if they are different
+            // because we need to keep date.issued if they are, when migrating
+            if (("date".equals(dcv.element) && "issued".equals(qualifier)))
+            {
+                dateIssued = dcv.value;
+            }
+            if (("date".equals(dcv.element) && "accessioned".equals(qualifier)))
+            {
+                dateAccessioned = dcv.value;
+            }
         }
-        else
+
+        // When migrating, only keep date.issued if it is different to date.accessioned
+        if ((migrate) &&
+            (dateIssued != null) &&
+            (dateAccessioned != null) &&
+            (!dateIssued.equals(dateAccessioned)))
         {
-            throw new Exception("Cannot create dublin_core.xml in " + destDir);
+            utf8 = ("  <dcvalue element=\"date\" "
+                    + "qualifier=\"issued\">"
+                    + Utils.addEntities(dateIssued) + "</dcvalue>\n")
+                    .getBytes("UTF-8");
+            out.write(utf8, 0, utf8.length);
         }
+
+        utf8 = "</dublin_core>\n".getBytes("UTF-8");
+        out.write(utf8, 0, utf8.length);
     }
 
     // create the file 'handle' which contains the handle assigned to the item
@@ -590,8 +616,6 @@ public class ItemExport
                 // bundles can have multiple bitstreams now...
                 Bitstream[] bitstreams = bundles[j].getBitstreams();
 
-                String bundleName = bundles[j].getName();
-
                 for (int k = 0; k < bitstreams.length; k++)
                 {
                     Bitstream b = bitstreams[k];
@@ -599,20 +623,6 @@ public class ItemExport
                     String myName = b.getName();
                     String oldName = myName;
 
-                    String description = b.getDescription();
-                    if (!StringUtils.isEmpty(description))
-                    {
-                        description = "\tdescription:" + description;
-                    } else
-                    {
-                        description = "";
-                    }
-
-                    String primary = "";
-                    if (bundles[j].getPrimaryBitstreamID() == b.getID()) {
-                        primary = "\tprimary:true ";
-                    }
-
                     int myPrefix = 1; // only used with name conflict
 
                     InputStream is = b.retrieve();
@@ -645,18 +655,7 @@ public class ItemExport
                             fos.close();
 
                             // write the manifest file entry
-                            if (b.isRegisteredBitstream())
-                            {
-                                out.println("-r -s " + b.getStoreNumber()
-                                        + " -f " + myName +
-                                        "\tbundle:" + bundleName +
-                                        primary + description);
-                            }
-                            else
-                            {
-                                out.println(myName + "\tbundle:" + bundleName +
-                                            primary + description);
-                            }
+                            out.println(getContentsLine(bundles[j], b, myName));
 
                             isDone = true;
                         }
@@ -682,6 +681,44 @@ public class ItemExport
         }
     }
 
+    /**
+     * Get the line of the contents file for a bitstream. Registered
+     * bitstreams are marked as such.
+     *
+     * @param bundle
+     *            the bundle of the bitstream
+     * @param b
+     *            the bitstream
+     * @param name
+     *            the name of the exported file
+     */
+    static String getContentsLine(Bundle bundle, Bitstream b, String name)
+    {
+        String description = b.getDescription();
+        if (!StringUtils.isEmpty(description))
+        {
+            description = "\tdescription:" + description;
+        } else
+        {
+            description = "";
+        }
+
+        String primary = "";
+        if (bundle.getPrimaryBitstreamID() == b.getID()) {
+            primary = "\tprimary:true ";
+        }
+
+        if (b.isRegisteredBitstream())
+        {
+            return "-r -s " + b.getStoreNumber()
+                    + " -f " + name +
+                    "\tbundle:" + bundle.getName() +
+                    primary + description;
+        }
+        return name + "\tbundle:" + bundle.getName() +
+                primary + description;
+    }
+
     /**
      * Method to perform an export and save it as a zip file.
      *
@@ -697,27 +734,39 @@ public class ItemExport
                                    String destDirName, String zipFileName,
                                    int seqStart, boolean migrate) throws Exception
     {
-        String workDir = getExportWorkDirectory() +
-                         System.getProperty("file.separator") +
-                         zipFileName;
-
-        File wkDir = new File(workDir);
-        if (!wkDir.exists() && !wkDir.mkdirs())
-        {
-            log.error("Unable to create working direcory");
-        }
-
         File dnDir = new File(destDirName);
         if (!dnDir.exists() && !dnDir.mkdirs())
         {
             log.error("Unable to create destination directory");
         }
 
-        // export the items using normal export method
-        exportItem(context, items, workDir, seqStart, migrate);
+        List<Integer> itemIDs = new ArrayList<Integer>();
+        while (items.hasNext())
+        {
+            itemIDs.add(items.next().getID());
+        }
 
-        // now zip up the export directory created above
-        zip(workDir, destDirName + System.getProperty("file.separator") + zipFileName);
+        // write the items straight into the zip file
+        ZipItemExporter exporter = new ZipItemExporter(context,
+                destDirName + System.getProperty("file.separator") + zipFileName, migrate, null);
+        boolean done = false;
+        try
+        {
+            System.out.println("Beginning export");
+            exporter.export(itemIDs, "", seqStart);
+            for (String part : exporter.close())
+            {
+                System.out.println("Wrote " + part);
+            }
+            done = true;
+        }
+        finally
+        {
+            if (!done)
+            {
+                exporter.abort();
+            }
+        }
     }
 
     /**
@@ -960,12 +1009,20 @@ public class ItemExport
         // if we have any items to process then kick off anonymous thread
         if (itemsMap.size() > 0)
         {
+            int count = 0;
+            for (List<Integer> ids : itemsMap.values())
+            {
+                count += ids.size();
+            }
+            final int itemCount = count;
+
             Thread go = new Thread()
             {
                 public void run()
                 {
                     Context context = null;
-                    ItemIterator iitems = null;
+                    ZipItemExporter exporter = null;
+                    ItemExportProgress progress = null;
                     try
                     {
                         // create a new dspace context
@@ -975,9 +1032,6 @@ public class ItemExport
 
                         String fileName = assembleFileName("item", eperson,
                                 new Date());
-                        String workParentDir = getExportWorkDirectory()
-                                + System.getProperty("file.separator")
-                                + fileName;
                         String downloadDir = getExportDownloadDirectory(eperson
                                 .getID());
                         File dnDir = new File(downloadDir);
@@ -986,32 +1040,20 @@ public class ItemExport
                             log.error("Unable to create download directory");
                         }
 
-                        Iterator<String> iter = itemsMap.keySet().iterator();
-                        while(iter.hasNext())
+                        // write the items straight into the zip file, one
+                        // directory per collection or item
+                        progress = new ItemExportProgress(fileName + ".zip", eperson.getID(), itemCount);
+                        exportsInProgress.put(progress.getFileName(), progress);
+                        exporter = new ZipItemExporter(context, downloadDir
+                                + System.getProperty("file.separator")
+                                + fileName + ".zip", migrate, progress);
+                        for (Map.Entry<String, List<Integer>> entry : itemsMap.entrySet())
                         {
-                            String keyName = iter.next();
-                            iitems = new ItemIterator(context, itemsMap.get(keyName));
-
-                            String workDir = workParentDir 
-                                    + System.getProperty("file.separator")
-                                    + keyName;
-
-                            File wkDir = new File(workDir);
-                            if (!wkDir.exists() && !wkDir.mkdirs())
-                            {
-                                log.error("Unable to create working directory");
-                            }
-
-
-                            // export the items using normal export method
-                            exportItem(context, iitems, workDir, 1, migrate);
-                            iitems.close();
+                            exporter.export(entry.getValue(), entry.getKey() + "/", 1);
                         }
+                        exporter.close();
+                        exporter = null;
 
-                        // now zip up the export directory created above
-                        zip(workParentDir, downloadDir
-                                + System.getProperty("file.separator")
-                                + fileName + ".zip");
                         // email message letting user know the file is ready for
                         // download
                         emailSuccessMessage(context, eperson, fileName + ".zip");
@@ -1032,9 +1074,13 @@ public class ItemExport
                     }
                     finally
                     {
-                        if (iitems != null)
+                        if (exporter != null)
                         {
-                            iitems.close();
+                            exporter.abort();
+                        }
+                        if (progress != null)
+                        {
+                            exportsInProgress.remove(progress.getFileName());
                         }
 
                         // Make sure the database connection gets closed in all conditions.
@@ -1274,6 +1320,26 @@ public class ItemExport
         return null;
     }
 
+    /**
+     * Get the progress of the export archives of the eperson that are still
+     * being written
+     *
+     * @param eperson
+     * @return the exports in progress, possibly none
+     */
+    public static List<ItemExportProgress> getExportsInProgress(EPerson eperson)
+    {
+        List<ItemExportProgress> exports = new ArrayList<ItemExportProgress>();
+        for (ItemExportProgress progress : exportsInProgress.values())
+        {
+            if (progress.getEPersonID() == eperson.getID())
+            {
+                exports.add(progress);
+            }
+        }
+        return exports;
+    }
+
     /**
      * A clean up method that is ran before a new export archive is created. It
      * uses the config file entry 'org.dspace.app.itemexport.life.span.hours' to
@@ -0,0 +1,100 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.itemexport;
+
+import java.util.Date;
+
+/**
+ * The progress of a downloadable export archive that is still being written,
+ * for display on the download pages.
+ *
+ * @see ItemExport#getExportsInProgress(org.dspace.eperson.EPerson)
+ */
+public class ItemExportProgress
+{
+    private final String fileName;
+
+    private final int epersonID;
+
+    private final int totalItems;
+
+    private final Date started = new Date();
+
+    private volatile int exportedItems = 0;
+
+    private volatile long bytesWritten = 0;
+
+    ItemExportProgress(String fileName, int epersonID, int totalItems)
+    {
+        this.fileName = fileName;
+        this.epersonID = epersonID;
+        this.totalItems = totalItems;
+    }
+
+    /**
+     * @return the name of the (first) archive file
+     */
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+    /**
+     * @return the id of the eperson who requested the export
+     */
+    public int getEPersonID()
+    {
+        return epersonID;
+    }
+
+    /**
+     * @return the number of items to export
+     */
+    public int getTotalItems()
+    {
+        return totalItems;
+    }
+
+    /**
+     * @return the number of items written so far
+     */
+    public int getExportedItems()
+    {
+        return exportedItems;
+    }
+
+    /**
+     * @return the number of compressed bytes written so far
+     */
+    public long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+
+    /**
+     * @return when the export started
+     */
+    public Date getStarted()
+    {
+        return started;
+    }
+
+    /**
+     * @return the percentage of the items written so far
+     */
+    public int getPercentDone()
+    {
+        return totalItems == 0 ? 100 : (int) (100L * exportedItems / totalItems);
+    }
+
+    void itemExported(long bytesWritten)
+    {
+        this.exportedItems++;
+        this.bytesWritten = bytesWritten;
+    }
+}
@@ -0,0 +1,430 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.itemexport;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.log4j.Logger;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Bundle;
+import org.dspace.content.Item;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.core.Utils;
+import org.dspace.storage.bitstore.BitstreamStorageManager;
+
+/**
+ * Writes items in the simple archive format straight into zip files, without
+ * exporting them to a work directory first.
+ * <P>
+ * A pool of threads, each with a context of its own, prepares the items ahead
+ * of the zip: the metadata, handle and contents files, and the content of the
+ * small bitstreams. Larger bitstreams are copied from the assetstore into the
+ * zip as it is written. At most two items per thread are prepared ahead, so
+ * memory use is bounded whatever the size of the export.
+ * <P>
+ * If <code>org.dspace.app.itemexport.zip.part.size</code> is set, a new zip
+ * file is started once the current one exceeds that many megabytes. Parts are
+ * only split between items, so each is an archive that can be imported on its
+ * own.
+ */
+class ZipItemExporter
+{
+    /** log4j logger */
+    private static Logger log = Logger.getLogger(ZipItemExporter.class);
+
+    /** The context used to read the bitstreams that were not prefetched */
+    private final Context context;
+
+    /** The name of the first zip file */
+    private final String target;
+
+    private final boolean migrate;
+
+    private final ItemExportProgress progress;
+
+    /** The size after which a new zip file is started, or 0 */
+    private final long partSize;
+
+    /** The number of bitstream bytes of an item that may be prefetched */
+    private final long prefetchSize;
+
+    private final int threads;
+
+    /** The names of the zip files started so far */
+    private final List<String> parts = new ArrayList<String>();
+
+    /** The bytes written to the previous zip files */
+    private long previousBytes = 0;
+
+    private CountingOutputStream counter;
+
+    private ZipOutputStream zip;
+
+    /**
+     * @param context
+     *            the context to read bitstreams with
+     * @param target
+     *            the name of the (first) zip file
+     * @param migrate
+     *            whether to export for migration
+     * @param progress
+     *            the progress to update as items are written, or null
+     */
+    ZipItemExporter(Context context, String target, boolean migrate, ItemExportProgress progress)
+    {
+        this.context = context;
+        this.target = target;
+        this.migrate = migrate;
+        this.progress = progress;
+        this.partSize = ConfigurationManager.getLongProperty("org.dspace.app.itemexport.zip.part.size", 0) * 1048576L;
+        this.prefetchSize = ConfigurationManager.getLongProperty("org.dspace.app.itemexport.prefetch.size", 1024) * 1024L;
+        this.threads = Math.max(1, ConfigurationManager.getIntProperty("org.dspace.app.itemexport.threads", 2));
+    }
+
+    /**
+     * Export the given items to numbered directories.
+     *
+     * @param itemIDs
+     *            the items to export; those that do not exist are skipped
+     * @param dir
+     *            the directory in the zip to put the item directories in,
+     *            empty or ending with '/'
+     * @param seqStart
+     *            the number of the first item directory
+     * @throws Exception
+     */
+    void export(List<Integer> itemIDs, String dir, int seqStart) throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            LinkedList<Future<PreparedItem>> ahead = new LinkedList<Future<PreparedItem>>();
+            int next = 0;
+            int seq = seqStart;
+            while (next < itemIDs.size() || !ahead.isEmpty())
+            {
+                while (next < itemIDs.size() && ahead.size() < threads * 2)
+                {
+                    ahead.add(pool.submit(new ItemPreparer(itemIDs.get(next++))));
+                }
+
+                PreparedItem item;
+                try
+                {
+                    item = ahead.removeFirst().get();
+                }
+                catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof Exception)
+                    {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+
+                if (item != null)
+                {
+                    log.debug("Exporting item " + item.id + " to " + dir + seq);
+                    write(dir + seq + "/", item);
+                    seq++;
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Finish the last zip file.
+     *
+     * @return the names of the zip files written, in order
+     */
+    List<String> close() throws IOException
+    {
+        closePart();
+        return parts;
+    }
+
+    /**
+     * Give up, deleting the zip files written so far.
+     */
+    void abort()
+    {
+        if (zip != null)
+        {
+            try
+            {
+                zip.close();
+            }
+            catch (IOException e)
+            {
+                log.warn("Unable to close " + parts.get(parts.size() - 1), e);
+            }
+            zip = null;
+        }
+        for (String part : parts)
+        {
+            for (File file : new File[] { new File(part), new File(part + "_tmp") })
+            {
+                if (file.exists() && !file.delete())
+                {
+                    log.error("Unable to delete " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the name of a zip file. The first has the name given; the others
+     * have "_part&lt;n&gt;" inserted before the last underscore, so that
+     * they still end with the eperson id of downloadable exports.
+     */
+    static String getPartName(String target, int part)
+    {
+        if (part == 1)
+        {
+            return target;
+        }
+
+        String dir = "";
+        String name = target;
+        int slash = target.lastIndexOf(File.separatorChar);
+        if (slash >= 0)
+        {
+            dir = target.substring(0, slash + 1);
+            name = target.substring(slash + 1);
+        }
+
+        int underscore = name.lastIndexOf('_');
+        if (underscore < 0)
+        {
+            int dot = name.lastIndexOf('.');
+            underscore = dot < 0 ? name.length() : dot;
+        }
+        return dir + name.substring(0, underscore) + "_part" + part + name.substring(underscore);
+    }
+
+    private void write(String dir, PreparedItem item) throws IOException, SQLException
+    {
+        if (zip == null)
+        {
+            openPart();
+        }
+
+        for (PreparedFile file : item.files)
+        {
+            zip.putNextEntry(new ZipEntry(dir + file.name));
+            if (file.content != null)
+            {
+                zip.write(file.content);
+            }
+            else
+            {
+                InputStream is = BitstreamStorageManager.retrieve(context, file.bitstreamID);
+                try
+                {
+                    Utils.copy(is, zip);
+                }
+                finally
+                {
+                    is.close();
+                }
+            }
+            zip.closeEntry();
+        }
+
+        if (progress != null)
+        {
+            progress.itemExported(previousBytes + counter.getByteCount());
+        }
+        if (partSize > 0 && counter.getByteCount() >= partSize)
+        {
+            closePart();
+        }
+    }
+
+    private void openPart() throws IOException
+    {
+        String name = getPartName(target, parts.size() + 1);
+        parts.add(name);
+        counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(name + "_tmp")));
+        zip = new ZipOutputStream(counter);
+        zip.setLevel(9);
+    }
+
+    private void closePart() throws IOException
+    {
+        if (zip != null)
+        {
+            zip.finish();
+            zip.close();
+            zip = null;
+            previousBytes += counter.getByteCount();
+
+            String name = parts.get(parts.size() - 1);
+            if (!new File(name + "_tmp").renameTo(new File(name)))
+            {
+                throw new IOException("Unable to rename " + name + "_tmp");
+            }
+        }
+    }
+
+    /** The files of an item in the export */
+    private static class PreparedItem
+    {
+        private final int id;
+
+        private final List<PreparedFile> files = new ArrayList<PreparedFile>();
+
+        PreparedItem(int id)
+        {
+            this.id = id;
+        }
+    }
+
+    /** A file with its content, or the id of the bitstream to copy it from */
+    private static class PreparedFile
+    {
+        private final String name;
+
+        private final byte[] content;
+
+        private final int bitstreamID;
+
+        PreparedFile(String name, byte[] content)
+        {
+            this.name = name;
+            this.content = content;
+            this.bitstreamID = -1;
+        }
+
+        PreparedFile(String name, int bitstreamID)
+        {
+            this.name = name;
+            this.content = null;
+            this.bitstreamID = bitstreamID;
+        }
+    }
+
+    /** Prepares one item, in a context of its own */
+    private class ItemPreparer implements Callable<PreparedItem>
+    {
+        private final int itemID;
+
+        ItemPreparer(int itemID)
+        {
+            this.itemID = itemID;
+        }
+
+        public PreparedItem call() throws Exception
+        {
+            Context c = new Context();
+            try
+            {
+                c.turnOffAuthorisationSystem();
+                Item item = Item.find(c, itemID);
+                if (item == null)
+                {
+                    return null;
+                }
+                return prepare(item);
+            }
+            finally
+            {
+                // nothing was changed
+                c.abort();
+            }
+        }
+
+        private PreparedItem prepare(Item item) throws Exception
+        {
+            PreparedItem prepared = new PreparedItem(item.getID());
+
+            for (String schema : ItemExport.getMetadataSchemas(item))
+            {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ItemExport.writeMetadata(schema, item, out, migrate);
+                prepared.files.add(new PreparedFile(ItemExport.getMetadataFileName(schema), out.toByteArray()));
+            }
+
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(contents));
+            Set<String> names = new HashSet<String>();
+            long prefetched = 0;
+            for (Bundle bundle : item.getBundles())
+            {
+                for (Bitstream b : bundle.getBitstreams())
+                {
+                    // keep prefixing numbers to the name until unique
+                    String name = b.getName();
+                    for (int prefix = 1; names.contains(name); prefix++)
+                    {
+                        name = prefix + "_" + b.getName();
+                    }
+                    names.add(name);
+
+                    if (prefetched + b.getSize() <= prefetchSize)
+                    {
+                        prefetched += b.getSize();
+                        ByteArrayOutputStream content = new ByteArrayOutputStream((int) b.getSize());
+                        InputStream is = b.retrieve();
+                        try
+                        {
+                            Utils.copy(is, content);
+                        }
+                        finally
+                        {
+                            is.close();
+                        }
+                        prepared.files.add(new PreparedFile(name, content.toByteArray()));
+                    }
+                    else
+                    {
+                        prepared.files.add(new PreparedFile(name, b.getID()));
+                    }
+
+                    out.println(ItemExport.getContentsLine(bundle, b, name));
+                }
+            }
+            out.close();
+            prepared.files.add(new PreparedFile("contents", contents.toByteArray()));
+
+            if (!migrate && item.getHandle() != null)
+            {
+                prepared.files.add(new PreparedFile("handle",
+                        (item.getHandle() + System.getProperty("line.separator")).getBytes()));
+            }
+
+            return prepared;
+        }
+    }
+}
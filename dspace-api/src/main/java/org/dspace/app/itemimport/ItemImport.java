@@ -1563,7 +1563,7 @@ public class ItemImport
             // Identify the format
             // FIXME - guessing format guesses license.txt incorrectly as a text
             // file format!
-            BitstreamFormat bf = FormatIdentifier.guessFormat(c, bs);
+            BitstreamFormat bf = FormatIdentifier.identifyFormat(c, bs);
             bs.setFormat(bf);
 
             // Is this a the primary bitstream?
@@ -7,13 +7,23 @@
  */
 package org.dspace.app.mediafilter;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -53,6 +63,14 @@ import org.dspace.search.DSIndexer;
  * recreate index after processing bitstreams; -i [identifier] limits processing 
  * scope to a community, collection or item; and -m [max] limits processing to a
  * maximum number of items.
+ * <P>
+ * With -t [threads], the filters run concurrently, each in its own pool of
+ * worker threads, while this class keeps doing the database work on a single
+ * context; see {@link MediaFilterWorkers}. With -c [file], the IDs of the
+ * bitstreams of each finished item are appended to a checkpoint file, and
+ * bitstreams already in it are skipped, so that an interrupted run can be
+ * resumed. Bitstreams a filter failed or timed out on are left out of the
+ * checkpoint, so the next run tries them again.
  */
 public class MediaFilterManager
 {
@@ -81,7 +99,8 @@ public class MediaFilterManager
     
     static int processed = 0;   // number items processed
     
-    private static Item currentItem = null;   // current item being processed
+    // current item being processed, by the calling or worker thread
+    private static final ThreadLocal<Item> currentItem = new ThreadLocal<Item>();
     
     private static FormatFilter[] filterClasses = null;
     
@@ -91,6 +110,20 @@ public class MediaFilterManager
 
     private static final List<String> publicFiltersClasses = new ArrayList<>();
 
+    static int threads = 1; // worker threads per filter, 1 filters inline
+
+    private static MediaFilterWorkers workers = null; // concurrent filtering, or null
+
+    private static Set<Integer> checkpoint = null; // IDs of bitstreams already done
+
+    private static PrintWriter checkpointWriter = null;
+
+    // IDs of bitstreams a filter failed on, not to be checkpointed
+    private static final Set<Integer> unfinished = new HashSet<Integer>();
+
+    // statistics by filter key, see getFilterKey()
+    private static final Map<String, FilterStats> filterStats = new LinkedHashMap<String, FilterStats>();
+
     //separator in filterFormats Map between a filter class name and a plugin name,
     //for MediaFilters which extend SelfNamedPlugin (\034 is "file separator" char)
     public static final String FILTER_PLUGIN_SEPARATOR = "\034";
@@ -129,6 +162,10 @@ public class MediaFilterManager
         		"ONLY process bitstreams belonging to identifier");
         options.addOption("m", "maximum", true,
 				"process no more than maximum items");
+        options.addOption("t", "threads", true,
+                "run each filter in this number of worker threads");
+        options.addOption("c", "checkpoint", true,
+                "record finished bitstreams in this file, and skip those already in it");
         options.addOption("h", "help", false, "help");
 
         //create a "plugin" option (to specify specific MediaFilter plugins to run)
@@ -208,6 +245,12 @@ public class MediaFilterManager
         	}
         }
 
+        threads = ConfigurationManager.getIntProperty(FILTER_PREFIX + ".threads", 1);
+        if (line.hasOption('t'))
+        {
+            threads = Integer.parseInt(line.getOptionValue('t'));
+        }
+
         String filterNames[] = null;
         if(line.hasOption('p'))
         {
@@ -246,6 +289,7 @@ public class MediaFilterManager
             else
             {   
                 filterList.add(filter);
+                filterStats.put(getFilterKey(filter), new FilterStats(filterNames[i]));
                        
                 String filterClassName = filter.getClass().getName();
                            
@@ -335,14 +379,25 @@ public class MediaFilterManager
         }
         
         Context c = null;
+        long start = System.currentTimeMillis();
 
         try
         {
+            if (line.hasOption('c'))
+            {
+                openCheckpoint(new File(line.getOptionValue('c')));
+            }
+
             c = new Context();
 
             // have to be super-user to do the filtering
             c.turnOffAuthorisationSystem();
 
+            if (threads > 1)
+            {
+                workers = new MediaFilterWorkers(filterClasses, threads, 0L);
+            }
+
             // now apply the filters
             if (identifier == null)
             {
@@ -370,6 +425,17 @@ public class MediaFilterManager
             						break;
             	}
             }
+
+            if (workers != null)
+            {
+                workers.finish(c);
+                workers = null;
+            }
+
+            if (!isQuiet)
+            {
+                printSummary(System.currentTimeMillis() - start);
+            }
           
             // update search index?
             if (updateIndex)
@@ -398,10 +464,15 @@ public class MediaFilterManager
         }
         finally
         {
+            if (workers != null)
+            {
+                workers.shutdown();
+            }
             if (c != null)
             {
                 c.abort();
             }
+            closeCheckpoint();
         }
         System.exit(status);
     }
@@ -488,9 +559,16 @@ public class MediaFilterManager
         //only apply filters if item not in skip-list
         if(!inSkipList(item.getHandle()))
         {
+          if (workers != null)
+          {
+              // filtered in the background, finished by the workers
+              workers.submit(c, item);
+              return;
+          }
+
     	  //cache this item in MediaFilterManager
     	  //so it can be accessed by MediaFilters as necessary
-    	  currentItem = item;
+    	  currentItem.set(item);
     	
           if (filterItem(c, item))
           {
@@ -499,9 +577,10 @@ public class MediaFilterManager
               // increment processed count
               ++processed;
           }
+          checkpoint(item);
           // clear item objects from context cache and internal cache
           item.decache();
-          currentItem = null;
+          currentItem.remove();
         }  
     }
 
@@ -524,7 +603,10 @@ public class MediaFilterManager
             
             for (int k = 0; k < myBitstreams.length; k++)
             {
-            	done |= filterBitstream(c, myItem, myBitstreams[k]);
+                if (!isCheckpointed(myBitstreams[k]))
+                {
+                    done |= filterBitstream(c, myItem, myBitstreams[k]);
+                }
             }
         }
         return done;
@@ -549,28 +631,10 @@ public class MediaFilterManager
     	// by more than one filter
     	for (int i = 0; i < filterClasses.length; i++)
     	{
-    		//List fmts = (List)filterFormats.get(filterClasses[i].getClass().getName());
-    	    String pluginName = null;
-    	               
-    	    //if this filter class is a SelfNamedPlugin,
-    	    //its list of supported formats is different for
-    	    //differently named "plugin"
-    	    if( SelfNamedPlugin.class.isAssignableFrom(filterClasses[i].getClass()) )
-    	    {
-    	        //get plugin instance name for this media filter
-    	        pluginName = ((SelfNamedPlugin)filterClasses[i]).getPluginInstanceName();
-    	    }
-    	               
-    	    //Get list of supported formats for the filter (and possibly named plugin)
-    	    //For SelfNamedPlugins, map key is:  
-    	    //  <class-name><separator><plugin-name>
-    	    //For other MediaFilters, map key is just:
-    	    //  <class-name>
-    	    List<String> fmts = filterFormats.get(filterClasses[i].getClass().getName() +
-    	                       (pluginName!=null ? FILTER_PLUGIN_SEPARATOR + pluginName : ""));
-    	   
-    	    if (fmts.contains(myBitstream.getFormat().getShortDescription()))
+    	    if (isApplicable(filterClasses[i], myBitstream))
     		{
+                FilterStats stats = getFilterStats(filterClasses[i]);
+                long start = System.nanoTime();
             	try
             	{
 		            // only update item if bitstream not skipped
@@ -579,106 +643,120 @@ public class MediaFilterManager
 		           		myItem.update(); // Make sure new bitstream has a sequence
 		                                 	// number
 		           		filtered = true;
+                        if (stats != null)
+                        {
+                            stats.filtered(System.nanoTime() - start);
+                        }
 		            }
             	}
                 catch (Exception e)
                 {
-                	String handle = myItem.getHandle();
-                	Bundle[] bundles = myBitstream.getBundles();
-                	long size = myBitstream.getSize();
-                	String checksum = myBitstream.getChecksum() + " ("+myBitstream.getChecksumAlgorithm()+")";
-                	int assetstore = myBitstream.getStoreNumber();
-   
-                	// Printout helpful information to find the errored bitstream.
-                	System.out.println("ERROR filtering, skipping bitstream:\n");
-                	System.out.println("\tItem Handle: "+ handle);
-                	for (Bundle bundle : bundles)
-                	{
-                		System.out.println("\tBundle Name: " + bundle.getName());
-                	}
-                	System.out.println("\tFile Size: " + size);
-                	System.out.println("\tChecksum: " + checksum);
-                	System.out.println("\tAsset Store: " + assetstore);
-                	System.out.println(e);
-                    e.printStackTrace();
-                }
-    		}
-            else if (filterClasses[i] instanceof SelfRegisterInputFormats)
-            {
-                // Filter implements self registration, so check to see if it should be applied
-                // given the formats it claims to support
-                SelfRegisterInputFormats srif = (SelfRegisterInputFormats)filterClasses[i];
-                boolean applyFilter = false;
-
-                // Check MIME type
-                String[] mimeTypes = srif.getInputMIMETypes();
-                if (mimeTypes != null)
-                {
-                    for (String mimeType : mimeTypes)
+                    if (stats != null)
                     {
-                        if (mimeType.equalsIgnoreCase(myBitstream.getFormat().getMIMEType()))
-                        {
-                            applyFilter = true;
-                        }
+                        stats.failures.incrementAndGet();
                     }
+                    reportError(myItem, myBitstream, e);
                 }
+    		}
+    	}
+        return filtered;
+    }
+
+    /**
+     * Decide whether a filter handles the format of a bitstream, either by
+     * the input formats configured for it, or by the formats it registers
+     * itself.
+     *
+     * @return true if the filter should be applied to the bitstream
+     */
+    static boolean isApplicable(FormatFilter filter, Bitstream myBitstream)
+    {
+        //Get list of supported formats for the filter (and possibly named plugin)
+        //For SelfNamedPlugins, map key is:  
+        //  <class-name><separator><plugin-name>
+        //For other MediaFilters, map key is just:
+        //  <class-name>
+        List<String> fmts = filterFormats.get(getFilterKey(filter));
 
-                // Check description
-                if (!applyFilter)
+        if (fmts != null && fmts.contains(myBitstream.getFormat().getShortDescription()))
+        {
+            return true;
+        }
+
+        if (filter instanceof SelfRegisterInputFormats)
+        {
+            // Filter implements self registration, so check to see if it should be applied
+            // given the formats it claims to support
+            SelfRegisterInputFormats srif = (SelfRegisterInputFormats)filter;
+
+            // Check MIME type
+            String[] mimeTypes = srif.getInputMIMETypes();
+            if (mimeTypes != null)
+            {
+                for (String mimeType : mimeTypes)
                 {
-                    String[] descriptions = srif.getInputDescriptions();
-                    if (descriptions != null)
+                    if (mimeType.equalsIgnoreCase(myBitstream.getFormat().getMIMEType()))
                     {
-                        for (String desc : descriptions)
-                        {
-                            if (desc.equalsIgnoreCase(myBitstream.getFormat().getShortDescription()))
-                            {
-                                applyFilter = true;
-                            }
-                        }
+                        return true;
                     }
                 }
+            }
 
-                // Check extensions
-                if (!applyFilter)
+            // Check description
+            String[] descriptions = srif.getInputDescriptions();
+            if (descriptions != null)
+            {
+                for (String desc : descriptions)
                 {
-                    String[] extensions = srif.getInputExtensions();
-                    if (extensions != null)
+                    if (desc.equalsIgnoreCase(myBitstream.getFormat().getShortDescription()))
                     {
-                        for (String ext : extensions)
-                        {
-                            String[] formatExtensions = myBitstream.getFormat().getExtensions();
-                            if (formatExtensions != null && ArrayUtils.contains(formatExtensions, ext))
-                            {
-                                applyFilter = true;
-                            }
-                        }
+                        return true;
                     }
                 }
+            }
 
-                // Filter claims to handle this type of file, so attempt to apply it
-                if (applyFilter)
+            // Check extensions
+            String[] extensions = srif.getInputExtensions();
+            if (extensions != null)
+            {
+                for (String ext : extensions)
                 {
-                    try
-                    {
-                        // only update item if bitstream not skipped
-                        if (processBitstream(c, myItem, myBitstream, filterClasses[i]))
-                        {
-                               myItem.update(); // Make sure new bitstream has a sequence
-                                                 // number
-                               filtered = true;
-                        }
-                    }
-                    catch (Exception e)
+                    String[] formatExtensions = myBitstream.getFormat().getExtensions();
+                    if (formatExtensions != null && ArrayUtils.contains(formatExtensions, ext))
                     {
-                        System.out.println("ERROR filtering, skipping bitstream #"
-                                + myBitstream.getID() + " " + e);
-                        e.printStackTrace();
+                        return true;
                     }
                 }
             }
+        }
+        return false;
+    }
+
+    /**
+     * Print helpful information to find a bitstream which could not be
+     * filtered.
+     */
+    static void reportError(Item myItem, Bitstream myBitstream, Exception e) throws Exception
+    {
+        unfinished(myBitstream);
+    	String handle = myItem.getHandle();
+    	Bundle[] bundles = myBitstream.getBundles();
+    	long size = myBitstream.getSize();
+    	String checksum = myBitstream.getChecksum() + " ("+myBitstream.getChecksumAlgorithm()+")";
+    	int assetstore = myBitstream.getStoreNumber();
+
+    	// Printout helpful information to find the errored bitstream.
+    	System.out.println("ERROR filtering, skipping bitstream:\n");
+    	System.out.println("\tItem Handle: "+ handle);
+    	for (Bundle bundle : bundles)
+    	{
+    		System.out.println("\tBundle Name: " + bundle.getName());
     	}
-        return filtered;
+    	System.out.println("\tFile Size: " + size);
+    	System.out.println("\tChecksum: " + checksum);
+    	System.out.println("\tAsset Store: " + assetstore);
+    	System.out.println(e);
+        e.printStackTrace();
     }
     
     /**
@@ -702,11 +780,69 @@ public class MediaFilterManager
      */
     public static boolean processBitstream(Context c, Item item, Bitstream source, FormatFilter formatFilter)
             throws Exception
+    {
+        Rendition rendition = prepareRendition(c, item, source, formatFilter);
+        if (rendition == null)
+        {
+            return false;
+        }
+
+        InputStream destStream = formatFilter.getDestinationStream(source.retrieve());
+        if (destStream == null)
+        {
+            unfinished(source);
+            if (!isQuiet)
+            {
+                System.out.println("SKIPPED: bitstream " + source.getID()
+                        + " (item: " + item.getHandle() + ") because filtering was unsuccessful");
+            }
+
+            return false;
+        }
+
+        storeRendition(c, rendition, destStream);
+        return true;
+    }
+
+    /**
+     * A rendition about to be made of a source bitstream: where it goes and
+     * what it replaces.
+     */
+    static final class Rendition
+    {
+        final Item item;
+
+        final Bitstream source;
+
+        final FormatFilter formatFilter;
+
+        final String newName;
+
+        final Bitstream existingBitstream;
+
+        Rendition(Item item, Bitstream source, FormatFilter formatFilter, String newName,
+                Bitstream existingBitstream)
+        {
+            this.item = item;
+            this.source = source;
+            this.formatFilter = formatFilter;
+            this.newName = newName;
+            this.existingBitstream = existingBitstream;
+        }
+    }
+
+    /**
+     * Decide whether a rendition of a bitstream is to be made.
+     *
+     * @return the rendition to make, or null if the bitstream is skipped
+     */
+    static Rendition prepareRendition(Context c, Item item, Bitstream source, FormatFilter formatFilter)
+            throws Exception
     {
         //do pre-processing of this bitstream, and if it fails, skip this bitstream!
     	if(!formatFilter.preProcessBitstream(c, item, source))
         {
-            return false;
+            return null;
         }
         	
     	boolean overWrite = MediaFilterManager.isForce;
@@ -715,7 +851,6 @@ public class MediaFilterManager
         String newName = formatFilter.getFilteredName(source.getName());
 
         Bitstream existingBitstream = null; // is there an existing rendition?
-        Bundle targetBundle = null; // bundle we're modifying
 
         Bundle[] bundles = item.getBundles(formatFilter.getBundleName());
 
@@ -731,7 +866,6 @@ public class MediaFilterManager
                 {
                     if (bitstreams[j].getName().equals(newName))
                     {
-                        targetBundle = bundles[i];
                         existingBitstream = bitstreams[j];
                     }
                 }
@@ -747,26 +881,50 @@ public class MediaFilterManager
                         + " (item: " + item.getHandle() + ") because '" + newName + "' already exists");
             }
 
-            return false;
-        }
-        
-        if(isVerbose) {
-            System.out.println("PROCESSING: bitstream " + source.getID()
-                + " (item: " + item.getHandle() + ")");
+            return null;
         }
 
-        InputStream destStream = formatFilter.getDestinationStream(source.retrieve());
-        if (destStream == null)
+        // pathological sources can exhaust the memory of a filter
+        long maxSize = getFilterProperty(formatFilter, "maxSize", 0L);
+        if (maxSize > 0 && source.getSize() > maxSize)
         {
             if (!isQuiet)
             {
                 System.out.println("SKIPPED: bitstream " + source.getID()
-                        + " (item: " + item.getHandle() + ") because filtering was unsuccessful");
+                        + " (item: " + item.getHandle() + ") because it is larger than " + maxSize + " bytes");
             }
-
-            return false;
+            FilterStats stats = getFilterStats(formatFilter);
+            if (stats != null)
+            {
+                stats.tooLarge.incrementAndGet();
+            }
+            return null;
+        }
+        
+        if(isVerbose) {
+            System.out.println("PROCESSING: bitstream " + source.getID()
+                + " (item: " + item.getHandle() + ")");
         }
 
+        return new Rendition(item, source, formatFilter, newName, existingBitstream);
+    }
+
+    /**
+     * Store a rendition made by a filter.
+     *
+     * @param destStream
+     *            the output of the filter
+     */
+    static void storeRendition(Context c, Rendition rendition, InputStream destStream)
+            throws Exception
+    {
+        Item item = rendition.item;
+        Bitstream source = rendition.source;
+        FormatFilter formatFilter = rendition.formatFilter;
+        // look again, another rendition may have created the bundle
+        Bundle[] bundles = item.getBundles(formatFilter.getBundleName());
+        Bundle targetBundle = null; // bundle we're modifying
+
         // create new bundle if needed
         if (bundles.length < 1)
         {
@@ -781,7 +939,7 @@ public class MediaFilterManager
         Bitstream b = targetBundle.createBitstream(destStream);
 
         // Now set the format and name of the bitstream
-        b.setName(newName);
+        b.setName(rendition.newName);
         b.setSource("Written by FormatFilter " + formatFilter.getClass().getName() +
         			" on " + DCDate.getCurrent() + " (GMT)."); 
         b.setDescription(formatFilter.getDescription());
@@ -808,21 +966,19 @@ public class MediaFilterManager
 
         // fixme - set date?
         // we are overwriting, so remove old bitstream
-        if (existingBitstream != null)
+        if (rendition.existingBitstream != null)
         {
-            targetBundle.removeBitstream(existingBitstream);
+            targetBundle.removeBitstream(rendition.existingBitstream);
         }
 
         if (!isQuiet)
         {
             System.out.println("FILTERED: bitstream " + source.getID()
-                    + " (item: " + item.getHandle() + ") and created '" + newName + "'");
+                    + " (item: " + item.getHandle() + ") and created '" + rendition.newName + "'");
         }
 
         //do post-processing of the generated bitstream
         formatFilter.postProcessBitstream(c, item, b);
-        
-        return true;
     }
     
     /**
@@ -837,7 +993,223 @@ public class MediaFilterManager
      */
     public static Item getCurrentItem()
     {
-        return currentItem;
+        return currentItem.get();
+    }
+
+    /**
+     * Set the item being filtered by this thread, or null when done.
+     */
+    static void setCurrentItem(Item item)
+    {
+        if (item == null)
+        {
+            currentItem.remove();
+        }
+        else
+        {
+            currentItem.set(item);
+        }
+    }
+
+    /**
+     * @return the key of a filter in the map of input formats: the class
+     *         name, and for a SelfNamedPlugin the separator and plugin name
+     */
+    static String getFilterKey(FormatFilter filter)
+    {
+        String pluginName = null;
+
+        //if this filter class is a SelfNamedPlugin,
+        //its list of supported formats is different for
+        //differently named "plugin"
+        if( SelfNamedPlugin.class.isAssignableFrom(filter.getClass()) )
+        {
+            //get plugin instance name for this media filter
+            pluginName = ((SelfNamedPlugin)filter).getPluginInstanceName();
+        }
+        return filter.getClass().getName() +
+                (pluginName!=null ? FILTER_PLUGIN_SEPARATOR + pluginName : "");
+    }
+
+    /**
+     * Read a setting of a filter, from
+     * <code>filter.&lt;class-name&gt;[.&lt;plugin-name&gt;].&lt;name&gt;</code>, or
+     * failing that <code>filter.&lt;name&gt;</code>.
+     */
+    static long getFilterProperty(FormatFilter filter, String name, long defaultValue)
+    {
+        String value = ConfigurationManager.getProperty(FILTER_PREFIX + "."
+                + getFilterKey(filter).replace(FILTER_PLUGIN_SEPARATOR, ".") + "." + name);
+        if (value == null)
+        {
+            value = ConfigurationManager.getProperty(FILTER_PREFIX + "." + name);
+        }
+        try
+        {
+            return (value == null) ? defaultValue : Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            log.warn("Invalid " + name + " for filter " + getFilterKey(filter) + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return the statistics of a filter, or null if it was not set up by
+     *         the command line
+     */
+    static FilterStats getFilterStats(FormatFilter filter)
+    {
+        return filterStats.get(getFilterKey(filter));
+    }
+
+    /**
+     * Time taken and outcomes of one filter. Thread safe.
+     */
+    static final class FilterStats
+    {
+        final String name;
+
+        final AtomicLong filtered = new AtomicLong();
+
+        final AtomicLong nanos = new AtomicLong();
+
+        final AtomicLong failures = new AtomicLong();
+
+        final AtomicLong timeouts = new AtomicLong();
+
+        final AtomicLong tooLarge = new AtomicLong();
+
+        FilterStats(String name)
+        {
+            this.name = name;
+        }
+
+        void filtered(long elapsed)
+        {
+            filtered.incrementAndGet();
+            nanos.addAndGet(elapsed);
+        }
+    }
+
+    /**
+     * Print the rate of the run, and the time taken by each filter.
+     *
+     * @param elapsed
+     *            duration of the run in milliseconds
+     */
+    static void printSummary(long elapsed)
+    {
+        double seconds = Math.max(elapsed, 1) / 1000.0;
+        System.out.println(String.format("Filtered %d items in %.1f s (%.2f items/s)",
+                processed, seconds, processed / seconds));
+        for (FilterStats stats : filterStats.values())
+        {
+            long count = stats.filtered.get();
+            System.out.println(String.format("  %s: %d filtered, %.1f ms each, %d failed, %d timed out, %d too large",
+                    stats.name, count, count == 0 ? 0.0 : stats.nanos.get() / 1000000.0 / count,
+                    stats.failures.get(), stats.timeouts.get(), stats.tooLarge.get()));
+        }
+    }
+
+    /**
+     * Read the bitstreams finished by earlier runs, and record those
+     * finished by this one.
+     *
+     * @param file
+     *            one bitstream ID per line, created if missing
+     */
+    static void openCheckpoint(File file) throws IOException
+    {
+        checkpoint = new HashSet<Integer>();
+        if (file.exists())
+        {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try
+            {
+                String id;
+                while ((id = reader.readLine()) != null)
+                {
+                    id = id.trim();
+                    if (id.length() > 0)
+                    {
+                        checkpoint.add(Integer.valueOf(id));
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+            if (!isQuiet)
+            {
+                System.out.println("Resuming: " + checkpoint.size() + " bitstreams already filtered");
+            }
+        }
+        checkpointWriter = new PrintWriter(new FileWriter(file, true));
+    }
+
+    /**
+     * Stop recording finished bitstreams.
+     */
+    static void closeCheckpoint()
+    {
+        if (checkpointWriter != null)
+        {
+            checkpointWriter.close();
+        }
+        checkpointWriter = null;
+        checkpoint = null;
+        unfinished.clear();
+    }
+
+    /**
+     * @return true if the bitstream was finished by an earlier run
+     */
+    static boolean isCheckpointed(Bitstream bitstream)
+    {
+        return checkpoint != null && checkpoint.contains(bitstream.getID());
+    }
+
+    /**
+     * Note that a filter failed on a bitstream, so that it is not
+     * checkpointed with its item.
+     */
+    static void unfinished(Bitstream bitstream)
+    {
+        if (checkpointWriter != null)
+        {
+            unfinished.add(bitstream.getID());
+        }
+    }
+
+    /**
+     * Record the original bitstreams of an item, once its renditions are
+     * committed, except those a filter failed on.
+     */
+    static void checkpoint(Item item) throws Exception
+    {
+        if (checkpointWriter == null)
+        {
+            return;
+        }
+        Bundle[] myBundles = item.getBundles("ORIGINAL");
+        for (int i = 0; i < myBundles.length; i++)
+        {
+            for (Bitstream bitstream : myBundles[i].getBitstreams())
+            {
+                if (unfinished.remove(bitstream.getID()))
+                {
+                    continue;
+                }
+                if (checkpoint.add(bitstream.getID()))
+                {
+                    checkpointWriter.println(bitstream.getID());
+                }
+            }
+        }
+        checkpointWriter.flush();
     }
     
     /**
@@ -0,0 +1,468 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.mediafilter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Bundle;
+import org.dspace.content.Item;
+import org.dspace.core.Context;
+import org.dspace.core.Utils;
+
+/**
+ * Runs the filters of the MediaFilterManager concurrently. Each filter has
+ * its own pool of worker threads (<code>filter.&lt;class-name&gt;.threads</code>,
+ * default the <code>-t</code> option), so that CPU bound text extractors and
+ * thumbnailers that start external processes can be sized separately.
+ * <P>
+ * Only the filtering itself runs in the workers, on the stream of the source
+ * bitstream, and its output is spooled to a temporary file. Everything
+ * involving the database stays on the calling thread, with its single
+ * context: items are submitted in order, and finished in the same order once
+ * their filters are done, a bounded number of items behind.
+ * <P>
+ * A filter that takes longer than <code>filter.&lt;class-name&gt;.timeout</code>
+ * seconds is interrupted, and its bitstream skipped. Filters that do not
+ * respond to interruption keep their worker thread busy until they finish,
+ * so bitstreams larger than <code>filter.&lt;class-name&gt;.maxSize</code> bytes
+ * are not given to them in the first place.
+ * <P>
+ * Filters are shared by the threads of their pool, so must not keep state
+ * between calls; the filters in this package do not. Not thread safe itself.
+ */
+final class MediaFilterWorkers
+{
+    private static final Logger log = Logger.getLogger(MediaFilterWorkers.class);
+
+    /** Worker pool of each filter, in the order they are applied */
+    private final Map<FormatFilter, ExecutorService> pools = new LinkedHashMap<FormatFilter, ExecutorService>();
+
+    /** Timeout of each filter in nanoseconds, 0 for none */
+    private final Map<FormatFilter, Long> timeouts = new IdentityHashMap<FormatFilter, Long>();
+
+    /** Number of items submitted but not finished, beyond which submit() waits */
+    private final int window;
+
+    private final Deque<Pending> pending = new ArrayDeque<Pending>();
+
+    /**
+     * @param filters
+     *            the filters to run
+     * @param threads
+     *            worker threads of a filter, unless configured otherwise
+     * @param timeout
+     *            seconds a filter may take, unless configured otherwise; 0
+     *            for no limit
+     */
+    MediaFilterWorkers(FormatFilter[] filters, int threads, long timeout)
+    {
+        int total = 0;
+        for (FormatFilter filter : filters)
+        {
+            int n = (int) MediaFilterManager.getFilterProperty(filter, "threads", threads);
+            n = Math.max(n, 1);
+            pools.put(filter, Executors.newFixedThreadPool(n, new WorkerFactory(filter)));
+            timeouts.put(filter, TimeUnit.SECONDS.toNanos(
+                    MediaFilterManager.getFilterProperty(filter, "timeout", timeout)));
+            total += n;
+        }
+        window = 2 * Math.max(total, 1);
+    }
+
+    /** Names the threads after their filter, and lets the JVM exit with them */
+    private static final class WorkerFactory implements ThreadFactory
+    {
+        private final String prefix;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        WorkerFactory(FormatFilter filter)
+        {
+            prefix = "mediafilter-" + filter.getClass().getSimpleName() + "-";
+        }
+
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /** An item with the filtering of its bitstreams under way */
+    private static final class Pending
+    {
+        final Item item;
+
+        final List<Task> tasks = new ArrayList<Task>();
+
+        Pending(Item item)
+        {
+            this.item = item;
+        }
+    }
+
+    /** The filtering of one bitstream, in a worker */
+    private static final class Task implements Callable<File>
+    {
+        final MediaFilterManager.Rendition rendition;
+
+        final InputStream source;
+
+        Future<File> future;
+
+        volatile long started = 0;
+
+        volatile long finished = 0;
+
+        Task(MediaFilterManager.Rendition rendition, InputStream source)
+        {
+            this.rendition = rendition;
+            this.source = source;
+        }
+
+        public File call() throws Exception
+        {
+            started = System.nanoTime();
+            MediaFilterManager.setCurrentItem(rendition.item);
+            try
+            {
+                InputStream dest = rendition.formatFilter.getDestinationStream(source);
+                if (dest == null)
+                {
+                    return null;
+                }
+
+                File out = File.createTempFile("mediafilter", null);
+                boolean kept = false;
+                try
+                {
+                    OutputStream os = new FileOutputStream(out);
+                    try
+                    {
+                        Utils.bufferedCopy(dest, os);
+                    }
+                    finally
+                    {
+                        os.close();
+                    }
+                    // nobody waits for the output of a cancelled task
+                    kept = !Thread.currentThread().isInterrupted();
+                    return kept ? out : null;
+                }
+                finally
+                {
+                    dest.close();
+                    if (!kept)
+                    {
+                        out.delete();
+                    }
+                }
+            }
+            finally
+            {
+                finished = System.nanoTime();
+                source.close();
+                MediaFilterManager.setCurrentItem(null);
+            }
+        }
+    }
+
+    /**
+     * Start filtering the original bitstreams of an item, after finishing the
+     * oldest items if too many are under way.
+     */
+    void submit(Context c, Item item) throws Exception
+    {
+        Pending p = new Pending(item);
+        for (Bundle bundle : item.getBundles("ORIGINAL"))
+        {
+            for (Bitstream bitstream : bundle.getBitstreams())
+            {
+                if (MediaFilterManager.isCheckpointed(bitstream))
+                {
+                    continue;
+                }
+                for (Map.Entry<FormatFilter, ExecutorService> pool : pools.entrySet())
+                {
+                    FormatFilter filter = pool.getKey();
+                    if (!MediaFilterManager.isApplicable(filter, bitstream))
+                    {
+                        continue;
+                    }
+                    try
+                    {
+                        MediaFilterManager.Rendition rendition =
+                                MediaFilterManager.prepareRendition(c, item, bitstream, filter);
+                        if (rendition != null)
+                        {
+                            Task task = new Task(rendition, bitstream.retrieve());
+                            task.future = pool.getValue().submit(task);
+                            p.tasks.add(task);
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        failed(filter);
+                        MediaFilterManager.reportError(item, bitstream, e);
+                    }
+                }
+            }
+        }
+        pending.addLast(p);
+
+        while (pending.size() > window)
+        {
+            complete(c, pending.removeFirst());
+        }
+    }
+
+    /**
+     * Finish all items under way, and stop the workers.
+     */
+    void finish(Context c) throws Exception
+    {
+        try
+        {
+            while (!pending.isEmpty())
+            {
+                complete(c, pending.removeFirst());
+            }
+        }
+        finally
+        {
+            shutdown();
+        }
+    }
+
+    /**
+     * Stop the workers, interrupting any filtering still under way.
+     */
+    void shutdown()
+    {
+        for (ExecutorService pool : pools.values())
+        {
+            pool.shutdownNow();
+        }
+        for (Pending p : pending)
+        {
+            for (Task task : p.tasks)
+            {
+                cancel(task);
+                delete(task);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Store the renditions of an item once its filters are done, and commit
+     * them.
+     */
+    private void complete(Context c, Pending p) throws Exception
+    {
+        Item item = p.item;
+        // -m is reached: drop the work of the items still under way
+        boolean discard = MediaFilterManager.processed >= MediaFilterManager.max2Process;
+        boolean filtered = false;
+
+        for (Task task : p.tasks)
+        {
+            FormatFilter filter = task.rendition.formatFilter;
+            Bitstream source = task.rendition.source;
+            if (discard)
+            {
+                cancel(task);
+                delete(task);
+                continue;
+            }
+
+            File out = null;
+            try
+            {
+                out = await(task, timeouts.get(filter));
+                if (out == null)
+                {
+                    MediaFilterManager.unfinished(source);
+                    if (!MediaFilterManager.isQuiet)
+                    {
+                        System.out.println("SKIPPED: bitstream " + source.getID()
+                                + " (item: " + item.getHandle() + ") because filtering was unsuccessful");
+                    }
+                    continue;
+                }
+
+                InputStream in = new FileInputStream(out);
+                try
+                {
+                    MediaFilterManager.storeRendition(c, task.rendition, in);
+                }
+                finally
+                {
+                    in.close();
+                }
+                item.update(); // Make sure new bitstream has a sequence number
+                filtered = true;
+
+                MediaFilterManager.FilterStats stats = MediaFilterManager.getFilterStats(filter);
+                if (stats != null)
+                {
+                    stats.filtered(task.finished - task.started);
+                }
+            }
+            catch (TimeoutException e)
+            {
+                cancel(task);
+                MediaFilterManager.unfinished(source);
+                MediaFilterManager.FilterStats stats = MediaFilterManager.getFilterStats(filter);
+                if (stats != null)
+                {
+                    stats.timeouts.incrementAndGet();
+                }
+                System.out.println("TIMED OUT: bitstream " + source.getID()
+                        + " (item: " + item.getHandle() + ") by "
+                        + filter.getClass().getSimpleName() + ", skipping");
+                log.warn("Filtering bitstream " + source.getID() + " timed out");
+            }
+            catch (ExecutionException e)
+            {
+                failed(filter);
+                Throwable cause = e.getCause();
+                MediaFilterManager.reportError(item, source,
+                        cause instanceof Exception ? (Exception) cause : new Exception(cause));
+            }
+            catch (IOException e)
+            {
+                failed(filter);
+                MediaFilterManager.reportError(item, source, e);
+            }
+            finally
+            {
+                if (out != null)
+                {
+                    out.delete();
+                }
+            }
+        }
+
+        if (!discard)
+        {
+            if (filtered)
+            {
+                // commit changes after each filtered item
+                c.commit();
+                ++MediaFilterManager.processed;
+            }
+            MediaFilterManager.checkpoint(item);
+        }
+        // clear item objects from context cache and internal cache
+        item.decache();
+    }
+
+    /**
+     * Wait for a task, counting its timeout from when it started.
+     *
+     * @return its output, or null if the filter had none
+     */
+    private static File await(Task task, long timeout)
+            throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (timeout <= 0)
+        {
+            return task.future.get();
+        }
+        while (true)
+        {
+            long started = task.started;
+            if (started == 0)
+            {
+                // still queued
+                try
+                {
+                    return task.future.get(100, TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException e)
+                {
+                    continue;
+                }
+            }
+            // a task that finished while another one was waited for is
+            // not late, even if its deadline has passed since
+            long remaining = Math.max(0, started + timeout - System.nanoTime());
+            return task.future.get(remaining, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /** Stop a task, closing its source if it never ran */
+    private static void cancel(Task task)
+    {
+        if (task.future.cancel(true) && task.started == 0)
+        {
+            try
+            {
+                task.source.close();
+            }
+            catch (IOException e)
+            {
+                log.warn("Unable to close bitstream " + task.rendition.source.getID(), e);
+            }
+        }
+    }
+
+    /** Delete the output of a task which is not wanted any more */
+    private static void delete(Task task)
+    {
+        if (task.future.isDone() && !task.future.isCancelled())
+        {
+            try
+            {
+                File out = task.future.get();
+                if (out != null)
+                {
+                    out.delete();
+                }
+            }
+            catch (Exception e)
+            {
+                // no output
+            }
+        }
+    }
+
+    private static void failed(FormatFilter filter)
+    {
+        MediaFilterManager.FilterStats stats = MediaFilterManager.getFilterStats(filter);
+        if (stats != null)
+        {
+            stats.failures.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,562 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.authorize.AuthorizeManager;
+import org.dspace.content.Bitstream;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.bitstore.BitstreamStorageManager;
+
+/**
+ * Serves the content of a bitstream over HTTP, shared by the web
+ * applications. It answers conditional requests and single byte ranges, so
+ * that caches can revalidate a download and clients can resume one without
+ * fetching the whole bitstream again:
+ * <ul>
+ * <li>the ETag is the bitstream checksum, and is compared with
+ * <code>If-None-Match</code> and <code>If-Range</code>;</li>
+ * <li>the Last-Modified date, if the caller sets one, is compared with
+ * <code>If-Modified-Since</code> and <code>If-Range</code>;</li>
+ * <li>a single range of a <code>Range</code> header is served as 206 Partial
+ * Content, or 416 if it lies beyond the end of the bitstream. Requests for
+ * several ranges are answered with the whole bitstream.</li>
+ * </ul>
+ * Bitstreams in a local asset store are copied with
+ * {@link FileChannel#transferTo}, which starts at the requested offset
+ * without reading what comes before it; others are read from the ranged
+ * {@link BitstreamStorageManager#retrieve}, which lets the asset store seek.
+ * <P>
+ * Typical use:
+ * <pre>
+ * BitstreamDownload download = new BitstreamDownload(context, bitstream);
+ * download.setLastModified(item.getLastModified().getTime());
+ * download.evaluate(request);
+ * if (download.hasContent())
+ * {
+ *     download.open();
+ * }
+ * download.setHeaders(response);
+ * if (download.hasContent())
+ * {
+ *     download.write(response.getOutputStream());
+ * }
+ * </pre>
+ * Ranges can be switched off with <code>bitstream.download.ranges</code> in
+ * <code>dspace.cfg</code>.
+ */
+public class BitstreamDownload
+{
+    private static final Logger log = Logger.getLogger(BitstreamDownload.class);
+
+    /** Format of HTTP dates */
+    private static final String HTTP_DATE = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /** Returned by parseRange for a range that lies beyond the content */
+    static final long[] UNSATISFIABLE = new long[0];
+
+    private final Context context;
+
+    private final Bitstream bitstream;
+
+    private final long size;
+
+    private final String etag;
+
+    private final boolean rangesEnabled;
+
+    private long lastModified = -1;
+
+    private int status = HttpServletResponse.SC_OK;
+
+    /** First and last byte to send, inclusive */
+    private long start;
+
+    private long end;
+
+    private FileChannel channel;
+
+    private InputStream stream;
+
+    /**
+     * @param context
+     *            the current context; needed until {@link #open()} is called
+     * @param bitstream
+     *            the bitstream to serve
+     */
+    public BitstreamDownload(Context context, Bitstream bitstream)
+    {
+        this.context = context;
+        this.bitstream = bitstream;
+        this.size = bitstream.getSize();
+        this.etag = bitstream.getChecksum() == null ? null : '"' + bitstream.getChecksum() + '"';
+        this.rangesEnabled = ConfigurationManager.getBooleanProperty("bitstream.download.ranges", true);
+        this.start = 0;
+        this.end = size - 1;
+    }
+
+    /**
+     * Set the date sent as Last-Modified and compared with
+     * <code>If-Modified-Since</code>. Bitstreams have no date of their own,
+     * so callers use the date of the item, and only where it is safe for
+     * the response to be cached.
+     *
+     * @param lastModified
+     *            the date in milliseconds, or -1 for none
+     */
+    public void setLastModified(long lastModified)
+    {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the date sent as Last-Modified, or -1 for none
+     */
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    /**
+     * @return the quoted ETag, or null if the bitstream has no checksum
+     */
+    public String getETag()
+    {
+        return etag;
+    }
+
+    /**
+     * Evaluate the conditional and range headers of a request.
+     *
+     * @param request
+     *            the request
+     * @return the status of the response, see {@link #getStatus()}
+     */
+    public int evaluate(HttpServletRequest request)
+    {
+        long ifModifiedSince;
+        try
+        {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        }
+        catch (IllegalArgumentException e)
+        {
+            ifModifiedSince = -1;
+        }
+        return evaluate(request.getHeader("If-None-Match"), ifModifiedSince,
+                request.getHeader("If-Range"), request.getHeader("Range"));
+    }
+
+    /**
+     * Evaluate the conditional and range headers of a request. Any of them
+     * may be missing.
+     *
+     * @param ifNoneMatch
+     *            the If-None-Match header, or null
+     * @param ifModifiedSince
+     *            the If-Modified-Since date in milliseconds, or -1
+     * @param ifRange
+     *            the If-Range header, or null
+     * @param range
+     *            the Range header, or null
+     * @return the status of the response, see {@link #getStatus()}
+     */
+    public int evaluate(String ifNoneMatch, long ifModifiedSince, String ifRange, String range)
+    {
+        status = HttpServletResponse.SC_OK;
+        start = 0;
+        end = size - 1;
+
+        // If-None-Match takes precedence over If-Modified-Since
+        if (ifNoneMatch != null)
+        {
+            if (etag != null && matches(ifNoneMatch, etag))
+            {
+                status = HttpServletResponse.SC_NOT_MODIFIED;
+                return status;
+            }
+        }
+        else if (ifModifiedSince != -1 && lastModified != -1
+                && lastModified / 1000 <= ifModifiedSince / 1000)
+        {
+            status = HttpServletResponse.SC_NOT_MODIFIED;
+            return status;
+        }
+
+        if (range == null || !rangesEnabled || (ifRange != null && !isCurrent(ifRange)))
+        {
+            return status;
+        }
+
+        long[] bytes = parseRange(range, size);
+        if (bytes == UNSATISFIABLE)
+        {
+            status = HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
+        }
+        else if (bytes != null)
+        {
+            status = HttpServletResponse.SC_PARTIAL_CONTENT;
+            start = bytes[0];
+            end = bytes[1];
+        }
+        return status;
+    }
+
+    /**
+     * @return the status of the response: 200 for the whole bitstream, 206
+     *         for part of it, 304 if the client's copy is current, or 416 if
+     *         the requested range lies beyond the end of the bitstream
+     */
+    public int getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * @return true if the response has a body, i.e. for 200 and 206
+     */
+    public boolean hasContent()
+    {
+        return status == HttpServletResponse.SC_OK || status == HttpServletResponse.SC_PARTIAL_CONTENT;
+    }
+
+    /**
+     * @return true if the response is part of the bitstream that does not
+     *         start at the beginning, e.g. a resumed download or a viewer
+     *         fetching pages of a document. Callers skip usage events for
+     *         these, so that each download is counted once.
+     */
+    public boolean isContinuation()
+    {
+        return status == HttpServletResponse.SC_PARTIAL_CONTENT && start > 0;
+    }
+
+    /**
+     * @return the number of bytes in the body of the response
+     */
+    public long getContentLength()
+    {
+        return hasContent() ? end - start + 1 : 0;
+    }
+
+    /**
+     * @return the Accept-Ranges header
+     */
+    public String getAcceptRanges()
+    {
+        return rangesEnabled ? "bytes" : "none";
+    }
+
+    /**
+     * @return the Content-Range header, or null if there is none
+     */
+    public String getContentRange()
+    {
+        if (status == HttpServletResponse.SC_PARTIAL_CONTENT)
+        {
+            return "bytes " + start + "-" + end + "/" + size;
+        }
+        else if (status == HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE)
+        {
+            return "bytes */" + size;
+        }
+        return null;
+    }
+
+    /**
+     * Set the status and the headers that describe the content: ETag,
+     * Last-Modified, Accept-Ranges, Content-Range and Content-Length. The
+     * content type and disposition are left to the caller.
+     *
+     * @param response
+     *            the response
+     */
+    public void setHeaders(HttpServletResponse response)
+    {
+        if (status != HttpServletResponse.SC_OK)
+        {
+            response.setStatus(status);
+        }
+        if (etag != null)
+        {
+            response.setHeader("ETag", etag);
+        }
+        if (lastModified != -1)
+        {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        response.setHeader("Accept-Ranges", getAcceptRanges());
+        if (getContentRange() != null)
+        {
+            response.setHeader("Content-Range", getContentRange());
+        }
+        if (hasContent())
+        {
+            // not setContentLength(int), bitstreams may be larger than 2GB
+            response.setHeader("Content-Length", String.valueOf(getContentLength()));
+        }
+    }
+
+    /**
+     * Open the content of the bitstream. Call it after {@link #evaluate}
+     * while the context is still open, i.e. before the context is completed
+     * if the content is written later.
+     *
+     * @throws AuthorizeException
+     *             if the current user may not read the bitstream
+     */
+    public void open() throws IOException, SQLException, AuthorizeException
+    {
+        AuthorizeManager.authorizeAction(context, bitstream, Constants.READ);
+
+        File file = BitstreamStorageManager.retrieveFile(context, bitstream.getID());
+        if (file != null)
+        {
+            channel = new FileInputStream(file).getChannel();
+        }
+        else
+        {
+            stream = BitstreamStorageManager.retrieve(context, bitstream.getID(),
+                    start, end - start + 1);
+            if (stream == null)
+            {
+                throw new IOException("No content for bitstream " + bitstream.getID());
+            }
+        }
+    }
+
+    /**
+     * Write the selected bytes of the content, and close it.
+     *
+     * @param out
+     *            the body of the response, which is not closed
+     */
+    public void write(OutputStream out) throws IOException
+    {
+        if (channel == null && stream == null)
+        {
+            throw new IllegalStateException("BitstreamDownload is not open");
+        }
+
+        try
+        {
+            if (hasContent())
+            {
+                if (channel != null)
+                {
+                    transfer(out);
+                }
+                else
+                {
+                    copy(out);
+                }
+            }
+            out.flush();
+        }
+        finally
+        {
+            close();
+        }
+    }
+
+    /**
+     * Close the content without writing it, e.g. if the response turned
+     * out to have no body.
+     */
+    public void close()
+    {
+        try
+        {
+            if (channel != null)
+            {
+                channel.close();
+            }
+            if (stream != null)
+            {
+                stream.close();
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to close bitstream " + bitstream.getID() + ": " + e.getMessage());
+        }
+        channel = null;
+        stream = null;
+    }
+
+    private void transfer(OutputStream out) throws IOException
+    {
+        WritableByteChannel target = Channels.newChannel(out);
+        long position = start;
+        long last = Math.min(end, channel.size() - 1);
+        while (position <= last)
+        {
+            long count = channel.transferTo(position, last - position + 1, target);
+            if (count <= 0)
+            {
+                break;
+            }
+            position += count;
+        }
+        if (position <= end)
+        {
+            throw new IOException("Bitstream " + bitstream.getID() + " is shorter than its recorded size");
+        }
+    }
+
+    private void copy(OutputStream out) throws IOException
+    {
+        // the stream starts at the first selected byte
+        byte[] buffer = new byte[8192];
+        long remaining = end - start + 1;
+        while (remaining > 0)
+        {
+            int count = stream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (count < 0)
+            {
+                throw new IOException("Bitstream " + bitstream.getID() + " is shorter than its recorded size");
+            }
+            out.write(buffer, 0, count);
+            remaining -= count;
+        }
+    }
+
+    /**
+     * @return true if the If-Range header names the current content
+     */
+    private boolean isCurrent(String ifRange)
+    {
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+        {
+            // If-Range requires a strong comparison
+            return etag != null && etag.equals(ifRange);
+        }
+
+        if (lastModified == -1)
+        {
+            return false;
+        }
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try
+        {
+            return lastModified / 1000 == format.parse(ifRange).getTime() / 1000;
+        }
+        catch (ParseException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if an If-None-Match header matches the ETag. The
+     *         comparison is weak, as required for If-None-Match.
+     */
+    public static boolean matches(String ifNoneMatch, String etag)
+    {
+        String tag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(","))
+        {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/"))
+            {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(tag))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse a Range header.
+     *
+     * @param range
+     *            the header, e.g. <code>bytes=0-499</code>,
+     *            <code>bytes=500-</code> or <code>bytes=-500</code>
+     * @param size
+     *            the size of the content
+     * @return the first and last byte of the range, {@link #UNSATISFIABLE}
+     *         if it starts beyond the end of the content, or null if the
+     *         header is to be ignored: because it is malformed, is not in
+     *         bytes, or asks for several ranges
+     */
+    static long[] parseRange(String range, long size)
+    {
+        range = range.trim();
+        if (!range.startsWith("bytes="))
+        {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0)
+        {
+            return null;
+        }
+
+        try
+        {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.length() == 0)
+            {
+                // suffix range: the last n bytes
+                long length = Long.parseLong(last);
+                if (length < 0)
+                {
+                    return null;
+                }
+                if (length == 0 || size == 0)
+                {
+                    return UNSATISFIABLE;
+                }
+                return new long[] { Math.max(0, size - length), size - 1 };
+            }
+
+            long from = Long.parseLong(first);
+            long to = last.length() == 0 ? Long.MAX_VALUE : Long.parseLong(last);
+            if (from < 0 || to < from)
+            {
+                return null;
+            }
+            if (from >= size)
+            {
+                return UNSATISFIABLE;
+            }
+            return new long[] { from, Math.min(to, size - 1) };
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+}
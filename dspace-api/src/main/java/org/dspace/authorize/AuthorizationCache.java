@@ -0,0 +1,371 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.authorize;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Status;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.services.CachingService;
+import org.dspace.services.caching.model.EhcacheCache;
+import org.dspace.services.model.Cache;
+import org.dspace.services.model.CacheConfig;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+import org.dspace.utils.DSpace;
+
+/**
+ * Memoizes the inputs of authorization decisions, so that checking many
+ * objects in one request does not repeat the same queries over and over.
+ * <P>
+ * Every {@link Context} has one instance, which remembers
+ * <ul>
+ * <li>the policies of each (resource type, resource id, action) read by
+ * {@link AuthorizeManager#getPoliciesActionFilter}, and</li>
+ * <li>the groups the current user is a member of, as a bit set indexed by
+ * group ID, as used by {@link org.dspace.eperson.Group#isMember(Context, int)}.</li>
+ * </ul>
+ * The policies of a resource are forgotten as soon as they are changed through
+ * {@link ResourcePolicy} or {@link AuthorizeManager}, and the groups when
+ * the current user, the special groups or any group membership is changed in
+ * the Context. Both are dropped with the rest of the object cache by
+ * {@link Context#clearCache()}.
+ * <P>
+ * If <code>cache.authorization.enabled = true</code>, the policy rows are also
+ * shared between requests through the {@link CachingService} cache named
+ * {@link #CACHE_NAME}. The resources whose policies a Context changed are
+ * invalidated there once it commits, and the subject and object of every
+ * committed event are invalidated by
+ * {@link org.dspace.core.SharedObjectCacheConsumer}. Changes made by other JVMs
+ * are only seen once the entries expire.
+ */
+public class AuthorizationCache
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(AuthorizationCache.class);
+
+    /** Name of the shared cache in the CachingService */
+    public static final String CACHE_NAME = AuthorizationCache.class.getName();
+
+    /**
+     * Bumped on every invalidation of the shared cache, so that rows read
+     * while an invalidation was going on are not cached.
+     */
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static Cache sharedCache = null;
+
+    /** The Context this instance belongs to */
+    private final Context context;
+
+    /** Policies read in this Context, keyed by resource then action */
+    private final Map<String, Map<Integer, List<ResourcePolicy>>> policies
+            = new HashMap<String, Map<Integer, List<ResourcePolicy>>>();
+
+    /** Resources whose policies were changed in the current transaction */
+    private final Set<String> changedResources = new HashSet<String>();
+
+    /** Set if policies of unknown resources were changed in the current transaction */
+    private boolean changedAll = false;
+
+    /** All groups the current user is a member of, or null if not known yet */
+    private BitSet memberGroups = null;
+
+    /**
+     * @param context
+     *            the Context this cache belongs to
+     */
+    public AuthorizationCache(Context context)
+    {
+        this.context = context;
+    }
+
+    /**
+     * @return true if policies are shared between requests
+     */
+    public static boolean isSharedEnabled()
+    {
+        return ConfigurationManager.getBooleanProperty("cache.authorization.enabled", false);
+    }
+
+    /**
+     * Get the policies of a resource for an action, reading them from the
+     * shared cache or the database the first time they are asked for.
+     *
+     * @param resourceType
+     *            type of the resource, one of the Constants
+     * @param resourceID
+     *            internal ID of the resource
+     * @param actionID
+     *            action, one of the Constants
+     * @return the memoized list of policies. Callers must not modify it.
+     * @throws SQLException
+     */
+    List<ResourcePolicy> getPolicies(int resourceType, int resourceID, int actionID)
+            throws SQLException
+    {
+        String resource = resourceKey(resourceType, resourceID);
+        Map<Integer, List<ResourcePolicy>> byAction = policies.get(resource);
+        if (byAction == null)
+        {
+            byAction = new HashMap<Integer, List<ResourcePolicy>>();
+            policies.put(resource, byAction);
+        }
+
+        List<ResourcePolicy> result = byAction.get(actionID);
+        if (result == null)
+        {
+            List<ResourcePolicy> loaded = new ArrayList<ResourcePolicy>();
+            for (TableRow row : getPolicyRows(resourceType, resourceID, actionID))
+            {
+                // first check the cache (FIXME: is this right?)
+                ResourcePolicy cachepolicy = (ResourcePolicy) context.fromCache(
+                        ResourcePolicy.class, row.getIntColumn("policy_id"));
+
+                if (cachepolicy != null)
+                {
+                    loaded.add(cachepolicy);
+                }
+                else
+                {
+                    loaded.add(new ResourcePolicy(context, row));
+                }
+            }
+            result = loaded;
+            byAction.put(actionID, result);
+        }
+        return result;
+    }
+
+    /**
+     * Forget the policies of a resource, here and, once the transaction is
+     * committed, in the shared cache.
+     *
+     * @param resourceType
+     *            type of the resource, one of the Constants
+     * @param resourceID
+     *            internal ID of the resource
+     */
+    void policiesChanged(int resourceType, int resourceID)
+    {
+        String resource = resourceKey(resourceType, resourceID);
+        policies.remove(resource);
+        changedResources.add(resource);
+    }
+
+    /**
+     * Forget all policies, here and, once the transaction is committed, in the
+     * shared cache. Used when the affected resources are not known.
+     */
+    void allPoliciesChanged()
+    {
+        policies.clear();
+        changedAll = true;
+    }
+
+    /**
+     * @return all groups the current user is a member of, with the bit of
+     *         each group ID set, or null if they have not been memoized.
+     *         Callers must not modify the set.
+     */
+    public BitSet getMemberGroups()
+    {
+        return memberGroups;
+    }
+
+    /**
+     * Memoize all groups the current user is a member of.
+     *
+     * @param groups
+     *            the group IDs, including special and parent groups
+     */
+    public void setMemberGroups(BitSet groups)
+    {
+        memberGroups = groups;
+    }
+
+    /**
+     * Forget the group memberships of the current user, e.g. because the user
+     * or the membership of a group changed.
+     */
+    public void clearMemberGroups()
+    {
+        memberGroups = null;
+    }
+
+    /**
+     * Forget everything memoized in this Context. Changes not yet committed
+     * are still invalidated in the shared cache on commit.
+     */
+    public void clear()
+    {
+        policies.clear();
+        memberGroups = null;
+    }
+
+    /**
+     * Called by {@link Context#commit()} once the transaction is committed:
+     * pushes the policy changes made in this Context to the shared cache.
+     */
+    public void committed()
+    {
+        if (changedAll)
+        {
+            Cache shared = getSharedCache();
+            if (shared != null)
+            {
+                generation.incrementAndGet();
+                shared.clear();
+            }
+        }
+        else
+        {
+            Iterator<String> i = changedResources.iterator();
+            while (i.hasNext())
+            {
+                invalidate(i.next());
+            }
+        }
+        changedAll = false;
+        changedResources.clear();
+    }
+
+    /**
+     * Drop the shared policies of a resource. Does nothing if the shared cache
+     * is disabled.
+     *
+     * @param resourceType
+     *            type of the resource, one of the Constants
+     * @param resourceID
+     *            internal ID of the resource
+     */
+    public static void invalidate(int resourceType, int resourceID)
+    {
+        invalidate(resourceKey(resourceType, resourceID));
+    }
+
+    private static void invalidate(String resource)
+    {
+        Cache shared = getSharedCache();
+        if (shared == null)
+        {
+            return;
+        }
+
+        generation.incrementAndGet();
+        for (int action = 0; action < Constants.actionText.length; action++)
+        {
+            shared.remove(policyKey(resource, action));
+        }
+    }
+
+    /**
+     * Read the policy rows of a resource for an action from the shared cache,
+     * or from the database.
+     */
+    private List<TableRow> getPolicyRows(int resourceType, int resourceID, int actionID)
+            throws SQLException
+    {
+        Cache shared = getSharedCache();
+        if (shared == null)
+        {
+            return findPolicyRows(resourceType, resourceID, actionID);
+        }
+
+        String key = policyKey(resourceKey(resourceType, resourceID), actionID);
+        @SuppressWarnings("unchecked")
+        ArrayList<TableRow> snapshot = (ArrayList<TableRow>) shared.get(key);
+        if (snapshot != null)
+        {
+            List<TableRow> rows = new ArrayList<TableRow>(snapshot.size());
+            for (TableRow row : snapshot)
+            {
+                rows.add(row.copy());
+            }
+            return rows;
+        }
+
+        long before = generation.get();
+        List<TableRow> rows = findPolicyRows(resourceType, resourceID, actionID);
+        // A Context with uncommitted changes may see rows nobody else sees yet
+        if (!context.hasEvents() && !changedAll && changedResources.isEmpty()
+                && before == generation.get())
+        {
+            ArrayList<TableRow> copy = new ArrayList<TableRow>(rows.size());
+            for (TableRow row : rows)
+            {
+                copy.add(row.copy());
+            }
+            shared.put(key, copy);
+        }
+        return rows;
+    }
+
+    private List<TableRow> findPolicyRows(int resourceType, int resourceID, int actionID)
+            throws SQLException
+    {
+        TableRowIterator tri = DatabaseManager.queryTable(context, "resourcepolicy",
+                "SELECT * FROM resourcepolicy WHERE resource_type_id= ? " +
+                        "AND resource_id= ? AND action_id= ? ",
+                resourceType, resourceID, actionID);
+        // toList() closes the iterator
+        return tri.toList();
+    }
+
+    private static synchronized Cache getSharedCache()
+    {
+        if (!isSharedEnabled())
+        {
+            return null;
+        }
+
+        // the cache dies with the service manager, e.g. when a webapp reloads
+        if (sharedCache instanceof EhcacheCache
+                && ((EhcacheCache) sharedCache).getCache().getStatus() != Status.STATUS_ALIVE)
+        {
+            sharedCache = null;
+        }
+
+        if (sharedCache == null)
+        {
+            CachingService cachingService = new DSpace().getServiceManager()
+                    .getServiceByName(CachingService.class.getName(), CachingService.class);
+            if (cachingService == null)
+            {
+                log.warn("No CachingService available, policies are not shared between requests");
+                return null;
+            }
+            sharedCache = cachingService.getCache(CACHE_NAME, new CacheConfig(CacheConfig.CacheScope.INSTANCE));
+        }
+        return sharedCache;
+    }
+
+    private static String resourceKey(int resourceType, int resourceID)
+    {
+        return resourceType + ":" + resourceID;
+    }
+
+    private static String policyKey(String resource, int actionID)
+    {
+        return resource + ":" + actionID;
+    }
+}
@@ -695,40 +695,9 @@ public class AuthorizeManager
     public static List<ResourcePolicy> getPoliciesActionFilter(Context c, DSpaceObject o,
                                                                int actionID) throws SQLException
     {
-        TableRowIterator tri = DatabaseManager.queryTable(c, "resourcepolicy",
-                "SELECT * FROM resourcepolicy WHERE resource_type_id= ? " +
-                        "AND resource_id= ? AND action_id= ? ",
-                o.getType(), o.getID(), actionID);
-
-        List<ResourcePolicy> policies = new ArrayList<ResourcePolicy>();
-
-        try
-        {
-            while (tri.hasNext())
-            {
-                TableRow row = tri.next();
-
-                // first check the cache (FIXME: is this right?)
-                ResourcePolicy cachepolicy = (ResourcePolicy) c.fromCache(
-                        ResourcePolicy.class, row.getIntColumn("policy_id"));
-
-                if (cachepolicy != null)
-                {
-                    policies.add(cachepolicy);
-                } else
-                {
-                    policies.add(new ResourcePolicy(c, row));
-                }
-            }
-        } finally
-        {
-            if (tri != null)
-            {
-                tri.close();
-            }
-        }
-
-        return policies;
+        // memoized per context, see AuthorizationCache
+        return new ArrayList<ResourcePolicy>(c.getAuthorizationCache().getPolicies(
+                o.getType(), o.getID(), actionID));
     }
 
     /**
@@ -821,6 +790,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? ",
                 o.getType(), o.getID());
+        c.getAuthorizationCache().policiesChanged(o.getType(), o.getID());
     }
 
     /**
@@ -839,6 +809,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND rptype <> ? ",
                 o.getType(), o.getID(), type);
+        c.getAuthorizationCache().policiesChanged(o.getType(), o.getID());
     }
 
 
@@ -860,6 +831,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND rptype=? ",
                 o.getType(), o.getID(), type);
+        c.getAuthorizationCache().policiesChanged(o.getType(), o.getID());
     }
 
     /**
@@ -890,6 +862,7 @@ public class AuthorizeManager
                     "DELETE FROM resourcepolicy WHERE resource_type_id= ? AND " +
                             "resource_id= ? AND action_id= ? ",
                     dso.getType(), dso.getID(), actionID);
+            context.getAuthorizationCache().policiesChanged(dso.getType(), dso.getID());
         }
     }
 
@@ -909,6 +882,7 @@ public class AuthorizeManager
     {
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "epersongroup_id= ? ", groupID);
+        c.getAuthorizationCache().allPoliciesChanged();
     }
 
     /**
@@ -932,6 +906,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND epersongroup_id= ? ",
                 o.getType(), o.getID(), g.getID());
+        c.getAuthorizationCache().policiesChanged(o.getType(), o.getID());
     }
 
     /**
@@ -954,6 +929,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND eperson_id= ? ",
                 o.getType(), o.getID(), e.getID());
+        c.getAuthorizationCache().policiesChanged(o.getType(), o.getID());
     }
 
     /**
@@ -45,6 +45,11 @@ public class ResourcePolicy
     /** The row in the table representing this object */
     private TableRow myRow;
 
+    /** The resource this policy was on when it was last read or written */
+    private int storedResourceType;
+
+    private int storedResourceID;
+
     /**
      * Construct an ResourcePolicy
      * 
@@ -57,6 +62,8 @@ public class ResourcePolicy
     {
         myContext = context;
         myRow = row;
+        storedResourceType = getResourceType();
+        storedResourceID = getResourceID();
     }
 
     /**
@@ -193,6 +200,7 @@ public class ResourcePolicy
         // FIXME: authorizations
         // Remove ourself
         DatabaseManager.delete(myContext, myRow);
+        policiesChanged();
     }
 
     /**
@@ -476,6 +484,26 @@ public class ResourcePolicy
 
         // FIXME: Check authorisation
         DatabaseManager.update(myContext, myRow);
+        policiesChanged();
+    }
+
+    /**
+     * Tell the authorization cache that the policies of the resource this
+     * policy was on, and of the one it is on now, have changed.
+     */
+    private void policiesChanged()
+    {
+        AuthorizationCache cache = myContext.getAuthorizationCache();
+        if (storedResourceType != -1 && storedResourceID != -1)
+        {
+            cache.policiesChanged(storedResourceType, storedResourceID);
+        }
+        if (getResourceType() != -1 && getResourceID() != -1)
+        {
+            cache.policiesChanged(getResourceType(), getResourceID());
+        }
+        storedResourceType = getResourceType();
+        storedResourceID = getResourceID();
     }
 
 
@@ -7,6 +7,7 @@
  */
 package org.dspace.browse;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -46,7 +47,7 @@ public class BrowseConsumer implements Consumer
     private static Logger log = Logger.getLogger(BrowseConsumer.class);
 
     // items to be updated in browse index
-    private Map<Integer, ItemHolder> toUpdate = null;
+    private Map<Integer, Item> toUpdate = null;
 
     public void initialize()
         throws Exception
@@ -59,7 +60,7 @@ public class BrowseConsumer implements Consumer
     {
         if(toUpdate == null)
         {
-            toUpdate = new HashMap<Integer, ItemHolder>();
+            toUpdate = new HashMap<Integer, Item>();
         }
         
         log.debug("consume() evaluating event: " + event.toString());
@@ -79,10 +80,7 @@ public class BrowseConsumer implements Consumer
                 if (subj != null)
                 {
                     log.debug("consume() adding event to update queue: " + event.toString());
-                    if (et == Event.CREATE || !toUpdate.containsKey(subj.getID()))
-                    {
-                        toUpdate.put(subj.getID(), new ItemHolder(subj, et == Event.CREATE));
-                    }
+                    toUpdate.put(subj.getID(), subj);
                 }
             }
             break;
@@ -96,7 +94,7 @@ public class BrowseConsumer implements Consumer
                     log.debug("consume() adding event to update queue: " + event.toString());
                     if (!toUpdate.containsKey(obj.getID()))
                     {
-                        toUpdate.put(obj.getID(), new ItemHolder(obj, false));
+                        toUpdate.put(obj.getID(), obj);
                     }
                 }
             }
@@ -114,30 +112,25 @@ public class BrowseConsumer implements Consumer
         if (toUpdate != null)
         {
 
-            // Update/Add items
-            for (ItemHolder i : toUpdate.values())
+            // Update/Add items, all at once
+            // FIXME: there is an exception handling problem here
+            try
             {
-                // FIXME: there is an exception handling problem here
-                try
-                {
-                    // Update browse indices
-                    ctx.turnOffAuthorisationSystem();
-                    IndexBrowse ib = new IndexBrowse(ctx);
-                    ib.indexItem(i.item, i.createEvent);
-                    ctx.restoreAuthSystemState();
-                }
-                catch (BrowseException e)
-                {
-                    log.error("caught exception: ", e);
-                    //throw new SQLException(e.getMessage());
-                }
+                // Update browse indices
+                ctx.turnOffAuthorisationSystem();
+                IndexBrowse ib = new IndexBrowse(ctx);
+                ib.indexItems(new ArrayList<Item>(toUpdate.values()));
+                ctx.restoreAuthSystemState();
+            }
+            catch (BrowseException e)
+            {
+                log.error("caught exception: ", e);
+                //throw new SQLException(e.getMessage());
+            }
 
-                if (log.isDebugEnabled())
-                {
-                    log.debug("Updated browse indices for Item id="
-                            + String.valueOf(i.item.getID()) + ", hdl="
-                            + i.item.getHandle());
-                }
+            if (log.isDebugEnabled())
+            {
+                log.debug("Updated browse indices for Item ids=" + toUpdate.keySet());
             }
 
             // NOTE: Removed items are necessarily handled inline (ugh).
@@ -154,15 +147,4 @@ public class BrowseConsumer implements Consumer
     public void finish(Context ctx) {
     	
     }
-
-    private final class ItemHolder {
-        private Item item;
-        private boolean createEvent;
-
-        ItemHolder(Item pItem, boolean pCreateEvent)
-        {
-            item = pItem;
-            createEvent = pCreateEvent;
-        }
-    }
 }
@@ -0,0 +1,223 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.dspace.core.Context;
+
+/**
+ * The multi-row statements shared by the database BrowseCreateDAOs. Deletes
+ * use <code>item_id IN (...)</code> lists, and inserts are sent as JDBC
+ * batches of one prepared statement, rather than a round trip per row. The
+ * DAOs differ only in the SQL expression giving the next primary key of a
+ * table.
+ */
+final class BrowseCreateBatch
+{
+    /** Maximum number of IDs in one IN list */
+    static final int CHUNK_SIZE = 500;
+
+    private BrowseCreateBatch() { }
+
+    /**
+     * Delete the rows of the given items from a table.
+     */
+    static void deleteByItemIDs(Context context, String table, int[] itemIDs) throws SQLException
+    {
+        for (int start = 0; start < itemIDs.length; start += CHUNK_SIZE)
+        {
+            int end = Math.min(start + CHUNK_SIZE, itemIDs.length);
+            PreparedStatement statement = context.getDBConnection().prepareStatement(
+                    "DELETE FROM " + table + " WHERE item_id IN (" + placeholders(end - start) + ")");
+            try
+            {
+                setIDs(statement, itemIDs, start, end);
+                statement.executeUpdate();
+            }
+            finally
+            {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Delete the distinct mappings of the given items.
+     *
+     * @return the distinct ids they were mapped to
+     */
+    static List<Integer> deleteMappingsByItemIDs(Context context, String map, int[] itemIDs) throws SQLException
+    {
+        Set<Integer> distinctIDs = new TreeSet<Integer>();
+        for (int start = 0; start < itemIDs.length; start += CHUNK_SIZE)
+        {
+            int end = Math.min(start + CHUNK_SIZE, itemIDs.length);
+            PreparedStatement statement = context.getDBConnection().prepareStatement(
+                    "SELECT DISTINCT distinct_id FROM " + map + " WHERE item_id IN (" + placeholders(end - start) + ")");
+            try
+            {
+                setIDs(statement, itemIDs, start, end);
+                ResultSet rs = statement.executeQuery();
+                try
+                {
+                    while (rs.next())
+                    {
+                        distinctIDs.add(rs.getInt(1));
+                    }
+                }
+                finally
+                {
+                    rs.close();
+                }
+            }
+            finally
+            {
+                statement.close();
+            }
+        }
+        deleteByItemIDs(context, map, itemIDs);
+        return new ArrayList<Integer>(distinctIDs);
+    }
+
+    /**
+     * Insert a row with the given sort values for each item.
+     *
+     * @param nextID
+     *            SQL expression of the next primary key of the table
+     */
+    static void insertIndexes(Context context, BrowseDAOUtils utils, String table, String nextID,
+            Map<Integer, Map<Integer, String>> sortCols) throws SQLException
+    {
+        if (sortCols.isEmpty())
+        {
+            return;
+        }
+
+        // every row gets all the columns any row has, null if it has no value
+        Set<Integer> columns = new TreeSet<Integer>();
+        for (Map<Integer, String> cols : sortCols.values())
+        {
+            columns.addAll(cols.keySet());
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (id, item_id");
+        for (Integer column : columns)
+        {
+            sql.append(", sort_").append(column);
+        }
+        sql.append(") VALUES (").append(nextID).append(", ?");
+        for (int i = 0; i < columns.size(); i++)
+        {
+            sql.append(", ?");
+        }
+        sql.append(")");
+
+        PreparedStatement statement = context.getDBConnection().prepareStatement(sql.toString());
+        try
+        {
+            int rows = 0;
+            for (Map.Entry<Integer, Map<Integer, String>> item : sortCols.entrySet())
+            {
+                statement.setInt(1, item.getKey());
+                int p = 2;
+                for (Integer column : columns)
+                {
+                    String value = utils.truncateSortValue(item.getValue().get(column));
+                    if (value == null)
+                    {
+                        statement.setNull(p++, Types.VARCHAR);
+                    }
+                    else
+                    {
+                        statement.setString(p++, value);
+                    }
+                }
+                statement.addBatch();
+                if (++rows % CHUNK_SIZE == 0)
+                {
+                    statement.executeBatch();
+                }
+            }
+            if (rows % CHUNK_SIZE != 0)
+            {
+                statement.executeBatch();
+            }
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+    /**
+     * Insert a mapping from each item to each of its distinct values.
+     *
+     * @param nextID
+     *            SQL expression of the next primary key of the map table
+     */
+    static void insertDistinctMappings(Context context, String map, String nextID,
+            Map<Integer, Set<Integer>> distinctIDs) throws SQLException
+    {
+        PreparedStatement statement = context.getDBConnection().prepareStatement(
+                "INSERT INTO " + map + " (map_id, item_id, distinct_id) VALUES (" + nextID + ", ?, ?)");
+        try
+        {
+            int rows = 0;
+            for (Map.Entry<Integer, Set<Integer>> item : distinctIDs.entrySet())
+            {
+                for (Integer distinctID : item.getValue())
+                {
+                    if (distinctID > -1)
+                    {
+                        statement.setInt(1, item.getKey());
+                        statement.setInt(2, distinctID);
+                        statement.addBatch();
+                        if (++rows % CHUNK_SIZE == 0)
+                        {
+                            statement.executeBatch();
+                        }
+                    }
+                }
+            }
+            if (rows % CHUNK_SIZE != 0)
+            {
+                statement.executeBatch();
+            }
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+    private static String placeholders(int count)
+    {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+
+    private static void setIDs(PreparedStatement statement, int[] ids, int start, int end) throws SQLException
+    {
+        for (int i = start; i < end; i++)
+        {
+            statement.setInt(i - start + 1, ids[i]);
+        }
+    }
+}
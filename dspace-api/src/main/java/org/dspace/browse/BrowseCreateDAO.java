@@ -49,6 +49,16 @@ public interface BrowseCreateDAO
 	 */
 	public void deleteByItemID(String table, int itemID) throws BrowseException;
 
+	/**
+	 * Delete the records for all the given item ids from the specified table, in
+	 * as few statements as possible.
+	 * 
+	 * @param 	table	the browse table to remove the index from
+	 * @param	itemIDs	the database ids of the items to remove the index for
+	 * @throws BrowseException
+	 */
+	public void deleteByItemIDs(String table, int[] itemIDs) throws BrowseException;
+
     public void deleteCommunityMappings(int itemID) throws BrowseException;
     public void updateCommunityMappings(int itemID) throws BrowseException;
 
@@ -76,6 +86,18 @@ public interface BrowseCreateDAO
 	 */
     public void insertIndex(String table, int itemID, Map<Integer, String> sortCols) throws BrowseException;
 
+    /**
+     * Insert index records into the given table for many items at once, as a
+     * single batch.  The items must not be in the table already.
+     * 
+     * @param table		the browse table to insert the index in
+     * @param sortCols	the sort column numbers and values of each item, by
+     *                  the database id of the item, as for
+     *                  {@link #insertIndex(String, int, Map)}
+     * @throws BrowseException
+     */
+    public void insertIndexes(String table, Map<Integer, Map<Integer, String>> sortCols) throws BrowseException;
+
     /**
      * Updates an index record into the given table for the given item id.  The Map should contain
      * key value pairs representing the sort column integer representation and the normalised
@@ -308,6 +330,27 @@ public interface BrowseCreateDAO
 	public String createCommunityView(String table, String view, boolean execute) throws BrowseException;
 
     public List<Integer> deleteMappingsByItemID(String mapTable, int itemID) throws BrowseException;
+
+    /**
+     * Remove all the distinct mappings of the given items.
+     * 
+     * @param mapTable	the name of the distinct mapping table
+     * @param itemIDs	the database ids of the items
+     * @return the ids of the distinct values the items were mapped to
+     * @throws BrowseException
+     */
+    public List<Integer> deleteMappingsByItemIDs(String mapTable, int[] itemIDs) throws BrowseException;
+
+    /**
+     * Map many items to distinct values at once, as a single batch.  The
+     * mappings must not exist already.
+     * 
+     * @param mapTable		the name of the distinct mapping table
+     * @param distinctIDs	the ids of the distinct values of each item, by
+     *                      the database id of the item
+     * @throws BrowseException
+     */
+    public void insertDistinctMappings(String mapTable, Map<Integer, Set<Integer>> distinctIDs) throws BrowseException;
 	
 	/**
 	 * Create the table which will hold the distinct metadata values that appear in multiple
@@ -395,6 +395,23 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
         }
     }
     
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#deleteByItemIDs(java.lang.String, int[])
+     */
+    public void deleteByItemIDs(String table, int[] itemIDs)
+        throws BrowseException
+    {
+        try
+        {
+            BrowseCreateBatch.deleteByItemIDs(context, table, itemIDs);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+    
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#deleteCommunityMappings(java.lang.String, int)
      */
@@ -701,6 +718,23 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
         }
     }
     
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#insertIndexes(java.lang.String, java.util.Map)
+     */
+    public void insertIndexes(String table, Map<Integer, Map<Integer, String>> sortCols)
+        throws BrowseException
+    {
+        try
+        {
+            BrowseCreateBatch.insertIndexes(context, utils, table, "getnextid('" + table + "')", sortCols);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+    
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#updateIndex(java.lang.String, int, java.util.Map)
      */
@@ -798,6 +832,38 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
         return distinctIds;
     }
 
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#deleteMappingsByItemIDs(java.lang.String, int[])
+     */
+    public List<Integer> deleteMappingsByItemIDs(String mapTable, int[] itemIDs) throws BrowseException
+    {
+        try
+        {
+            return BrowseCreateBatch.deleteMappingsByItemIDs(context, mapTable, itemIDs);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#insertDistinctMappings(java.lang.String, java.util.Map)
+     */
+    public void insertDistinctMappings(String mapTable, Map<Integer, Set<Integer>> distinctIDs) throws BrowseException
+    {
+        try
+        {
+            BrowseCreateBatch.insertDistinctMappings(context, mapTable, "getnextid('" + mapTable + "')", distinctIDs);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#pruneDistinct(java.lang.String, java.lang.String)
      */
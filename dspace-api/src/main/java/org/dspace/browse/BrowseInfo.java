@@ -17,6 +17,7 @@ import org.dspace.content.Community;
 import org.dspace.content.DCValue;
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
+import org.dspace.content.LoadHints;
 import org.dspace.core.Context;
 import org.dspace.sort.SortOption;
 
@@ -514,12 +515,12 @@ public class BrowseInfo
     	try
     	{
     		BrowseItem[] bis = getBrowseItemResults();
-    		Item[] items = new Item[bis.length];
+    		int[] ids = new int[bis.length];
     		for (int i = 0; i < bis.length; i++)
     		{
-    			items[i] = Item.find(context, bis[i].getID());
+    			ids[i] = bis[i].getID();
     		}
-    		return items;
+    		return Item.findAll(context, ids, LoadHints.ALL);
     	}
     	catch (SQLException e)
     	{
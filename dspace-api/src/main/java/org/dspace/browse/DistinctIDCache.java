@@ -0,0 +1,120 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+
+/**
+ * Remembers the ids of the distinct values of the metadata browse indexes,
+ * so that a value shared by many items is only looked up (or inserted) once
+ * instead of once per item.
+ *
+ * An instance may be shared by several indexing threads. It can then be given
+ * a context of its own, which is committed after each new value, so that the
+ * value is visible to the other threads before they map items to it.
+ */
+final class DistinctIDCache
+{
+    /** Number of values remembered per table before starting again */
+    private static final int MAX_SIZE = 50000;
+
+    /** the DAO used to look up and insert the values */
+    private final BrowseCreateDAO dao;
+
+    /** the context to commit new values in, or null to leave that to the caller */
+    private final Context commitContext;
+
+    /** whether distinct values are matched regardless of case */
+    private final boolean caseInsensitive;
+
+    /** table name to value key to distinct id */
+    private final Map<String, Map<String, Integer>> tables = new HashMap<String, Map<String, Integer>>();
+
+    /**
+     * @param dao
+     *            the DAO used to look up and insert the values
+     * @param commitContext
+     *            the context of the DAO, to commit after each inserted value;
+     *            or null if it is the caller's transaction
+     */
+    DistinctIDCache(BrowseCreateDAO dao, Context commitContext)
+    {
+        this.dao = dao;
+        this.commitContext = commitContext;
+        this.caseInsensitive = ConfigurationManager.getBooleanProperty("webui.browse.metadata.case-insensitive", false);
+    }
+
+    /**
+     * Get the id of a distinct value, inserting it if it does not exist yet.
+     *
+     * @see BrowseCreateDAO#getDistinctID(String, String, String, String)
+     */
+    synchronized int getID(String table, String value, String authority, String sortValue)
+        throws BrowseException
+    {
+        Map<String, Integer> ids = tables.get(table);
+        if (ids == null)
+        {
+            ids = new HashMap<String, Integer>();
+            tables.put(table, ids);
+        }
+
+        // the key matches the way getDistinctID compares values
+        String key = (authority == null ? "N" : "A" + authority.length() + ":" + authority)
+                + (caseInsensitive ? value.toUpperCase(Locale.ROOT) : value);
+        Integer id = ids.get(key);
+        if (id == null)
+        {
+            id = dao.getDistinctID(table, value, authority, sortValue);
+            if (commitContext != null)
+            {
+                try
+                {
+                    commitContext.commit();
+                }
+                catch (SQLException e)
+                {
+                    throw new BrowseException(e);
+                }
+            }
+            if (ids.size() >= MAX_SIZE)
+            {
+                ids.clear();
+            }
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Forget the given ids, which are about to be pruned from the table.
+     *
+     * @param distinctIDs
+     *            the ids to forget, or null to forget the whole table
+     */
+    synchronized void forget(String table, Collection<Integer> distinctIDs)
+    {
+        Map<String, Integer> ids = tables.get(table);
+        if (distinctIDs == null)
+        {
+            tables.remove(table);
+        }
+        else if (ids != null && !distinctIDs.isEmpty())
+        {
+            ids.values().removeAll(new HashSet<Integer>(distinctIDs));
+        }
+    }
+}
@@ -10,13 +10,20 @@ package org.dspace.browse;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -28,8 +35,10 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.dspace.content.DCValue;
 import org.dspace.content.Item;
+import org.dspace.content.LoadHints;
 import org.dspace.content.authority.ChoiceAuthorityManager;
 import org.dspace.content.authority.MetadataAuthorityManager;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
 import org.dspace.sort.SortOption;
 import org.dspace.sort.SortException;
@@ -82,6 +91,15 @@ public class IndexBrowse
 	
 	/** the DAO for write operations on the database */
 	private BrowseCreateDAO dao;
+
+	/** the ids of the distinct values already looked up */
+	private DistinctIDCache distinctIDs;
+
+	/** the number of items to index at a time when building the indexes */
+	private int batchSize = ConfigurationManager.getIntProperty("browse.index.batch.size", 100);
+
+	/** the number of threads building the indexes */
+	private int threads = ConfigurationManager.getIntProperty("browse.index.threads", 1);
     
     /** the outputter class */
 	private BrowseOutput output;
@@ -125,6 +143,7 @@ public class IndexBrowse
         
         // get the DAO for the create operations
         dao = BrowseDAOFactory.getCreateInstance(context);
+        distinctIDs = new DistinctIDCache(dao, null);
         
         // set the outputter
         output = new BrowseOutput();
@@ -186,6 +205,38 @@ public class IndexBrowse
     	this.delete = bool;
     }
     
+    /**
+     * @param threads	the number of threads building the indexes
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * @return		the number of threads building the indexes
+     */
+    public int getThreads()
+    {
+        return this.threads;
+    }
+
+    /**
+     * @param batchSize	the number of items to index at a time when building the indexes
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return		the number of items to index at a time when building the indexes
+     */
+    public int getBatchSize()
+    {
+        return this.batchSize;
+    }
+
     /**
      * @param start		the index to start working up from
      */
@@ -291,6 +342,7 @@ public class IndexBrowse
 
     private void pruneDistinctIndex(BrowseIndex bi, List<Integer> removedIds) throws BrowseException
     {
+        distinctIDs.forget(bi.getDistinctTableName(), removedIds);
         dao.pruneMapExcess(bi.getMapTableName(), false, removedIds);
         dao.pruneDistinct(bi.getDistinctTableName(), bi.getMapTableName(), removedIds);
     }
@@ -317,193 +369,132 @@ public class IndexBrowse
         // isWithdrawn() as FALSE, may result in stale data in the browse tables.
         // Such an update should never occur though, and if it does, probably indicates a major
         // problem with the code updating the Item.
-        if (item.isArchived())
-        {
-            indexItem(new ItemMetadataProxy(item), addingNewItem);
-        }
-        else if (item.isWithdrawn() || !item.isArchived())
+        List<ItemMetadataProxy> items = new ArrayList<ItemMetadataProxy>(1);
+        items.add(new ItemMetadataProxy(item));
+        indexItems(items, addingNewItem && item.isArchived());
+    }
+
+    /**
+     * Index the given items. This does the same as indexing them one by one
+     * with {@link #indexItem(Item)}, but with a few statements per browse
+     * table for the whole list rather than a few per item.
+     *
+     * @param items	the items to index
+     * @throws BrowseException
+     */
+    public void indexItems(List<Item> items) throws BrowseException
+    {
+        List<ItemMetadataProxy> proxies = new ArrayList<ItemMetadataProxy>(items.size());
+        for (Item item : items)
         {
-            indexItem(new ItemMetadataProxy(item), false);
+            proxies.add(new ItemMetadataProxy(item));
         }
+        indexItems(proxies, false);
     }
-    
-       /**
-         * Index the given item
-         * 
-         * @param item  the item to index
-         * @throws BrowseException
-         */
-    private void indexItem(ItemMetadataProxy item, boolean addingNewItem)
+
+    /**
+     * Index the given items. The existing rows of the items are deleted and
+     * new ones inserted, in batches.
+     *
+     * @param items         the items to index
+     * @param addingNewItems    true if the browse tables are known to have
+     *                      no rows for these items, so there is nothing to delete
+     * @throws BrowseException
+     */
+    private void indexItems(List<ItemMetadataProxy> items, boolean addingNewItems)
         throws BrowseException
     {
-        // Map to store the metadata from the Item
-        // so that we don't grab it multiple times
-        Map<String, String> itemMDMap = new HashMap<String, String>();
-        
+        if (items.isEmpty())
+        {
+            return;
+        }
+
         try
         {
-            boolean reqCommunityMappings = false;
-            Map<Integer, String> sortMap = getSortValues(item, itemMDMap);
-            if (item.isArchived() && item.isDiscoverable())
+            int[] itemIDs = new int[items.size()];
+            Map<Integer, Map<Integer, String>> archived = new LinkedHashMap<Integer, Map<Integer, String>>();
+            Map<Integer, Map<Integer, String>> withdrawn = new LinkedHashMap<Integer, Map<Integer, String>>();
+            Map<Integer, Map<Integer, String>> hidden = new LinkedHashMap<Integer, Map<Integer, String>>();
+            int[] unmapped = new int[items.size()];
+            int unmappedCount = 0;
+
+            for (int i = 0; i < items.size(); i++)
             {
-                // Try to update an existing record in the item index
-                if (!dao.updateIndex(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID(), sortMap))
+                ItemMetadataProxy item = items.get(i);
+                itemIDs[i] = item.getID();
+                Map<Integer, String> sortMap = getSortValues(item, new HashMap<String, DCValue>());
+                if (item.isArchived() && item.isDiscoverable())
                 {
-                    // Record doesn't exist - ensure that it doesn't exist in the withdrawn index,
-                    // and add it to the archived item index
-                    dao.deleteByItemID(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), item.getID());
-                    dao.deleteByItemID(BrowseIndex.getPrivateBrowseIndex().getTableName(), item.getID());
-                    dao.insertIndex(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID(), sortMap);
-                }
-
-                reqCommunityMappings = true;
-            }
-            else if (!item.isDiscoverable())
-            {
-            	if (!dao.updateIndex(BrowseIndex.getPrivateBrowseIndex().getTableName(), item.getID(), sortMap)) {
-                    dao.deleteByItemID(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID());
-                    dao.insertIndex(BrowseIndex.getPrivateBrowseIndex().getTableName(), item.getID(), sortMap);
+                    archived.put(item.getID(), sortMap);
                 }
-            }
-            else if (item.isWithdrawn())
-            {
-                // Try to update an existing record in the withdrawn index
-                if (!dao.updateIndex(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), item.getID(), sortMap))
+                else
                 {
-                    // Record doesn't exist - ensure that it doesn't exist in the item index,
-                    // and add it to the withdrawn item index
-                    dao.deleteByItemID(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID());
-                    dao.insertIndex(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), item.getID(), sortMap);
+                    if (!item.isDiscoverable())
+                    {
+                        hidden.put(item.getID(), sortMap);
+                    }
+                    else if (item.isWithdrawn())
+                    {
+                        withdrawn.put(item.getID(), sortMap);
+                    }
+                    // otherwise this item shouldn't exist in any index
+                    unmapped[unmappedCount++] = item.getID();
                 }
             }
-            else
+
+            // an item is in at most one of the item indexes, so replace its rows in all of them
+            String itemTable = BrowseIndex.getItemBrowseIndex().getTableName();
+            String withdrawnTable = BrowseIndex.getWithdrawnBrowseIndex().getTableName();
+            String privateTable = BrowseIndex.getPrivateBrowseIndex().getTableName();
+            if (!addingNewItems)
             {
-                // This item shouldn't exist in either index - ensure that it is removed
-                dao.deleteByItemID(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID());
-                dao.deleteByItemID(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), item.getID());
-                dao.deleteByItemID(BrowseIndex.getPrivateBrowseIndex().getTableName(), item.getID());
+                dao.deleteByItemIDs(itemTable, itemIDs);
+                dao.deleteByItemIDs(withdrawnTable, itemIDs);
+                dao.deleteByItemIDs(privateTable, itemIDs);
             }
+            dao.insertIndexes(itemTable, archived);
+            dao.insertIndexes(withdrawnTable, withdrawn);
+            dao.insertIndexes(privateTable, hidden);
 
             // Update the community mappings if they are required, or remove them if they aren't
-            if (reqCommunityMappings)
-            {
-                dao.updateCommunityMappings(item.getID());
-            }
-            else
+            for (Integer itemID : archived.keySet())
             {
-                dao.deleteCommunityMappings(item.getID());
+                dao.updateCommunityMappings(itemID);
             }
+            dao.deleteByItemIDs("Communities2Item", Arrays.copyOf(unmapped, unmappedCount));
 
             // Now update the metadata indexes
             for (int i = 0; i < bis.length; i++)
             {
                 if (bis[i].isMetadataIndex())
                 {
-                    log.debug("Indexing for item " + item.getID() + ", for index: " + bis[i].getTableName());
-                    Set<Integer> distIDSet = new HashSet<Integer>();
+                    log.debug("Indexing " + items.size() + " items for index: " + bis[i].getTableName());
 
                     // now index the new details - but only if it's archived and not withdrawn
-                    if (item.isArchived() && !item.isWithdrawn())
+                    Map<Integer, Set<Integer>> mappings = new LinkedHashMap<Integer, Set<Integer>>();
+                    for (ItemMetadataProxy item : items)
                     {
-                        // get the metadata from the item
-                        for (int mdIdx = 0; mdIdx < bis[i].getMetadataCount(); mdIdx++)
+                        if (item.isArchived() && !item.isWithdrawn())
                         {
-                            String[] md = bis[i].getMdBits(mdIdx);
-                            DCValue[] values = item.getMetadata(md[0], md[1], md[2], Item.ANY);
-
-                            // if we have values to index on, then do so
-                            if (values != null && values.length > 0)
+                            Set<Integer> distIDSet = getDistinctIDs(bis[i], item);
+                            if (!distIDSet.isEmpty())
                             {
-                                int minConfidence = MetadataAuthorityManager.getManager()
-                                        .getMinConfidence(values[0].schema, values[0].element, values[0].qualifier);
-
-                                for (DCValue value : values)
-                                {
-                                    // Ensure that there is a value to index before inserting it
-                                    if (StringUtils.isEmpty(value.value))
-                                    {
-                                        log.error("Null metadata value for item " + item.getID() + ", field: " +
-                                                value.schema + "." +
-                                                value.element +
-                                                (value.qualifier == null ? "" : "." + value.qualifier));
-                                    }
-                                    else
-                                    {
-                                        if (bis[i].isAuthorityIndex() &&
-                                                (value.authority == null || value.confidence < minConfidence))
-                                        {
-                                            // skip to next value in this authority field if value is not authoritative
-                                            log.debug("Skipping non-authoritative value: " + item.getID() + ", field=" + value.schema + "." + value.element + "." + value.qualifier + ", value=" + value.value + ", authority=" + value.authority + ", confidence=" + value.confidence + " (BAD AUTHORITY)");
-                                            continue;
-
-                                        }
-
-                                        // is there any valid (with appropriate confidence) authority key?
-                                        if (value.authority != null
-                                                && value.confidence >= minConfidence)
-                                        {
-                                            boolean isValueInVariants = false;
-
-                                            // Are there variants of this value
-                                            List<String> variants = ChoiceAuthorityManager.getManager()
-                                                    .getVariants(value.schema, value.element, value.qualifier,
-                                                            value.authority, value.language);
-
-                                            // If we have variants, index them
-                                            if (variants != null)
-                                            {
-                                                for (String var : variants)
-                                                {
-                                                    String nVal = OrderFormat.makeSortString(var, value.language, bis[i].getDataType());
-                                                    distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), var, value.authority, nVal));
-                                                    if (var.equals(value.value))
-                                                    {
-                                                        isValueInVariants = true;
-                                                    }
-                                                }
-                                            }
-
-                                            // If we didn't index the value as one of the variants, add it now
-                                            if (!isValueInVariants)
-                                            {
-                                                // get the normalised version of the value
-                                                String nVal = OrderFormat.makeSortString(value.value, value.language, bis[i].getDataType());
-                                                distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), value.value, value.authority, nVal));
-                                            }
-                                        }
-                                        else // put it in the browse index as if it hasn't have an authority key
-                                        {
-                                            // get the normalised version of the value
-                                            String nVal = OrderFormat.makeSortString(value.value, value.language, bis[i].getDataType());
-                                            distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), value.value, null, nVal));
-                                        }
-                                    }
-                                }
+                                mappings.put(item.getID(), distIDSet);
                             }
                         }
                     }
 
-                    // Do we have any mappings?
-                    if (distIDSet.isEmpty())
+                    List<Integer> removedIds = null;
+                    if (!addingNewItems)
                     {
-                        if (!addingNewItem)
-                        {
-                            // remove any old mappings
-                            List<Integer> distinctIds = dao.deleteMappingsByItemID(bis[i].getMapTableName(), item.getID());
-                            if (distinctIds != null && distinctIds.size() > 0)
-                            {
-                                dao.pruneDistinct(bis[i].getDistinctTableName(), bis[i].getMapTableName(), distinctIds);
-                            }
-                        }
+                        removedIds = dao.deleteMappingsByItemIDs(bis[i].getMapTableName(), itemIDs);
                     }
-                    else
+                    dao.insertDistinctMappings(bis[i].getMapTableName(), mappings);
+
+                    // values no longer mapped to by these items may not be used at all
+                    if (removedIds != null && removedIds.size() > 0)
                     {
-                        // Update the existing mappings
-                        MappingResults results = dao.updateDistinctMappings(bis[i].getMapTableName(), item.getID(), distIDSet);
-                        if (results.getRemovedDistinctIds() != null && results.getRemovedDistinctIds().size() > 0)
-                        {
-                            pruneDistinctIndex(bis[i], results.getRemovedDistinctIds());
-                        }
+                        pruneDistinctIndex(bis[i], removedIds);
                     }
                 }
             }
@@ -515,6 +506,95 @@ public class IndexBrowse
         }
     }
 
+    /**
+     * Get the ids of the distinct values of an item in a metadata index,
+     * inserting the values that are new.
+     */
+    private Set<Integer> getDistinctIDs(BrowseIndex bi, ItemMetadataProxy item)
+        throws BrowseException, SQLException
+    {
+        Set<Integer> distIDSet = new HashSet<Integer>();
+
+        // get the metadata from the item
+        for (int mdIdx = 0; mdIdx < bi.getMetadataCount(); mdIdx++)
+        {
+            String[] md = bi.getMdBits(mdIdx);
+            DCValue[] values = item.getMetadata(md[0], md[1], md[2], Item.ANY);
+
+            // if we have values to index on, then do so
+            if (values != null && values.length > 0)
+            {
+                int minConfidence = MetadataAuthorityManager.getManager()
+                        .getMinConfidence(values[0].schema, values[0].element, values[0].qualifier);
+
+                for (DCValue value : values)
+                {
+                    // Ensure that there is a value to index before inserting it
+                    if (StringUtils.isEmpty(value.value))
+                    {
+                        log.error("Null metadata value for item " + item.getID() + ", field: " +
+                                value.schema + "." +
+                                value.element +
+                                (value.qualifier == null ? "" : "." + value.qualifier));
+                    }
+                    else
+                    {
+                        if (bi.isAuthorityIndex() &&
+                                (value.authority == null || value.confidence < minConfidence))
+                        {
+                            // skip to next value in this authority field if value is not authoritative
+                            log.debug("Skipping non-authoritative value: " + item.getID() + ", field=" + value.schema + "." + value.element + "." + value.qualifier + ", value=" + value.value + ", authority=" + value.authority + ", confidence=" + value.confidence + " (BAD AUTHORITY)");
+                            continue;
+
+                        }
+
+                        // is there any valid (with appropriate confidence) authority key?
+                        if (value.authority != null
+                                && value.confidence >= minConfidence)
+                        {
+                            boolean isValueInVariants = false;
+
+                            // Are there variants of this value
+                            List<String> variants = ChoiceAuthorityManager.getManager()
+                                    .getVariants(value.schema, value.element, value.qualifier,
+                                            value.authority, value.language);
+
+                            // If we have variants, index them
+                            if (variants != null)
+                            {
+                                for (String var : variants)
+                                {
+                                    String nVal = OrderFormat.makeSortString(var, value.language, bi.getDataType());
+                                    distIDSet.add(distinctIDs.getID(bi.getDistinctTableName(), var, value.authority, nVal));
+                                    if (var.equals(value.value))
+                                    {
+                                        isValueInVariants = true;
+                                    }
+                                }
+                            }
+
+                            // If we didn't index the value as one of the variants, add it now
+                            if (!isValueInVariants)
+                            {
+                                // get the normalised version of the value
+                                String nVal = OrderFormat.makeSortString(value.value, value.language, bi.getDataType());
+                                distIDSet.add(distinctIDs.getID(bi.getDistinctTableName(), value.value, value.authority, nVal));
+                            }
+                        }
+                        else // put it in the browse index as if it hasn't have an authority key
+                        {
+                            // get the normalised version of the value
+                            String nVal = OrderFormat.makeSortString(value.value, value.language, bi.getDataType());
+                            distIDSet.add(distinctIDs.getID(bi.getDistinctTableName(), value.value, null, nVal));
+                        }
+                    }
+                }
+            }
+        }
+
+        return distIDSet;
+    }
+
     /**
      * Get the normalised values for each of the sort columns
      * @param item
@@ -650,6 +730,7 @@ public class IndexBrowse
             // these options can be specified only with the -f option
             options.addOption("r", "rebuild", false, "should we rebuild all the indices, which removes old index tables and creates new ones.  For use with -f. Mutually exclusive with -d");
             options.addOption("d", "delete", false, "delete all the indices, but don't create new ones.  For use with -f. This is mutually exclusive with -r");
+            options.addOption("n", "threads", true, "[-n <int>] index with this many threads, each taking a range of item ids.  For use with -i and -f");
 
             // these options can be specified only with the -t and -f options
             options.addOption("o", "out", true, "[-o <filename>] write the remove and create SQL to the given file. For use with -t and -f");  // FIXME: not currently working
@@ -677,6 +758,11 @@ public class IndexBrowse
                 indexer.setVerbose(true);
             }
 
+            if (line.hasOption("n"))
+            {
+                indexer.setThreads(Integer.parseInt(line.getOptionValue("n")));
+            }
+
             if (line.hasOption("i"))
             {
                 indexer.createIndex();
@@ -1128,24 +1214,28 @@ public class IndexBrowse
     		// now get the ids of ALL the items in the database
             BrowseItemDAO biDao = BrowseDAOFactory.getItemInstance(context);
             BrowseItem[] items = biDao.findAll();
+            int[] itemIDs = new int[items.length];
+            for (int j = 0; j < items.length; j++)
+            {
+                itemIDs[j] = items[j].getID();
+            }
+            Arrays.sort(itemIDs);
 
-    		// go through every item id, grab the relevant metadata
+    		// go through the items a batch at a time, grab the relevant metadata
     		// and write it into the database
-    		
-    		for (int j = 0; j < items.length; j++)
-    		{
-                // Creating the indexes from scracth, so treat each item as if it's new
-                indexItem(new ItemMetadataProxy(items[j].getID(), items[j]), true);
-    			
-    			// after each item we commit the context and clear the cache
-    			context.commit();
-    			context.clearCache();
-    		}
+            if (threads > 1 && itemIDs.length > batchSize)
+            {
+                createIndexParallel(itemIDs);
+            }
+            else
+            {
+                indexRange(itemIDs, 0, itemIDs.length);
+            }
             
             // Make sure the deletes are written back
             context.commit();
     		
-    		return items.length;
+    		return itemIDs.length;
     	}
     	catch (SQLException e)
     	{
@@ -1153,6 +1243,112 @@ public class IndexBrowse
     		throw new BrowseException(e);
     	}
     }
+
+    /**
+     * Index the items with the ids from <code>from</code> (inclusive) to
+     * <code>to</code> (exclusive) in the given array, committing after each
+     * batch.
+     */
+    private void indexRange(int[] itemIDs, int from, int to)
+        throws BrowseException, SQLException
+    {
+        for (int start = from; start < to; start += batchSize)
+        {
+            int[] batch = Arrays.copyOfRange(itemIDs, start, Math.min(start + batchSize, to));
+            List<ItemMetadataProxy> items = new ArrayList<ItemMetadataProxy>(batch.length);
+            for (Item item : Item.findAll(context, batch, LoadHints.METADATA))
+            {
+                items.add(new ItemMetadataProxy(item));
+            }
+
+            // If the tables were rebuilt there is nothing to replace
+            indexItems(items, rebuild());
+
+            // after each batch we commit the context and clear the cache
+            context.commit();
+            context.clearCache();
+            output.message("Indexed items " + batch[0] + " to " + batch[batch.length - 1]);
+        }
+    }
+
+    /**
+     * Index the items with several threads, each taking a contiguous range
+     * of the (sorted) item ids, with a context of its own. The distinct values
+     * are shared, and committed as soon as they are inserted, so that two
+     * threads do not insert the same value.
+     */
+    private void createIndexParallel(final int[] itemIDs)
+        throws BrowseException, SQLException
+    {
+        // the new tables must be visible to the threads
+        context.commit();
+
+        Context distinctContext = new Context();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            final DistinctIDCache shared = new DistinctIDCache(
+                    BrowseDAOFactory.getCreateInstance(distinctContext), distinctContext);
+            final boolean rebuilt = rebuild();
+            int share = (itemIDs.length + threads - 1) / threads;
+
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int from = 0; from < itemIDs.length; from += share)
+            {
+                final int start = from;
+                final int end = Math.min(from + share, itemIDs.length);
+                results.add(pool.submit(new Callable<Object>()
+                {
+                    public Object call() throws Exception
+                    {
+                        Context workerContext = new Context();
+                        try
+                        {
+                            workerContext.turnOffAuthorisationSystem();
+                            IndexBrowse worker = new IndexBrowse(workerContext);
+                            worker.setRebuild(rebuilt);
+                            worker.setVerbose(isVerbose());
+                            worker.batchSize = batchSize;
+                            worker.distinctIDs = shared;
+                            worker.indexRange(itemIDs, start, end);
+                            workerContext.complete();
+                            return null;
+                        }
+                        finally
+                        {
+                            if (workerContext.isValid())
+                            {
+                                workerContext.abort();
+                            }
+                        }
+                    }
+                }));
+            }
+
+            for (Future<Object> result : results)
+            {
+                result.get();
+            }
+            distinctContext.complete();
+        }
+        catch (InterruptedException e)
+        {
+            throw new BrowseException(e);
+        }
+        catch (ExecutionException e)
+        {
+            log.error("caught exception: ", e.getCause());
+            throw new BrowseException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+            if (distinctContext.isValid())
+            {
+                distinctContext.abort();
+            }
+        }
+    }
     
     /**
      * Currently does nothing
@@ -0,0 +1,117 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Collection;
+import org.dspace.content.Item;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.event.Consumer;
+import org.dspace.event.Event;
+
+/**
+ * Keeps the item counts cached by a database ItemCountDAO current. The
+ * collections whose archived items change (installation, withdrawal,
+ * reinstatement, mapping, moving, deletion) are counted again at the end of
+ * each transaction, along with the communities above them; see
+ * {@link ItemCounter#update}. Nothing is done when the Solr ItemCountDAO is
+ * in use, as it does not cache counts.
+ *
+ * Recommended filter:  Community|Collection|Item+Install|Modify|Add|Remove
+ *
+ * @see ItemCounter
+ */
+public class ItemCountConsumer implements Consumer
+{
+    /** log4j logger */
+    private static Logger log = Logger.getLogger(ItemCountConsumer.class);
+
+    /** collections whose items changed */
+    private Set<Integer> collections = new HashSet<Integer>();
+
+    /** communities whose sub-communities or collections changed */
+    private Set<Integer> communities = new HashSet<Integer>();
+
+    public void initialize() throws Exception
+    {
+
+    }
+
+    public void consume(Context ctx, Event event) throws Exception
+    {
+        int et = event.getEventType();
+
+        switch (event.getSubjectType())
+        {
+        case Constants.ITEM:
+            // installation, withdrawal and reinstatement change in_archive
+            if (et == Event.INSTALL || (et == Event.MODIFY
+                    && ("WITHDRAW".equals(event.getDetail()) || "REINSTATE".equals(event.getDetail()))))
+            {
+                Item item = (Item) event.getSubject(ctx);
+                if (item != null)
+                {
+                    for (Collection collection : item.getCollections())
+                    {
+                        collections.add(collection.getID());
+                    }
+                }
+            }
+            break;
+
+        case Constants.COLLECTION:
+            if ((et == Event.ADD || et == Event.REMOVE) && event.getObjectType() == Constants.ITEM)
+            {
+                collections.add(event.getSubjectID());
+            }
+            break;
+
+        case Constants.COMMUNITY:
+            if (et == Event.ADD || et == Event.REMOVE)
+            {
+                communities.add(event.getSubjectID());
+            }
+            break;
+
+        default:
+            break;
+        }
+    }
+
+    public void end(Context ctx) throws Exception
+    {
+        if (!collections.isEmpty() || !communities.isEmpty())
+        {
+            try
+            {
+                ItemCounter ic = new ItemCounter(ctx);
+                ic.update(collections, communities);
+
+                // the counts were written to the DB, so we have to commit.
+                ctx.getDBConnection().commit();
+            }
+            catch (ItemCountException e)
+            {
+                log.error("Unable to update item counts of collections " + collections
+                        + " and communities " + communities, e);
+            }
+        }
+
+        collections.clear();
+        communities.clear();
+    }
+
+    public void finish(Context ctx) throws Exception
+    {
+
+    }
+}
@@ -7,6 +7,12 @@
  */
 package org.dspace.browse;
 
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
 import org.apache.log4j.Logger;
 import org.dspace.content.Community;
 import org.dspace.content.Collection;
@@ -15,6 +21,12 @@ import org.dspace.content.DSpaceObject;
 import org.dspace.core.ConfigurationManager;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This class provides a standard interface to all item counting
@@ -28,6 +40,14 @@ import java.sql.SQLException;
  * the data cache is not being used, this class will return direct
  * real time counts of content.
  * 
+ * With a database DAO, the {@link ItemCountConsumer} keeps the cached
+ * counts current as items are installed, withdrawn, reinstated, mapped
+ * and moved, recounting only the collections concerned and the
+ * communities above them. The command line run is then only needed
+ * once to seed the cache, and to repair it; with -s it takes the counts
+ * from a single facet query to the Discovery index instead of counting
+ * every collection in the database.
+ * 
  * @author Richard Jones
  *
  */
@@ -44,17 +64,39 @@ public class ItemCounter
 	
 	/**
 	 * method invoked by CLI which will result in the number of items
-	 * in each community and collection being cached.  These counts will
-	 * not update themselves until this is run again.
+	 * in each community and collection being cached.  Unless the
+	 * ItemCountConsumer is configured, these counts will not update
+	 * themselves until this is run again.
 	 * 
 	 * @param args
 	 */
 	public static void main(String[] args)
-		throws ItemCountException, SQLException
+		throws ItemCountException, SQLException, ParseException
 	{
+        CommandLineParser parser = new PosixParser();
+        Options options = new Options();
+        options.addOption("s", "solr", false,
+                "take the counts from the Discovery index");
+        options.addOption("h", "help", false, "help");
+        CommandLine line = parser.parse(options, args);
+
+        if (line.hasOption('h'))
+        {
+            HelpFormatter myhelp = new HelpFormatter();
+            myhelp.printHelp("ItemCounter\n", options);
+            System.exit(0);
+        }
+
         Context context = new Context();
         ItemCounter ic = new ItemCounter(context);
-		ic.buildItemCounts();
+        if (line.hasOption('s'))
+        {
+            ic.buildItemCountsFromSolr();
+        }
+        else
+        {
+            ic.buildItemCounts();
+        }
         context.complete();
 	}
 	
@@ -71,6 +113,17 @@ public class ItemCounter
 		this.context = context;
 		this.dao = ItemCountDAOFactory.getInstance(this.context);
 	}
+
+	/**
+	 * Construct a new item counter using the given DAO
+	 */
+	ItemCounter(Context context, ItemCountDAO dao)
+		throws ItemCountException
+	{
+		this.context = context;
+		this.dao = dao;
+		this.dao.setContext(context);
+	}
 	
 	/**
 	 * This method does the grunt work of drilling through and iterating
@@ -154,40 +207,169 @@ public class ItemCounter
 		dao.remove(dso);
 	}
 	
+	/**
+	 * Cache the counts of all communities and collections from a single
+	 * facet query to the Discovery index. Note that the index only counts
+	 * discoverable items, and an item mapped to several collections of a
+	 * community only once for that community.
+	 * 
+	 * @throws ItemCountException
+	 */
+	public void buildItemCountsFromSolr()
+		throws ItemCountException
+	{
+		if (dao instanceof ItemCountDAOSolr)
+		{
+			throw new ItemCountException("The Solr ItemCountDAO does not cache counts");
+		}
+
+		ItemCountDAO solr = new ItemCountDAOSolr();
+		solr.setContext(context);
+		try
+		{
+			for (Collection collection : Collection.findAll(context))
+			{
+				dao.collectionCount(collection, solr.getCount(collection));
+			}
+			for (Community community : Community.findAll(context))
+			{
+				dao.communityCount(community, solr.getCount(community));
+			}
+		}
+		catch (SQLException e)
+		{
+			log.error("caught exception: ", e);
+			throw new ItemCountException(e);
+		}
+	}
+
+	/**
+	 * Bring the cached counts up to date after items were added to or
+	 * removed from the given collections, or the structure below the given
+	 * communities changed. Each collection is counted again, and the
+	 * communities above them are summed from the cached counts of their
+	 * children, deepest first. Does nothing when the counts are not cached.
+	 * 
+	 * @param collectionIDs
+	 *            collections whose items changed
+	 * @param communityIDs
+	 *            communities whose sub-communities or collections changed
+	 * @throws ItemCountException
+	 */
+	public void update(Set<Integer> collectionIDs, Set<Integer> communityIDs)
+		throws ItemCountException
+	{
+		if (dao instanceof ItemCountDAOSolr)
+		{
+			return;
+		}
+
+		try
+		{
+			// communities to sum again, with their depth
+			final Map<Community, Integer> depths = new HashMap<Community, Integer>();
+			for (Integer id : collectionIDs)
+			{
+				Collection collection = Collection.find(context, id);
+				if (collection != null)
+				{
+					count(collection);
+					for (Community parent : collection.getCommunities())
+					{
+						addWithParents(parent, depths);
+					}
+				}
+			}
+			for (Integer id : communityIDs)
+			{
+				Community community = Community.find(context, id);
+				if (community != null)
+				{
+					addWithParents(community, depths);
+				}
+			}
+
+			List<Community> communities = new ArrayList<Community>(depths.keySet());
+			java.util.Collections.sort(communities, new Comparator<Community>()
+			{
+				public int compare(Community a, Community b)
+				{
+					return depths.get(b).compareTo(depths.get(a));
+				}
+			});
+			for (Community community : communities)
+			{
+				int total = 0;
+				for (Collection collection : community.getCollections())
+				{
+					total += dao.getCount(collection);
+				}
+				for (Community sub : community.getSubcommunities())
+				{
+					total += dao.getCount(sub);
+				}
+				dao.communityCount(community, total);
+			}
+		}
+		catch (SQLException e)
+		{
+			log.error("caught exception: ", e);
+			throw new ItemCountException(e);
+		}
+	}
+
+	private void addWithParents(Community community, Map<Community, Integer> depths)
+		throws SQLException
+	{
+		if (!depths.containsKey(community))
+		{
+			Community[] parents = community.getAllParents();
+			depths.put(community, parents.length);
+			for (Community parent : parents)
+			{
+				addWithParents(parent, depths);
+			}
+		}
+	}
+	
 	/**
 	 * count and cache the number of items in the community.  This
 	 * will include all sub-communities and collections in the
 	 * community.  It will also recurse into sub-communities and
-	 * collections and call count() on them also.
+	 * collections and call count() on them also, and sum what they
+	 * return.
 	 * 
 	 * Therefore, the count the contents of the entire system, it is
 	 * necessary just to call this method on each top level community
 	 * 
 	 * @param community
+	 * @return the count
 	 * @throws ItemCountException
 	 */
-	private void count(Community community)
+	private int count(Community community)
 		throws ItemCountException
 	{
 		try
 		{
-			// first count the community we are in
-			int count = community.countItems();
-			dao.communityCount(community, count);
+			int count = 0;
 			
-			// now get the sub-communities
+			// first the sub-communities
 			Community[] scs = community.getSubcommunities();
 			for (int i = 0; i < scs.length; i++)
 			{
-				count(scs[i]);
+				count += count(scs[i]);
 			}
 			
 			// now get the collections
 			Collection[] cols = community.getCollections();
 			for (int i = 0; i < cols.length; i++)
 			{
-				count(cols[i]);
+				count += count(cols[i]);
 			}
+
+			// then the community we are in
+			dao.communityCount(community, count);
+			return count;
 		}
 		catch (SQLException e)
 		{
@@ -197,18 +379,18 @@ public class ItemCounter
 	}
 	
 	/**
-	 * count and cache the number of items in the given collection
+	 * Count and cache the items of a collection.
 	 * 
-	 * @param collection
-	 * @throws ItemCountException
+	 * @return the count
 	 */
-	private void count(Collection collection)
+	private int count(Collection collection)
 		throws ItemCountException
 	{
 		try
 		{
 			int ccount = collection.countItems();
 			dao.collectionCount(collection, ccount);
+			return ccount;
 		}
 		catch (SQLException e)
 		{
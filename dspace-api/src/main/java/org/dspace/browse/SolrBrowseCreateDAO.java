@@ -352,6 +352,11 @@ public class SolrBrowseCreateDAO implements BrowseCreateDAO,
     {
     }
 
+    @Override
+    public void deleteByItemIDs(String table, int[] itemIDs) throws BrowseException
+    {
+    }
+
     @Override
     public void deleteCommunityMappings(int itemID) throws BrowseException
     {
@@ -371,6 +376,20 @@ public class SolrBrowseCreateDAO implements BrowseCreateDAO,
     	dbCreateDAO.deleteCommunityMappings(itemID);
     }
 
+    @Override
+    public void insertIndexes(String table, Map<Integer, Map<Integer, String>> sortCols)
+            throws BrowseException
+    {
+        // as for insertIndex
+        int[] itemIDs = new int[sortCols.size()];
+        int i = 0;
+        for (Integer itemID : sortCols.keySet())
+        {
+            itemIDs[i++] = itemID;
+        }
+        dbCreateDAO.deleteByItemIDs("Communities2Item", itemIDs);
+    }
+
     @Override
     public boolean updateIndex(String table, int itemID, Map sortCols)
             throws BrowseException
@@ -509,6 +528,19 @@ public class SolrBrowseCreateDAO implements BrowseCreateDAO,
         return new ArrayList<Integer>();
     }
 
+    @Override
+    public List<Integer> deleteMappingsByItemIDs(String mapTable, int[] itemIDs)
+            throws BrowseException
+    {
+        return new ArrayList<Integer>();
+    }
+
+    @Override
+    public void insertDistinctMappings(String mapTable, Map<Integer, Set<Integer>> distinctIDs)
+            throws BrowseException
+    {
+    }
+
     @Override
     public void pruneExcess(String table, boolean withdrawn)
             throws BrowseException
@@ -0,0 +1,131 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.checker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Computes one or more digests of a bitstream in a single pass. Files in a
+ * local assetstore are read through a FileChannel into a large direct
+ * buffer, which saves the copy through the temporary buffer that the JDK
+ * uses for reads into heap arrays; other bitstores are read as a stream.
+ *
+ * Each checker thread has its own digester, which is not thread safe.
+ */
+final class BitstreamDigester
+{
+    /** Reused read buffer, direct */
+    private final ByteBuffer buffer;
+
+    /** Reused read buffer, for streams */
+    private byte[] bytes = null;
+
+    /** Rate cap shared by all threads, or null */
+    private final IOThrottle throttle;
+
+    /**
+     * @param bufferSize
+     *            bytes read at once
+     * @param throttle
+     *            caps the read rate, may be null
+     */
+    BitstreamDigester(int bufferSize, IOThrottle throttle)
+    {
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.throttle = throttle;
+    }
+
+    /**
+     * Digest a file.
+     *
+     * @param file
+     *            the file
+     * @param digests
+     *            updated with the whole content
+     * @return number of bytes read
+     * @throws IOException
+     */
+    long digest(File file, MessageDigest[] digests) throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            long total = 0;
+            int read;
+            buffer.clear();
+            while ((read = channel.read(buffer)) != -1)
+            {
+                if (throttle != null)
+                {
+                    throttle.acquire(read);
+                }
+                buffer.flip();
+                for (MessageDigest digest : digests)
+                {
+                    buffer.mark();
+                    digest.update(buffer);
+                    buffer.reset();
+                }
+                buffer.clear();
+                total += read;
+            }
+            return total;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Digest a stream, and close it.
+     *
+     * @param in
+     *            the stream
+     * @param digests
+     *            updated with the whole content
+     * @return number of bytes read
+     * @throws IOException
+     */
+    long digest(InputStream in, MessageDigest[] digests) throws IOException
+    {
+        if (bytes == null)
+        {
+            bytes = new byte[buffer.capacity()];
+        }
+        try
+        {
+            long total = 0;
+            int read;
+            while ((read = in.read(bytes)) != -1)
+            {
+                if (throttle != null)
+                {
+                    throttle.acquire(read);
+                }
+                for (MessageDigest digest : digests)
+                {
+                    digest.update(bytes, 0, read);
+                }
+                total += read;
+            }
+            return total;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
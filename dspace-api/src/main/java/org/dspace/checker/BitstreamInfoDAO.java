@@ -137,6 +137,44 @@ public final class BitstreamInfoDAO extends DAOSupport
         + "order by trunc(last_process_end_date, 'mi'), "
         + "bitstream_id " + "ASC) WHERE rownum=1";
     
+    /**
+     * Selects a batch of bitstreams in order of last processing end date,
+     * starting after the given end date and bitstream ID.
+     */
+    private static final String GET_OLDEST_BITSTREAMS_AFTER = "select bitstream_id, last_process_end_date "
+            + "from most_recent_checksum "
+            + "where to_be_processed = true "
+            + "and (last_process_end_date > ? "
+            + "or (last_process_end_date = ? and bitstream_id > ?)) "
+            + "order by last_process_end_date, bitstream_id ASC LIMIT ?";
+
+    private static final String GET_OLDEST_BITSTREAMS_AFTER_ORACLE = "SELECT * FROM (select bitstream_id, last_process_end_date "
+            + "from most_recent_checksum "
+            + "where to_be_processed = 1 "
+            + "and (last_process_end_date > ? "
+            + "or (last_process_end_date = ? and bitstream_id > ?)) "
+            + "order by last_process_end_date, bitstream_id ASC) WHERE rownum <= ?";
+
+    /**
+     * As GET_OLDEST_BITSTREAMS_AFTER, but only bitstreams not checked since
+     * the date parameter.
+     */
+    private static final String GET_OLDEST_BITSTREAMS_AFTER_DATE = "select bitstream_id, last_process_end_date "
+            + "from most_recent_checksum "
+            + "where to_be_processed = true "
+            + "and last_process_start_date < ? "
+            + "and (last_process_end_date > ? "
+            + "or (last_process_end_date = ? and bitstream_id > ?)) "
+            + "order by last_process_end_date, bitstream_id ASC LIMIT ?";
+
+    private static final String GET_OLDEST_BITSTREAMS_AFTER_DATE_ORACLE = "SELECT * FROM (select bitstream_id, last_process_end_date "
+            + "from most_recent_checksum "
+            + "where to_be_processed = 1 "
+            + "and last_process_start_date < ? "
+            + "and (last_process_end_date > ? "
+            + "or (last_process_end_date = ? and bitstream_id > ?)) "
+            + "order by last_process_end_date, bitstream_id ASC) WHERE rownum <= ?";
+
     /** SQL query to retrieve bitstreams for a given item. */
     private static final String ITEM_BITSTREAMS = "SELECT b2b.bitstream_id "
             + "FROM bundle2bitstream b2b, item2bundle i2b WHERE "
@@ -217,6 +255,56 @@ public final class BitstreamInfoDAO extends DAOSupport
         }
     }
 
+    /**
+     * Updates most_recent_checksum and inserts into checksum_history the
+     * results of many checks, in one transaction.
+     * 
+     * @param infos
+     *            the BitstreamInfos to update.
+     */
+    public void update(List<BitstreamInfo> infos)
+    {
+        if (infos.isEmpty())
+        {
+            return;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            stmt = conn.prepareStatement(UPDATE_CHECKSUM);
+            for (BitstreamInfo info : infos)
+            {
+                stmt.setString(1, (info.getCalculatedChecksum() != null) ? info
+                        .getCalculatedChecksum() : "");
+                stmt.setString(2, info.getStoredChecksum());
+                stmt.setBoolean(3, ChecksumCheckResults.CHECKSUM_MATCH.equals(info
+                        .getChecksumCheckResult()));
+                stmt.setBoolean(4, info.getToBeProcessed());
+                stmt.setTimestamp(5, new Timestamp(info.getProcessStartDate().getTime()));
+                stmt.setTimestamp(6, new Timestamp(info.getProcessEndDate().getTime()));
+                stmt.setString(7, info.getChecksumCheckResult());
+                stmt.setInt(8, info.getBitstreamId());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            checksumHistoryDAO.insertHistory(infos, conn);
+            conn.commit();
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Problem updating checksum rows. " + e.getMessage(), e);
+            throw new IllegalStateException("Problem updating checksum rows. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(stmt, conn);
+        }
+    }
+
     /**
      * Find a bitstream by its id.
      * 
@@ -478,6 +566,75 @@ public final class BitstreamInfoDAO extends DAOSupport
         }
     }
 
+    /**
+     * Get a batch of bitstreams in order of last processing end date, for
+     * dispatchers that page through the most_recent_checksum table. Pass the
+     * end date returned for one batch, and the last ID, to get the next.
+     * Bitstreams checked meanwhile get a later end date, so they come up
+     * again at the end rather than twice in one batch.
+     * 
+     * @param lessThanDate
+     *            only bitstreams last started before this date, or null for
+     *            all
+     * @param afterDate
+     *            last processing end date of the previous batch
+     * @param afterId
+     *            last bitstream ID of the previous batch
+     * @param limit
+     *            maximum number of IDs
+     * @param ids
+     *            receives the bitstream IDs
+     * @return the last processing end date of the last ID, or null if none
+     *         was found
+     */
+    public Timestamp getOldestBitstreams(Timestamp lessThanDate, Timestamp afterDate,
+            int afterId, int limit, List<Integer> ids)
+    {
+        Connection conn = null;
+        PreparedStatement prepStmt = null;
+        ResultSet rs = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            boolean oracle = DatabaseManager.isOracle();
+            int param = 1;
+            if (lessThanDate == null)
+            {
+                prepStmt = conn.prepareStatement(oracle ? GET_OLDEST_BITSTREAMS_AFTER_ORACLE
+                        : GET_OLDEST_BITSTREAMS_AFTER);
+            }
+            else
+            {
+                prepStmt = conn.prepareStatement(oracle ? GET_OLDEST_BITSTREAMS_AFTER_DATE_ORACLE
+                        : GET_OLDEST_BITSTREAMS_AFTER_DATE);
+                prepStmt.setTimestamp(param++, lessThanDate);
+            }
+            prepStmt.setTimestamp(param++, afterDate);
+            prepStmt.setTimestamp(param++, afterDate);
+            prepStmt.setInt(param++, afterId);
+            prepStmt.setInt(param, limit);
+
+            Timestamp last = null;
+            rs = prepStmt.executeQuery();
+            while (rs.next())
+            {
+                ids.add(Integer.valueOf(rs.getInt(1)));
+                last = rs.getTimestamp(2);
+            }
+            return last;
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Problem with get oldest bitstreams " + e.getMessage(), e);
+            throw new IllegalStateException("Oldest bitstreams error. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(prepStmt, conn, rs);
+        }
+    }
+
     /**
      * Get the bitstream ids for a given Item
      * 
@@ -7,15 +7,20 @@
  */
 package org.dspace.checker;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Utils;
 
 /**
@@ -25,6 +30,18 @@ import org.dspace.core.Utils;
  * against the last calculated checksum for that bitstream.
  * </p>
  * 
+ * <p>
+ * Bitstreams can be checked by several threads at once
+ * (<code>checker.threads</code>), which share the dispatcher. Files are read
+ * through large direct buffers (<code>checker.buffer.size</code>), and the
+ * digests of <code>checker.digests.additional</code> are computed in the same
+ * pass as the stored checksum. The results are written to the database in
+ * batches of <code>checker.write.batch.size</code>. The read rate of all
+ * threads together can be capped (<code>checker.rate.limit</code>, in MB/s)
+ * so that the checker can run during working hours, and the throughput is
+ * logged every <code>checker.report.interval</code> seconds.
+ * </p>
+ * 
  * @author Jim Downing
  * @author Grace Carpenter
  * @author Nathan Sarr
@@ -41,8 +58,7 @@ public final class CheckerCommand
     /** Default digest algorithm (MD5). */
     private static final String DEFAULT_DIGEST_ALGORITHM = "MD5";
 
-    /** 4 Meg byte array for reading file. */
-    private int BYTE_ARRAY_SIZE = 4 * 1024;
+    private static final double MB = 1024 * 1024;
 
     /** BitstreamInfoDAO dependency. */
     private BitstreamInfoDAO bitstreamInfoDAO = null;
@@ -50,11 +66,6 @@ public final class CheckerCommand
     /** BitstreamDAO dependency. */
     private BitstreamDAO bitstreamDAO = null;
 
-    /**
-     * Checksum history Data access object
-     */
-    private ChecksumHistoryDAO checksumHistoryDAO = null;
-
     /** start time for current process. */
     private Date processStartDate = null;
 
@@ -71,6 +82,38 @@ public final class CheckerCommand
     /** Report all processing */
     private boolean reportVerbose = false;
 
+    /** Number of threads checking bitstreams */
+    private int threads = 1;
+
+    /** Bytes read at once from each bitstream */
+    private int bufferSize = 1024 * 1024;
+
+    /** Algorithms computed besides the stored checksum algorithm */
+    private String[] additionalAlgorithms = new String[0];
+
+    /** Maximum read rate in bytes per second, 0 for none */
+    private long rateLimit = 0;
+
+    /** Results written to the database at once */
+    private int writeBatchSize = 100;
+
+    /** Milliseconds between throughput reports, 0 for none */
+    private long reportInterval = 60000;
+
+    /** Results waiting to be written */
+    private final List<BitstreamInfo> pending = new ArrayList<BitstreamInfo>();
+
+    private final AtomicLong bitstreamsChecked = new AtomicLong();
+
+    private final AtomicLong bytesChecked = new AtomicLong();
+
+    private long started = 0;
+
+    private long lastReport = 0;
+
+    /** First error that stopped a checker thread */
+    private volatile RuntimeException failure = null;
+
     /**
      * Default constructor uses DSpace plugin manager to construct dependencies.
      */
@@ -78,7 +121,17 @@ public final class CheckerCommand
     {
         bitstreamInfoDAO = new BitstreamInfoDAO();
         bitstreamDAO = new BitstreamDAO();
-        checksumHistoryDAO = new ChecksumHistoryDAO();
+
+        setThreads(ConfigurationManager.getIntProperty("checker.threads", 1));
+        setBufferSize(ConfigurationManager.getIntProperty("checker.buffer.size", bufferSize));
+        setRateLimit((long) (ConfigurationManager.getIntProperty("checker.rate.limit", 0) * MB));
+        writeBatchSize = Math.max(1, ConfigurationManager.getIntProperty("checker.write.batch.size", writeBatchSize));
+        reportInterval = ConfigurationManager.getLongProperty("checker.report.interval", 60) * 1000;
+        String additional = ConfigurationManager.getProperty("checker.digests.additional");
+        if (additional != null && additional.trim().length() > 0)
+        {
+            setAdditionalAlgorithms(additional.trim().split("\\s*,\\s*"));
+        }
     }
 
     /**
@@ -111,21 +164,171 @@ public final class CheckerCommand
         // bitstream table - this always done.
         bitstreamInfoDAO.updateMissingBitstreams();
 
-        int id = dispatcher.next();
+        IOThrottle throttle = rateLimit > 0 ? new IOThrottle(rateLimit) : null;
+        started = System.currentTimeMillis();
+        lastReport = started;
+
+        if (threads <= 1)
+        {
+            new Checker(throttle).run();
+        }
+        else
+        {
+            LOG.info("Checking bitstreams with " + threads + " threads");
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++)
+            {
+                workers[i] = new Thread(new Checker(throttle), "ChecksumChecker-" + i);
+                workers[i].start();
+            }
+            try
+            {
+                for (Thread worker : workers)
+                {
+                    worker.join();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while checking bitstreams", e);
+            }
+        }
+
+        flush();
+        LOG.info("Finished: " + getProgress());
 
-        while (id != BitstreamDispatcher.SENTINEL)
+        if (failure != null)
         {
-            LOG.debug("Processing bitstream id = " + id);
-            BitstreamInfo info = checkBitstream(id);
+            throw failure;
+        }
+    }
 
-            if (reportVerbose
-                    || !ChecksumCheckResults.CHECKSUM_MATCH.equals(info.getChecksumCheckResult()))
+    /**
+     * Takes bitstream IDs from the dispatcher and checks them, until there are
+     * no more or another thread fails.
+     */
+    private class Checker implements Runnable
+    {
+        private final BitstreamDigester digester;
+
+        Checker(IOThrottle throttle)
+        {
+            digester = new BitstreamDigester(bufferSize, throttle);
+        }
+
+        public void run()
+        {
+            try
+            {
+                int id;
+                while (failure == null && (id = dispatcher.next()) != BitstreamDispatcher.SENTINEL)
+                {
+                    LOG.debug("Processing bitstream id = " + id);
+                    record(checkBitstream(id, digester));
+                }
+            }
+            catch (RuntimeException e)
             {
-                collector.collect(info);
+                LOG.error("Checker stopped: " + e.getMessage(), e);
+                synchronized (CheckerCommand.this)
+                {
+                    if (failure == null)
+                    {
+                        failure = e;
+                    }
+                }
             }
+        }
+    }
+
+    /**
+     * Pass a result to the collector, and report the throughput when due.
+     */
+    private synchronized void record(BitstreamInfo info)
+    {
+        if (reportVerbose
+                || !ChecksumCheckResults.CHECKSUM_MATCH.equals(info.getChecksumCheckResult()))
+        {
+            collector.collect(info);
+        }
 
-            id = dispatcher.next();
+        bitstreamsChecked.incrementAndGet();
+        long now = System.currentTimeMillis();
+        if (reportInterval > 0 && now - lastReport >= reportInterval)
+        {
+            lastReport = now;
+            LOG.info(getProgress());
+        }
+    }
+
+    /**
+     * Queue a result to be written to most_recent_checksum and
+     * checksum_history, and write the queue if it is full.
+     */
+    private void write(BitstreamInfo info)
+    {
+        List<BitstreamInfo> batch = null;
+        synchronized (pending)
+        {
+            pending.add(info);
+            if (pending.size() >= writeBatchSize)
+            {
+                batch = new ArrayList<BitstreamInfo>(pending);
+                pending.clear();
+            }
+        }
+        if (batch != null)
+        {
+            bitstreamInfoDAO.update(batch);
+        }
+    }
+
+    /** Write the queued results */
+    private void flush()
+    {
+        List<BitstreamInfo> batch;
+        synchronized (pending)
+        {
+            batch = new ArrayList<BitstreamInfo>(pending);
+            pending.clear();
         }
+        bitstreamInfoDAO.update(batch);
+    }
+
+    /**
+     * @return number of bitstreams checked so far
+     */
+    public long getBitstreamsChecked()
+    {
+        return bitstreamsChecked.get();
+    }
+
+    /**
+     * @return number of bytes read so far
+     */
+    public long getBytesChecked()
+    {
+        return bytesChecked.get();
+    }
+
+    /**
+     * @return average read rate of this run in MB/s
+     */
+    public double getThroughput()
+    {
+        long elapsed = System.currentTimeMillis() - started;
+        return elapsed > 0 ? bytesChecked.get() / MB * 1000 / elapsed : 0;
+    }
+
+    /**
+     * @return a summary of the progress of this run
+     */
+    public String getProgress()
+    {
+        return String.format("checked %d bitstreams, %.1f MB in %d s (%.1f MB/s)",
+                getBitstreamsChecked(), getBytesChecked() / MB,
+                (System.currentTimeMillis() - started) / 1000, getThroughput());
     }
 
     /**
@@ -133,10 +336,12 @@ public final class CheckerCommand
      * 
      * @param id
      *            the bitstream id
+     * @param digester
+     *            reads the bitstream
      * 
      * @return the information about the bitstream and its checksum data
      */
-    private BitstreamInfo checkBitstream(final int id)
+    private BitstreamInfo checkBitstream(final int id, BitstreamDigester digester)
     {
         // get bitstream info from bitstream table
         BitstreamInfo info = bitstreamInfoDAO.findByBitstreamId(id);
@@ -167,46 +372,12 @@ public final class CheckerCommand
         }
         else
         {
-            processBitstream(info);
+            processBitstream(info, digester);
         }
 
         return info;
     }
 
-    /**
-     * Digest the stream and get the checksum value.
-     * 
-     * @param stream
-     *            InputStream to digest.
-     * @param algorithm
-     *            the algorithm to use when digesting.
-     * @todo Document the algorithm parameter
-     * @return digest
-     * 
-     * @throws java.security.NoSuchAlgorithmException
-     *             if the requested algorithm is not provided by the system
-     *             security provider.
-     * @throws java.io.IOException
-     *             If an exception arises whilst reading the stream
-     */
-    private String digestStream(InputStream stream, String algorithm)
-            throws java.security.NoSuchAlgorithmException, java.io.IOException
-    {
-        // create the digest stream
-        DigestInputStream dStream = new DigestInputStream(stream, MessageDigest
-                .getInstance(algorithm));
-
-        byte[] bytes = new byte[BYTE_ARRAY_SIZE];
-
-        // make sure all the data is read by the digester
-        int bytesRead = -1;
-        do {
-            bytesRead = dStream.read(bytes, 0, BYTE_ARRAY_SIZE);
-        } while (bytesRead != -1);
-
-        return Utils.toHex(dStream.getMessageDigest().digest());
-    }
-
     /**
      * Compares two checksums.
      * 
@@ -250,8 +421,7 @@ public final class CheckerCommand
         info.setProcessStartDate(new Date());
         info.setProcessEndDate(new Date());
         info.setToBeProcessed(false);
-        bitstreamInfoDAO.update(info);
-        checksumHistoryDAO.insertHistory(info);
+        write(info);
     }
 
     /**
@@ -287,8 +457,10 @@ public final class CheckerCommand
      * 
      * @param info
      *            BitstreamInfo to handle
+     * @param digester
+     *            reads the bitstream
      */
-    private void processBitstream(BitstreamInfo info)
+    private void processBitstream(BitstreamInfo info, BitstreamDigester digester)
     {
         info.setProcessStartDate(new Date());
 
@@ -299,15 +471,37 @@ public final class CheckerCommand
 
         try
         {
-            InputStream bitstream = bitstreamDAO.getBitstream(info
-                    .getBitstreamId());
+            MessageDigest[] digests = new MessageDigest[1 + additionalAlgorithms.length];
+            digests[0] = MessageDigest.getInstance(info.getChecksumAlgorithm());
+            for (int i = 0; i < additionalAlgorithms.length; i++)
+            {
+                digests[i + 1] = MessageDigest.getInstance(additionalAlgorithms[i]);
+            }
 
-            info.setBitstreamFound(true);
+            File file = bitstreamDAO.getBitstreamFile(info.getBitstreamId());
+            long size;
+            if (file != null && file.isFile())
+            {
+                size = digester.digest(file, digests);
+            }
+            else
+            {
+                size = digester.digest(bitstreamDAO.getBitstream(info.getBitstreamId()), digests);
+            }
+            bytesChecked.addAndGet(size);
 
-            String checksum = digestStream(bitstream, info
-                    .getChecksumAlgorithm());
+            info.setBitstreamFound(true);
 
-            info.setCalculatedChecksum(checksum);
+            info.setCalculatedChecksum(Utils.toHex(digests[0].digest()));
+            if (additionalAlgorithms.length > 0)
+            {
+                Map<String, String> additional = new LinkedHashMap<String, String>();
+                for (int i = 0; i < additionalAlgorithms.length; i++)
+                {
+                    additional.put(additionalAlgorithms[i], Utils.toHex(digests[i + 1].digest()));
+                }
+                info.setAdditionalChecksums(additional);
+            }
 
             // compare new checksum to previous checksum
             info.setChecksumCheckResult(compareChecksums(info
@@ -345,8 +539,7 @@ public final class CheckerCommand
             info.setProcessEndDate(new Date());
 
             // record new checksum and comparison result in db
-            bitstreamInfoDAO.update(info);
-            checksumHistoryDAO.insertHistory(info);
+            write(info);
         }
     }
 
@@ -413,6 +606,64 @@ public final class CheckerCommand
         processStartDate = startDate == null ? null : new Date(startDate.getTime());
     }
 
+    /**
+     * Set the number of threads checking bitstreams.
+     * 
+     * @param threads
+     *            number of threads, at least 1
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Set the number of bytes read at once by each thread.
+     * 
+     * @param bufferSize
+     *            buffer size in bytes
+     */
+    public void setBufferSize(int bufferSize)
+    {
+        this.bufferSize = Math.max(4096, bufferSize);
+    }
+
+    /**
+     * Cap the rate at which all threads together read bitstreams.
+     * 
+     * @param bytesPerSecond
+     *            maximum rate, or 0 for none
+     */
+    public void setRateLimit(long bytesPerSecond)
+    {
+        this.rateLimit = Math.max(0, bytesPerSecond);
+    }
+
+    /**
+     * Set digest algorithms to compute in the same pass as the stored
+     * checksum, e.g. "SHA-256". Their values are passed to the collector.
+     * 
+     * @param algorithms
+     *            names of MessageDigest algorithms
+     * @throws IllegalArgumentException
+     *             if an algorithm is not provided by the system
+     */
+    public void setAdditionalAlgorithms(String[] algorithms)
+    {
+        for (String algorithm : algorithms)
+        {
+            try
+            {
+                MessageDigest.getInstance(algorithm);
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, e);
+            }
+        }
+        this.additionalAlgorithms = algorithms.clone();
+    }
+
     /**
      * Determine if any errors are reported
      * 
@@ -0,0 +1,77 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.checker;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Caps the rate at which the checker threads read from the assetstore, so
+ * that a check can run alongside normal use. Each read reserves the time it
+ * takes at the configured rate; a thread that reads ahead of the rate sleeps
+ * until its reservation is due. Unused time is not saved up, so there are no
+ * bursts after a quiet period.
+ *
+ * Thread safe.
+ */
+final class IOThrottle
+{
+    private final double nanosPerByte;
+
+    /** When the next read may start, in System.nanoTime() */
+    private long next;
+
+    /**
+     * @param bytesPerSecond
+     *            maximum rate of all threads together
+     */
+    IOThrottle(long bytesPerSecond)
+    {
+        if (bytesPerSecond <= 0)
+        {
+            throw new IllegalArgumentException("Rate must be positive: " + bytesPerSecond);
+        }
+        nanosPerByte = 1000000000.0 / bytesPerSecond;
+        next = System.nanoTime();
+    }
+
+    /**
+     * Wait until the given number of bytes may be read.
+     *
+     * @param bytes
+     *            number of bytes just read, or about to be read
+     * @throws InterruptedIOException
+     *             if the thread is interrupted while waiting
+     */
+    void acquire(long bytes) throws InterruptedIOException
+    {
+        long wait;
+        synchronized (this)
+        {
+            long now = System.nanoTime();
+            if (next < now)
+            {
+                next = now;
+            }
+            wait = next - now;
+            next += (long) (bytes * nanosPerByte);
+        }
+
+        if (wait > 0)
+        {
+            try
+            {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling");
+            }
+        }
+    }
+}
@@ -7,11 +7,23 @@
  */
 package org.dspace.checker;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+
+import org.dspace.core.ConfigurationManager;
 
 /**
  * An implementation of the selection strategy that selects bitstreams in the
  * order that they were last checked, looping endlessly.
+ * <p>
+ * The IDs are read from the database in batches of
+ * <code>checker.dispatcher.batch.size</code> (default 1000), paging by last
+ * processing end date and ID, so that several checker threads can share
+ * one dispatcher, and results may be written some time after an ID is
+ * handed out without the ID being handed out again.
+ * </p>
  * 
  * @author Jim Downing
  * @author Grace Carpenter
@@ -36,6 +48,26 @@ public class SimpleDispatcher implements BitstreamDispatcher
      */
     private BitstreamInfoDAO bitstreamInfoDAO;
 
+    /**
+     * Number of IDs read at once
+     */
+    private int batchSize = 1000;
+
+    /**
+     * IDs read but not yet handed out
+     */
+    private List<Integer> batch = new ArrayList<Integer>();
+
+    private int position = 0;
+
+    /**
+     * Position in the most_recent_checksum table: end date and ID of the
+     * last bitstream read
+     */
+    private Timestamp lastDate = new Timestamp(0);
+
+    private int lastId = SENTINEL;
+
     /**
      * Creates a new SimpleDispatcher.
      * 
@@ -46,10 +78,29 @@ public class SimpleDispatcher implements BitstreamDispatcher
      *            most_recent_checksum table
      */
     public SimpleDispatcher(BitstreamInfoDAO bitstreamInfoDAO, Date startTime, boolean looping)
+    {
+        this(bitstreamInfoDAO, startTime, looping,
+                ConfigurationManager.getIntProperty("checker.dispatcher.batch.size", 1000));
+    }
+
+    /**
+     * Creates a new SimpleDispatcher.
+     * 
+     * @param startTime
+     *            timestamp for beginning of checker process
+     * @param looping
+     *            indicates whether checker should loop infinitely through
+     *            most_recent_checksum table
+     * @param batchSize
+     *            number of IDs to read from the database at once
+     */
+    public SimpleDispatcher(BitstreamInfoDAO bitstreamInfoDAO, Date startTime, boolean looping,
+            int batchSize)
     {
         this.bitstreamInfoDAO = bitstreamInfoDAO;
         this.processStartTime = (startTime == null ? null : new Date(startTime.getTime()));
         this.loopContinuously = looping;
+        this.batchSize = Math.max(1, batchSize);
     }
 
     /**
@@ -66,17 +117,43 @@ public class SimpleDispatcher implements BitstreamDispatcher
      */
     public synchronized int next()
     {
-        // should process loop infinitely through the
-        // bitstreams in most_recent_checksum table?
-        if (!loopContinuously && (processStartTime != null))
+        if (position >= batch.size() && !fill() && isLooping())
         {
-            return bitstreamInfoDAO.getOldestBitstream(new java.sql.Timestamp(
-                    processStartTime.getTime()));
+            // start again from the least recently checked
+            lastDate = new Timestamp(0);
+            lastId = SENTINEL;
+            fill();
         }
-        else
+
+        return position < batch.size() ? batch.get(position++).intValue() : SENTINEL;
+    }
+
+    /**
+     * Should process loop infinitely through the bitstreams in
+     * most_recent_checksum table?
+     */
+    private boolean isLooping()
+    {
+        return loopContinuously || processStartTime == null;
+    }
+
+    /**
+     * Read the next batch of IDs.
+     * 
+     * @return whether any were found
+     */
+    private boolean fill()
+    {
+        batch.clear();
+        position = 0;
+        Timestamp lessThan = isLooping() ? null : new Timestamp(processStartTime.getTime());
+        Timestamp last = bitstreamInfoDAO.getOldestBitstreams(lessThan, lastDate, lastId, batchSize, batch);
+        if (last == null)
         {
-            return bitstreamInfoDAO.getOldestBitstream();
+            return false;
         }
-
+        lastDate = last;
+        lastId = batch.get(batch.size() - 1).intValue();
+        return true;
     }
 }
@@ -12,6 +12,7 @@ import java.io.InputStream;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeException;
@@ -20,8 +21,10 @@ import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.SharedObjectCache;
 import org.dspace.event.Event;
 import org.dspace.storage.bitstore.BitstreamStorageManager;
+import org.dspace.storage.bitstore.IngestInputStream;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 import org.dspace.storage.rdbms.TableRowIterator;
@@ -56,6 +59,9 @@ public class Bitstream extends DSpaceObject
     /** Flag set when metadata is modified, for events */
     private boolean modifiedMetadata;
 
+    /** The first bytes of a bitstream created in this context, or null */
+    private byte[] header;
+
     /**
      * Private constructor for creating a Bitstream object based on the contents
      * of a DB table row.
@@ -118,7 +124,7 @@ public class Bitstream extends DSpaceObject
             return fromCache;
         }
 
-        TableRow row = DatabaseManager.find(context, "bitstream", id);
+        TableRow row = SharedObjectCache.find(context, Constants.BITSTREAM, id);
 
         if (row == null)
         {
@@ -201,15 +207,21 @@ public class Bitstream extends DSpaceObject
     static Bitstream create(Context context, InputStream is)
             throws IOException, SQLException
     {
-        // Store the bits
-        int bitstreamID = BitstreamStorageManager.store(context, is);
+        // Store the bits, noting what they are on the way
+        IngestInputStream ingest = new IngestInputStream(is);
+        int bitstreamID = BitstreamStorageManager.store(context, ingest);
 
-        log.info(LogManager.getHeader(context, "create_bitstream",
-                "bitstream_id=" + bitstreamID));
+        StringBuilder info = new StringBuilder("bitstream_id=").append(bitstreamID);
+        for (Map.Entry<String, String> checksum : ingest.getChecksums().entrySet())
+        {
+            info.append(",").append(checksum.getKey()).append("=").append(checksum.getValue());
+        }
+        log.info(LogManager.getHeader(context, "create_bitstream", info.toString()));
 
         // Set the format to "unknown"
         Bitstream bitstream = find(context, bitstreamID);
         bitstream.setFormat(null);
+        bitstream.header = ingest.getHeader();
 
         context.addEvent(new Event(Event.CREATE, Constants.BITSTREAM, 
                 bitstreamID, null, bitstream.getIdentifiers(context)));
@@ -689,6 +701,18 @@ public class Bitstream extends DSpaceObject
         return bRow.getIntColumn("store_number");
     }
 
+    /**
+     * Get the first bytes of the bitstream, as seen when it was created, so
+     * that its format can be recognised without reading it again.
+     *
+     * @return the first bytes, or null if the bitstream was not created by
+     *         this object
+     */
+    byte[] getHeader()
+    {
+        return header;
+    }
+
     /**
      * Get the parent object of a bitstream. The parent can be an item if this
      * is a normal bitstream, or it could be a collection or a community if the
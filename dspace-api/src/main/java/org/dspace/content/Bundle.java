@@ -21,6 +21,7 @@ import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.SharedObjectCache;
 import org.dspace.event.Event;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
@@ -70,27 +71,13 @@ public class Bundle extends DSpaceObject
         ourContext = context;
         bundleRow = row;
         bitstreams = new ArrayList<Bitstream>();
-        String bitstreamOrderingField  = ConfigurationManager.getProperty("webui.bitstream.order.field");
-        String bitstreamOrderingDirection   = ConfigurationManager.getProperty("webui.bitstream.order.direction");
-
-        if (bitstreamOrderingField == null)
-        {
-            bitstreamOrderingField = "sequence_id";
-        }
-
-        if (bitstreamOrderingDirection == null)
-        {
-            bitstreamOrderingDirection = "ASC";
-        }
 
         StringBuilder query = new StringBuilder();
         query.append("SELECT bitstream.*,bundle2bitstream.bitstream_order FROM bitstream, bundle2bitstream WHERE");
         query.append(" bundle2bitstream.bitstream_id=bitstream.bitstream_id AND");
         query.append(" bundle2bitstream.bundle_id= ?");
         query.append(" ORDER BY ");
-        query.append(bitstreamOrderingField);
-        query.append(" ");
-        query.append(bitstreamOrderingDirection);
+        query.append(getBitstreamOrdering());
 
         // Get bitstreams
         TableRowIterator tri = DatabaseManager.query(
@@ -137,6 +124,56 @@ public class Bundle extends DSpaceObject
         modifiedMetadata = false;
     }
 
+    /**
+     * Construct a bundle object with the given table row and its bitstreams,
+     * already loaded in bulk and sorted by {@link #getBitstreamOrdering()}.
+     *
+     * @param context
+     *            the context this object exists in
+     * @param row
+     *            the corresponding row in the table
+     * @param prefetched
+     *            the bitstreams of this bundle
+     */
+    Bundle(Context context, TableRow row, List<Bitstream> prefetched)
+    {
+        ourContext = context;
+        bundleRow = row;
+        bitstreams = prefetched;
+
+        // Cache ourselves
+        context.cache(this, row.getIntColumn("bundle_id"));
+
+        modified = false;
+        modifiedMetadata = false;
+    }
+
+    /**
+     * The ORDER BY expression (without the keyword) used when loading the
+     * bitstreams of a bundle, as configured by
+     * <code>webui.bitstream.order.field</code> and
+     * <code>webui.bitstream.order.direction</code>.
+     *
+     * @return the ordering, e.g. <code>sequence_id ASC</code>
+     */
+    static String getBitstreamOrdering()
+    {
+        String bitstreamOrderingField  = ConfigurationManager.getProperty("webui.bitstream.order.field");
+        String bitstreamOrderingDirection   = ConfigurationManager.getProperty("webui.bitstream.order.direction");
+
+        if (bitstreamOrderingField == null)
+        {
+            bitstreamOrderingField = "sequence_id";
+        }
+
+        if (bitstreamOrderingDirection == null)
+        {
+            bitstreamOrderingDirection = "ASC";
+        }
+
+        return bitstreamOrderingField + " " + bitstreamOrderingDirection;
+    }
+
     /**
      * Get a bundle from the database. The bundle and bitstream metadata are all
      * loaded into memory.
@@ -158,7 +195,7 @@ public class Bundle extends DSpaceObject
             return fromCache;
         }
 
-        TableRow row = DatabaseManager.find(context, "bundle", id);
+        TableRow row = SharedObjectCache.find(context, Constants.BUNDLE, id);
 
         if (row == null)
         {
@@ -176,7 +176,7 @@ public class Collection extends DSpaceObject
             return fromCache;
         }
 
-        TableRow row = DatabaseManager.find(context, "collection", id);
+        TableRow row = SharedObjectCache.find(context, Constants.COLLECTION, id);
 
         if (row == null)
         {
@@ -341,6 +341,62 @@ public class Collection extends DSpaceObject
         return collectionArray;
     }
 
+    /**
+     * Get the collections with IDs above the given one, in order of ID. Unlike
+     * an offset, the ID of the last collection of a page is a stable position
+     * to get the next page from.
+     *
+     * @param context
+     *            DSpace context object
+     * @param after
+     *            the ID of the last collection not to return
+     * @param limit
+     *            the maximum number of collections, or a negative number for
+     *            no limit
+     * @return the collections
+     * @throws SQLException
+     */
+    public static Collection[] findAllAfter(Context context, int after, int limit) throws SQLException
+    {
+        String query = "SELECT * FROM collection WHERE collection_id > ? ORDER BY collection_id";
+        Object[] parameters = new Object[] { after };
+        if (limit >= 0)
+        {
+            query = DatabaseManager.isOracle() ? "SELECT * FROM (" + query + ") WHERE ROWNUM <= ?"
+                    : query + " LIMIT ?";
+            parameters = new Object[] { after, limit };
+        }
+        TableRowIterator tri = DatabaseManager.queryTable(context, "collection", query, parameters);
+
+        List<Collection> collections = new ArrayList<Collection>();
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+
+                // First check the cache
+                Collection fromCache = (Collection) context.fromCache(
+                        Collection.class, row.getIntColumn("collection_id"));
+
+                if (fromCache != null)
+                {
+                    collections.add(fromCache);
+                }
+                else
+                {
+                    collections.add(new Collection(context, row));
+                }
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        return collections.toArray(new Collection[collections.size()]);
+    }
+
     /**
      * Get all collections in the system. Adds support for limit and offset.
      * @param context
@@ -399,15 +455,27 @@ public class Collection extends DSpaceObject
      */
     public ItemIterator getItems() throws SQLException
     {
-        String myQuery = "SELECT item.* FROM item, collection2item WHERE "
+        return getItems(LoadHints.NONE);
+    }
+
+    /**
+     * Get the in_archive items in this collection, a page at a time in order
+     * of ID.
+     *
+     * @param hints
+     *            what to load with the items of each page
+     * @return an iterator over the items in the collection.
+     * @throws SQLException
+     * @see ItemIterator#startAfter(int)
+     */
+    public ItemIterator getItems(LoadHints hints) throws SQLException
+    {
+        String myQuery = "SELECT item.item_id FROM item, collection2item WHERE "
                 + "item.item_id=collection2item.item_id AND "
                 + "collection2item.collection_id= ? "
                 + "AND item.in_archive='1'";
 
-        TableRowIterator rows = DatabaseManager.queryTable(ourContext, "item",
-                myQuery,getID());
-
-        return new ItemIterator(ourContext, rows);
+        return new ItemIterator(ourContext, myQuery, 0, hints, getID());
     }
 
     /**
@@ -439,14 +507,11 @@ public class Collection extends DSpaceObject
      */
     public ItemIterator getAllItems() throws SQLException
     {
-        String myQuery = "SELECT item.* FROM item, collection2item WHERE "
+        String myQuery = "SELECT item.item_id FROM item, collection2item WHERE "
                 + "item.item_id=collection2item.item_id AND "
                 + "collection2item.collection_id= ? ";
 
-        TableRowIterator rows = DatabaseManager.queryTable(ourContext, "item",
-                myQuery,getID());
-
-        return new ItemIterator(ourContext, rows);
+        return new ItemIterator(ourContext, myQuery, 0, LoadHints.NONE, getID());
     }
 
      /**
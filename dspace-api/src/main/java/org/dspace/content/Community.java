@@ -20,6 +20,7 @@ import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.I18nUtil;
 import org.dspace.core.LogManager;
+import org.dspace.core.SharedObjectCache;
 import org.dspace.eperson.Group;
 import org.dspace.event.Event;
 import org.dspace.handle.HandleManager;
@@ -135,7 +136,7 @@ public class Community extends DSpaceObject
             return fromCache;
         }
 
-        TableRow row = DatabaseManager.find(context, "community", id);
+        TableRow row = SharedObjectCache.find(context, Constants.COMMUNITY, id);
 
         if (row == null)
         {
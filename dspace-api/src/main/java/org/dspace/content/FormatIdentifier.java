@@ -7,6 +7,7 @@
  */
 package org.dspace.content;
 
+import java.nio.charset.Charset;
 import java.sql.SQLException;
 
 import org.dspace.core.Context;
@@ -18,6 +19,9 @@ import org.dspace.storage.rdbms.TableRowIterator;
  * registry in the database. For the moment, the format identifier simply uses
  * file extensions stored in the "BitstreamFormatIdentifier" table. This
  * probably isn't a particularly satisfactory long-term solution.
+ * <P>
+ * Bitstreams just created also keep their first bytes, which
+ * {@link #sniffFormat} compares with the magic numbers of common formats.
  * 
  * @author Robert Tansley
  * @version $Revision$
@@ -97,4 +101,148 @@ public class FormatIdentifier
         }
         return retFormat;
     }
+
+    /**
+     * Identify the format of a bitstream by its file extension, or failing
+     * that by its magic number. If the format is unknown, null is returned.
+     *
+     * @param bitstream
+     *            the bitstream to identify the format of
+     *
+     * @return a format from the bitstream format registry, or null
+     */
+    public static BitstreamFormat identifyFormat(Context context,
+            Bitstream bitstream) throws SQLException
+    {
+        BitstreamFormat format = guessFormat(context, bitstream);
+        if (format == null)
+        {
+            format = sniffFormat(context, bitstream);
+        }
+        return format;
+    }
+
+    /**
+     * Identify the format of a bitstream created in this context by the
+     * magic number in its first bytes. If the format is unknown, or the
+     * first bytes were not kept, null is returned.
+     *
+     * @param bitstream
+     *            the bitstream to identify the format of
+     *
+     * @return a format from the bitstream format registry, or null
+     */
+    public static BitstreamFormat sniffFormat(Context context,
+            Bitstream bitstream) throws SQLException
+    {
+        String mimeType = sniffMIMEType(bitstream.getHeader());
+        return (mimeType == null) ? null
+                : BitstreamFormat.findByMIMEType(context, mimeType);
+    }
+
+    /**
+     * Recognise common formats by their magic numbers.
+     *
+     * @param header
+     *            the first bytes of a file, may be null
+     *
+     * @return the MIME type, or null
+     */
+    static String sniffMIMEType(byte[] header)
+    {
+        if (header == null)
+        {
+            return null;
+        }
+        if (startsWith(header, 0, "%PDF-"))
+        {
+            return "application/pdf";
+        }
+        if (startsWith(header, 0, "%!PS"))
+        {
+            return "application/postscript";
+        }
+        if (startsWith(header, 0, new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' }))
+        {
+            return "image/png";
+        }
+        if (startsWith(header, 0, new byte[] { (byte) 0xff, (byte) 0xd8, (byte) 0xff }))
+        {
+            return "image/jpeg";
+        }
+        if (startsWith(header, 0, "GIF87a") || startsWith(header, 0, "GIF89a"))
+        {
+            return "image/gif";
+        }
+        if (startsWith(header, 0, new byte[] { 'I', 'I', 42, 0 })
+                || startsWith(header, 0, new byte[] { 'M', 'M', 0, 42 }))
+        {
+            return "image/tiff";
+        }
+        if (startsWith(header, 0, "RIFF") && startsWith(header, 8, "WAVE"))
+        {
+            return "audio/x-wav";
+        }
+        if (startsWith(header, 0, "FORM") && startsWith(header, 8, "AIFF"))
+        {
+            return "audio/x-aiff";
+        }
+        if (startsWith(header, 4, "ftypqt"))
+        {
+            return "video/quicktime";
+        }
+        if (startsWith(header, 0, new byte[] { 0, 0, 1, (byte) 0xba })
+                || startsWith(header, 0, new byte[] { 0, 0, 1, (byte) 0xb3 }))
+        {
+            return "video/mpeg";
+        }
+        if (startsWith(header, 0, "{\\rtf"))
+        {
+            return "text/richtext";
+        }
+        // OpenDocument: a zip whose first entry, stored, is its MIME type
+        if (startsWith(header, 0, "PK\003\004") && startsWith(header, 30, "mimetype"))
+        {
+            // stored, so its compressed size is its length
+            int length = (header[18] & 0xff) | (header[19] & 0xff) << 8;
+            if (length > 0 && header[20] == 0 && header[21] == 0 && 38 + length <= header.length)
+            {
+                return new String(header, 38, length, ASCII);
+            }
+            return null;
+        }
+        if (startsWith(header, 0, "<?xml"))
+        {
+            return "text/xml";
+        }
+        String start = new String(header, 0, Math.min(header.length, 15), ASCII).toLowerCase();
+        if (start.startsWith("<!doctype html") || start.startsWith("<html"))
+        {
+            return "text/html";
+        }
+        return null;
+    }
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static boolean startsWith(byte[] header, int offset, String magic)
+    {
+        return startsWith(header, offset, magic.getBytes(ASCII));
+    }
+
+    private static boolean startsWith(byte[] header, int offset, byte[] magic)
+    {
+        if (header.length < offset + magic.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++)
+        {
+            if (header[offset + i] != magic[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -31,6 +31,7 @@ import org.dspace.browse.IndexBrowse;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.SharedObjectCache;
 import org.dspace.content.authority.Choices;
 import org.dspace.content.authority.ChoiceAuthorityManager;
 import org.dspace.content.authority.MetadataAuthorityManager;
@@ -110,6 +111,26 @@ public class Item extends DSpaceObject
      * @throws SQLException
      */
     Item(Context context, TableRow row) throws SQLException
+    {
+        this(context, row, null, false);
+    }
+
+    /**
+     * Construct an item with the given table row and an already resolved
+     * Handle, as done by the bulk loader.
+     *
+     * @param context
+     *            the context this object exists in
+     * @param row
+     *            the corresponding row in the table
+     * @param handle
+     *            the Handle of the item, may be <code>null</code>
+     * @param handleResolved
+     *            <code>true</code> if <code>handle</code> has already been
+     *            looked up, <code>false</code> to query it
+     * @throws SQLException
+     */
+    Item(Context context, TableRow row, String handle, boolean handleResolved) throws SQLException
     {
         ourContext = context;
         itemRow = row;
@@ -118,7 +139,14 @@ public class Item extends DSpaceObject
         clearDetails();
 
         // Get our Handle if any
-        handle = HandleManager.findHandle(context, this);
+        if (handleResolved)
+        {
+            this.handle = handle;
+        }
+        else
+        {
+            this.handle = HandleManager.findHandle(context, this);
+        }
 
         // Cache ourselves
         context.cache(this, row.getIntColumn("item_id"));
@@ -152,7 +180,7 @@ public class Item extends DSpaceObject
             return fromCache;
         }
 
-        TableRow row = DatabaseManager.find(context, "item", id);
+        TableRow row = SharedObjectCache.find(context, Constants.ITEM, id);
 
         if (row == null)
         {
@@ -175,6 +203,40 @@ public class Item extends DSpaceObject
         return new Item(context, row);
     }
 
+    /**
+     * Get a page of items from the database in bulk. Instead of the separate
+     * queries issued for every item by {@link #find}, the item rows, Handles
+     * and whatever the hints ask for are fetched with a handful of
+     * <code>IN (...)</code> queries, and the resulting objects are placed in
+     * the context cache. Items already in the cache are returned as is.
+     *
+     * @param context
+     *            DSpace context object
+     * @param ids
+     *            Internal IDs of the items
+     * @param hints
+     *            what to prefetch besides the item rows
+     * @return the items in the order of <code>ids</code>. IDs that do not
+     *         correspond to an item are skipped.
+     * @throws SQLException
+     */
+    public static Item[] findAll(Context context, int[] ids, LoadHints hints)
+            throws SQLException
+    {
+        return new ItemBatchLoader(context, hints).load(ids);
+    }
+
+    /**
+     * Get a page of items from the database in bulk, prefetching metadata,
+     * bundles and bitstreams.
+     *
+     * @see #findAll(Context, int[], LoadHints)
+     */
+    public static Item[] findAll(Context context, int[] ids) throws SQLException
+    {
+        return findAll(context, ids, LoadHints.ALL);
+    }
+
     /**
      * Create a new item, with a new internal ID. This method is not public,
      * since items need to be created as workspace items. Authorisation is the
@@ -220,11 +282,25 @@ public class Item extends DSpaceObject
      */
     public static ItemIterator findAll(Context context) throws SQLException
     {
-        String myQuery = "SELECT * FROM item WHERE in_archive='1'";
-
-        TableRowIterator rows = DatabaseManager.queryTable(context, "item", myQuery);
+        return findAll(context, LoadHints.NONE);
+    }
 
-        return new ItemIterator(context, rows);
+    /**
+     * Get all the items in the archive, a page at a time in order of ID. Only
+     * items with the "in archive" flag set are included.
+     *
+     * @param context
+     *            DSpace context object
+     * @param hints
+     *            what to load with the items of each page
+     * @return an iterator over the items in the archive.
+     * @throws SQLException
+     * @see ItemIterator#ItemIterator(Context, String, int, LoadHints, Object...)
+     */
+    public static ItemIterator findAll(Context context, LoadHints hints) throws SQLException
+    {
+        return new ItemIterator(context,
+                "SELECT item_id FROM item WHERE in_archive='1'", 0, hints);
     }
     
     /**
@@ -238,13 +314,27 @@ public class Item extends DSpaceObject
      */
 	public static ItemIterator findAllUnfiltered(Context context) throws SQLException
     {
-        String myQuery = "SELECT * FROM item WHERE in_archive='1' or withdrawn='1'";
-
-        TableRowIterator rows = DatabaseManager.queryTable(context, "item", myQuery);
-
-        return new ItemIterator(context, rows);
+        return findAllUnfiltered(context, LoadHints.NONE);
 	}
 
+    /**
+     * Get all "final" items in the archive, a page at a time in order of ID.
+     * Both archived and withdrawn items are included.
+     *
+     * @param context
+     *            DSpace context object
+     * @param hints
+     *            what to load with the items of each page
+     * @return an iterator over the items in the archive.
+     * @throws SQLException
+     * @see ItemIterator#ItemIterator(Context, String, int, LoadHints, Object...)
+     */
+    public static ItemIterator findAllUnfiltered(Context context, LoadHints hints) throws SQLException
+    {
+        return new ItemIterator(context,
+                "SELECT item_id FROM item WHERE (in_archive='1' or withdrawn='1')", 0, hints);
+    }
+
     /**
      * Find all the items in the archive by a given submitter. The order is
      * indeterminate. Only items with the "in archive" flag set are included.
@@ -1208,6 +1298,37 @@ public class Item extends DSpaceObject
         return bundleArray;
     }
 
+    /**
+     * Populate the bundles of this item with a list loaded in bulk, unless
+     * they have already been loaded.
+     *
+     * @param prefetched
+     *            the bundles of this item
+     */
+    void setPrefetchedBundles(List<Bundle> prefetched)
+    {
+        if (bundles == null)
+        {
+            bundles = prefetched;
+        }
+    }
+
+    /**
+     * Populate the metadata of this item with values loaded in bulk, unless
+     * they have already been loaded. Unlike {@link #setMetadata} this does
+     * not mark the metadata as changed.
+     *
+     * @param prefetched
+     *            the metadata values of this item, in field and place order
+     */
+    void setPrefetchedMetadata(List<DCValue> prefetched)
+    {
+        if (dublinCore.metadata == null)
+        {
+            dublinCore.set(prefetched);
+        }
+    }
+
     /**
      * Get the bundles matching a bundle name (name corresponds roughly to type)
      *
@@ -2767,6 +2888,50 @@ public class Item extends DSpaceObject
         dublinCoreChanged = true;
     }
 
+    /**
+     * Convert a row of the MetadataValue table into a DCValue.
+     *
+     * @param c
+     *            DSpace context object
+     * @param resultRow
+     *            the MetadataValue row
+     * @return the DCValue, or <code>null</code> if the field or schema of
+     *         the row cannot be found
+     * @throws SQLException
+     */
+    static DCValue toDCValue(Context c, TableRow resultRow) throws SQLException
+    {
+        // Get the associated metadata field and schema information
+        int fieldID = resultRow.getIntColumn("metadata_field_id");
+        MetadataField field = MetadataField.find(c, fieldID);
+
+        if (field == null)
+        {
+            log.error("Loading item - cannot find metadata field " + fieldID);
+            return null;
+        }
+
+        MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
+        if (schema == null)
+        {
+            log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
+            return null;
+        }
+
+        // Make a DCValue object
+        DCValue dcv = new DCValue();
+        dcv.element = field.getElement();
+        dcv.qualifier = field.getQualifier();
+        dcv.value = resultRow.getStringColumn("text_value");
+        dcv.language = resultRow.getStringColumn("text_lang");
+        //dcv.namespace = schema.getNamespace();
+        dcv.schema = schema.getName();
+        dcv.authority = resultRow.getStringColumn("authority");
+        dcv.confidence = resultRow.getIntColumn("confidence");
+
+        return dcv;
+    }
+
     class MetadataCache
     {
         List<DCValue> metadata = null;
@@ -2786,39 +2951,12 @@ public class Item extends DSpaceObject
                     {
                         while (tri.hasNext())
                         {
-                            TableRow resultRow = tri.next();
-
-                            // Get the associated metadata field and schema information
-                            int fieldID = resultRow.getIntColumn("metadata_field_id");
-                            MetadataField field = MetadataField.find(c, fieldID);
+                            DCValue dcv = toDCValue(c, tri.next());
 
-                            if (field == null)
+                            if (dcv != null)
                             {
-                                log.error("Loading item - cannot find metadata field " + fieldID);
-                            }
-                            else
-                            {
-                                MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
-                                if (schema == null)
-                                {
-                                    log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
-                                }
-                                else
-                                {
-                                    // Make a DCValue object
-                                    DCValue dcv = new DCValue();
-                                    dcv.element = field.getElement();
-                                    dcv.qualifier = field.getQualifier();
-                                    dcv.value = resultRow.getStringColumn("text_value");
-                                    dcv.language = resultRow.getStringColumn("text_lang");
-                                    //dcv.namespace = schema.getNamespace();
-                                    dcv.schema = schema.getName();
-                                    dcv.authority = resultRow.getStringColumn("authority");
-                                    dcv.confidence = resultRow.getIntColumn("confidence");
-
-                                    // Add it to the list
-                                    metadata.add(dcv);
-                                }
+                                // Add it to the list
+                                metadata.add(dcv);
                             }
                         }
                     }
@@ -0,0 +1,331 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.core.LogManager;
+import org.dspace.handle.HandleManager;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Loads a page of items, and optionally their metadata, bundles and
+ * bitstreams, with one query per table and chunk of IDs rather than the
+ * per-object queries done by {@link Item#find}. Every object built is placed
+ * in the context cache, so later calls to <code>find</code> for the same
+ * objects are free.
+ *
+ * @see Item#findAll(Context, int[], LoadHints)
+ */
+class ItemBatchLoader
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ItemBatchLoader.class);
+
+    /** Maximum number of IDs bound in a single IN (...) clause */
+    static final int CHUNK_SIZE = 500;
+
+    private final Context context;
+
+    private final LoadHints hints;
+
+    ItemBatchLoader(Context context, LoadHints hints)
+    {
+        this.context = context;
+        this.hints = hints == null ? LoadHints.NONE : hints;
+    }
+
+    /**
+     * Load the given items.
+     *
+     * @param ids
+     *            the item IDs
+     * @return the items found, in the order of <code>ids</code>
+     * @throws SQLException
+     */
+    Item[] load(int[] ids) throws SQLException
+    {
+        Map<Integer, Item> found = new HashMap<Integer, Item>();
+        Set<Integer> missing = new LinkedHashSet<Integer>();
+
+        for (int id : ids)
+        {
+            Item fromCache = (Item) context.fromCache(Item.class, id);
+            if (fromCache != null)
+            {
+                found.put(id, fromCache);
+            }
+            else
+            {
+                missing.add(id);
+            }
+        }
+
+        if (!missing.isEmpty())
+        {
+            Map<Integer, Item> loaded = loadItems(toArray(missing));
+            found.putAll(loaded);
+
+            if (log.isDebugEnabled())
+            {
+                log.debug(LogManager.getHeader(context, "find_items_bulk",
+                        "requested=" + ids.length + ",loaded=" + loaded.size()));
+            }
+        }
+
+        List<Item> result = new ArrayList<Item>(ids.length);
+        for (int id : ids)
+        {
+            Item item = found.get(id);
+            if (item != null)
+            {
+                result.add(item);
+            }
+        }
+        return result.toArray(new Item[result.size()]);
+    }
+
+    private Map<Integer, Item> loadItems(int[] ids) throws SQLException
+    {
+        Map<Integer, String> handles = HandleManager.findHandles(context, Constants.ITEM, ids);
+        Map<Integer, Item> items = new LinkedHashMap<Integer, Item>();
+
+        for (int start = 0; start < ids.length; start += CHUNK_SIZE)
+        {
+            int end = Math.min(ids.length, start + CHUNK_SIZE);
+            TableRowIterator tri = DatabaseManager.queryTable(context, "item",
+                    "SELECT * FROM item WHERE item_id IN (" + placeholders(end - start) + ")",
+                    params(ids, start, end));
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    int id = row.getIntColumn("item_id");
+                    items.put(id, new Item(context, row, handles.get(id), true));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        int[] loadedIds = toArray(items.keySet());
+        if (hints.isMetadata())
+        {
+            loadMetadata(items, loadedIds);
+        }
+        if (hints.isBundles())
+        {
+            loadBundles(items, loadedIds);
+        }
+        return items;
+    }
+
+    private void loadMetadata(Map<Integer, Item> items, int[] ids) throws SQLException
+    {
+        Map<Integer, List<DCValue>> metadata = new HashMap<Integer, List<DCValue>>();
+        for (int id : ids)
+        {
+            metadata.put(id, new ArrayList<DCValue>());
+        }
+
+        for (int start = 0; start < ids.length; start += CHUNK_SIZE)
+        {
+            int end = Math.min(ids.length, start + CHUNK_SIZE);
+            TableRowIterator tri = DatabaseManager.queryTable(context, "MetadataValue",
+                    "SELECT * FROM MetadataValue WHERE item_id IN (" + placeholders(end - start) + ")"
+                            + " ORDER BY item_id, metadata_field_id, place",
+                    params(ids, start, end));
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    DCValue dcv = Item.toDCValue(context, row);
+                    if (dcv != null)
+                    {
+                        metadata.get(row.getIntColumn("item_id")).add(dcv);
+                    }
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        for (Map.Entry<Integer, List<DCValue>> entry : metadata.entrySet())
+        {
+            items.get(entry.getKey()).setPrefetchedMetadata(entry.getValue());
+        }
+    }
+
+    private void loadBundles(Map<Integer, Item> items, int[] ids) throws SQLException
+    {
+        // item id -> rows of the bundles of that item
+        Map<Integer, List<TableRow>> bundleRows = new HashMap<Integer, List<TableRow>>();
+        List<Integer> bundleIds = new ArrayList<Integer>();
+        for (int id : ids)
+        {
+            bundleRows.put(id, new ArrayList<TableRow>());
+        }
+
+        for (int start = 0; start < ids.length; start += CHUNK_SIZE)
+        {
+            int end = Math.min(ids.length, start + CHUNK_SIZE);
+            TableRowIterator tri = DatabaseManager.query(context,
+                    "SELECT item2bundle.item_id, bundle.* FROM bundle, item2bundle WHERE "
+                            + "item2bundle.bundle_id=bundle.bundle_id AND "
+                            + "item2bundle.item_id IN (" + placeholders(end - start) + ")"
+                            + " ORDER BY bundle.bundle_id",
+                    params(ids, start, end));
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    // The owning item id is not a bundle column, so the row
+                    // cannot come from queryTable; tag it like Bundle does
+                    row.setTable("bundle");
+                    bundleRows.get(row.getIntColumn("item_id")).add(row);
+                    bundleIds.add(row.getIntColumn("bundle_id"));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        Map<Integer, List<Bitstream>> bitstreams = null;
+        if (hints.isBitstreams())
+        {
+            bitstreams = loadBitstreams(toArray(bundleIds));
+        }
+
+        for (Map.Entry<Integer, List<TableRow>> entry : bundleRows.entrySet())
+        {
+            List<Bundle> bundles = new ArrayList<Bundle>();
+            for (TableRow row : entry.getValue())
+            {
+                int bundleId = row.getIntColumn("bundle_id");
+                Bundle fromCache = (Bundle) context.fromCache(Bundle.class, bundleId);
+                if (fromCache != null)
+                {
+                    bundles.add(fromCache);
+                }
+                else if (bitstreams != null)
+                {
+                    bundles.add(new Bundle(context, row, bitstreams.get(bundleId)));
+                }
+                else
+                {
+                    bundles.add(new Bundle(context, row));
+                }
+            }
+            items.get(entry.getKey()).setPrefetchedBundles(bundles);
+        }
+    }
+
+    private Map<Integer, List<Bitstream>> loadBitstreams(int[] bundleIds) throws SQLException
+    {
+        Map<Integer, List<Bitstream>> bitstreams = new HashMap<Integer, List<Bitstream>>();
+        for (int id : bundleIds)
+        {
+            bitstreams.put(id, new ArrayList<Bitstream>());
+        }
+
+        for (int start = 0; start < bundleIds.length; start += CHUNK_SIZE)
+        {
+            int end = Math.min(bundleIds.length, start + CHUNK_SIZE);
+            TableRowIterator tri = DatabaseManager.query(context,
+                    "SELECT bundle2bitstream.bundle_id, bitstream.*, bundle2bitstream.bitstream_order "
+                            + "FROM bitstream, bundle2bitstream WHERE "
+                            + "bundle2bitstream.bitstream_id=bitstream.bitstream_id AND "
+                            + "bundle2bitstream.bundle_id IN (" + placeholders(end - start) + ")"
+                            + " ORDER BY bundle2bitstream.bundle_id, " + Bundle.getBitstreamOrdering(),
+                    params(bundleIds, start, end));
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    int bundleId = row.getIntColumn("bundle_id");
+                    Bitstream fromCache = (Bitstream) context.fromCache(
+                            Bitstream.class, row.getIntColumn("bitstream_id"));
+                    if (fromCache != null)
+                    {
+                        bitstreams.get(bundleId).add(fromCache);
+                    }
+                    else
+                    {
+                        row.setTable("bitstream");
+                        bitstreams.get(bundleId).add(new Bitstream(context, row));
+                    }
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+        return bitstreams;
+    }
+
+    /**
+     * @return <code>?,?,...</code> with <code>count</code> placeholders
+     */
+    static String placeholders(int count)
+    {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the slice <code>[start, end)</code> of <code>ids</code> as
+     *         query parameters
+     */
+    static Object[] params(int[] ids, int start, int end)
+    {
+        Object[] params = new Object[end - start];
+        for (int i = start; i < end; i++)
+        {
+            params[i - start] = ids[i];
+        }
+        return params;
+    }
+
+    static int[] toArray(java.util.Collection<Integer> ids)
+    {
+        int[] result = new int[ids.size()];
+        int i = 0;
+        for (Integer id : ids)
+        {
+            result[i++] = id;
+        }
+        return result;
+    }
+}
@@ -9,10 +9,15 @@ package org.dspace.content;
 
 import java.sql.SQLException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 import org.dspace.storage.rdbms.TableRowIterator;
 
@@ -24,6 +29,15 @@ import org.dspace.storage.rdbms.TableRowIterator;
  *
  * Note that this class is not a real Iterator, as it does not implement
  * the Iterator interface
+ * <P>
+ * For scans over large parts of the repository, an iterator can also page
+ * through the items by their ID (<code>item_id &gt; ?</code>, a page at a time)
+ * rather than holding a cursor open for the whole scan. Each page is loaded
+ * with {@link Item#findAll(Context, int[], LoadHints)}, and the items it
+ * loaded are removed from the context cache again when the iterator moves on
+ * to the next page, so memory use does not grow with the size of the scan.
+ * The page size is <code>itemiterator.page.size</code> in dspace.cfg unless
+ * given.
  * 
  * @author Robert Tansley
  * @author Richard Jones
@@ -43,6 +57,31 @@ public class ItemIterator
 
     /** a real iterator which works over the item ids when present */
     private Iterator<Integer> iditr;
+
+    /** Query of the item IDs when paging by ID, and its parameters */
+    private String pageQuery;
+
+    private Object[] pageParameters;
+
+    private int pageSize;
+
+    private LoadHints hints;
+
+    /** The IDs of the current page, and the position in it */
+    private int[] pageIDs = new int[0];
+
+    private int pagePosition = 0;
+
+    /** Highest ID seen so far, where the next page starts */
+    private int lastID = -1;
+
+    private boolean lastPage = false;
+
+    /** Items of the current page once loaded, by ID */
+    private Map<Integer, Item> pageItems;
+
+    /** Items this iterator placed in the context cache */
+    private List<Item> loaded = new ArrayList<Item>();
     
     /**
      * Construct an item iterator using a set of TableRow objects from
@@ -73,6 +112,64 @@ public class ItemIterator
     	iditr = iids.iterator();
     }
     
+    /**
+     * Construct an item iterator which pages through the items selected by a
+     * query, in ascending order of ID. The query must select the
+     * <code>item_id</code> column from the <code>item</code> table (not under
+     * an alias) and end with its WHERE clause, which is extended with the
+     * condition on the ID, e.g.
+     * <code>SELECT item_id FROM item WHERE in_archive='1'</code>.
+     * 
+     * @param context
+     *            our context
+     * @param query
+     *            the query of the item IDs
+     * @param pageSize
+     *            items per page, or 0 for the configured default
+     * @param hints
+     *            what to load with the items of each page
+     * @param parameters
+     *            the parameters of the query
+     */
+    public ItemIterator(Context context, String query, int pageSize,
+            LoadHints hints, Object... parameters)
+    {
+        ourContext = context;
+        pageQuery = query;
+        pageParameters = parameters;
+        this.pageSize = pageSize > 0 ? pageSize : getDefaultPageSize();
+        this.hints = hints;
+    }
+
+    /**
+     * Skip the items up to the given ID, so that iteration starts with the
+     * first item after it. Only applies to iterators that page by ID, and
+     * only before the first call to {@link #hasNext}, {@link #next} or
+     * {@link #nextID}.
+     * 
+     * @param id
+     *            the ID of the last item not to return, e.g. the last item of
+     *            the previous page of a listing
+     * @return this iterator
+     */
+    public ItemIterator startAfter(int id)
+    {
+        if (pageQuery == null)
+        {
+            throw new IllegalStateException("Only iterators that page by ID can start after an ID");
+        }
+        lastID = id;
+        return this;
+    }
+
+    /**
+     * @return the configured number of items per page when paging by ID
+     */
+    public static int getDefaultPageSize()
+    {
+        return Math.max(1, ConfigurationManager.getIntProperty("itemiterator.page.size", 100));
+    }
+
     /**
      * Find out if there are any more items to iterate over
      * 
@@ -89,6 +186,10 @@ public class ItemIterator
     	{
     		return itemRows.hasNext();
     	}
+    	else if (pageQuery != null)
+    	{
+    		return hasNextInPage();
+    	}
     	return false;
     }
 
@@ -109,6 +210,10 @@ public class ItemIterator
     	{
     		return nextByRow();
     	}
+    	else if (pageQuery != null)
+    	{
+    		return nextInPage();
+    	}
     	return null;
     }
     
@@ -161,6 +266,10 @@ public class ItemIterator
     	{
     		return nextByRowID();
     	}
+    	else if (pageQuery != null)
+    	{
+    		return hasNextInPage() ? pageIDs[pagePosition++] : -1;
+    	}
     	return -1;
     }
     
@@ -239,6 +348,119 @@ public class ItemIterator
         }
     }
 
+    /**
+     * Find out if there are more IDs, fetching the next page of them when
+     * the current one is used up.
+     */
+    private boolean hasNextInPage() throws SQLException
+    {
+        if (pagePosition < pageIDs.length)
+        {
+            return true;
+        }
+        if (lastPage)
+        {
+            return false;
+        }
+
+        release();
+        Object[] parameters = new Object[pageParameters.length + 2];
+        System.arraycopy(pageParameters, 0, parameters, 0, pageParameters.length);
+        parameters[pageParameters.length] = lastID;
+        parameters[pageParameters.length + 1] = pageSize;
+
+        String query = pageQuery + " AND item.item_id > ? ORDER BY item.item_id";
+        if (DatabaseManager.isOracle())
+        {
+            query = "SELECT * FROM (" + query + ") WHERE ROWNUM <= ?";
+        }
+        else
+        {
+            query += " LIMIT ?";
+        }
+
+        List<Integer> ids = new ArrayList<Integer>(pageSize);
+        TableRowIterator rows = DatabaseManager.query(ourContext, query, parameters);
+        try
+        {
+            while (rows.hasNext())
+            {
+                ids.add(rows.next().getIntColumn("item_id"));
+            }
+        }
+        finally
+        {
+            rows.close();
+        }
+
+        pageIDs = ItemBatchLoader.toArray(ids);
+        pagePosition = 0;
+        pageItems = null;
+        lastPage = pageIDs.length < pageSize;
+        if (pageIDs.length > 0)
+        {
+            lastID = pageIDs[pageIDs.length - 1];
+        }
+        return pageIDs.length > 0;
+    }
+
+    /**
+     * Return the next item of the current page, loading the rest of the
+     * page in bulk on first use.
+     * 
+     * @return the item or null if none
+     */
+    private Item nextInPage() throws SQLException
+    {
+        while (hasNextInPage())
+        {
+            if (pageItems == null)
+            {
+                int[] ids = new int[pageIDs.length - pagePosition];
+                System.arraycopy(pageIDs, pagePosition, ids, 0, ids.length);
+                pageItems = new HashMap<Integer, Item>();
+                for (int id : ids)
+                {
+                    Item cached = (Item) ourContext.fromCache(Item.class, id);
+                    if (cached != null)
+                    {
+                        pageItems.put(id, cached);
+                    }
+                }
+                for (Item item : Item.findAll(ourContext, ids, hints))
+                {
+                    if (!pageItems.containsKey(item.getID()))
+                    {
+                        pageItems.put(item.getID(), item);
+                        loaded.add(item);
+                    }
+                }
+            }
+
+            // items deleted since their ID was read are skipped
+            Item item = pageItems.get(pageIDs[pagePosition++]);
+            if (item != null)
+            {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove the items this iterator loaded from the context cache, along
+     * with their bundles and bitstreams. Items that were already cached are
+     * left alone.
+     */
+    private void release() throws SQLException
+    {
+        for (Item item : loaded)
+        {
+            item.decache();
+        }
+        loaded.clear();
+    }
+
     /**
      * Dispose of this Iterator, and it's underlying resources
      */
@@ -248,5 +470,13 @@ public class ItemIterator
         {
             itemRows.close();
         }
+        try
+        {
+            release();
+        }
+        catch (SQLException e)
+        {
+            // nothing is left open
+        }
     }
 }
@@ -0,0 +1,63 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+/**
+ * Describes which parts of an Item should be prefetched when a page of items
+ * is loaded in bulk via {@link Item#findAll(org.dspace.core.Context, int[], LoadHints)}.
+ * Anything that is not prefetched is still loaded lazily on first access, as
+ * it would be for an Item obtained through {@link Item#find}.
+ */
+public class LoadHints
+{
+    /** Only the item rows (and their handles) are loaded */
+    public static final LoadHints NONE = new LoadHints(false, false, false);
+
+    /** Item rows, handles and Dublin Core metadata */
+    public static final LoadHints METADATA = new LoadHints(true, false, false);
+
+    /** Everything: metadata, bundles and the bitstreams of those bundles */
+    public static final LoadHints ALL = new LoadHints(true, true, true);
+
+    private final boolean metadata;
+
+    private final boolean bundles;
+
+    private final boolean bitstreams;
+
+    /**
+     * @param metadata
+     *            prefetch the metadata values of each item
+     * @param bundles
+     *            prefetch the bundles of each item
+     * @param bitstreams
+     *            prefetch the bitstreams of each bundle. Ignored unless
+     *            <code>bundles</code> is also set.
+     */
+    public LoadHints(boolean metadata, boolean bundles, boolean bitstreams)
+    {
+        this.metadata = metadata;
+        this.bundles = bundles;
+        this.bitstreams = bundles && bitstreams;
+    }
+
+    public boolean isMetadata()
+    {
+        return metadata;
+    }
+
+    public boolean isBundles()
+    {
+        return bundles;
+    }
+
+    public boolean isBitstreams()
+    {
+        return bitstreams;
+    }
+}
@@ -819,7 +819,7 @@ public abstract class AbstractMETSIngester extends AbstractPackageIngester
             // Last-ditch attempt to divine the format, if crosswalk failed to
             // set it:
             // 1. attempt to guess from MIME type
-            // 2. if that fails, guess from "name" extension.
+            // 2. if that fails, guess from "name" extension, then content.
             if (bitstream.getFormat().equals(unknownFormat))
             {
                 if (log.isDebugEnabled())
@@ -832,7 +832,7 @@ public abstract class AbstractMETSIngester extends AbstractPackageIngester
                         : BitstreamFormat.findByMIMEType(context, mimeType);
                 if (bf == null)
                 {
-                    bf = FormatIdentifier.guessFormat(context, bitstream);
+                    bf = FormatIdentifier.identifyFormat(context, bitstream);
                 }
                 bitstream.setFormat(bf);
             }
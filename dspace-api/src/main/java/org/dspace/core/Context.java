@@ -12,6 +12,7 @@ import java.sql.SQLException;
 import java.util.*;
 
 import org.apache.log4j.Logger;
+import org.dspace.authorize.AuthorizationCache;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
 import org.dspace.event.Dispatcher;
@@ -74,6 +75,9 @@ public class Context
     /** Group IDs of special groups user is a member of */
     private List<Integer> specialGroups;
 
+    /** Policies and group memberships memoized for authorization checks */
+    private AuthorizationCache authorizationCache;
+
     /** Content events */
     private LinkedList<Event> events = null;
 
@@ -128,6 +132,7 @@ public class Context
 
         objectCache = new HashMap<String, Object>();
         specialGroups = new ArrayList<Integer>();
+        authorizationCache = new AuthorizationCache(this);
 
         authStateChangeHistory = new Stack<Boolean>();
         authStateClassCallHistory = new Stack<String>();
@@ -154,6 +159,7 @@ public class Context
     public void setCurrentUser(EPerson user)
     {
         currentUser = user;
+        authorizationCache.clearMemberGroups();
     }
 
     /**
@@ -387,11 +393,13 @@ public class Context
 
                 dispatcher = EventManager.getDispatcher(dispName);
                 connection.commit();
+                authorizationCache.committed();
                 dispatcher.dispatch(this);
             }
             else
             {
                 connection.commit();
+                authorizationCache.committed();
             }
 
         }
@@ -516,6 +524,8 @@ public class Context
             connection = null;
             events = null;
             clearCache();
+            // forget the policy changes that were rolled back
+            authorizationCache = new AuthorizationCache(this);
         }
     }
 
@@ -600,6 +610,18 @@ public class Context
     public void clearCache()
     {
         objectCache.clear();
+        authorizationCache.clear();
+    }
+
+    /**
+     * Get the policies and group memberships memoized for authorization
+     * checks in this context.
+     *
+     * @return the authorization cache of this context
+     */
+    public AuthorizationCache getAuthorizationCache()
+    {
+        return authorizationCache;
     }
 
     /**
@@ -627,6 +649,7 @@ public class Context
     public void setSpecialGroup(int groupID)
     {
         specialGroups.add(Integer.valueOf(groupID));
+        authorizationCache.clearMemberGroups();
 
         // System.out.println("Added " + groupID);
     }
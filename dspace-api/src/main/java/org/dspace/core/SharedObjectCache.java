@@ -0,0 +1,286 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Status;
+
+import org.apache.log4j.Logger;
+import org.dspace.handle.HandleManager;
+import org.dspace.services.CachingService;
+import org.dspace.services.caching.model.EhcacheCache;
+import org.dspace.services.model.Cache;
+import org.dspace.services.model.CacheConfig;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.utils.DSpace;
+
+/**
+ * JVM-wide, read-through second level cache for the database rows behind
+ * Communities, Collections, Items, Bundles, Bitstreams, EPeople and Groups,
+ * and for the Handles of Communities, Collections and Items.
+ * <P>
+ * The {@link Context} object cache only lives as long as a single request,
+ * so popular objects are otherwise read from the database over and over. This
+ * cache keeps an immutable snapshot of the row of each object and hands out a
+ * private copy of it, from which the <code>find</code> methods build a new
+ * object bound to the calling Context as before.
+ * <P>
+ * The cache is stored in the {@link CachingService} under {@link #CACHE_NAME},
+ * so its size bound, eviction policy and time to live are set in
+ * <code>ehcache-config.xml</code>. Entries are invalidated after commit by
+ * {@link SharedObjectCacheConsumer}, which must be listed in the consumers of
+ * every event dispatcher in use. Changes made by other JVMs (e.g. command line
+ * tools) are only picked up once the entries expire.
+ * <P>
+ * The cache is off unless <code>cache.shared.enabled = true</code>.
+ */
+public class SharedObjectCache
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(SharedObjectCache.class);
+
+    /** Name of the cache in the CachingService */
+    public static final String CACHE_NAME = SharedObjectCache.class.getName();
+
+    private static final AtomicLong hits = new AtomicLong();
+
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Bumped on every invalidation. A row read from the database is only
+     * cached if no invalidation happened while it was being read, so that a
+     * concurrent commit cannot be overwritten with a stale snapshot.
+     */
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static Cache cache = null;
+
+    /** Private constructor */
+    private SharedObjectCache()
+    {
+    }
+
+    /**
+     * @return true if the shared cache is switched on in the configuration
+     */
+    public static boolean isEnabled()
+    {
+        return ConfigurationManager.getBooleanProperty("cache.shared.enabled", false);
+    }
+
+    /**
+     * Get the row of an object, from the shared cache if possible, from the
+     * database otherwise. Behaves like
+     * {@link DatabaseManager#find(Context, String, int)} when the cache is
+     * disabled or the type is not cached.
+     *
+     * @param context
+     *            DSpace context object
+     * @param type
+     *            type of the object, one of the Constants
+     * @param id
+     *            internal ID of the object
+     * @return a private copy of the row, or null if there is no such object
+     * @throws SQLException
+     */
+    public static TableRow find(Context context, int type, int id)
+            throws SQLException
+    {
+        String table = getTable(type);
+        Cache shared = getCache();
+
+        if (shared == null)
+        {
+            return DatabaseManager.find(context, table, id);
+        }
+
+        String key = rowKey(type, id);
+        TableRow snapshot = (TableRow) shared.get(key);
+        if (snapshot != null)
+        {
+            hits.incrementAndGet();
+            return snapshot.copy();
+        }
+
+        misses.incrementAndGet();
+        long before = generation.get();
+        TableRow row = DatabaseManager.find(context, table, id);
+        if (row != null && isCacheable(context) && before == generation.get())
+        {
+            shared.put(key, row.copy());
+        }
+        return row;
+    }
+
+    /**
+     * Get the Handle of an object, from the shared cache if possible. Only
+     * Handles that exist are cached.
+     *
+     * @param context
+     *            DSpace context object
+     * @param type
+     *            type of the object, one of the Constants
+     * @param id
+     *            internal ID of the object
+     * @return the Handle, or null if the object has none yet
+     * @throws SQLException
+     */
+    public static String findHandle(Context context, int type, int id)
+            throws SQLException
+    {
+        Cache shared = getCache();
+        if (shared == null)
+        {
+            return HandleManager.findHandle(context, type, id);
+        }
+
+        String key = handleKey(type, id);
+        String handle = (String) shared.get(key);
+        if (handle != null)
+        {
+            hits.incrementAndGet();
+            return handle;
+        }
+
+        misses.incrementAndGet();
+        long before = generation.get();
+        handle = HandleManager.findHandle(context, type, id);
+        if (handle != null && isCacheable(context) && before == generation.get())
+        {
+            shared.put(key, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Drop everything cached for an object.
+     *
+     * @param type
+     *            type of the object, one of the Constants
+     * @param id
+     *            internal ID of the object
+     */
+    public static void invalidate(int type, int id)
+    {
+        Cache shared = getCache();
+        if (shared == null)
+        {
+            return;
+        }
+
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        shared.remove(rowKey(type, id));
+        shared.remove(handleKey(type, id));
+    }
+
+    /**
+     * @return a one line summary of the cache usage, suitable for logging
+     */
+    public static String getStatus()
+    {
+        Cache shared = getCache();
+        if (shared == null)
+        {
+            return CACHE_NAME + ": disabled";
+        }
+
+        StringBuilder sb = new StringBuilder(CACHE_NAME);
+        sb.append(": size=").append(shared.size());
+        sb.append(", hits=").append(hits.get());
+        sb.append(", misses=").append(misses.get());
+        sb.append(", invalidations=").append(invalidations.get());
+        if (shared instanceof EhcacheCache)
+        {
+            sb.append(", evictions=").append(((EhcacheCache) shared).getCache().getStatistics().getEvictionCount());
+        }
+        return sb.toString();
+    }
+
+    public static long getHits()
+    {
+        return hits.get();
+    }
+
+    public static long getMisses()
+    {
+        return misses.get();
+    }
+
+    public static long getInvalidations()
+    {
+        return invalidations.get();
+    }
+
+    /**
+     * Snapshots may only be taken by a Context without uncommitted changes:
+     * rows it has modified are visible to its own connection before commit.
+     */
+    private static boolean isCacheable(Context context)
+    {
+        return !context.hasEvents();
+    }
+
+    private static synchronized Cache getCache()
+    {
+        if (!isEnabled())
+        {
+            return null;
+        }
+
+        // the cache dies with the service manager, e.g. when a webapp reloads
+        if (cache instanceof EhcacheCache
+                && ((EhcacheCache) cache).getCache().getStatus() != Status.STATUS_ALIVE)
+        {
+            cache = null;
+        }
+
+        if (cache == null)
+        {
+            CachingService cachingService = new DSpace().getServiceManager()
+                    .getServiceByName(CachingService.class.getName(), CachingService.class);
+            if (cachingService == null)
+            {
+                log.warn("No CachingService available, the shared object cache is disabled");
+                return null;
+            }
+            cache = cachingService.getCache(CACHE_NAME, new CacheConfig(CacheConfig.CacheScope.INSTANCE));
+        }
+        return cache;
+    }
+
+    private static String getTable(int type)
+    {
+        switch (type)
+        {
+            case Constants.BITSTREAM : return "bitstream";
+            case Constants.BUNDLE    : return "bundle";
+            case Constants.ITEM      : return "item";
+            case Constants.COLLECTION: return "collection";
+            case Constants.COMMUNITY : return "community";
+            case Constants.GROUP     : return "epersongroup";
+            case Constants.EPERSON   : return "eperson";
+        }
+        throw new IllegalArgumentException("Objects of type " + type + " are not cached");
+    }
+
+    private static String rowKey(int type, int id)
+    {
+        return type + ":" + id;
+    }
+
+    private static String handleKey(int type, int id)
+    {
+        return "handle:" + type + ":" + id;
+    }
+}
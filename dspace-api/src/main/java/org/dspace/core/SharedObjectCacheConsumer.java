@@ -0,0 +1,59 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import org.dspace.authorize.AuthorizationCache;
+import org.dspace.event.Consumer;
+import org.dspace.event.Event;
+
+/**
+ * Invalidates the entries of the {@link SharedObjectCache}, and the policies
+ * shared by the {@link AuthorizationCache}, for every object touched by a
+ * committed transaction. Both the subject and the object of each event are
+ * dropped, e.g. adding a Bundle to an Item invalidates both.
+ *
+ * Recommended filter:  Community|Collection|Item|Bundle|Bitstream|EPerson|Group+All
+ */
+public class SharedObjectCacheConsumer implements Consumer
+{
+    public void initialize() throws Exception
+    {
+
+    }
+
+    public void consume(Context ctx, Event event) throws Exception
+    {
+        if (SharedObjectCache.isEnabled())
+        {
+            SharedObjectCache.invalidate(event.getSubjectType(), event.getSubjectID());
+            if (event.getObjectType() >= 0)
+            {
+                SharedObjectCache.invalidate(event.getObjectType(), event.getObjectID());
+            }
+        }
+
+        if (AuthorizationCache.isSharedEnabled())
+        {
+            AuthorizationCache.invalidate(event.getSubjectType(), event.getSubjectID());
+            if (event.getObjectType() >= 0)
+            {
+                AuthorizationCache.invalidate(event.getObjectType(), event.getObjectID());
+            }
+        }
+    }
+
+    public void end(Context ctx) throws Exception
+    {
+
+    }
+
+    public void finish(Context ctx) throws Exception
+    {
+
+    }
+}
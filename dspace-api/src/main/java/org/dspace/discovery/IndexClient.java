@@ -41,7 +41,7 @@ public class IndexClient {
         Context context = new Context();
         context.setIgnoreAuthorization(true);
 
-        String usage = "org.dspace.discovery.IndexClient [-cbhf[r <item handle>]] or nothing to update/clean an existing index.";
+        String usage = "org.dspace.discovery.IndexClient [-cbhf[r <item handle>]] [-t <threads>] or nothing to update/clean an existing index.";
         Options options = new Options();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine line = null;
@@ -80,6 +80,13 @@ public class IndexClient {
         options.addOption(OptionBuilder.isRequired(false).withDescription(
                 "print this help message").create("h"));
 
+        options.addOption(OptionBuilder
+                        .withArgName("threads")
+                        .hasArg(true)
+                        .withDescription(
+                                "number of threads building item documents with -b or when updating (default: index.threads in discovery.cfg)")
+                        .create("t"));
+
         options.addOption(OptionBuilder.isRequired(false).withDescription(
                 "optimize search core").create("o"));
 
@@ -114,7 +121,11 @@ public class IndexClient {
             indexer.cleanIndex(line.hasOption("f"));
         } else if (line.hasOption("b")) {
             log.info("(Re)building index from scratch.");
-            indexer.createIndex(context);
+            if (line.hasOption("t")) {
+                indexer.updateIndex(context, true, Integer.parseInt(line.getOptionValue("t")));
+            } else {
+                indexer.createIndex(context);
+            }
             checkRebuildSpellCheck(line, indexer);
         } else if (line.hasOption("o")) {
             log.info("Optimizing search core.");
@@ -123,8 +134,15 @@ public class IndexClient {
             checkRebuildSpellCheck(line, indexer);
         } else {
             log.info("Updating and Cleaning Index");
-            indexer.cleanIndex(line.hasOption("f"));
-            indexer.updateIndex(context, line.hasOption("f"));
+            // an update that is not forced removes stale documents itself
+            if (line.hasOption("f")) {
+                indexer.cleanIndex(true);
+            }
+            if (line.hasOption("t")) {
+                indexer.updateIndex(context, line.hasOption("f"), Integer.parseInt(line.getOptionValue("t")));
+            } else {
+                indexer.updateIndex(context, line.hasOption("f"));
+            }
             checkRebuildSpellCheck(line, indexer);
         }
 
@@ -0,0 +1,499 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.utils.DSpace;
+
+/**
+ * Collects the objects changed by many transactions and indexes them
+ * together. Without it, the {@link IndexEventConsumer} rebuilds and commits
+ * every changed object at the end of each transaction, so a batch import or
+ * a busy submission workflow costs one Solr commit, and one new searcher,
+ * per object.
+ * <P>
+ * Changed objects and deleted handles are kept in a pending set, in which an
+ * object changed many times appears once. A background thread pushes them to
+ * the {@link IndexingService} as one batch, with one soft commit, when
+ * <ul>
+ * <li>nothing has been added for <code>index.coalesce.window</code>
+ * milliseconds,</li>
+ * <li>the oldest pending change has waited
+ * <code>index.coalesce.max-delay</code> milliseconds, or</li>
+ * <li><code>index.coalesce.max-batch</code> changes are pending.</li>
+ * </ul>
+ * The pending set is only kept in memory. Changes that are lost when the
+ * process dies are picked up by the next <code>index-discovery</code> run
+ * that is not forced, which compares the index with the database.
+ */
+public class IndexCoalescer
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(IndexCoalescer.class);
+
+    private static IndexCoalescer instance = null;
+
+    private final IndexingService indexer;
+
+    private final long window;
+
+    private final long maxDelay;
+
+    private final int maxBatch;
+
+    /** Pending updates, as "type-id" */
+    private final Set<String> updates = new LinkedHashSet<String>();
+
+    /** Pending deletes, as handles */
+    private final Set<String> deletes = new LinkedHashSet<String>();
+
+    /** When the oldest pending change was added */
+    private long firstAdded = 0;
+
+    /** When the latest pending change was added */
+    private long lastAdded = 0;
+
+    /** Serializes the pushes of the flusher and of {@link #flush()} */
+    private final Object pushLock = new Object();
+
+    private Thread flusher = null;
+
+    private volatile boolean stopped = false;
+
+    private long received = 0;
+
+    private long pushed = 0;
+
+    private long flushes = 0;
+
+    private long failures = 0;
+
+    /**
+     * Get the coalescer of this process, configured by the
+     * <code>index.coalesce.*</code> properties of the discovery module, and
+     * start its flusher.
+     *
+     * @return the coalescer
+     */
+    public static synchronized IndexCoalescer getInstance()
+    {
+        if (instance == null)
+        {
+            IndexingService indexer = new DSpace().getServiceManager()
+                    .getServiceByName(IndexingService.class.getName(), IndexingService.class);
+            instance = new IndexCoalescer(indexer,
+                    ConfigurationManager.getLongProperty("discovery", "index.coalesce.window", 1000),
+                    ConfigurationManager.getLongProperty("discovery", "index.coalesce.max-delay", 10000),
+                    ConfigurationManager.getIntProperty("discovery", "index.coalesce.max-batch", 500));
+            instance.start();
+
+            final IndexCoalescer stopping = instance;
+            Runtime.getRuntime().addShutdownHook(new Thread("IndexCoalescer-shutdown")
+            {
+                @Override
+                public void run()
+                {
+                    stopping.shutdown();
+                }
+            });
+            log.info("Coalescing index updates: window " + instance.window + " ms, max delay "
+                    + instance.maxDelay + " ms, max batch " + instance.maxBatch);
+        }
+        return instance;
+    }
+
+    /**
+     * @param indexer
+     *            receives the batches
+     * @param window
+     *            milliseconds without changes after which the pending
+     *            changes are pushed
+     * @param maxDelay
+     *            milliseconds a change may wait at most
+     * @param maxBatch
+     *            number of pending changes that are pushed at once
+     */
+    IndexCoalescer(IndexingService indexer, long window, long maxDelay, int maxBatch)
+    {
+        this.indexer = indexer;
+        this.window = Math.max(0, window);
+        this.maxDelay = Math.max(this.window, maxDelay);
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    /** Start the background thread that pushes the changes when they are due */
+    void start()
+    {
+        flusher = new Thread("IndexCoalescer")
+        {
+            @Override
+            public void run()
+            {
+                while (!stopped)
+                {
+                    try
+                    {
+                        awaitDue();
+                        long failed = getFailures();
+                        if (!stopped)
+                        {
+                            flushDue(System.currentTimeMillis());
+                        }
+                        if (getFailures() > failed)
+                        {
+                            // don't hammer a Solr that is down
+                            Thread.sleep(Math.max(window, 1000));
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Add the changes of a transaction to the pending set.
+     *
+     * @param objects
+     *            changed objects, with handles
+     * @param handles
+     *            handles of deleted objects
+     */
+    public void add(Iterable<DSpaceObject> objects, Iterable<String> handles)
+    {
+        List<String> keys = new ArrayList<String>();
+        for (DSpaceObject dso : objects)
+        {
+            keys.add(key(dso.getType(), dso.getID()));
+        }
+        add(keys, handles, System.currentTimeMillis());
+    }
+
+    /**
+     * @param keys
+     *            changed objects, as "type-id"
+     * @param handles
+     *            handles of deleted objects
+     * @param now
+     *            the current time
+     */
+    synchronized void add(List<String> keys, Iterable<String> handles, long now)
+    {
+        boolean wasEmpty = isEmpty();
+        for (String key : keys)
+        {
+            updates.add(key);
+            received++;
+        }
+        for (String handle : handles)
+        {
+            deletes.add(handle);
+            received++;
+        }
+
+        if (!isEmpty())
+        {
+            if (wasEmpty)
+            {
+                firstAdded = now;
+            }
+            lastAdded = now;
+            notifyAll();
+        }
+    }
+
+    static String key(int type, int id)
+    {
+        return type + "-" + id;
+    }
+
+    private boolean isEmpty()
+    {
+        return updates.isEmpty() && deletes.isEmpty();
+    }
+
+    /**
+     * @param now
+     *            the current time
+     * @return whether the pending changes should be pushed
+     */
+    synchronized boolean isDue(long now)
+    {
+        return !isEmpty() && (updates.size() + deletes.size() >= maxBatch
+                || now - lastAdded >= window || now - firstAdded >= maxDelay);
+    }
+
+    /** Wait until the pending changes are due, or the coalescer is stopped */
+    private synchronized void awaitDue() throws InterruptedException
+    {
+        while (!stopped)
+        {
+            long now = System.currentTimeMillis();
+            if (isDue(now))
+            {
+                return;
+            }
+            if (isEmpty())
+            {
+                wait();
+            }
+            else
+            {
+                wait(Math.max(1, Math.min(lastAdded + window, firstAdded + maxDelay) - now));
+            }
+        }
+    }
+
+    /**
+     * Push batches of pending changes for as long as they are due.
+     *
+     * @param now
+     *            the current time
+     * @return number of changes pushed
+     */
+    int flushDue(long now)
+    {
+        int count = 0;
+        while (isDue(now))
+        {
+            int n = pushBatch(now);
+            if (n <= 0)
+            {
+                break;
+            }
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * Push all pending changes now.
+     *
+     * @return number of changes pushed
+     */
+    public int flush()
+    {
+        int count = 0;
+        int n;
+        while ((n = pushBatch(System.currentTimeMillis())) > 0)
+        {
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * Take up to one batch of pending changes and push it. A batch that
+     * fails is put back, to be tried again when it is next due.
+     *
+     * @return number of changes pushed, 0 if none were pending, -1 if the
+     *         push failed
+     */
+    private int pushBatch(long now)
+    {
+        synchronized (pushLock)
+        {
+            List<String> batchUpdates = new ArrayList<String>();
+            List<String> batchDeletes = new ArrayList<String>();
+            synchronized (this)
+            {
+                take(deletes, batchDeletes, maxBatch);
+                take(updates, batchUpdates, maxBatch - batchDeletes.size());
+                if (isEmpty())
+                {
+                    firstAdded = 0;
+                }
+            }
+            int size = batchUpdates.size() + batchDeletes.size();
+            if (size == 0)
+            {
+                return 0;
+            }
+
+            long start = System.currentTimeMillis();
+            try
+            {
+                push(batchUpdates, batchDeletes);
+                synchronized (this)
+                {
+                    flushes++;
+                    pushed += size;
+                }
+                log.info("Indexed " + batchUpdates.size() + " objects and removed "
+                        + batchDeletes.size() + " handles in "
+                        + (System.currentTimeMillis() - start) + " ms; " + getStatus());
+                return size;
+            }
+            catch (Exception e)
+            {
+                synchronized (this)
+                {
+                    failures++;
+                    boolean wasEmpty = isEmpty();
+                    updates.addAll(batchUpdates);
+                    deletes.addAll(batchDeletes);
+                    if (wasEmpty)
+                    {
+                        firstAdded = now;
+                    }
+                    lastAdded = now;
+                }
+                log.error("Unable to index a batch of " + size + " changes, will try again: "
+                        + e.getMessage(), e);
+                return -1;
+            }
+        }
+    }
+
+    private static void take(Set<String> from, List<String> to, int max)
+    {
+        for (Iterator<String> i = from.iterator(); i.hasNext() && to.size() < max;)
+        {
+            to.add(i.next());
+            i.remove();
+        }
+    }
+
+    /**
+     * Index a batch of changes. Objects that no longer exist, or no longer
+     * have a handle, are skipped; their documents are removed by the delete
+     * of their handle.
+     *
+     * @param batchUpdates
+     *            changed objects, as "type-id"
+     * @param batchDeletes
+     *            handles of deleted objects
+     * @throws Exception
+     */
+    protected void push(List<String> batchUpdates, List<String> batchDeletes) throws Exception
+    {
+        Context context = new Context();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            List<DSpaceObject> objects = new ArrayList<DSpaceObject>();
+            for (String key : batchUpdates)
+            {
+                int dash = key.indexOf('-');
+                DSpaceObject dso = DSpaceObject.find(context, Integer.parseInt(key.substring(0, dash)),
+                        Integer.parseInt(key.substring(dash + 1)));
+                if (dso != null && dso.getHandle() != null && !batchDeletes.contains(dso.getHandle()))
+                {
+                    objects.add(dso);
+                }
+            }
+            indexer.indexContent(context, objects, batchDeletes);
+        }
+        finally
+        {
+            context.abort();
+        }
+    }
+
+    /**
+     * Stop the flusher and push the pending changes.
+     */
+    public void shutdown()
+    {
+        stopped = true;
+        synchronized (this)
+        {
+            notifyAll();
+        }
+        if (flusher != null)
+        {
+            try
+            {
+                flusher.join(10000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /** @return number of distinct objects waiting to be indexed */
+    public synchronized int getPendingUpdates()
+    {
+        return updates.size();
+    }
+
+    /** @return number of distinct handles waiting to be removed */
+    public synchronized int getPendingDeletes()
+    {
+        return deletes.size();
+    }
+
+    /** @return a copy of the pending updates, as "type-id" */
+    public synchronized List<String> getPendingUpdateKeys()
+    {
+        return new ArrayList<String>(updates);
+    }
+
+    /** @return a copy of the pending deletes, as handles */
+    public synchronized List<String> getPendingDeleteHandles()
+    {
+        return new ArrayList<String>(deletes);
+    }
+
+    /** @return milliseconds the oldest pending change has waited, 0 if none */
+    public synchronized long getOldestPendingAge()
+    {
+        return isEmpty() ? 0 : System.currentTimeMillis() - firstAdded;
+    }
+
+    /** @return number of changes received, including duplicates */
+    public synchronized long getReceived()
+    {
+        return received;
+    }
+
+    /** @return number of distinct changes pushed */
+    public synchronized long getPushed()
+    {
+        return pushed;
+    }
+
+    /** @return number of batches pushed */
+    public synchronized long getFlushes()
+    {
+        return flushes;
+    }
+
+    /** @return number of batches that failed */
+    public synchronized long getFailures()
+    {
+        return failures;
+    }
+
+    /**
+     * @return a one line summary of the pending set and the batches pushed
+     */
+    public synchronized String getStatus()
+    {
+        return "pending " + updates.size() + " updates, " + deletes.size()
+                + " deletes (oldest " + getOldestPendingAge() + " ms); received " + received
+                + ", pushed " + pushed + " in " + flushes + " batches, " + failures + " failed";
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Compares the Discovery index with the database in one pass, instead of
+ * asking Solr about every Item in turn.
+ * <P>
+ * The ID and last indexed time of every Item, Collection and Community
+ * document are read from Solr page by page, ordered by
+ * <code>search.resourceid</code> (each page starts after the last ID of the
+ * previous one, so deep pages cost no more than the first), into a
+ * {@link LastIndexedMap}. A single scan of the <code>item</code> table then
+ * yields
+ * <ul>
+ * <li>the archived or withdrawn Items that are not indexed, or were modified
+ * after they were indexed ({@link #getStaleItems()}), and</li>
+ * <li>the documents of objects that no longer exist, and of Items that are
+ * neither archived nor withdrawn ({@link #getOrphans()}).</li>
+ * </ul>
+ * The number of documents read from Solr at once is set by
+ * <code>index.scan.page.size</code> in <code>discovery.cfg</code>
+ * (default 10000).
+ */
+class IndexDiff
+{
+    private static final Logger log = Logger.getLogger(IndexDiff.class);
+
+    private final SolrServer solr;
+
+    private final int pageSize;
+
+    private int[] staleItems = new int[0];
+
+    private final List<String> orphans = new ArrayList<String>();
+
+    IndexDiff(SolrServer solr)
+    {
+        this.solr = solr;
+        this.pageSize = Math.max(1, ConfigurationManager.getIntProperty("discovery", "index.scan.page.size", 10000));
+    }
+
+    /**
+     * Compare the index with the database.
+     *
+     * @param context
+     *            DSpace context, used to read the database
+     * @throws SQLException
+     * @throws SearchServiceException
+     *             if Solr could not be read
+     */
+    void compute(Context context) throws SQLException, SearchServiceException
+    {
+        long start = System.currentTimeMillis();
+
+        LastIndexedMap indexed = readIndex(Constants.ITEM);
+        int inIndex = indexed.size();
+        compareItems(context, indexed);
+        addOrphans(Constants.ITEM, indexed);
+
+        compareContainers(context, Constants.COLLECTION, "SELECT collection_id AS id FROM collection");
+        compareContainers(context, Constants.COMMUNITY, "SELECT community_id AS id FROM community");
+
+        log.info("Compared " + inIndex + " indexed items with the database in "
+                + (System.currentTimeMillis() - start) + " ms: "
+                + staleItems.length + " to index, " + orphans.size() + " to remove");
+    }
+
+    /**
+     * @return the IDs of the Items to (re)index, in ascending order
+     */
+    int[] getStaleItems()
+    {
+        return staleItems;
+    }
+
+    /**
+     * @return the unique IDs (<code>search.uniqueid</code>) of the documents to
+     *         remove from the index
+     */
+    List<String> getOrphans()
+    {
+        return orphans;
+    }
+
+    /**
+     * Scan the item table, leaving only the orphans in the map.
+     */
+    private void compareItems(Context context, LastIndexedMap indexed) throws SQLException
+    {
+        int[] stale = new int[1024];
+        int count = 0;
+
+        TableRowIterator tri = DatabaseManager.queryTable(context, "item",
+                "SELECT item_id, in_archive, withdrawn, last_modified FROM item ORDER BY item_id");
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                int id = row.getIntColumn("item_id");
+                if (!row.getBooleanColumn("in_archive") && !row.getBooleanColumn("withdrawn"))
+                {
+                    // stays in the map, so it is removed from the index
+                    continue;
+                }
+
+                long lastIndexed = indexed.remove(id);
+                Date lastModified = row.getDateColumn("last_modified");
+                if (lastIndexed == LastIndexedMap.NOT_FOUND
+                        || (lastModified != null && lastIndexed < lastModified.getTime()))
+                {
+                    if (count == stale.length)
+                    {
+                        int[] grown = new int[count * 2];
+                        System.arraycopy(stale, 0, grown, 0, count);
+                        stale = grown;
+                    }
+                    stale[count++] = id;
+                }
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        staleItems = new int[count];
+        System.arraycopy(stale, 0, staleItems, 0, count);
+    }
+
+    /**
+     * Find the documents of deleted Collections or Communities.
+     */
+    private void compareContainers(Context context, int type, String query)
+            throws SQLException, SearchServiceException
+    {
+        LastIndexedMap indexed = readIndex(type);
+        TableRowIterator tri = DatabaseManager.query(context, query);
+        try
+        {
+            while (tri.hasNext())
+            {
+                indexed.remove(tri.next().getIntColumn("id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        addOrphans(type, indexed);
+    }
+
+    private void addOrphans(int type, LastIndexedMap indexed)
+    {
+        for (int id : indexed.keys())
+        {
+            orphans.add(type + "-" + id);
+        }
+    }
+
+    /**
+     * Read the ID and last indexed time of all documents of a type.
+     */
+    private LastIndexedMap readIndex(int type) throws SearchServiceException
+    {
+        LastIndexedMap indexed = null;
+        int last = -1;
+        try
+        {
+            while (true)
+            {
+                SolrQuery query = new SolrQuery();
+                query.setQuery("search.resourcetype:" + type);
+                if (last >= 0)
+                {
+                    query.addFilterQuery("search.resourceid:{" + last + " TO *]");
+                }
+                query.setFields("search.resourceid", SolrServiceImpl.LAST_INDEXED_FIELD);
+                query.setSortField("search.resourceid", SolrQuery.ORDER.asc);
+                query.setRows(pageSize);
+
+                SolrDocumentList docs = solr.query(query).getResults();
+                int previous = last;
+                if (indexed == null)
+                {
+                    indexed = new LastIndexedMap((int) Math.min(docs.getNumFound(), Integer.MAX_VALUE / 4));
+                }
+
+                for (SolrDocument doc : docs)
+                {
+                    Object id = doc.getFirstValue("search.resourceid");
+                    if (!(id instanceof Integer))
+                    {
+                        continue;
+                    }
+                    last = (Integer) id;
+                    Object value = doc.getFirstValue(SolrServiceImpl.LAST_INDEXED_FIELD);
+                    // documents without a date are always reindexed
+                    indexed.put(last, value instanceof Date ? ((Date) value).getTime() : Long.MIN_VALUE + 1);
+                }
+
+                if (docs.size() < pageSize || last == previous)
+                {
+                    return indexed;
+                }
+            }
+        }
+        catch (SolrServerException e)
+        {
+            throw new SearchServiceException(e.getMessage(), e);
+        }
+    }
+}
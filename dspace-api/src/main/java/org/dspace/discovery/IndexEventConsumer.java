@@ -10,17 +10,26 @@ package org.dspace.discovery;
 import org.apache.log4j.Logger;
 import org.dspace.content.Bundle;
 import org.dspace.content.DSpaceObject;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.event.Consumer;
 import org.dspace.event.Event;
 import org.dspace.utils.DSpace;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
  * Class for updating search indices in discovery from content events.
+ * <P>
+ * By default the changed objects are indexed and committed at the end of
+ * each transaction. With <code>index.coalesce = true</code> in the
+ * discovery module configuration they are handed to the
+ * {@link IndexCoalescer}, which indexes the changes of many transactions
+ * at once.
  *
  * @author Kevin Van de Velde (kevin at atmire dot com)
  * @author Mark Diggory (markd at atmire dot com)
@@ -42,6 +51,8 @@ public class IndexEventConsumer implements Consumer {
 
     IndexingService indexer = dspace.getServiceManager().getServiceByName(IndexingService.class.getName(),IndexingService.class);
 
+    private boolean coalesce = ConfigurationManager.getBooleanProperty("discovery", "index.coalesce", false);
+
     public void initialize() throws Exception {
 
     }
@@ -156,7 +167,17 @@ public class IndexEventConsumer implements Consumer {
      */
     public void end(Context ctx) throws Exception {
 
-        if (objectsToUpdate != null && handlesToDelete != null) {
+        if (objectsToUpdate != null && handlesToDelete != null && coalesce) {
+            List<DSpaceObject> changed = new ArrayList<DSpaceObject>();
+            for (DSpaceObject iu : objectsToUpdate) {
+                String hdl = iu.getHandle();
+                if (hdl != null && !handlesToDelete.contains(hdl)) {
+                    changed.add(iu);
+                }
+            }
+            IndexCoalescer.getInstance().add(changed, handlesToDelete);
+        }
+        else if (objectsToUpdate != null && handlesToDelete != null) {
 
             // update the changed Items not deleted because they were on create list
             for (DSpaceObject iu : objectsToUpdate) {
@@ -13,6 +13,7 @@ import org.dspace.core.Context;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.List;
 
 /**
  * Interface used for indexing dspaceobject into discovery
@@ -44,6 +45,9 @@ public interface IndexingService {
     void unIndexContent(Context context, String handle, boolean commit)
             throws SQLException, IOException;
 
+    void indexContent(Context context, List<DSpaceObject> dsos,
+            List<String> handlesToDelete) throws SQLException, SearchServiceException;
+
     void reIndexContent(Context context, DSpaceObject dso)
             throws SQLException, IOException;
 
@@ -53,6 +57,8 @@ public interface IndexingService {
 
     void updateIndex(Context context, boolean force);
 
+    void updateIndex(Context context, boolean force, int threads);
+
     void cleanIndex(boolean force) throws IOException,
             SQLException, SearchServiceException;
 
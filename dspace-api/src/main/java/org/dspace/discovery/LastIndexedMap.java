@@ -0,0 +1,196 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.util.Arrays;
+
+/**
+ * Maps the IDs of indexed objects to the time they were last indexed, in
+ * milliseconds. Keys and values are kept in two primitive arrays (open
+ * addressing with linear probing), so that the state of several hundred
+ * thousand documents takes a few megabytes instead of a map of boxed objects.
+ * <P>
+ * Not thread safe.
+ */
+class LastIndexedMap
+{
+    /** Returned by {@link #get(int)} and {@link #remove(int)} for unknown IDs */
+    static final long NOT_FOUND = Long.MIN_VALUE;
+
+    /** Marks a free slot; DSpace IDs are never negative */
+    private static final int FREE = -1;
+
+    private int[] keys;
+
+    private long[] values;
+
+    private int size = 0;
+
+    /**
+     * Create an empty map.
+     *
+     * @param expected
+     *            number of entries expected, to avoid resizing
+     */
+    LastIndexedMap(int expected)
+    {
+        int capacity = 16;
+        while (capacity < expected * 2 && capacity < (1 << 30))
+        {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @param id
+     *            ID of the object, not negative
+     * @param lastIndexed
+     *            time the object was indexed, in milliseconds
+     */
+    void put(int id, long lastIndexed)
+    {
+        if (id < 0)
+        {
+            throw new IllegalArgumentException("Negative ID: " + id);
+        }
+        if ((size + 1) * 2 > keys.length)
+        {
+            resize();
+        }
+
+        int slot = find(id);
+        if (keys[slot] == FREE)
+        {
+            keys[slot] = id;
+            size++;
+        }
+        values[slot] = lastIndexed;
+    }
+
+    /**
+     * @param id
+     *            ID of the object
+     * @return the time the object was indexed, or {@link #NOT_FOUND}
+     */
+    long get(int id)
+    {
+        if (id < 0)
+        {
+            return NOT_FOUND;
+        }
+        int slot = find(id);
+        return keys[slot] == FREE ? NOT_FOUND : values[slot];
+    }
+
+    /**
+     * @param id
+     *            ID of the object
+     * @return the time the object was indexed, or {@link #NOT_FOUND} if it was
+     *         not in the map
+     */
+    long remove(int id)
+    {
+        if (id < 0)
+        {
+            return NOT_FOUND;
+        }
+        int slot = find(id);
+        if (keys[slot] == FREE)
+        {
+            return NOT_FOUND;
+        }
+        long value = values[slot];
+
+        // shift the following entries of the cluster back, so that no
+        // lookup stops early at the freed slot
+        int mask = keys.length - 1;
+        int free = slot;
+        int next = (free + 1) & mask;
+        while (keys[next] != FREE)
+        {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - free) & mask))
+            {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[free] = FREE;
+        size--;
+        return value;
+    }
+
+    /**
+     * @return number of entries
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the IDs in the map, in ascending order
+     */
+    int[] keys()
+    {
+        int[] result = new int[size];
+        int i = 0;
+        for (int key : keys)
+        {
+            if (key != FREE)
+            {
+                result[i++] = key;
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private int find(int id)
+    {
+        int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while (keys[slot] != FREE && keys[slot] != id)
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize()
+    {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != FREE)
+            {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new int[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    /** Spreads sequential IDs over the table */
+    private static int hash(int id)
+    {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,488 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.common.SolrInputDocument;
+import org.dspace.content.Item;
+import org.dspace.content.LoadHints;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Indexes all Items with several threads. The calling thread reads the IDs of
+ * all Items and queues them in pages; each worker thread loads a page with
+ * {@link Item#findAll(Context, int[], LoadHints)} in its own Context and builds
+ * the documents; a single writer thread sends the documents to Solr in batches.
+ * Nothing is committed until the caller commits at the end.
+ * <P>
+ * The full text read from the TEXT bundle is part of the batched documents.
+ * Only with <code>index.fulltext.extract = true</code> are documents with full
+ * text streams sent on their own by the worker that built them, as the streams
+ * read from the worker's Context. Unlike
+ * {@link SolrServiceImpl#indexContent}, documents are not deleted by Handle
+ * before being added: they replace the existing document with the same
+ * <code>search.uniqueid</code>.
+ * <P>
+ * Settings in <code>discovery.cfg</code>:
+ * <ul>
+ * <li><code>index.threads</code>: number of workers, used when no number is
+ * given on the command line (default 1, i.e. serial indexing)</li>
+ * <li><code>index.page.size</code>: Items loaded at once by a worker (default 100)</li>
+ * <li><code>index.batch.size</code>: documents sent to Solr at once (default 250)</li>
+ * <li><code>index.report.interval</code>: Items between two progress reports (default 1000)</li>
+ * </ul>
+ */
+class ParallelIndexer
+{
+    private static final Logger log = Logger.getLogger(ParallelIndexer.class);
+
+    /** Tells a worker that there are no more pages */
+    private static final int[] NO_MORE_PAGES = new int[0];
+
+    /** Tells the writer that there are no more documents */
+    private static final SolrInputDocument NO_MORE_DOCUMENTS = new SolrInputDocument();
+
+    private final SolrServiceImpl service;
+
+    private final boolean force;
+
+    /** IDs of the Items to index, or null for all Items */
+    private final int[] itemIDs;
+
+    private final int threads;
+
+    private final int pageSize;
+
+    private final int batchSize;
+
+    private final int reportInterval;
+
+    private final BlockingQueue<int[]> pages;
+
+    private final BlockingQueue<SolrInputDocument> documents;
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong indexed = new AtomicLong();
+
+    private final AtomicLong removed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private long start;
+
+    ParallelIndexer(SolrServiceImpl service, boolean force, int threads)
+    {
+        this(service, force, threads, null);
+    }
+
+    /**
+     * @param service
+     *            the service building and writing the documents
+     * @param force
+     *            if false, Items are only indexed if their document is stale
+     * @param threads
+     *            number of worker threads
+     * @param itemIDs
+     *            IDs of the Items to index, or null to index all Items
+     */
+    ParallelIndexer(SolrServiceImpl service, boolean force, int threads, int[] itemIDs)
+    {
+        this.service = service;
+        this.force = force;
+        this.itemIDs = itemIDs;
+        this.threads = threads;
+        this.pageSize = Math.max(1, ConfigurationManager.getIntProperty("discovery", "index.page.size", 100));
+        this.batchSize = Math.max(1, ConfigurationManager.getIntProperty("discovery", "index.batch.size", 250));
+        this.reportInterval = Math.max(1, ConfigurationManager.getIntProperty("discovery", "index.report.interval", 1000));
+        this.pages = new ArrayBlockingQueue<int[]>(threads * 2);
+        this.documents = new ArrayBlockingQueue<SolrInputDocument>(batchSize * 2);
+    }
+
+    /**
+     * Index all Items, or the given ones.
+     *
+     * @param context
+     *            Context used to read the Item IDs
+     * @throws Exception
+     */
+    void run(Context context) throws Exception
+    {
+        // initialize the Solr server before the threads share it
+        HttpSolrServer solr = service.getSolr();
+        if (solr == null)
+        {
+            return;
+        }
+
+        log.info("Indexing items with " + threads + " threads, pages of " + pageSize
+                + " items, batches of " + batchSize + " documents");
+        start = System.currentTimeMillis();
+
+        Thread writer = new Thread(new Writer(solr), "discovery-index-writer");
+        writer.start();
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++)
+        {
+            workers.submit(new Worker(solr));
+        }
+
+        try
+        {
+            producePages(context);
+        }
+        finally
+        {
+            for (int i = 0; i < threads; i++)
+            {
+                pages.put(NO_MORE_PAGES);
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+            documents.put(NO_MORE_DOCUMENTS);
+            writer.join();
+        }
+
+        log.info("Finished indexing items: " + getProgress());
+    }
+
+    /**
+     * Queue the IDs of all Items, or of the given ones, in pages.
+     */
+    private void producePages(Context context) throws Exception
+    {
+        if (itemIDs != null)
+        {
+            for (int from = 0; from < itemIDs.length; from += pageSize)
+            {
+                int[] page = new int[Math.min(pageSize, itemIDs.length - from)];
+                System.arraycopy(itemIDs, from, page, 0, page.length);
+                pages.put(page);
+            }
+            return;
+        }
+
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT item_id FROM item ORDER BY item_id");
+        try
+        {
+            int[] page = new int[pageSize];
+            int count = 0;
+            while (tri.hasNext())
+            {
+                page[count++] = tri.next().getIntColumn("item_id");
+                if (count == pageSize)
+                {
+                    pages.put(page);
+                    page = new int[pageSize];
+                    count = 0;
+                }
+            }
+            if (count > 0)
+            {
+                int[] last = new int[count];
+                System.arraycopy(page, 0, last, 0, count);
+                pages.put(last);
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+    }
+
+    /**
+     * @return a one line summary of the progress so far
+     */
+    String getProgress()
+    {
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        long done = processed.get();
+        return done + " items processed (" + indexed.get() + " indexed, "
+                + removed.get() + " removed, " + failed.get() + " failed), "
+                + written.get() + " documents written in batches, "
+                + (elapsed / 1000) + " s, "
+                + (done * 1000 / elapsed) + " items/s, "
+                + documents.size() + " documents waiting";
+    }
+
+    /**
+     * Builds the documents of the Items of each page.
+     */
+    private class Worker implements Runnable
+    {
+        private final HttpSolrServer solr;
+
+        Worker(HttpSolrServer solr)
+        {
+            this.solr = solr;
+        }
+
+        public void run()
+        {
+            Context context = null;
+            try
+            {
+                context = new Context();
+                context.turnOffAuthorisationSystem();
+
+                int[] page;
+                while ((page = pages.take()) != NO_MORE_PAGES)
+                {
+                    Item[] items = null;
+                    try
+                    {
+                        items = Item.findAll(context, page, LoadHints.ALL);
+                    }
+                    catch (Exception e)
+                    {
+                        log.warn("Error while loading items " + page[0] + " to "
+                                + page[page.length - 1] + ", loading them one by one: " + e.getMessage(), e);
+                        rollback(context);
+                    }
+
+                    if (items != null)
+                    {
+                        for (Item item : items)
+                        {
+                            index(context, item);
+                            processed();
+                        }
+                    }
+                    else
+                    {
+                        indexOneByOne(context, page);
+                    }
+                    // keep the memory footprint down
+                    context.clearCache();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch (SQLException e)
+            {
+                log.error("Indexing worker could not start: " + e.getMessage(), e);
+                // don't leave the producer blocked
+                drainPages();
+            }
+            finally
+            {
+                if (context != null)
+                {
+                    context.abort();
+                }
+            }
+        }
+
+        /**
+         * Load and index the Items of a page one at a time, so that an Item
+         * which cannot be loaded does not fail the others.
+         */
+        private void indexOneByOne(Context context, int[] page) throws InterruptedException
+        {
+            context.clearCache();
+            for (int id : page)
+            {
+                Item item;
+                try
+                {
+                    item = Item.find(context, id);
+                }
+                catch (Exception e)
+                {
+                    failed.incrementAndGet();
+                    log.error("Error while loading item " + id + ": " + e.getMessage(), e);
+                    rollback(context);
+                    processed();
+                    continue;
+                }
+
+                if (item != null)
+                {
+                    index(context, item);
+                    processed();
+                }
+            }
+        }
+
+        /** Count an Item as processed, and report the progress now and then */
+        private void processed()
+        {
+            if (processed.incrementAndGet() % reportInterval == 0)
+            {
+                log.info("Indexing items: " + getProgress());
+            }
+        }
+
+        /** Get the connection out of a failed transaction; workers only read */
+        private void rollback(Context context)
+        {
+            try
+            {
+                context.getDBConnection().rollback();
+            }
+            catch (SQLException e)
+            {
+                log.warn("Unable to roll back: " + e.getMessage(), e);
+            }
+        }
+
+        private void index(Context context, Item item) throws InterruptedException
+        {
+            try
+            {
+                if (item.isArchived() || item.isWithdrawn())
+                {
+                    if (force || service.requiresIndexing(item.getHandle(), item.getLastModified()))
+                    {
+                        List<BitstreamContentStream> streams = new ArrayList<BitstreamContentStream>();
+                        SolrInputDocument doc = service.buildItemDocument(context, item, streams);
+                        if (streams.isEmpty())
+                        {
+                            documents.put(doc);
+                        }
+                        else
+                        {
+                            service.writeDocument(doc, streams, false);
+                        }
+                        indexed.incrementAndGet();
+                    }
+                }
+                else
+                {
+                    solr.deleteById(Constants.ITEM + "-" + item.getID());
+                    removed.incrementAndGet();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                failed.incrementAndGet();
+                log.error("Error while indexing item " + item.getID() + ": " + e.getMessage(), e);
+            }
+        }
+
+        private void drainPages()
+        {
+            try
+            {
+                int[] page;
+                while ((page = pages.take()) != NO_MORE_PAGES)
+                {
+                    failed.addAndGet(page.length);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sends the documents to Solr in batches.
+     */
+    private class Writer implements Runnable
+    {
+        private final HttpSolrServer solr;
+
+        Writer(HttpSolrServer solr)
+        {
+            this.solr = solr;
+        }
+
+        public void run()
+        {
+            List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+            try
+            {
+                while (true)
+                {
+                    // don't hold a partial batch back while the workers are slow
+                    SolrInputDocument doc = documents.poll(1, TimeUnit.SECONDS);
+                    if (doc == NO_MORE_DOCUMENTS)
+                    {
+                        break;
+                    }
+                    if (doc != null)
+                    {
+                        batch.add(doc);
+                    }
+                    if (batch.size() >= batchSize || (doc == null && !batch.isEmpty()))
+                    {
+                        flush(batch);
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            flush(batch);
+        }
+
+        private void flush(List<SolrInputDocument> batch)
+        {
+            if (batch.isEmpty())
+            {
+                return;
+            }
+
+            try
+            {
+                solr.add(batch);
+                written.addAndGet(batch.size());
+            }
+            catch (Exception e)
+            {
+                // find out which documents were rejected
+                log.warn("Batch of " + batch.size() + " documents failed, adding them one by one: "
+                        + e.getMessage());
+                for (SolrInputDocument doc : batch)
+                {
+                    try
+                    {
+                        solr.add(doc);
+                        written.incrementAndGet();
+                    }
+                    catch (Exception e1)
+                    {
+                        failed.incrementAndGet();
+                        log.error("Error while writing " + doc.getFieldValue("handle")
+                                + " to discovery index: " + e1.getMessage(), e1);
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+}
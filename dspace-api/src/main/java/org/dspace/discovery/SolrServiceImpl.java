@@ -11,9 +11,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -61,6 +63,7 @@ import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.*;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.handler.extraction.ExtractingParams;
+import org.dspace.authorize.AuthorizeException;
 import org.dspace.content.Bitstream;
 import org.dspace.content.Bundle;
 import org.dspace.content.Collection;
@@ -69,6 +72,7 @@ import org.dspace.content.DCValue;
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
 import org.dspace.content.ItemIterator;
+import org.dspace.content.LoadHints;
 import org.dspace.content.authority.ChoiceAuthorityManager;
 import org.dspace.content.authority.Choices;
 import org.dspace.content.authority.MetadataAuthorityManager;
@@ -212,8 +216,8 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                         /**
                          * If the item is in the repository now, add it to the index
                          */
-                        if (requiresIndexing(handle, ((Item) dso).getLastModified())
-                                || force)
+                        if (force
+                                || requiresIndexing(handle, ((Item) dso).getLastModified()))
                         {
                             unIndexContent(context, handle);
                             buildDocument(context, (Item) dso);
@@ -325,6 +329,94 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         }
     }
 
+    /**
+     * Index a set of objects and remove the documents of deleted objects in
+     * one go: the documents are sent to Solr in one request and made visible
+     * by a single soft commit, instead of a hard commit per object.
+     *
+     * @param context the dspace context
+     * @param dsos    Items, Collections and Communities to (re)index; Items
+     *                that are neither archived nor withdrawn are removed
+     * @param handlesToDelete handles of deleted objects
+     * @throws SQLException
+     * @throws SearchServiceException if Solr rejects the batch
+     */
+    public void indexContent(Context context, List<DSpaceObject> dsos,
+            List<String> handlesToDelete) throws SQLException, SearchServiceException
+    {
+        if (getSolr() == null)
+        {
+            return;
+        }
+
+        try {
+            List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+            List<String> unarchived = new ArrayList<String>();
+            for (DSpaceObject dso : dsos)
+            {
+                switch (dso.getType())
+                {
+                    case Constants.ITEM:
+                        Item item = (Item) dso;
+                        if (item.isArchived() || item.isWithdrawn())
+                        {
+                            List<BitstreamContentStream> streams = new ArrayList<BitstreamContentStream>();
+                            SolrInputDocument doc = buildItemDocument(context, item, streams);
+                            if (streams.isEmpty())
+                            {
+                                docs.add(doc);
+                            }
+                            else
+                            {
+                                writeDocument(doc, streams, false);
+                            }
+                        }
+                        else
+                        {
+                            unarchived.add(Constants.ITEM + "-" + item.getID());
+                        }
+                        break;
+
+                    case Constants.COLLECTION:
+                        docs.add(buildCollectionDocument(context, (Collection) dso));
+                        break;
+
+                    case Constants.COMMUNITY:
+                        docs.add(buildCommunityDocument(context, (Community) dso));
+                        break;
+
+                    default:
+                        log.error("Only Items, Collections and Communities can be Indexed");
+                }
+            }
+
+            if (!docs.isEmpty())
+            {
+                getSolr().add(docs);
+            }
+            if (!unarchived.isEmpty())
+            {
+                getSolr().deleteById(unarchived);
+            }
+            if (!handlesToDelete.isEmpty())
+            {
+                StringBuilder query = new StringBuilder("handle:(");
+                for (int i = 0; i < handlesToDelete.size(); i++)
+                {
+                    query.append(i > 0 ? " OR \"" : "\"").append(handlesToDelete.get(i)).append('"');
+                }
+                getSolr().deleteByQuery(query.append(')').toString());
+            }
+            getSolr().commit(false, false, true);
+        } catch (SolrServerException e)
+        {
+            throw new SearchServiceException(e.getMessage(), e);
+        } catch (IOException e)
+        {
+            throw new SearchServiceException(e.getMessage(), e);
+        }
+    }
+
     /**
      * reIndexContent removes something from the index, then re-indexes it
      *
@@ -381,20 +473,82 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      * @param force whether or not to force the reindexing
      */
     public void updateIndex(Context context, boolean force)
+    {
+        updateIndex(context, force,
+                ConfigurationManager.getIntProperty("discovery", "index.threads", 1));
+    }
+
+    /**
+     * Iterates over all Items, Collections and Communities. And updates them in
+     * the index. With more than one thread, Items are indexed by a
+     * {@link ParallelIndexer}, which builds documents concurrently and sends
+     * them to Solr in batches without intermediate commits.
+     * <p/>
+     * Unless forced, the whole index is first compared with the database by an
+     * {@link IndexDiff}: only new and modified Items are indexed, and the
+     * documents of deleted or unarchived objects are removed, so there is no
+     * need to call {@link #cleanIndex(boolean)} as well.
+     *
+     * @param context the dspace context
+     * @param force whether or not to force the reindexing
+     * @param threads number of threads building Item documents
+     */
+    public void updateIndex(Context context, boolean force, int threads)
     {
         try {
-            ItemIterator items = null;
-            try {
-                for (items = Item.findAllUnfiltered(context); items.hasNext();)
+            if(getSolr() == null)
+            {
+                return;
+            }
+
+            if (force)
+            {
+                if (threads > 1)
                 {
-                    Item item = items.next();
-                    indexContent(context, item, force);
-                    item.decache();
+                    new ParallelIndexer(this, true, threads).run(context);
                 }
-            } finally {
-                if (items != null)
+                else
                 {
-                    items.close();
+                    ItemIterator items = null;
+                    try {
+                        for (items = Item.findAllUnfiltered(context, LoadHints.ALL); items.hasNext();)
+                        {
+                            Item item = items.next();
+                            indexContent(context, item, true);
+                            item.decache();
+                        }
+                    } finally {
+                        if (items != null)
+                        {
+                            items.close();
+                        }
+                    }
+                }
+            }
+            else
+            {
+                IndexDiff diff = new IndexDiff(getSolr());
+                diff.compute(context);
+                deleteDocuments(diff.getOrphans());
+
+                int[] stale = diff.getStaleItems();
+                if (threads > 1)
+                {
+                    new ParallelIndexer(this, true, threads, stale).run(context);
+                }
+                else
+                {
+                    int pageSize = Math.max(1, ConfigurationManager.getIntProperty("discovery", "index.page.size", 100));
+                    for (int from = 0; from < stale.length; from += pageSize)
+                    {
+                        int[] page = new int[Math.min(pageSize, stale.length - from)];
+                        System.arraycopy(stale, from, page, 0, page.length);
+                        for (Item item : Item.findAll(context, page, LoadHints.ALL))
+                        {
+                            indexContent(context, item, true);
+                        }
+                        context.clearCache();
+                    }
                 }
             }
 
@@ -449,34 +603,9 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             {
                 getSolr().deleteByQuery("search.resourcetype:[2 TO 4]");
             } else {
-                SolrQuery query = new SolrQuery();
-                query.setQuery("search.resourcetype:[2 TO 4]");
-                QueryResponse rsp = getSolr().query(query);
-                SolrDocumentList docs = rsp.getResults();
-
-                Iterator iter = docs.iterator();
-                while (iter.hasNext())
-                {
-
-                 SolrDocument doc = (SolrDocument) iter.next();
-
-                String handle = (String) doc.getFieldValue("handle");
-
-                DSpaceObject o = HandleManager.resolveToObject(context, handle);
-
-                if (o == null)
-                {
-                    log.info("Deleting: " + handle);
-                    /*
-                          * Use IndexWriter to delete, its easier to manage
-                          * write.lock
-                          */
-                    unIndexContent(context, handle);
-                } else {
-                    context.removeCached(o, o.getID());
-                    log.debug("Keeping: " + handle);
-                }
-            }
+                IndexDiff diff = new IndexDiff(getSolr());
+                diff.compute(context);
+                deleteDocuments(diff.getOrphans());
             }
         } catch(Exception e)
         {
@@ -490,6 +619,24 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
 
 
+    }
+
+    /**
+     * Remove documents from the index, in batches.
+     *
+     * @param uniqueIDs values of <code>search.uniqueid</code>
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    protected void deleteDocuments(List<String> uniqueIDs) throws SolrServerException, IOException
+    {
+        int batchSize = Math.max(1, ConfigurationManager.getIntProperty("discovery", "index.batch.size", 250));
+        for (int from = 0; from < uniqueIDs.size(); from += batchSize)
+        {
+            List<String> batch = uniqueIDs.subList(from, Math.min(from + batchSize, uniqueIDs.size()));
+            getSolr().deleteById(new ArrayList<String>(batch));
+            log.info("Deleted " + batch.size() + " documents of removed objects: " + batch);
+        }
     }
 
     /**
@@ -689,6 +836,19 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      * @throws IOException IO exception
      */
     protected void writeDocument(SolrInputDocument doc, List<BitstreamContentStream> streams) throws IOException {
+        writeDocument(doc, streams, true);
+    }
+
+    /**
+     * Write the document to the index under the appropriate handle.
+     *
+     * @param doc the solr document to be written to the server
+     * @param streams
+     * @param commit if <code>true</code>, documents with full text streams
+     *               are committed immediately
+     * @throws IOException IO exception
+     */
+    protected void writeDocument(SolrInputDocument doc, List<BitstreamContentStream> streams, boolean commit) throws IOException {
 
         try {
             if(getSolr() != null)
@@ -717,7 +877,10 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                     req.setParam(ExtractingParams.UNKNOWN_FIELD_PREFIX, "attr_");
                     req.setParam(ExtractingParams.MAP_PREFIX + "content", "fulltext");
                     req.setParam(ExtractingParams.EXTRACT_FORMAT, "text");
-                    req.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true);
+                    if (commit)
+                    {
+                        req.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true);
+                    }
                     req.process(getSolr());
                 }
                 else
@@ -731,6 +894,47 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         }
     }
 
+    /**
+     * Read the text of a bitstream from the TEXT bundle, as written by the
+     * media filters, without reading more than the given number of characters.
+     * The rest of the bitstream is never read, so large texts only cost as much
+     * heap as the limit allows.
+     *
+     * @param bitstream a plain text bitstream, encoded in UTF-8
+     * @param maxChars maximum number of characters to return
+     * @return the (possibly truncated) text
+     * @throws IOException
+     * @throws SQLException
+     * @throws AuthorizeException
+     */
+    protected String readFullText(Bitstream bitstream, long maxChars)
+            throws IOException, SQLException, AuthorizeException
+    {
+        long size = bitstream.getSize();
+        int capacity = (int) Math.min(maxChars, size > 0 ? Math.min(size, Integer.MAX_VALUE) : 8192);
+        StringBuilder text = new StringBuilder(capacity);
+        Reader reader = new InputStreamReader(bitstream.retrieve(), StandardCharsets.UTF_8);
+        try
+        {
+            char[] buffer = new char[8192];
+            int read;
+            while (text.length() < maxChars
+                    && (read = reader.read(buffer, 0, (int) Math.min(buffer.length, maxChars - text.length()))) != -1)
+            {
+                text.append(buffer, 0, read);
+            }
+            if (text.length() >= maxChars)
+            {
+                log.info("Full text of bitstream " + bitstream.getID() + " truncated to " + maxChars + " characters");
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return text.toString();
+    }
+
     /**
      * Build a solr document for a DSpace Community.
      *
@@ -740,6 +944,18 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      */
     protected void buildDocument(Context context, Community community)
     throws SQLException, IOException {
+        writeDocument(buildCommunityDocument(context, community), null);
+    }
+
+    /**
+     * Build a solr document for a DSpace Community without writing it.
+     *
+     * @param community Community to be indexed
+     * @return the document
+     * @throws SQLException
+     */
+    protected SolrInputDocument buildCommunityDocument(Context context, Community community)
+    throws SQLException {
         // Create Document
         SolrInputDocument doc = buildDocument(Constants.COMMUNITY, community.getID(),
                 community.getHandle(), null);
@@ -776,7 +992,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             solrServiceIndexPlugin.additionalIndex(context, community, doc);
         }
 
-        writeDocument(doc, null);
+        return doc;
     }
 
     /**
@@ -788,6 +1004,18 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      */
     protected void buildDocument(Context context, Collection collection)
     throws SQLException, IOException {
+        writeDocument(buildCollectionDocument(context, collection), null);
+    }
+
+    /**
+     * Build a solr document for a DSpace Collection without writing it.
+     *
+     * @param collection Collection to be indexed
+     * @return the document
+     * @throws SQLException sql exception
+     */
+    protected SolrInputDocument buildCollectionDocument(Context context, Collection collection)
+    throws SQLException {
         List<String> locations = getCollectionLocations(collection);
 
         // Create Lucene Document
@@ -832,7 +1060,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             solrServiceIndexPlugin.additionalIndex(context, collection, doc);
         }
 
-        writeDocument(doc, null);
+        return doc;
     }
 
     /**
@@ -868,6 +1096,33 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      */
     protected void buildDocument(Context context, Item item)
             throws SQLException, IOException {
+        List<BitstreamContentStream> streams = new ArrayList<BitstreamContentStream>();
+        SolrInputDocument doc = buildItemDocument(context, item, streams);
+
+        // write the index and close the inputstreamreaders
+        try {
+            writeDocument(doc, streams);
+            log.info("Wrote Item: " + doc.getFieldValue("handle") + " to Index");
+        } catch (RuntimeException e)
+        {
+            log.error("Error while writing item to discovery index: " + doc.getFieldValue("handle") + " message:"+ e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Build a Lucene document for a DSpace Item without writing it.
+     *
+     * @param context Users Context
+     * @param item    The DSpace Item to be indexed
+     * @param streams receives the full text streams to be extracted along
+     *                with the document
+     * @return the document
+     * @throws SQLException
+     * @throws IOException
+     */
+    protected SolrInputDocument buildItemDocument(Context context, Item item,
+            List<BitstreamContentStream> streams)
+            throws SQLException, IOException {
         String handle = item.getHandle();
 
         if (handle == null)
@@ -1350,8 +1605,6 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
 
 
-        List<BitstreamContentStream> streams = new ArrayList<BitstreamContentStream>();
-
         try {
             // now get full text of any bitstreams in the TEXT bundle
             // trundle through the bundles
@@ -1364,12 +1617,29 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                 {
                     // a-ha! grab the text out of the bitstreams
                     Bitstream[] myBitstreams = myBundle.getBitstreams();
+                    boolean extract = ConfigurationManager.getBooleanProperty("discovery", "index.fulltext.extract", false);
+                    long remaining = ConfigurationManager.getLongProperty("discovery", "index.fulltext.max-chars", 10000000);
 
                     for (Bitstream myBitstream : myBitstreams)
                     {
                         try {
 
-                            streams.add(new BitstreamContentStream(myBitstream));
+                            if (extract)
+                            {
+                                streams.add(new BitstreamContentStream(myBitstream));
+                            }
+                            else if (remaining > 0)
+                            {
+                                String text = readFullText(myBitstream, remaining);
+                                remaining -= text.length();
+                                doc.addField("fulltext", text);
+                            }
+                            else
+                            {
+                                log.debug("  Skipped BitStream " + myBitstream.getID()
+                                        + ", full text limit of item " + item.getID() + " reached");
+                                continue;
+                            }
 
                             log.debug("  Added BitStream: "
                                     + myBitstream.getStoreNumber() + "	"
@@ -1378,9 +1648,8 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
                         } catch (Exception e)
                         {
-                            // this will never happen, but compiler is now
-                            // happy.
-                            log.trace(e.getMessage(), e);
+                            log.error("Error reading full text of bitstream " + myBitstream.getID()
+                                    + ": " + e.getMessage(), e);
                         }
                     }
                 }
@@ -1397,14 +1666,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             solrServiceIndexPlugin.additionalIndex(context, item, doc);
         }
 
-        // write the index and close the inputstreamreaders
-        try {
-            writeDocument(doc, streams);
-            log.info("Wrote Item: " + handle + " to Index");
-        } catch (RuntimeException e)
-        {
-            log.error("Error while writing item to discovery index: " + handle + " message:"+ e.getMessage(), e);
-        }
+        return doc;
     }
 
     /**
@@ -1781,6 +2043,8 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             result.setMaxResults(query.getMaxResults());
             result.setTotalSearchResults(solrQueryResponse.getResults().getNumFound());
 
+            prefetchItems(context, solrQueryResponse.getResults());
+
             List<String> searchFields = query.getSearchFields();
             for (SolrDocument doc : solrQueryResponse.getResults())
             {
@@ -1902,6 +2166,29 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         return result;
     }
 
+    /**
+     * Load all the items of a result page in bulk, so that resolving each
+     * document with {@link #findDSpaceObject} is served from the context cache
+     * instead of costing several queries per item.
+     */
+    protected static void prefetchItems(Context context, SolrDocumentList docs) throws SQLException {
+        List<Integer> itemIds = new ArrayList<Integer>();
+        for (SolrDocument doc : docs)
+        {
+            Integer type = (Integer) doc.getFirstValue("search.resourcetype");
+            Integer id = (Integer) doc.getFirstValue("search.resourceid");
+            if (type != null && id != null && type == Constants.ITEM)
+            {
+                itemIds.add(id);
+            }
+        }
+
+        if (!itemIds.isEmpty())
+        {
+            Item.findAll(context, ArrayUtils.toPrimitive(itemIds.toArray(new Integer[itemIds.size()])), LoadHints.ALL);
+        }
+    }
+
     protected static DSpaceObject findDSpaceObject(Context context, SolrDocument doc) throws SQLException {
 
         Integer type = (Integer) doc.getFirstValue("search.resourcetype");
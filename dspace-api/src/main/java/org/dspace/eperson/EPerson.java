@@ -29,6 +29,7 @@ import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.SharedObjectCache;
 import org.dspace.core.Utils;
 import org.dspace.event.Event;
 import org.dspace.storage.rdbms.DatabaseManager;
@@ -163,7 +164,7 @@ public class EPerson extends DSpaceObject
             return fromCache;
         }
 
-        TableRow row = DatabaseManager.find(context, "eperson", id);
+        TableRow row = SharedObjectCache.find(context, Constants.EPERSON, id);
 
         if (row == null)
         {
@@ -589,6 +590,10 @@ public class EPerson extends DSpaceObject
         DatabaseManager.updateQuery(myContext,
                 "DELETE FROM EPersonGroup2EPerson WHERE eperson_id= ? ",
                 getID());
+        DatabaseManager.updateQuery(myContext,
+                "DELETE FROM EPerson2GroupCache WHERE eperson_id= ? ",
+                getID());
+        myContext.getAuthorizationCache().clearMemberGroups();
 
         // Remove any subscriptions
         DatabaseManager.updateQuery(myContext,
@@ -9,6 +9,8 @@ package org.dspace.eperson;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -27,6 +29,7 @@ import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.SharedObjectCache;
 import org.dspace.event.Event;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
@@ -48,6 +51,9 @@ public class Group extends DSpaceObject
     /** log4j logger */
     private static final Logger log = Logger.getLogger(Group.class);
 
+    /** Maximum number of IDs bound in a single IN (...) clause */
+    private static final int IN_CHUNK_SIZE = 500;
+
     /** ID of Anonymous Group */
     public static final int ANONYMOUS_ID = 0;
 
@@ -429,38 +435,53 @@ public class Group extends DSpaceObject
     public static Set<Integer> allMemberGroupIDs(Context c, EPerson e)
             throws SQLException
     {
-        Set<Integer> groupIDs = new HashSet<Integer>();
-        
-        if (e != null)
+        if (isCurrentUser(c, e))
         {
-            // two queries - first to get groups eperson is a member of
-            // second query gets parent groups for groups eperson is a member of
-
-            TableRowIterator tri = DatabaseManager.queryTable(c,
-                    "epersongroup2eperson",
-                    "SELECT * FROM epersongroup2eperson WHERE eperson_id= ?", e
-                            .getID());
+            return toSet(memberGroups(c));
+        }
 
-            try
-            {
-                while (tri.hasNext())
-                {
-                    TableRow row = tri.next();
+        return toSet(findMemberGroups(c, e));
+    }
 
-                    int childID = row.getIntColumn("eperson_group_id");
+    /**
+     * Get the groups of the current user as a bit set indexed by group ID.
+     * They are needed for nearly every authorization check, so they are
+     * memoized in the context until the user, the special groups or any group
+     * membership changes.
+     */
+    private static BitSet memberGroups(Context c) throws SQLException
+    {
+        BitSet memoized = c.getAuthorizationCache().getMemberGroups();
+        if (memoized == null)
+        {
+            memoized = findMemberGroups(c, c.getCurrentUser());
+            c.getAuthorizationCache().setMemberGroups(memoized);
+        }
+        return memoized;
+    }
 
-                    groupIDs.add(Integer.valueOf(childID));
-                }
-            }
-            finally
-            {
-                // close the TableRowIterator to free up resources
-                if (tri != null)
-                {
-                    tri.close();
-                }
-            }
+    /**
+     * @return true if e is the current user of the context, or both are null
+     */
+    private static boolean isCurrentUser(Context c, EPerson e)
+    {
+        EPerson currentUser = c.getCurrentUser();
+        if (e == null || currentUser == null)
+        {
+            return e == currentUser;
         }
+        return e.getID() == currentUser.getID();
+    }
+
+    private static BitSet findMemberGroups(Context c, EPerson e)
+            throws SQLException
+    {
+        BitSet groups = new BitSet();
+
+        // all the users are members of the anonymous group
+        List<Integer> implicitIDs = new ArrayList<Integer>();
+        implicitIDs.add(Integer.valueOf(ANONYMOUS_ID));
+
         // Also need to get all "Special Groups" user is a member of!
         // Otherwise, you're ignoring the user's membership to these groups!
         // However, we only do this is we are looking up the special groups
@@ -471,44 +492,38 @@ public class Group extends DSpaceObject
             Group[] specialGroups = c.getSpecialGroups();
             for(Group special : specialGroups)
             {
-                groupIDs.add(Integer.valueOf(special.getID()));
+                implicitIDs.add(Integer.valueOf(special.getID()));
             }
         }
 
-        // all the users are members of the anonymous group 
-        groupIDs.add(Integer.valueOf(0));
-        
-        // now we have all owning groups, also grab all parents of owning groups
-        // yes, I know this could have been done as one big query and a union,
-        // but doing the Oracle port taught me to keep to simple SQL!
-
-        StringBuilder groupQuery = new StringBuilder();
-        groupQuery.append("SELECT * FROM group2groupcache WHERE ");
-
-        Iterator<Integer> i = groupIDs.iterator();
-
-        // Build a list of query parameters
-        Object[] parameters = new Object[groupIDs.size()];
-        int idx = 0;
-        while (i.hasNext())
+        for (Integer groupID : implicitIDs)
         {
-            int groupID = (i.next()).intValue();
+            groups.set(groupID.intValue());
+        }
 
-            parameters[idx++] = Integer.valueOf(groupID);
-            
-            groupQuery.append("child_id= ? ");
-            if (i.hasNext())
-            {
-                groupQuery.append(" OR ");
-            }
+        // eperson2groupcache already holds every group the eperson is in,
+        // directly or through a subgroup, so only the anonymous and special
+        // groups still need their parents looked up in group2groupcache
+        StringBuilder query = new StringBuilder();
+        List<Object> parameters = new ArrayList<Object>();
+        if (e != null)
+        {
+            query.append("SELECT eperson_group_id AS group_id FROM eperson2groupcache "
+                    + "WHERE eperson_id= ? UNION ");
+            parameters.add(Integer.valueOf(e.getID()));
         }
+        query.append("SELECT parent_id AS group_id FROM group2groupcache WHERE child_id IN (");
+        for (int i = 0; i < implicitIDs.size(); i++)
+        {
+            query.append(i == 0 ? "?" : ",?");
+        }
+        query.append(")");
+        parameters.addAll(implicitIDs);
 
-        // was member of at least one group
         // NOTE: even through the query is built dynamically, all data is
         // separated into the parameters array.
-        TableRowIterator tri = DatabaseManager.queryTable(c, "group2groupcache",
-                groupQuery.toString(),
-                parameters);
+        TableRowIterator tri = DatabaseManager.query(c, query.toString(),
+                parameters.toArray());
 
         try
         {
@@ -516,9 +531,7 @@ public class Group extends DSpaceObject
             {
                 TableRow row = tri.next();
 
-                int parentID = row.getIntColumn("parent_id");
-
-                groupIDs.add(Integer.valueOf(parentID));
+                groups.set(row.getIntColumn("group_id"));
             }
         }
         finally
@@ -530,6 +543,16 @@ public class Group extends DSpaceObject
             }
         }
 
+        return groups;
+    }
+
+    private static Set<Integer> toSet(BitSet groups)
+    {
+        Set<Integer> groupIDs = new HashSet<Integer>();
+        for (int i = groups.nextSetBit(0); i >= 0; i = groups.nextSetBit(i + 1))
+        {
+            groupIDs.add(Integer.valueOf(i));
+        }
         return groupIDs;
     }
     
@@ -673,9 +696,14 @@ public class Group extends DSpaceObject
     private static boolean epersonInGroup(Context c, int groupID, EPerson e)
             throws SQLException
     {
-        Set<Integer> groupIDs = Group.allMemberGroupIDs(c, e);
+        if (groupID < 0)
+        {
+            return false;
+        }
+
+        BitSet groups = isCurrentUser(c, e) ? memberGroups(c) : findMemberGroups(c, e);
 
-        return groupIDs.contains(Integer.valueOf(groupID));
+        return groups.get(groupID);
     }
 
     /**
@@ -694,7 +722,7 @@ public class Group extends DSpaceObject
             return fromCache;
         }
 
-        TableRow row = DatabaseManager.find(context, "epersongroup", id);
+        TableRow row = SharedObjectCache.find(context, Constants.GROUP, id);
 
         if (row == null)
         {
@@ -1015,6 +1043,12 @@ public class Group extends DSpaceObject
         // Remove any ResourcePolicies that reference this group
         AuthorizeManager.removeGroupPolicies(myContext, getID());
 
+        // memberships of the current user may have changed
+        myContext.getAuthorizationCache().clearMemberGroups();
+
+        // everyone in this group, directly or through a subgroup
+        Set<Integer> affectedEPeople = findDirectMemberIDs(myContext, findSubgroupIDs());
+
         // Remove any group memberships first
         DatabaseManager.updateQuery(myContext,
                 "DELETE FROM EPersonGroup2EPerson WHERE eperson_group_id= ? ",
@@ -1030,6 +1064,12 @@ public class Group extends DSpaceObject
                 "DELETE FROM group2group WHERE parent_id= ? OR child_id= ? ",
                 getID(),getID());
 
+        // and redo the groups of its former members
+        DatabaseManager.updateQuery(myContext,
+                "DELETE FROM eperson2groupcache WHERE eperson_group_id= ? ",
+                getID());
+        rethinkEPersonGroupCache(myContext, affectedEPeople);
+
         // don't forget the new table
         deleteEpersonGroup2WorkspaceItem();
 
@@ -1121,9 +1161,34 @@ public class Group extends DSpaceObject
             clearDetails();
         }
 
+        // epeople whose eperson2groupcache entries have to be redone
+        Set<Integer> affectedEPeople = new HashSet<Integer>();
+
         // Redo eperson mappings if they've changed
         if (epeopleChanged)
         {
+            // only the epeople added or removed change groups
+            Set<Integer> before = findDirectMemberIDs(myContext, Collections.singleton(getID()));
+            Set<Integer> after = new HashSet<Integer>();
+            for (EPerson e : epeople)
+            {
+                after.add(e.getID());
+            }
+            for (Integer id : before)
+            {
+                if (!after.contains(id))
+                {
+                    affectedEPeople.add(id);
+                }
+            }
+            for (Integer id : after)
+            {
+                if (!before.contains(id))
+                {
+                    affectedEPeople.add(id);
+                }
+            }
+
             // Remove any existing mappings
             DatabaseManager.updateQuery(myContext,
                     "delete from epersongroup2eperson where eperson_group_id= ? ",
@@ -1143,11 +1208,16 @@ public class Group extends DSpaceObject
             }
 
             epeopleChanged = false;
+            myContext.getAuthorizationCache().clearMemberGroups();
         }
 
         // Redo Group mappings if they've changed
         if (groupsChanged)
         {
+            // the members of this group and of its subgroups, before and
+            // after the change, may gain or lose this group and its parents
+            Set<Integer> subgroups = findSubgroupIDs();
+
             // Remove any existing mappings
             DatabaseManager.updateQuery(myContext,
                     "delete from group2group where parent_id= ? ",
@@ -1169,7 +1239,16 @@ public class Group extends DSpaceObject
             // groups changed, now change group cache
             rethinkGroupCache();
 
+            subgroups.addAll(findSubgroupIDs());
+            affectedEPeople.addAll(findDirectMemberIDs(myContext, subgroups));
+
             groupsChanged = false;
+            myContext.getAuthorizationCache().clearMemberGroups();
+        }
+
+        if (!affectedEPeople.isEmpty())
+        {
+            rethinkEPersonGroupCache(myContext, affectedEPeople);
         }
 
         log.info(LogManager.getHeader(myContext, "update_group", "group_id="
@@ -1225,6 +1304,118 @@ public class Group extends DSpaceObject
         return null;
     }
 
+    /**
+     * @return the IDs of this group and of all its subgroups, nested or not
+     */
+    private Set<Integer> findSubgroupIDs() throws SQLException
+    {
+        Set<Integer> groupIDs = new HashSet<Integer>();
+        groupIDs.add(getID());
+
+        TableRowIterator tri = DatabaseManager.query(myContext,
+                "SELECT child_id FROM group2groupcache WHERE parent_id= ? ",
+                getID());
+        try
+        {
+            while (tri.hasNext())
+            {
+                groupIDs.add(tri.next().getIntColumn("child_id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return groupIDs;
+    }
+
+    /**
+     * @return the IDs of the epeople who are direct members of any of the
+     *         given groups
+     */
+    private static Set<Integer> findDirectMemberIDs(Context context, Set<Integer> groupIDs)
+            throws SQLException
+    {
+        Set<Integer> epersonIDs = new HashSet<Integer>();
+        List<Integer> ids = new ArrayList<Integer>(groupIDs);
+
+        for (int start = 0; start < ids.size(); start += IN_CHUNK_SIZE)
+        {
+            List<Integer> chunk = ids.subList(start, Math.min(ids.size(), start + IN_CHUNK_SIZE));
+            TableRowIterator tri = DatabaseManager.query(context,
+                    "SELECT eperson_id FROM epersongroup2eperson WHERE eperson_group_id IN ("
+                            + placeholders(chunk.size()) + ")",
+                    chunk.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    epersonIDs.add(tri.next().getIntColumn("eperson_id"));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+        return epersonIDs;
+    }
+
+    /**
+     * Regenerate the eperson2groupcache entries of some epeople from
+     * epersongroup2eperson and group2groupcache, which must be up to date.
+     * eperson2groupcache lists every group an eperson is a member of, either
+     * directly or as a member of a (nested) subgroup, so that all the groups
+     * of an eperson can be looked up in a single simple query.
+     *
+     * @param context
+     *            DSpace context object
+     * @param epersonIDs
+     *            the epeople whose memberships have changed
+     */
+    static void rethinkEPersonGroupCache(Context context, Set<Integer> epersonIDs)
+            throws SQLException
+    {
+        List<Integer> ids = new ArrayList<Integer>(epersonIDs);
+
+        for (int start = 0; start < ids.size(); start += IN_CHUNK_SIZE)
+        {
+            List<Integer> chunk = ids.subList(start, Math.min(ids.size(), start + IN_CHUNK_SIZE));
+            String in = "(" + placeholders(chunk.size()) + ")";
+            Object[] params = chunk.toArray();
+
+            DatabaseManager.updateQuery(context,
+                    "DELETE FROM eperson2groupcache WHERE eperson_id IN " + in, params);
+
+            Object[] doubled = new Object[params.length * 2];
+            System.arraycopy(params, 0, doubled, 0, params.length);
+            System.arraycopy(params, 0, doubled, params.length, params.length);
+            DatabaseManager.updateQuery(context,
+                    "INSERT INTO eperson2groupcache (eperson_id, eperson_group_id) "
+                            + "SELECT eperson_id, eperson_group_id FROM epersongroup2eperson "
+                            + "WHERE eperson_id IN " + in + " UNION "
+                            + "SELECT m.eperson_id, c.parent_id FROM epersongroup2eperson m, group2groupcache c "
+                            + "WHERE m.eperson_group_id = c.child_id AND m.eperson_id IN " + in,
+                    doubled);
+        }
+
+        log.debug(LogManager.getHeader(context, "rethink_eperson_group_cache",
+                "epeople=" + epersonIDs.size()));
+    }
+
+    /**
+     * @return <code>?,?,...</code> with <code>count</code> placeholders
+     */
+    private static String placeholders(int count)
+    {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+
     /**
      * Regenerate the group cache AKA the group2groupcache table in the database -
      * meant to be called when a group is added or removed from another group
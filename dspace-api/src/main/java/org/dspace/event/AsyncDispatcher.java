@@ -0,0 +1,242 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.core.Utils;
+
+/**
+ * AsyncDispatcher delivers events to its consumers in the background, so
+ * that a commit does not wait for them: the events of the transaction are
+ * written to a journal and handed to an {@link EventQueue}, which has a
+ * bounded pool of worker threads and delivers the batches to each consumer
+ * in commit order. See EventQueue for retries and dead letters.
+ * <P>
+ * Consumers whose work must be visible as soon as the commit returns, such
+ * as the shared object cache, can be kept synchronous; they are called on
+ * the committing thread as by the {@link BasicDispatcher}.
+ * <P>
+ * Configuration, for a dispatcher named <code>default</code>:
+ * <pre>
+ * event.dispatcher.default.class = org.dspace.event.AsyncDispatcher
+ * event.dispatcher.default.consumers = versioning, discovery, eperson, harvester, sharedcache
+ * # consumers called on the committing thread
+ * event.dispatcher.default.synchronous = eperson, sharedcache
+ * # worker threads (default 2)
+ * event.dispatcher.default.threads = 2
+ * # journal directory (default ${dspace.dir}/var/event-journal/default)
+ * event.dispatcher.default.journal = ${dspace.dir}/var/event-journal/default
+ * # retries of a failed batch, and the delay before the first (default 3, 1000 ms)
+ * event.dispatcher.default.retries = 3
+ * event.dispatcher.default.retry.delay = 1000
+ * # milliseconds between reports of the lag of each consumer in the log (default 0, none)
+ * event.dispatcher.default.report.interval = 0
+ * # milliseconds between takeovers of the batches left by stopped processes (default 60000)
+ * event.dispatcher.default.recover.interval = 60000
+ * </pre>
+ * All the processes of an installation may share the journal directory; see
+ * EventQueue for how their batches are kept apart.
+ * The dispatchers of one name, which are pooled by the {@link EventManager},
+ * share one queue.
+ */
+public class AsyncDispatcher extends BasicDispatcher
+{
+    /** log4j category */
+    private static Logger log = Logger.getLogger(AsyncDispatcher.class);
+
+    private static final String PROP_PFX = "event.dispatcher.";
+
+    /** The queue of each dispatcher name */
+    private static final Map<String, EventQueue> queues = new HashMap<String, EventQueue>();
+
+    /** Names of the consumers called synchronously */
+    private final Set<String> synchronous = new HashSet<String>();
+
+    public AsyncDispatcher(String name)
+    {
+        super(name);
+
+        String names = ConfigurationManager.getProperty(PROP_PFX + name + ".synchronous");
+        if (names != null)
+        {
+            for (String consumer : names.trim().split("\\s*,\\s*"))
+            {
+                synchronous.add(consumer);
+            }
+        }
+    }
+
+    /**
+     * Get the queue of a dispatcher, e.g. to report its lag.
+     *
+     * @param name
+     *            the dispatcher name
+     * @return the queue, or null if no AsyncDispatcher of that name has
+     *         been used
+     */
+    public static EventQueue getQueue(String name)
+    {
+        synchronized (queues)
+        {
+            return queues.get(name);
+        }
+    }
+
+    /**
+     * Call the synchronous consumers, and journal and queue the events for
+     * the others.
+     *
+     * @param ctx
+     *            the execution context
+     */
+    @Override
+    public void dispatch(Context ctx)
+    {
+        if (consumers.isEmpty() || !ctx.hasEvents())
+        {
+            return;
+        }
+
+        // transaction identifier applies to all events created in
+        // this context for the current transaction. Prefix it with
+        // some letters so RDF readers don't mistake it for an integer.
+        String tid = "TX" + Utils.generateKey();
+
+        List<Event> events = new ArrayList<Event>();
+        while (ctx.hasEvents())
+        {
+            Event event = ctx.pollEvent();
+            event.setDispatcher(getIdentifier());
+            event.setTransactionID(tid);
+            events.add(event);
+        }
+
+        for (ConsumerProfile cp : consumers.values())
+        {
+            if (synchronous.contains(cp.getName()))
+            {
+                consume(ctx, cp, events);
+            }
+        }
+
+        EventQueue queue = obtainQueue();
+        if (queue != null && queue.submit(events) && log.isDebugEnabled())
+        {
+            log.debug("Queued " + events.size() + " events of " + tid);
+        }
+    }
+
+    /** Pass the events to a synchronous consumer, as BasicDispatcher does */
+    private void consume(Context ctx, ConsumerProfile cp, List<Event> events)
+    {
+        for (Event event : events)
+        {
+            if (event.pass(cp.getFilters()))
+            {
+                try
+                {
+                    cp.getConsumer().consume(ctx, event);
+                    event.setBitSet(cp.getName());
+                }
+                catch (Exception e)
+                {
+                    log.error("Consumer(\"" + cp.getName()
+                            + "\").consume threw: " + e.toString(), e);
+                }
+            }
+        }
+
+        try
+        {
+            cp.getConsumer().end(ctx);
+        }
+        catch (Exception e)
+        {
+            log.error("Error in Consumer(\"" + cp.getName()
+                    + "\").end: " + e.toString(), e);
+        }
+    }
+
+    /**
+     * Create the queue of this dispatcher name with its own instances of the
+     * asynchronous consumers, which are never called by two threads at once.
+     */
+    private EventQueue obtainQueue()
+    {
+        synchronized (queues)
+        {
+            EventQueue queue = queues.get(name);
+            if (queue != null)
+            {
+                return queue;
+            }
+
+            List<ConsumerProfile> profiles = new ArrayList<ConsumerProfile>();
+            for (ConsumerProfile cp : consumers.values())
+            {
+                if (!synchronous.contains(cp.getName()))
+                {
+                    try
+                    {
+                        ConsumerProfile profile = ConsumerProfile.makeConsumerProfile(cp.getName());
+                        profile.getConsumer().initialize();
+                        profiles.add(profile);
+                    }
+                    catch (Exception e)
+                    {
+                        log.error("Unable to create consumer \"" + cp.getName()
+                                + "\" for event queue " + name, e);
+                    }
+                }
+            }
+
+            String journal = ConfigurationManager.getProperty(PROP_PFX + name + ".journal");
+            File journalDir = journal != null ? new File(journal.trim())
+                    : new File(ConfigurationManager.getProperty("dspace.dir"), "var/event-journal/" + name);
+            queue = new EventQueue(name, profiles,
+                    ConfigurationManager.getIntProperty(PROP_PFX + name + ".threads", 2),
+                    journalDir,
+                    ConfigurationManager.getIntProperty(PROP_PFX + name + ".retries", 3),
+                    ConfigurationManager.getLongProperty(PROP_PFX + name + ".retry.delay", 1000));
+            long interval = ConfigurationManager.getLongProperty(PROP_PFX + name + ".report.interval", 0);
+            if (interval > 0)
+            {
+                queue.report(interval);
+            }
+            long recoverInterval = ConfigurationManager.getLongProperty(PROP_PFX + name + ".recover.interval", 60000);
+            if (recoverInterval > 0)
+            {
+                queue.recoverEvery(recoverInterval);
+            }
+
+            final EventQueue stopping = queue;
+            Runtime.getRuntime().addShutdownHook(new Thread("EventQueue-" + name + "-shutdown")
+            {
+                @Override
+                public void run()
+                {
+                    stopping.shutdown(30000);
+                }
+            });
+
+            queues.put(name, queue);
+            log.info("Started event queue " + name + " for " + profiles.size() + " consumers, journal " + journalDir);
+            return queue;
+        }
+    }
+}
@@ -47,6 +47,16 @@ public class ConsumerProfile
         this.name = name;
     }
 
+    /**
+     * Constructor for a consumer that is not configured, e.g. in tests.
+     */
+    ConsumerProfile(String name, Consumer consumer, List<int[]> filters)
+    {
+        this.name = name;
+        this.consumer = consumer;
+        this.filters = filters;
+    }
+
     /**
      * Factory method, create new profile from configuration.
      * 
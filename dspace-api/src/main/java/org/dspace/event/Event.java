@@ -680,7 +680,11 @@ public class Event implements Serializable
      */
     public void setBitSet(String consumerName)
     {
-        consumedBy.set(EventManager.getConsumerIndex(consumerName));
+        int index = EventManager.getConsumerIndex(consumerName);
+        if (index >= 0)
+        {
+            consumedBy.set(index);
+        }
     }
 
     /**
@@ -131,6 +131,10 @@ public class EventManager
 
     protected static int getConsumerIndex(String consumerClass)
     {
+        if (consumerIndicies == null)
+        {
+            return -1;
+        }
         Integer index = (Integer) consumerIndicies.get(consumerClass);
         return index != null ? index.intValue() : -1;
 
@@ -0,0 +1,899 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Context;
+import org.dspace.eperson.EPerson;
+
+/**
+ * Delivers batches of events to consumers in the background, for the
+ * {@link AsyncDispatcher}. Each batch holds the events of one committed
+ * transaction.
+ * <P>
+ * Every consumer has a lane: its own queue of batches, which is worked off by
+ * one thread at a time from a bounded pool. Each consumer therefore sees the
+ * batches in the order they were committed, one at a time, while different
+ * consumers run in parallel. A consumer gets a new Context for every batch,
+ * with the user who made the changes and the authorization system turned
+ * off, and the batch is ended and the Context completed as after a
+ * synchronous dispatch.
+ * <P>
+ * A batch is written to a journal directory before it is queued, and removed
+ * once every consumer has processed it. The journal directory is shared by
+ * all the processes of an installation (each web application and command
+ * line run), so each queue names its files after an owner ID of its own and
+ * holds a lock on <code>&lt;owner&gt;.lock</code> while it runs. The batches
+ * of an owner whose lock is free, as it stopped before delivering them, are
+ * taken over and delivered when a queue is created, and then every so often
+ * while it runs, so consumers may see a batch twice but never lose one. On
+ * shutdown the queue first waits for its batches to be delivered.
+ * <P>
+ * The events of a batch are shared by the lanes, which only read them; the
+ * consumers of a batch are not recorded in {@link Event#getBitSet()}.
+ * <P>
+ * A batch a consumer fails on is retried with a growing delay, holding back
+ * the later batches of that consumer. When the retries are exhausted, the
+ * batch is written to the <code>dead</code> subdirectory of the journal,
+ * named after the batch and the consumer, and the consumer goes on with the
+ * next batch.
+ */
+public class EventQueue
+{
+    private static final Logger log = Logger.getLogger(EventQueue.class);
+
+    /** Suffix of journal files */
+    private static final String SUFFIX = ".events";
+
+    /** Suffix of the lock files of the owners of journal files */
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private final String name;
+
+    private final List<Lane> lanes = new ArrayList<Lane>();
+
+    private final File journal;
+
+    private final File deadLetters;
+
+    private final int retries;
+
+    private final long retryDelay;
+
+    private final ScheduledThreadPoolExecutor workers;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /** Prefix of the journal files of this queue */
+    private final String owner = UUID.randomUUID().toString();
+
+    /** The lock held on the owner's lock file while the queue runs */
+    private FileLock ownerLock;
+
+    private final long started = System.currentTimeMillis();
+
+    /**
+     * Create the queue, and deliver any batches left in the journal.
+     *
+     * @param name
+     *            name of the dispatcher, used for the worker threads
+     * @param profiles
+     *            the consumers; they are initialized by the caller and used
+     *            by this queue only
+     * @param threads
+     *            number of worker threads
+     * @param journal
+     *            directory of the journal; null for none, then batches are
+     *            only held in memory
+     * @param retries
+     *            number of times a failed batch is retried
+     * @param retryDelay
+     *            milliseconds before the first retry, doubled for each next
+     *            one
+     */
+    public EventQueue(final String name, List<ConsumerProfile> profiles, int threads,
+            File journal, int retries, long retryDelay)
+    {
+        this.name = name;
+        this.journal = journal;
+        this.deadLetters = journal == null ? null : new File(journal, "dead");
+        this.retries = retries;
+        this.retryDelay = retryDelay;
+
+        for (ConsumerProfile profile : profiles)
+        {
+            lanes.add(new Lane(profile));
+        }
+
+        workers = new ScheduledThreadPoolExecutor(Math.max(1, threads), new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "EventQueue-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // a retry waiting for its delay must not hold up shutdown
+        workers.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        if (journal != null)
+        {
+            if (!journal.isDirectory() && !journal.mkdirs())
+            {
+                log.error("Unable to create event journal " + journal + ", events are only kept in memory");
+            }
+            lockOwner();
+            recover();
+        }
+    }
+
+    /**
+     * Journal a batch of events and queue it for the consumers it passes the
+     * filters of.
+     *
+     * @param events
+     *            the events of one transaction
+     * @return false if no consumer wants any of the events
+     */
+    public boolean submit(List<Event> events)
+    {
+        List<Lane> targets = new ArrayList<Lane>();
+        for (Lane lane : lanes)
+        {
+            if (lane.wants(events))
+            {
+                targets.add(lane);
+            }
+        }
+        if (targets.isEmpty())
+        {
+            return false;
+        }
+
+        Batch batch = new Batch(sequence.incrementAndGet(), events, System.currentTimeMillis());
+        if (journal != null)
+        {
+            batch.file = new File(journal, fileName(owner, batch.sequence));
+            try
+            {
+                write(batch.file, events);
+            }
+            catch (IOException e)
+            {
+                log.error("Unable to journal events of transaction "
+                        + events.get(0).getTransactionID() + ", they are only kept in memory", e);
+                batch.file = null;
+            }
+        }
+        enqueue(batch, targets);
+        return true;
+    }
+
+    /**
+     * Wait for the queued batches to be delivered, then stop the workers.
+     * Batches still queued when the time is up stay in the journal, and are
+     * taken over by another queue once the lock of this one is released.
+     *
+     * @param timeout
+     *            milliseconds to wait
+     */
+    public void shutdown(long timeout)
+    {
+        long end = System.currentTimeMillis() + timeout;
+        try
+        {
+            while (getTotalPending() > 0 && System.currentTimeMillis() < end)
+            {
+                Thread.sleep(10);
+            }
+            workers.shutdown();
+            if (!workers.awaitTermination(Math.max(0, end - System.currentTimeMillis()), TimeUnit.MILLISECONDS))
+            {
+                log.warn("Event queue " + name + " did not stop within " + timeout + " ms, "
+                        + getTotalPending() + " batches are left in " + journal);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            workers.shutdown();
+        }
+        unlockOwner();
+
+        Context context = null;
+        try
+        {
+            context = new Context();
+            for (Lane lane : lanes)
+            {
+                try
+                {
+                    lane.profile.getConsumer().finish(context);
+                }
+                catch (Exception e)
+                {
+                    log.error("Error in Consumer(\"" + lane.profile.getName() + "\").finish: " + e.toString(), e);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            log.error("Unable to finish the consumers of event queue " + name, e);
+        }
+        finally
+        {
+            if (context != null)
+            {
+                context.abort();
+            }
+        }
+    }
+
+    /**
+     * @return the lanes, one per consumer
+     */
+    public List<Lane> getLanes()
+    {
+        return lanes;
+    }
+
+    /**
+     * @return a line per consumer with its lag and throughput
+     */
+    public String getStatus()
+    {
+        StringBuilder status = new StringBuilder();
+        for (Lane lane : lanes)
+        {
+            status.append(name).append('/').append(lane.getName())
+                    .append(": pending=").append(lane.getPending())
+                    .append(", lag=").append(lane.getLag()).append("ms")
+                    .append(", last lag=").append(lane.getLastLag()).append("ms")
+                    .append(", batches=").append(lane.getBatches())
+                    .append(", events=").append(lane.getEvents())
+                    .append(String.format(", %.1f events/s", lane.getThroughput()))
+                    .append(", retries=").append(lane.getRetries())
+                    .append(", dead=").append(lane.getDeadLetters())
+                    .append('\n');
+        }
+        return status.toString();
+    }
+
+    /**
+     * Take over the batches of stopped queues every interval milliseconds,
+     * e.g. those a command line run could not deliver before it exited.
+     */
+    public void recoverEvery(long interval)
+    {
+        if (journal == null)
+        {
+            return;
+        }
+        workers.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    recover();
+                }
+                catch (RuntimeException e)
+                {
+                    log.error("Unable to recover the event journal " + journal, e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Log the status every interval milliseconds.
+     */
+    public void report(long interval)
+    {
+        workers.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                log.info(getStatus().trim());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void enqueue(Batch batch, List<Lane> targets)
+    {
+        batch.remaining.set(targets.size());
+        for (Lane lane : targets)
+        {
+            lane.add(batch);
+        }
+    }
+
+    private int getTotalPending()
+    {
+        int pending = 0;
+        for (Lane lane : lanes)
+        {
+            pending += lane.getPending();
+        }
+        return pending;
+    }
+
+    /** Create and lock the lock file of this queue */
+    private void lockOwner()
+    {
+        File file = new File(journal, owner + LOCK_SUFFIX);
+        try
+        {
+            FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+            ownerLock = channel.tryLock();
+            if (ownerLock == null)
+            {
+                channel.close();
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Unable to lock " + file, e);
+        }
+        if (ownerLock == null)
+        {
+            log.error("Unable to lock " + file + ", the events journaled by this process may be"
+                    + " delivered again by another one while they are being delivered");
+        }
+    }
+
+    /**
+     * Release the lock of this queue, and remove its lock file if none of
+     * its batches are left in the journal.
+     */
+    private synchronized void unlockOwner()
+    {
+        if (ownerLock == null)
+        {
+            return;
+        }
+        try
+        {
+            ownerLock.release();
+            ownerLock.channel().close();
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to release the lock of event journal " + journal, e);
+        }
+        ownerLock = null;
+        if (listBatches(owner).length == 0)
+        {
+            new File(journal, owner + LOCK_SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Take over and queue the batches left in the journal by owners whose
+     * lock is free, in order. Journals of an earlier version, which have no
+     * owner, are taken over too.
+     */
+    private synchronized void recover()
+    {
+        String[] locks = journal.list(new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(LOCK_SUFFIX);
+            }
+        });
+        if (locks == null)
+        {
+            return;
+        }
+        int recovered = adopt(null);
+        for (String lock : locks)
+        {
+            String other = lock.substring(0, lock.length() - LOCK_SUFFIX.length());
+            if (!other.equals(owner))
+            {
+                recovered += recover(other);
+            }
+        }
+        if (recovered > 0)
+        {
+            log.info("Recovered " + recovered + " event batches from " + journal);
+        }
+    }
+
+    /** Take over the batches of another owner, if it has stopped */
+    private int recover(String other)
+    {
+        File file = new File(journal, other + LOCK_SUFFIX);
+        FileChannel channel = null;
+        try
+        {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            FileLock lock;
+            try
+            {
+                lock = channel.tryLock();
+            }
+            catch (OverlappingFileLockException e)
+            {
+                // held by another queue of this process
+                lock = null;
+            }
+            if (lock == null)
+            {
+                return 0;
+            }
+            try
+            {
+                return adopt(other);
+            }
+            finally
+            {
+                lock.release();
+                channel.close();
+                channel = null;
+                if (listBatches(other).length == 0)
+                {
+                    file.delete();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to check the lock " + file, e);
+            return 0;
+        }
+        finally
+        {
+            if (channel != null)
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException e)
+                {
+                    log.warn("Unable to close " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rename the batches of another owner, or those without one, into the
+     * journal of this queue, in order, and queue them. A batch another queue
+     * renamed first is left to it.
+     */
+    private int adopt(String other)
+    {
+        int adopted = 0;
+        for (String file : listBatches(other))
+        {
+            File source = new File(journal, file);
+            Batch batch;
+            try
+            {
+                batch = new Batch(sequence.incrementAndGet(), read(source), System.currentTimeMillis());
+            }
+            catch (Exception e)
+            {
+                if (!source.exists())
+                {
+                    continue;
+                }
+                log.error("Unreadable event journal file " + file + ", moved to " + deadLetters, e);
+                deadLetters.mkdirs();
+                source.renameTo(new File(deadLetters, file));
+                continue;
+            }
+            batch.file = new File(journal, fileName(owner, batch.sequence));
+            if (!source.renameTo(batch.file))
+            {
+                continue;
+            }
+            adopted++;
+
+            List<Lane> targets = new ArrayList<Lane>();
+            for (Lane lane : lanes)
+            {
+                if (lane.wants(batch.events))
+                {
+                    targets.add(lane);
+                }
+            }
+            if (targets.isEmpty())
+            {
+                batch.file.delete();
+            }
+            else
+            {
+                enqueue(batch, targets);
+            }
+        }
+        return adopted;
+    }
+
+    /**
+     * @return the names of the journal files of an owner, or of those
+     *         without one if null, in order
+     */
+    private String[] listBatches(final String other)
+    {
+        String[] names = journal.list(new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                if (!name.endsWith(SUFFIX))
+                {
+                    return false;
+                }
+                int separator = name.lastIndexOf('_');
+                return other == null ? separator < 0 : separator == other.length() && name.startsWith(other);
+            }
+        });
+        if (names == null)
+        {
+            return new String[0];
+        }
+        // sequence numbers are zero padded, so the names sort by sequence
+        Arrays.sort(names);
+        return names;
+    }
+
+    private static String fileName(String owner, long sequence)
+    {
+        return owner + "_" + String.format("%019d", sequence) + SUFFIX;
+    }
+
+    /** Write events to a file, through a temporary file so it is never seen half written */
+    private static void write(File file, List<Event> events) throws IOException
+    {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(temp);
+        try
+        {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fos));
+            out.writeObject(new ArrayList<Event>(events));
+            out.flush();
+            fos.getFD().sync();
+        }
+        finally
+        {
+            fos.close();
+        }
+        if (!temp.renameTo(file))
+        {
+            temp.delete();
+            throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Event> read(File file) throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            return (List<Event>) in.readObject();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /** The events of one transaction */
+    private static class Batch
+    {
+        final long sequence;
+
+        final List<Event> events;
+
+        final long created;
+
+        /** Lanes still to process the batch */
+        final AtomicInteger remaining = new AtomicInteger();
+
+        /** The journal file, null if there is none */
+        volatile File file;
+
+        Batch(long sequence, List<Event> events, long created)
+        {
+            this.sequence = sequence;
+            this.events = events;
+            this.created = created;
+        }
+
+        /** Called by each lane when done with the batch */
+        void release()
+        {
+            if (remaining.decrementAndGet() == 0 && file != null && !file.delete())
+            {
+                log.warn("Unable to delete event journal file " + file);
+            }
+        }
+    }
+
+    /**
+     * The queue of one consumer, with its lag and throughput.
+     */
+    public class Lane implements Runnable
+    {
+        private final ConsumerProfile profile;
+
+        private final LinkedList<Batch> pending = new LinkedList<Batch>();
+
+        /** True while the lane is running or waiting for a worker */
+        private boolean scheduled = false;
+
+        /** Failures of the batch at the head of the lane */
+        private int attempts = 0;
+
+        private final AtomicLong batches = new AtomicLong();
+
+        private final AtomicLong events = new AtomicLong();
+
+        private final AtomicLong failures = new AtomicLong();
+
+        private final AtomicLong dead = new AtomicLong();
+
+        private volatile long lastLag = 0;
+
+        Lane(ConsumerProfile profile)
+        {
+            this.profile = profile;
+        }
+
+        /** @return the name of the consumer */
+        public String getName()
+        {
+            return profile.getName();
+        }
+
+        /** @return number of batches waiting */
+        public synchronized int getPending()
+        {
+            return pending.size();
+        }
+
+        /**
+         * @return milliseconds since the oldest waiting batch was committed,
+         *         0 if none is waiting
+         */
+        public synchronized long getLag()
+        {
+            return pending.isEmpty() ? 0 : System.currentTimeMillis() - pending.getFirst().created;
+        }
+
+        /**
+         * @return milliseconds between commit and processing of the last
+         *         batch
+         */
+        public long getLastLag()
+        {
+            return lastLag;
+        }
+
+        /** @return number of batches processed */
+        public long getBatches()
+        {
+            return batches.get();
+        }
+
+        /** @return number of events processed */
+        public long getEvents()
+        {
+            return events.get();
+        }
+
+        /** @return events processed per second since the queue was created */
+        public double getThroughput()
+        {
+            long elapsed = System.currentTimeMillis() - started;
+            return elapsed <= 0 ? 0 : events.get() * 1000.0 / elapsed;
+        }
+
+        /** @return number of failed attempts */
+        public long getRetries()
+        {
+            return failures.get();
+        }
+
+        /** @return number of batches given up on */
+        public long getDeadLetters()
+        {
+            return dead.get();
+        }
+
+        boolean wants(List<Event> batch)
+        {
+            for (Event event : batch)
+            {
+                if (event.pass(profile.getFilters()))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void add(Batch batch)
+        {
+            pending.addLast(batch);
+            if (!scheduled)
+            {
+                scheduled = true;
+                schedule(0);
+            }
+        }
+
+        private void schedule(long delay)
+        {
+            try
+            {
+                workers.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // shutting down, the journal keeps the batches
+                synchronized (this)
+                {
+                    scheduled = false;
+                }
+            }
+        }
+
+        public void run()
+        {
+            Batch batch;
+            synchronized (this)
+            {
+                batch = pending.peekFirst();
+                if (batch == null)
+                {
+                    scheduled = false;
+                    return;
+                }
+            }
+
+            boolean done;
+            try
+            {
+                deliver(batch);
+                done = true;
+            }
+            catch (Exception e)
+            {
+                failures.incrementAndGet();
+                attempts++;
+                if (attempts <= retries)
+                {
+                    long delay = retryDelay << (attempts - 1);
+                    log.warn("Consumer(\"" + getName() + "\") failed on event batch " + batch.sequence
+                            + ", retry " + attempts + " of " + retries + " in " + delay + " ms: " + e.toString());
+                    schedule(delay);
+                    return;
+                }
+
+                log.error("Consumer(\"" + getName() + "\") gave up on event batch " + batch.sequence
+                        + " after " + attempts + " attempts", e);
+                deadLetter(batch);
+                done = false;
+            }
+
+            attempts = 0;
+            if (done)
+            {
+                batches.incrementAndGet();
+                lastLag = System.currentTimeMillis() - batch.created;
+            }
+            batch.release();
+
+            synchronized (this)
+            {
+                pending.removeFirst();
+                if (pending.isEmpty())
+                {
+                    scheduled = false;
+                    return;
+                }
+            }
+            // let the other lanes have a turn before the next batch
+            schedule(0);
+        }
+
+        /** Pass a batch to the consumer, as BasicDispatcher does */
+        private void deliver(Batch batch) throws Exception
+        {
+            Context context = new Context();
+            try
+            {
+                int user = batch.events.get(0).getCurrentUser();
+                if (user != -1)
+                {
+                    context.setCurrentUser(EPerson.find(context, user));
+                }
+                context.turnOffAuthorisationSystem();
+
+                Consumer consumer = profile.getConsumer();
+                int count = 0;
+                for (Event event : batch.events)
+                {
+                    if (event.pass(profile.getFilters()))
+                    {
+                        if (log.isDebugEnabled())
+                        {
+                            log.debug("Sending event to \"" + getName() + "\": " + event.toString());
+                        }
+                        consumer.consume(context, event);
+                        count++;
+                    }
+                }
+                consumer.end(context);
+
+                context.restoreAuthSystemState();
+                context.complete();
+                events.addAndGet(count);
+            }
+            finally
+            {
+                if (context.isValid())
+                {
+                    context.abort();
+                }
+            }
+        }
+
+        private void deadLetter(Batch batch)
+        {
+            dead.incrementAndGet();
+            if (deadLetters == null)
+            {
+                return;
+            }
+            File file = new File(deadLetters, fileName(owner, batch.sequence) + "." + getName());
+            try
+            {
+                deadLetters.mkdirs();
+                write(file, batch.events);
+            }
+            catch (IOException e)
+            {
+                log.error("Unable to write dead letter " + file, e);
+            }
+        }
+    }
+}
@@ -9,7 +9,9 @@ package org.dspace.handle;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.dspace.content.Collection;
@@ -20,6 +22,7 @@ import org.dspace.content.Site;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
+import org.dspace.core.SharedObjectCache;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 import org.dspace.storage.rdbms.TableRowIterator;
@@ -45,6 +48,9 @@ public class HandleManager
     /** Prefix registered to no one */
     static final String EXAMPLE_PREFIX = "123456789";
 
+    /** Maximum number of IDs bound in a single IN (...) clause */
+    private static final int IN_CHUNK_SIZE = 500;
+
     /** Private Constructor */
     private HandleManager()
     {
@@ -187,6 +193,7 @@ public class HandleManager
         handle.setColumn("resource_type_id", dso.getType());
         handle.setColumn("resource_id", dso.getID());
         DatabaseManager.update(context, handle);
+        SharedObjectCache.invalidate(dso.getType(), dso.getID());
 
         if (log.isDebugEnabled())
         {
@@ -255,6 +262,7 @@ public class HandleManager
         handle.setColumn("resource_type_id", dso.getType());
         handle.setColumn("resource_id", dso.getID());
         DatabaseManager.update(context, handle);
+        SharedObjectCache.invalidate(dso.getType(), dso.getID());
 
         if (log.isDebugEnabled())
         {
@@ -299,6 +307,7 @@ public class HandleManager
         {
             log.warn("Cannot find Handle entry to unbind for object " + Constants.typeText[dso.getType()] + " id=" + dso.getID());
         }
+        SharedObjectCache.invalidate(dso.getType(), dso.getID());
     }
 
     /**
@@ -401,10 +410,34 @@ public class HandleManager
     public static String findHandle(Context context, DSpaceObject dso)
             throws SQLException
     {
-        TableRowIterator rows = getInternalHandles(context, dso.getType(), dso.getID());
+        if (dso.getType() == Constants.SITE)
+        {
+            return findHandle(context, dso.getType(), dso.getID());
+        }
+        return SharedObjectCache.findHandle(context, dso.getType(), dso.getID());
+    }
+
+    /**
+     * Return the handle for an Object given its type and ID, or null if the
+     * Object has no handle. Always reads the database.
+     *
+     * @param context
+     *            DSpace context
+     * @param type
+     *            The type of the object, one of the Constants
+     * @param id
+     *            The internal ID of the object
+     * @return The handle for object, or null if the object has no handle.
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static String findHandle(Context context, int type, int id)
+            throws SQLException
+    {
+        TableRowIterator rows = getInternalHandles(context, type, id);
         if (rows == null || !rows.hasNext())
         {
-            if (dso.getType() == Constants.SITE)
+            if (type == Constants.SITE)
             {
                 return Site.getSiteHandle();
             }
@@ -433,6 +466,64 @@ public class HandleManager
         }
     }
 
+    /**
+     * Return the handles for many objects of the same type with a single
+     * query per chunk of IDs. The same handle is chosen per object as by
+     * {@link #findHandle(Context, DSpaceObject)}.
+     *
+     * @param context
+     *            DSpace context
+     * @param type
+     *            The type of the objects, one of the Constants
+     * @param ids
+     *            The internal IDs of the objects
+     * @return A map from object ID to handle. Objects without a handle are
+     *         absent from the map.
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static Map<Integer, String> findHandles(Context context, int type, int[] ids)
+            throws SQLException
+    {
+        Map<Integer, String> handles = new HashMap<Integer, String>();
+
+        for (int start = 0; start < ids.length; start += IN_CHUNK_SIZE)
+        {
+            int end = Math.min(ids.length, start + IN_CHUNK_SIZE);
+            Object[] params = new Object[end - start + 1];
+            StringBuilder sql = new StringBuilder("SELECT * FROM Handle WHERE resource_type_id = ? AND resource_id IN (");
+            params[0] = type;
+            for (int i = start; i < end; i++)
+            {
+                sql.append(i == start ? "?" : ",?");
+                params[i - start + 1] = ids[i];
+            }
+            sql.append(") ORDER BY handle_id");
+
+            TableRowIterator rows = DatabaseManager.queryTable(context, "Handle", sql.toString(), params);
+            try
+            {
+                while (rows.hasNext())
+                {
+                    TableRow row = rows.next();
+                    Integer id = row.getIntColumn("resource_id");
+                    String handle = row.getStringColumn("handle");
+                    //Prefer a handle that doesn't look like 12346/213.{version}, as findHandle does
+                    if (!handles.containsKey(id) || !handle.matches(".*/.*\\.\\d+"))
+                    {
+                        handles.put(id, handle);
+                    }
+                }
+            }
+            finally
+            {
+                rows.close();
+            }
+        }
+
+        return handles;
+    }
+
     /**
      * Return all the handles which start with prefix.
      *
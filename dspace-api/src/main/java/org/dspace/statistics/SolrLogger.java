@@ -71,6 +71,9 @@ public class SolrLogger
 	
     private static final HttpSolrServer solr;
 
+    /** Queues usage events for the statistics core, or null to send them at once */
+    private static final SolrLoggerBuffer buffer;
+
     public static final String DATE_FORMAT_8601 = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
 
     public static final String DATE_FORMAT_DCDATE = "yyyy-MM-dd'T'HH:mm:ss'Z'";
@@ -140,6 +143,17 @@ public class SolrLogger
         }
         solr = server;
 
+        SolrLoggerBuffer solrBuffer = null;
+        if (server != null)
+        {
+            solrBuffer = SolrLoggerBuffer.fromConfiguration(server);
+            if (solrBuffer != null)
+            {
+                solrBuffer.start();
+            }
+        }
+        buffer = solrBuffer;
+
         // Read in the file so we don't have to do it all the time
         //spiderIps = SpiderDetector.getSpiderIpAddresses();
 
@@ -180,6 +194,44 @@ public class SolrLogger
         log.info("useProxies=" + useProxies);
     }
 
+    /**
+     * Send a usage event to the statistics core, through the buffer if
+     * <code>buffer.enabled = true</code> in solr-statistics.cfg.
+     *
+     * @param doc the usage event
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    private static void addDocument(SolrInputDocument doc) throws SolrServerException, IOException
+    {
+        if (buffer != null)
+        {
+            buffer.add(doc);
+        }
+        else
+        {
+            solr.add(doc);
+        }
+    }
+
+    /**
+     * @return a one line summary of the usage event buffer (queue depth,
+     *         events written, dropped, journaled and failed), suitable for
+     *         logging
+     */
+    public static String getBufferStatus()
+    {
+        return buffer == null ? "disabled" : buffer.getStatus();
+    }
+
+    /**
+     * @return the usage event buffer, or null if events are sent at once
+     */
+    public static SolrLoggerBuffer getBuffer()
+    {
+        return buffer;
+    }
+
     /**
      * Old post method, use the new postview method instead !
      *
@@ -226,7 +278,7 @@ public class SolrLogger
             doc1.addField("statistics_type", StatisticsType.VIEW.text());
 
 
-            solr.add(doc1);
+            addDocument(doc1);
             //commits are executed automatically using the solr autocommit
 //            solr.commit(false, false);
 
@@ -262,7 +314,7 @@ public class SolrLogger
 
 			doc1.addField("statistics_type", StatisticsType.VIEW.text());
 
-			solr.add(doc1);
+			addDocument(doc1);
 			// commits are executed automatically using the solr autocommit
 			// solr.commit(false, false);
 
@@ -317,15 +369,19 @@ public class SolrLogger
                 doc1.addField("referrer", request.getHeader("referer"));
             }
 
-            try
-            {
-                String dns = DnsLookup.reverseDns(ip);
-                doc1.addField("dns", dns.toLowerCase());
-            }
-            catch (Exception e)
+            // the buffer looks the name up in the background
+            if (buffer == null)
             {
-                log.error("Failed DNS Lookup for IP:" + ip);
-                log.debug(e.getMessage(),e);
+                try
+                {
+                    String dns = DnsLookup.reverseDns(ip);
+                    doc1.addField("dns", dns.toLowerCase());
+                }
+                catch (Exception e)
+                {
+                    log.error("Failed DNS Lookup for IP:" + ip);
+                    log.debug(e.getMessage(),e);
+                }
             }
 
             // Save the location information if valid, save the event without
@@ -402,15 +458,19 @@ public class SolrLogger
 
             doc1.addField("ip", ip);
 
-            try
-            {
-                String dns = DnsLookup.reverseDns(ip);
-                doc1.addField("dns", dns.toLowerCase());
-            }
-            catch (Exception e)
+            // the buffer looks the name up in the background
+            if (buffer == null)
             {
-                log.error("Failed DNS Lookup for IP:" + ip);
-                log.debug(e.getMessage(),e);
+                try
+                {
+                    String dns = DnsLookup.reverseDns(ip);
+                    doc1.addField("dns", dns.toLowerCase());
+                }
+                catch (Exception e)
+                {
+                    log.error("Failed DNS Lookup for IP:" + ip);
+                    log.debug(e.getMessage(),e);
+                }
             }
 
             // Save the location information if valid, save the event without
@@ -500,7 +560,7 @@ public class SolrLogger
                 solrDoc.addField("page", page);
             }
 
-            solr.add(solrDoc);
+            addDocument(solrDoc);
         }
         catch (RuntimeException re)
         {
@@ -550,7 +610,7 @@ public class SolrLogger
                 solrDoc.addField("actor", usageWorkflowEvent.getActor().getID());
             }
 
-            solr.add(solrDoc);
+            addDocument(solrDoc);
         }
         catch (Exception e)
         {
@@ -735,7 +795,7 @@ public class SolrLogger
 
     public static void markRobotsByIP()
     {
-        for(String ip : SpiderDetector.getSpiderIpAddresses()){
+        for(String ipQuery : SpiderDetector.getSpiderIpQueries("ip")){
 
             try {
 
@@ -751,7 +811,7 @@ public class SolrLogger
                 };
 
                 /* query for ip, exclude results previously set as bots. */
-                processor.execute("ip:"+ip+ "* AND -isBot:true");
+                processor.execute(ipQuery + " AND -isBot:true");
 
                 solr.commit();
 
@@ -807,8 +867,12 @@ public class SolrLogger
 
     public static void deleteRobotsByIP()
     {
-        for(String ip : SpiderDetector.getSpiderIpAddresses()){
-            deleteIP(ip);
+        for(String ipQuery : SpiderDetector.getSpiderIpQueries("ip")){
+            try {
+                solr.deleteByQuery(ipQuery);
+            } catch (Exception e) {
+                log.error(e.getMessage(),e);
+            }
         }
     }
 
@@ -1221,13 +1285,13 @@ public class SolrLogger
         if (filterQuery == null) {
             StringBuilder query = new StringBuilder();
             boolean first = true;
-            for (String ip : SpiderDetector.getSpiderIpAddresses()) {
+            for (String ipQuery : SpiderDetector.getSpiderIpQueries("ip")) {
                 if (first) {
                     query.append(" AND ");
                     first = false;
                 }
 
-                query.append(" NOT(ip: ").append(ip).append(")");
+                query.append(" NOT(").append(ipQuery).append(")");
             }
             filterQuery = query.toString();
         }
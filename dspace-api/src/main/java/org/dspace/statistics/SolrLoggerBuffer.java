@@ -0,0 +1,666 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.SolrInputDocument;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.statistics.util.DnsLookup;
+
+/**
+ * Queues usage events in memory and sends them to the statistics core in
+ * batches from a background thread, so that the request threads never wait
+ * for Solr (or for the reverse DNS lookup of the client address, which is also
+ * done in the background).
+ * <P>
+ * The queue is bounded. When it is full, a new event is handled according to
+ * the overflow policy:
+ * <ul>
+ * <li><code>drop</code>: the event is discarded and counted</li>
+ * <li><code>block</code>: the request thread waits up to
+ * <code>buffer.block.timeout</code> milliseconds for room, then drops the
+ * event</li>
+ * <li><code>spill</code>: the event is appended to a journal file, which is
+ * sent to Solr as soon as the queue is idle again. Batches Solr rejects are
+ * journaled as well, so that they are retried later.</li>
+ * </ul>
+ * The queue is flushed when the JVM shuts down. A journal left over by an
+ * earlier run is sent once this one is idle.
+ * <P>
+ * Settings in <code>solr-statistics.cfg</code>: <code>buffer.enabled</code>
+ * (default false), <code>buffer.capacity</code>, <code>buffer.batch.size</code>,
+ * <code>buffer.flush.interval</code>, <code>buffer.overflow</code>,
+ * <code>buffer.block.timeout</code> and <code>buffer.spill.file</code>.
+ */
+public class SolrLoggerBuffer
+{
+    private static final Logger log = Logger.getLogger(SolrLoggerBuffer.class);
+
+    /** What to do with an event when the queue is full */
+    public static enum Overflow
+    {
+        DROP, BLOCK, SPILL
+    }
+
+    /** Flush intervals to wait before replaying the journal again after a failure */
+    private static final int REPLAY_BACKOFF = 60;
+
+    private final SolrServer solr;
+
+    private final BlockingQueue<SolrInputDocument> queue;
+
+    private final int batchSize;
+
+    private final long flushInterval;
+
+    private final Overflow overflow;
+
+    private final long blockTimeout;
+
+    private final File spillFile;
+
+    private final File replayFile;
+
+    private final boolean resolveDns;
+
+    private final Object spillLock = new Object();
+
+    private DataOutputStream spillOut = null;
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong spilled = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile boolean running = false;
+
+    private Thread flusher = null;
+
+    private long lastReplayFailure = 0;
+
+    /**
+     * @param solr
+     *            the statistics core
+     * @param capacity
+     *            maximum number of events waiting in memory
+     * @param batchSize
+     *            maximum number of events sent to Solr at once
+     * @param flushInterval
+     *            milliseconds the flusher waits for new events before checking
+     *            for a journal to replay
+     * @param overflow
+     *            what to do with events when the queue is full
+     * @param blockTimeout
+     *            with {@link Overflow#BLOCK}, milliseconds to wait for room
+     * @param spillFile
+     *            with {@link Overflow#SPILL}, the journal file
+     * @param resolveDns
+     *            if true, add the <code>dns</code> field of events that have
+     *            an <code>ip</code> but no <code>dns</code> before sending them
+     */
+    public SolrLoggerBuffer(SolrServer solr, int capacity, int batchSize, long flushInterval,
+            Overflow overflow, long blockTimeout, File spillFile, boolean resolveDns)
+    {
+        if (overflow == Overflow.SPILL && spillFile == null)
+        {
+            throw new IllegalArgumentException("The spill overflow policy needs a spill file");
+        }
+        this.solr = solr;
+        this.queue = new ArrayBlockingQueue<SolrInputDocument>(Math.max(1, capacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = Math.max(1, flushInterval);
+        this.overflow = overflow;
+        this.blockTimeout = blockTimeout;
+        this.spillFile = spillFile;
+        this.replayFile = spillFile == null ? null : new File(spillFile.getPath() + ".replay");
+        this.resolveDns = resolveDns;
+    }
+
+    /**
+     * Create a buffer as configured in <code>solr-statistics.cfg</code>.
+     *
+     * @param solr
+     *            the statistics core
+     * @return the buffer, not started yet, or null if buffering is disabled
+     */
+    public static SolrLoggerBuffer fromConfiguration(SolrServer solr)
+    {
+        if (!ConfigurationManager.getBooleanProperty("solr-statistics", "buffer.enabled", false))
+        {
+            return null;
+        }
+
+        Overflow overflow = Overflow.DROP;
+        String policy = ConfigurationManager.getProperty("solr-statistics", "buffer.overflow");
+        if (StringUtils.isNotBlank(policy))
+        {
+            try
+            {
+                overflow = Overflow.valueOf(policy.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e)
+            {
+                log.error("Unknown solr-statistics buffer.overflow policy " + policy + ", using drop");
+            }
+        }
+
+        File spillFile = null;
+        String spill = ConfigurationManager.getProperty("solr-statistics", "buffer.spill.file");
+        if (StringUtils.isNotBlank(spill))
+        {
+            spillFile = new File(spill.trim());
+        }
+        else if (overflow == Overflow.SPILL)
+        {
+            spillFile = new File(ConfigurationManager.getProperty("dspace.dir"), "log/statistics-buffer.dat");
+        }
+
+        return new SolrLoggerBuffer(solr,
+                ConfigurationManager.getIntProperty("solr-statistics", "buffer.capacity", 10000),
+                ConfigurationManager.getIntProperty("solr-statistics", "buffer.batch.size", 100),
+                ConfigurationManager.getIntProperty("solr-statistics", "buffer.flush.interval", 1000),
+                overflow,
+                ConfigurationManager.getIntProperty("solr-statistics", "buffer.block.timeout", 1000),
+                spillFile, true);
+    }
+
+    /**
+     * Start the background flusher, which is stopped when the JVM shuts down.
+     */
+    public synchronized void start()
+    {
+        if (running)
+        {
+            return;
+        }
+        running = true;
+        flusher = new Thread(new Flusher(), "solr-statistics-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread("solr-statistics-shutdown")
+        {
+            @Override
+            public void run()
+            {
+                shutdown(10000);
+            }
+        });
+        log.info("Buffering usage events: " + queue.remainingCapacity() + " events, batches of "
+                + batchSize + ", overflow policy " + overflow);
+    }
+
+    /**
+     * Stop the background flusher once it has sent all queued events. Events
+     * added later are sent to Solr directly.
+     *
+     * @param timeout
+     *            maximum milliseconds to wait for the queue to be flushed
+     */
+    public void shutdown(long timeout)
+    {
+        Thread thread;
+        synchronized (this)
+        {
+            if (!running)
+            {
+                return;
+            }
+            running = false;
+            thread = flusher;
+        }
+
+        try
+        {
+            thread.join(timeout);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive())
+        {
+            log.warn("Usage events still queued at shutdown: " + queue.size());
+        }
+        else
+        {
+            // events queued while the flusher was finishing
+            List<SolrInputDocument> rest = new ArrayList<SolrInputDocument>();
+            queue.drainTo(rest);
+            if (!rest.isEmpty())
+            {
+                write(rest, true);
+            }
+        }
+        closeSpill();
+        log.info("Stopped buffering usage events: " + getStatus());
+    }
+
+    /**
+     * Queue an event for the statistics core.
+     *
+     * @param doc
+     *            the event
+     */
+    public void add(SolrInputDocument doc)
+    {
+        if (!running)
+        {
+            // not started, or already shut down
+            write(doc);
+            return;
+        }
+
+        if (queue.offer(doc))
+        {
+            return;
+        }
+
+        switch (overflow)
+        {
+            case BLOCK:
+                try
+                {
+                    if (queue.offer(doc, blockTimeout, TimeUnit.MILLISECONDS))
+                    {
+                        return;
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                drop();
+                break;
+
+            case SPILL:
+                List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(1);
+                docs.add(doc);
+                spill(docs);
+                break;
+
+            default:
+                drop();
+        }
+    }
+
+    /**
+     * @return number of events waiting in memory
+     */
+    public int getQueueSize()
+    {
+        return queue.size();
+    }
+
+    /**
+     * @return number of events sent to Solr
+     */
+    public long getWritten()
+    {
+        return written.get();
+    }
+
+    /**
+     * @return number of events discarded because the queue was full
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of events written to the journal
+     */
+    public long getSpilled()
+    {
+        return spilled.get();
+    }
+
+    /**
+     * @return number of events lost because Solr rejected them
+     */
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    /**
+     * @return a one line summary of the buffer, suitable for logging
+     */
+    public String getStatus()
+    {
+        return "queued=" + queue.size() + ", written=" + written.get() + ", dropped=" + dropped.get()
+                + ", spilled=" + spilled.get() + ", failed=" + failed.get();
+    }
+
+    private void drop()
+    {
+        long count = dropped.incrementAndGet();
+        if (count == 1 || count % 1000 == 0)
+        {
+            log.warn("Usage event queue is full, " + count + " events dropped so far");
+        }
+    }
+
+    /**
+     * Send a single event directly.
+     */
+    private void write(SolrInputDocument doc)
+    {
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(1);
+        docs.add(doc);
+        write(docs, false);
+    }
+
+    /**
+     * Send a batch of events.
+     *
+     * @param mayRetry
+     *            if true and the overflow policy is {@link Overflow#SPILL},
+     *            events Solr rejects are journaled for a later attempt
+     * @return true if Solr accepted the batch
+     */
+    private boolean write(List<SolrInputDocument> docs, boolean mayRetry)
+    {
+        if (resolveDns)
+        {
+            for (SolrInputDocument doc : docs)
+            {
+                addDns(doc);
+            }
+        }
+
+        try
+        {
+            solr.add(docs);
+            written.addAndGet(docs.size());
+            return true;
+        }
+        catch (Exception e)
+        {
+            if (mayRetry && overflow == Overflow.SPILL)
+            {
+                log.warn("Could not send " + docs.size() + " usage events, journaling them: " + e.getMessage());
+                spill(docs);
+            }
+            else
+            {
+                failed.addAndGet(docs.size());
+                log.error("Could not send " + docs.size() + " usage events: " + e.getMessage(), e);
+            }
+            return false;
+        }
+    }
+
+    private void addDns(SolrInputDocument doc)
+    {
+        Object ip = doc.getFieldValue("ip");
+        if (ip == null || doc.getField("dns") != null)
+        {
+            return;
+        }
+
+        try
+        {
+            doc.addField("dns", DnsLookup.reverseDns(ip.toString()).toLowerCase());
+        }
+        catch (Exception e)
+        {
+            log.error("Failed DNS Lookup for IP:" + ip);
+            log.debug(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Append events to the journal. Each record is the length of the
+     * serialized document followed by the document.
+     */
+    private void spill(List<SolrInputDocument> docs)
+    {
+        synchronized (spillLock)
+        {
+            try
+            {
+                if (spillOut == null)
+                {
+                    File dir = spillFile.getAbsoluteFile().getParentFile();
+                    if (dir != null && !dir.exists())
+                    {
+                        dir.mkdirs();
+                    }
+                    spillOut = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(spillFile, true)));
+                }
+
+                for (SolrInputDocument doc : docs)
+                {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    ObjectOutputStream out = new ObjectOutputStream(bytes);
+                    out.writeObject(doc);
+                    out.close();
+                    spillOut.writeInt(bytes.size());
+                    bytes.writeTo(spillOut);
+                }
+                spillOut.flush();
+                spilled.addAndGet(docs.size());
+            }
+            catch (IOException e)
+            {
+                failed.addAndGet(docs.size());
+                log.error("Could not journal " + docs.size() + " usage events to " + spillFile
+                        + ": " + e.getMessage(), e);
+                closeSpill();
+            }
+        }
+    }
+
+    private void closeSpill()
+    {
+        synchronized (spillLock)
+        {
+            if (spillOut != null)
+            {
+                try
+                {
+                    spillOut.close();
+                }
+                catch (IOException e)
+                {
+                    log.error("Could not close " + spillFile + ": " + e.getMessage(), e);
+                }
+                spillOut = null;
+            }
+        }
+    }
+
+    /**
+     * Send the journaled events. The journal is renamed first, so that new
+     * events can be journaled in the meantime; if Solr fails, the renamed
+     * journal is tried again later. Events of a batch that was sent before the
+     * failure will then be sent twice.
+     */
+    private void replay()
+    {
+        if (spillFile == null
+                || System.currentTimeMillis() - lastReplayFailure < REPLAY_BACKOFF * flushInterval)
+        {
+            return;
+        }
+
+        synchronized (spillLock)
+        {
+            if (!replayFile.exists())
+            {
+                if (!spillFile.exists() || spillFile.length() == 0)
+                {
+                    return;
+                }
+                closeSpill();
+                if (!spillFile.renameTo(replayFile))
+                {
+                    log.error("Could not rename " + spillFile + " to " + replayFile);
+                    lastReplayFailure = System.currentTimeMillis();
+                    return;
+                }
+            }
+        }
+
+        DataInputStream in = null;
+        long count = 0;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(replayFile)));
+            List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+            SolrInputDocument doc;
+            while ((doc = readRecord(in)) != null)
+            {
+                batch.add(doc);
+                if (batch.size() == batchSize)
+                {
+                    if (!write(batch, false))
+                    {
+                        lastReplayFailure = System.currentTimeMillis();
+                        return;
+                    }
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty())
+            {
+                if (!write(batch, false))
+                {
+                    lastReplayFailure = System.currentTimeMillis();
+                    return;
+                }
+                count += batch.size();
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Could not read " + replayFile + ": " + e.getMessage(), e);
+            lastReplayFailure = System.currentTimeMillis();
+            return;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException e)
+                {
+                    log.debug(e.getMessage(), e);
+                }
+            }
+        }
+
+        if (!replayFile.delete())
+        {
+            log.error("Could not delete " + replayFile + ", its events may be sent again");
+        }
+        log.info("Sent " + count + " journaled usage events");
+    }
+
+    /**
+     * @return the next journaled document, or null at the end of the journal
+     *         (including a record cut short by a crash)
+     */
+    private SolrInputDocument readRecord(DataInputStream in) throws IOException
+    {
+        try
+        {
+            int length = in.readInt();
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            return (SolrInputDocument) objects.readObject();
+        }
+        catch (EOFException e)
+        {
+            return null;
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Sends the queued events in batches until the buffer is shut down and
+     * the queue is empty.
+     */
+    private class Flusher implements Runnable
+    {
+        public void run()
+        {
+            List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+            while (running || !queue.isEmpty())
+            {
+                try
+                {
+                    SolrInputDocument doc = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                    if (doc == null)
+                    {
+                        if (running)
+                        {
+                            replay();
+                        }
+                        continue;
+                    }
+                    batch.add(doc);
+                    queue.drainTo(batch, batchSize - 1);
+                    write(batch, true);
+                    batch.clear();
+
+                    if (log.isDebugEnabled())
+                    {
+                        log.debug("Usage event buffer: " + getStatus());
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    // only stop once everything is flushed
+                    log.debug("Usage event flusher interrupted");
+                }
+                catch (RuntimeException e)
+                {
+                    batch.clear();
+                    log.error("Error in usage event flusher: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
@@ -7,181 +7,737 @@
  */
 package org.dspace.statistics.util;
 
-import java.util.HashMap;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
 /**
- * A Spare v4 IPTable implementation that uses nested HashMaps
- * to optimize IP address matching over ranges of IP addresses.
+ * A table of IPv4 and IPv6 address ranges, optimized for testing whether an
+ * address is in any of them.
+ * <P>
+ * Addresses are held as numbers. The ranges added are sorted and merged into
+ * arrays of disjoint intervals the first time the table is searched after a
+ * change, so that a lookup is a binary search over primitive arrays, without
+ * creating any objects besides the parsed address.
+ * <P>
+ * The following forms are accepted by {@link #add(String)}:
+ * <ul>
+ * <li>a single address: <code>66.249.64.1</code>, <code>2001:db8::1</code></li>
+ * <li>the first three places of an IPv4 address, for the whole subnet:
+ * <code>66.249.64</code></li>
+ * <li>CIDR notation: <code>66.249.64.0/19</code>, <code>2001:db8::/32</code></li>
+ * <li>a range of addresses: <code>66.249.64.1-66.249.95.254</code></li>
+ * </ul>
+ * IPv4-mapped IPv6 addresses (<code>::ffff:66.249.64.1</code>) are treated as
+ * the IPv4 address they contain.
  *
  * @author mdiggory at atmire.com
  */
 public class IPTable {
 
-    /* A lookup tree for IP addresses and SubnetRanges */
-    private Map<String, Map<String, Map<String, Set<String>>>> map =
-            new HashMap<String, Map<String, Map<String, Set<String>>>>();
+    /** First and last IPv4-mapped IPv6 address */
+    private static final long[] V4_FIRST = { 0, 0xFFFF00000000L };
+
+    private static final long[] V4_LAST = { 0, 0xFFFFFFFFFFFFL };
+
+    /** Sorts ranges by their start */
+    private static final Comparator<long[]> BY_START = new Comparator<long[]>() {
+        public int compare(long[] a, long[] b) {
+            return IPTable.compare(a[0], a[1], b[0], b[1]);
+        }
+    };
+
+    /** Ranges added since the table was last compiled */
+    private final List<long[]> pending = new ArrayList<long[]>();
+
+    /**
+     * Disjoint, sorted IPv4 intervals: starts and ends, inclusive, as the
+     * unsigned 32 bit value of the address
+     */
+    private volatile long[][] v4 = { new long[0], new long[0] };
 
     /**
-     * Can be full v4 IP, subnet or range string
+     * Disjoint, sorted IPv6 intervals: starts and ends, inclusive, each
+     * address as two longs (high, low), compared as unsigned
+     */
+    private volatile long[][] v6 = { new long[0], new long[0] };
+
+    private volatile boolean compiled = true;
+
+    /**
+     * Can be full v4 or v6 IP, a subnet of the first three IPv4 places, CIDR
+     * or range string
      *
      * @param ip
      */
     public void add(String ip) throws IPFormatException {
 
-        String[] start;
-
-        String[] end;
-
         String[] range = ip.split("-");
+        long[] start;
+        long[] end;
 
         if (range.length >= 2) {
+            start = parse(range[0].trim().split("/")[0]);
+            end = parse(range[1].trim().split("/")[0]);
 
-            start = range[0].trim().split("/")[0].split("\\.");
-            end = range[1].trim().split("/")[0].split("\\.");
+            if (start == null || end == null)
+            {
+                throw new IPFormatException(ip + " - Ranges need to be full IPv4 or IPv6 Addresses");
+            }
+            if (isV4(start) != isV4(end))
+            {
+                throw new IPFormatException(ip + " - Ranges cannot mix IPv4 and IPv6 Addresses");
+            }
+            if (compare(start, end) > 0)
+            {
+                throw new IPFormatException(ip + " - The end of a range cannot be before its start");
+            }
+        } else {
+            String[] cidr = ip.trim().split("/");
+            String address = cidr[0];
+
+            if (address.indexOf(':') < 0 && address.split("\\.").length == 3) {
+                // the whole subnet
+                address = address + ".0";
+                if (cidr.length == 1)
+                {
+                    cidr = new String[] { address, "24" };
+                }
+            }
 
-            if (start.length != 4 || end.length != 4)
+            start = parse(address);
+            if (start == null)
             {
-                throw new IPFormatException(ip + " - Ranges need to be full IPv4 Addresses");
+                throw new IPFormatException(ip + " - require at least three subnet places (255.255.255.0");
             }
 
-            if (!(start[0].equals(end[0]) && start[1].equals(end[1]) && start[2].equals(end[2]))) {
-                throw new IPFormatException(ip + " - Ranges can only be across the last subnet x.y.z.0 - x.y.z.254");
+            if (cidr.length >= 2) {
+                int bits;
+                try {
+                    bits = Integer.parseInt(cidr[1].trim());
+                } catch (NumberFormatException e) {
+                    throw new IPFormatException(ip + " - invalid prefix length");
+                }
+                // IPv4 prefixes count from the start of the IPv4 part
+                int length = address.indexOf(':') < 0 ? 96 + bits : bits;
+                if (bits < 0 || length > 128)
+                {
+                    throw new IPFormatException(ip + " - invalid prefix length");
+                }
+                start = mask(start, length, false);
+                end = mask(start, length, true);
+            } else {
+                end = start;
             }
+        }
 
-        } else {
-            //need to ignore CIDR notation for the moment.
-            //ip = ip.split("\\/")[0];
+        synchronized (pending) {
+            pending.add(new long[] { start[0], start[1], end[0], end[1] });
+            if (!isV4(start) || !isV4(end)) {
+                // an IPv6 range may include IPv4-mapped addresses
+                long[] first = compare(start, V4_FIRST) > 0 ? start : V4_FIRST;
+                long[] last = compare(end, V4_LAST) < 0 ? end : V4_LAST;
+                if (compare(first, last) <= 0)
+                {
+                    pending.add(new long[] { first[0], first[1], last[0], last[1] });
+                }
+            }
+            compiled = false;
+        }
+    }
 
-            String[] subnets = ip.split("\\.");
+    /** Check whether a given address is contained in this netblock.
+     *
+     * @param ip the address to be tested
+     * @return true if {@code ip} is within this table's limits
+     * @throws IPFormatException
+     */
+    public boolean contains(String ip) throws IPFormatException {
 
-            if (subnets.length < 3) {
-                throw new IPFormatException(ip + " - require at least three subnet places (255.255.255.0");
+        long[] address = parse(ip.trim());
+        if (address == null)
+        {
+            throw new IPFormatException("needs to be a single IP address");
+        }
 
-            }
+        if (!compiled)
+        {
+            compile();
+        }
 
-            start = subnets;
-            end = subnets;
+        if (isV4(address))
+        {
+            long[][] intervals = v4;
+            long value = address[1] & 0xFFFFFFFFL;
+            int i = floor(intervals[0], value);
+            return i >= 0 && value <= intervals[1][i];
         }
 
-        if (start.length >= 3) {
+        long[][] intervals = v6;
+        int i = floor(intervals[0], address[0], address[1]);
+        return i >= 0 && compare(address[0], address[1], intervals[1][2 * i], intervals[1][2 * i + 1]) <= 0;
+    }
 
+    /** Convert to a Set.
+     * IPv4 subnets are listed by their first three places, so that every
+     * entry can be used as the prefix of a query; other addresses are listed
+     * individually, except for IPv6 ranges, which are listed in CIDR notation.
+     * A large IPv4 range gives one entry per /24 subnet in it, e.g. 65536
+     * for a /8: use {@link #toQueries(String)} to search for the addresses.
+     * @return this table's content as a Set
+     */
+    public Set<String> toSet() {
+        HashSet<String> set = new HashSet<String>();
 
-            Map<String, Map<String, Set<String>>> first = map.get(start[0]);
+        if (!compiled)
+        {
+            compile();
+        }
 
-            if (first == null) {
-                first = new HashMap<String, Map<String, Set<String>>>();
-                map.put(start[0], first);
+        long[][] intervals = v4;
+        for (int i = 0; i < intervals[0].length; i++) {
+            long address = intervals[0][i];
+            long end = intervals[1][i];
+            while (address <= end) {
+                if ((address & 0xFF) == 0 && address + 0xFF <= end) {
+                    set.add(format(address >>> 8, 3));
+                    address += 0x100;
+                } else {
+                    set.add(format(address, 4));
+                    address++;
+                }
             }
+        }
+
+        intervals = v6;
+        for (int i = 0; i < intervals[0].length / 2; i++) {
+            long[] start = { intervals[0][2 * i], intervals[0][2 * i + 1] };
+            long[] end = { intervals[1][2 * i], intervals[1][2 * i + 1] };
+            while (compare(start, end) <= 0) {
+                // the largest aligned block from start that fits in the range
+                int length = 128;
+                while (length > 0) {
+                    long[] first = mask(start, length - 1, false);
+                    long[] last = mask(start, length - 1, true);
+                    if (compare(first, start) != 0 || compare(last, end) > 0)
+                    {
+                        break;
+                    }
+                    length--;
+                }
+                set.add(formatV6(start) + (length < 128 ? "/" + length : ""));
+
+                long[] last = mask(start, length, true);
+                if (last[0] == -1L && last[1] == -1L)
+                {
+                    break;
+                }
+                start = increment(last);
+            }
+        }
+
+        return set;
+    }
 
-            Map<String, Set<String>> second = first.get(start[1]);
+    /**
+     * Convert to Solr queries matching the addresses of this table in a
+     * string field, as they are logged: dotted IPv4 addresses, and IPv6
+     * addresses in full, without "::" or leading zeros.
+     * <P>
+     * Every range is split into blocks of addresses which share their first
+     * places and have the next place in an interval. A block is one prefix
+     * or regular expression query, e.g. <code>ip:66.*</code> for 66.0.0.0/8
+     * and <code>ip:/66\.249\.&lt;64-95&gt;\..*&#47;</code> for 66.249.64.0/19,
+     * so a range gives at most two queries per place, however large it is.
+     *
+     * @param field the field holding the addresses
+     * @return queries, any of which matches addresses of this table only
+     */
+    public Set<String> toQueries(String field) {
+        Set<String> queries = new HashSet<String>();
 
+        if (!compiled)
+        {
+            compile();
+        }
+
+        long[][] intervals = v4;
+        for (int i = 0; i < intervals[0].length; i++) {
+            addQueries(queries, field, BigInteger.valueOf(intervals[0][i]),
+                    BigInteger.valueOf(intervals[1][i]), false);
+        }
 
-            if (second == null) {
-                second = new HashMap<String, Set<String>>();
-                first.put(start[1], second);
+        intervals = v6;
+        for (int i = 0; i < intervals[0].length / 2; i++) {
+            addQueries(queries, field, toBigInteger(intervals[0][2 * i], intervals[0][2 * i + 1]),
+                    toBigInteger(intervals[1][2 * i], intervals[1][2 * i + 1]), true);
+        }
+
+        return queries;
+    }
+
+    /**
+     * Add the queries of the blocks of a range of addresses.
+     */
+    private static void addQueries(Set<String> queries, String field,
+            BigInteger start, BigInteger end, boolean v6) {
+        int places = v6 ? 8 : 4;
+        int bits = v6 ? 16 : 8;
+
+        while (start.compareTo(end) <= 0) {
+            // the number of last places which take any value
+            int free = 0;
+            while (free < places) {
+                BigInteger size = BigInteger.ONE.shiftLeft(bits * (free + 1));
+                if (start.mod(size).signum() != 0 || start.add(size).subtract(BigInteger.ONE).compareTo(end) > 0)
+                {
+                    break;
+                }
+                free++;
+            }
+            if (free == places) {
+                queries.add(field + ":*");
+                return;
             }
 
-            Set<String> third = second.get(start[2]);
+            // the interval of the place before them
+            BigInteger size = BigInteger.ONE.shiftLeft(bits * free);
+            int first = start.shiftRight(bits * free).intValue() & ((1 << bits) - 1);
+            BigInteger blocks = end.subtract(start).add(BigInteger.ONE).divide(size)
+                    .min(BigInteger.valueOf((1 << bits) - first));
+            int last = first + blocks.intValue() - 1;
+
+            StringBuilder prefix = new StringBuilder();
+            BigInteger fixed = start.shiftRight(bits * (free + 1));
+            for (int place = places - free - 2; place >= 0; place--) {
+                int value = fixed.shiftRight(bits * place).intValue() & ((1 << bits) - 1);
+                prefix.append(v6 ? Integer.toHexString(value) : String.valueOf(value)).append(v6 ? ':' : '.');
+            }
 
-            if (third == null) {
-                third = new HashSet<String>();
-                second.put(start[2], third);
+            if (first == last) {
+                prefix.append(v6 ? Integer.toHexString(first) : String.valueOf(first));
+                if (free > 0)
+                {
+                    prefix.append(v6 ? ':' : '.').append('*');
+                }
+                queries.add(field + ":" + prefix.toString().replace(":", "\\:"));
+            } else {
+                StringBuilder regex = new StringBuilder(prefix.toString().replace(".", "\\."));
+                regex.append(v6 ? hexPattern(first, last) : "<" + first + "-" + last + ">");
+                if (free > 0)
+                {
+                    regex.append(v6 ? ":" : "\\.").append(".*");
+                }
+                queries.add(field + ":/" + regex + "/");
             }
 
-            //now populate fourth place (* or value 0-254);
+            start = start.add(size.multiply(blocks));
+        }
+    }
 
-            if (start.length == 3) {
-                third.add("*");
+    /**
+     * @return a regular expression matching the numbers of an interval in
+     *         lower case hexadecimal, without leading zeros
+     */
+    private static String hexPattern(int first, int last) {
+        List<String> alternatives = new ArrayList<String>();
+        for (int digits = 1; digits <= 4; digits++) {
+            int min = digits == 1 ? 0 : 1 << (4 * (digits - 1));
+            int max = (1 << (4 * digits)) - 1;
+            if (first <= max && last >= min)
+            {
+                hexPattern(Math.max(first, min), Math.min(last, max), digits, "", alternatives);
             }
+        }
+        if (alternatives.size() == 1)
+        {
+            return alternatives.get(0);
+        }
+        StringBuilder sb = new StringBuilder("(");
+        for (String alternative : alternatives) {
+            sb.append(sb.length() > 1 ? "|" : "").append(alternative);
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Add the patterns matching the numbers of an interval written with the
+     * given number of hexadecimal digits.
+     */
+    private static void hexPattern(int first, int last, int digits, String prefix, List<String> patterns) {
+        if (digits == 1) {
+            patterns.add(prefix + hexClass(first, last));
+            return;
+        }
 
-            if (third.contains("*")) {
+        int shift = 4 * (digits - 1);
+        int rest = (1 << shift) - 1;
+        int firstTop = first >>> shift;
+        int lastTop = last >>> shift;
+        if (firstTop == lastTop) {
+            hexPattern(first & rest, last & rest, digits - 1, prefix + Integer.toHexString(firstTop), patterns);
+            return;
+        }
+        if ((first & rest) != 0) {
+            hexPattern(first & rest, rest, digits - 1, prefix + Integer.toHexString(firstTop), patterns);
+            firstTop++;
+        }
+        if ((last & rest) != rest) {
+            hexPattern(0, last & rest, digits - 1, prefix + Integer.toHexString(lastTop), patterns);
+            lastTop--;
+        }
+        if (firstTop <= lastTop)
+        {
+            patterns.add(prefix + hexClass(firstTop, lastTop) + "[0-9a-f]{" + (digits - 1) + "}");
+        }
+    }
+
+    /**
+     * @return a character class of the hexadecimal digits of an interval
+     */
+    private static String hexClass(int first, int last) {
+        if (first == last)
+        {
+            return Integer.toHexString(first);
+        }
+        if (first == 0 && last == 15)
+        {
+            return "[0-9a-f]";
+        }
+        StringBuilder sb = new StringBuilder("[");
+        for (int digit = first; digit <= last; digit++) {
+            sb.append(Integer.toHexString(digit));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static BigInteger toBigInteger(long high, long low) {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (8 * (7 - i)));
+            bytes[i + 8] = (byte) (low >>> (8 * (7 - i)));
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    /**
+     * Sort and merge the ranges added so far.
+     */
+    private void compile() {
+        synchronized (pending) {
+            if (compiled)
+            {
                 return;
             }
 
-            if (start.length >= 4) {
-                int s = Integer.valueOf(start[3]);
-                int e = Integer.valueOf(end[3]);
-                for (int i = s; i <= e; i++) {
-                    third.add(String.valueOf(i));
+            List<long[]> all = new ArrayList<long[]>(pending);
+            long[][] current = v4;
+            for (int i = 0; i < current[0].length; i++)
+            {
+                all.add(new long[] { 0, V4_FIRST[1] | current[0][i], 0, V4_FIRST[1] | current[1][i] });
+            }
+            current = v6;
+            for (int i = 0; i < current[0].length / 2; i++)
+            {
+                all.add(new long[] { current[0][2 * i], current[0][2 * i + 1],
+                        current[1][2 * i], current[1][2 * i + 1] });
+            }
+
+            // IPv4 ranges are kept apart from the IPv6 ranges they are part of
+            List<long[]> four = new ArrayList<long[]>();
+            List<long[]> six = new ArrayList<long[]>();
+            for (long[] range : all)
+            {
+                if (isV4(range) && isV4(new long[] { range[2], range[3] }))
+                {
+                    four.add(range);
+                }
+                else
+                {
+                    six.add(range);
+                }
+            }
+            four = merge(four);
+            six = merge(six);
+
+            long[][] newV4 = { new long[four.size()], new long[four.size()] };
+            for (int i = 0; i < four.size(); i++)
+            {
+                newV4[0][i] = four.get(i)[1] & 0xFFFFFFFFL;
+                newV4[1][i] = four.get(i)[3] & 0xFFFFFFFFL;
+            }
+            long[][] newV6 = { new long[2 * six.size()], new long[2 * six.size()] };
+            for (int i = 0; i < six.size(); i++)
+            {
+                newV6[0][2 * i] = six.get(i)[0];
+                newV6[0][2 * i + 1] = six.get(i)[1];
+                newV6[1][2 * i] = six.get(i)[2];
+                newV6[1][2 * i + 1] = six.get(i)[3];
+            }
+
+            v4 = newV4;
+            v6 = newV6;
+            pending.clear();
+            compiled = true;
+        }
+    }
+
+    /**
+     * @return the ranges sorted, with overlapping and adjacent ones merged
+     */
+    private static List<long[]> merge(List<long[]> ranges) {
+        Collections.sort(ranges, BY_START);
+
+        List<long[]> merged = new ArrayList<long[]>();
+        for (long[] range : ranges) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null
+                    && ((last[2] == -1L && last[3] == -1L)
+                        || compare(range[0], range[1], increment(new long[] { last[2], last[3] })) <= 0)) {
+                if (compare(range[2], range[3], last[2], last[3]) > 0) {
+                    last[2] = range[2];
+                    last[3] = range[3];
                 }
+            } else {
+                merged.add(range.clone());
             }
         }
+        return merged;
     }
 
-    /** Check whether a given address is contained in this netblock.
-     * 
-     * @param ip the address to be tested
-     * @return true if {@code ip} is within this table's limits
-     * @throws IPFormatException
+    /**
+     * @return the index of the last start not after the address, or -1
      */
-    public boolean contains(String ip) throws IPFormatException {
+    private static int floor(long[] starts, long address) {
+        int i = Arrays.binarySearch(starts, address);
+        return i >= 0 ? i : -i - 2;
+    }
 
-        String[] subnets = ip.split("\\.");
+    private static int floor(long[] starts, long high, long low) {
+        int lo = 0;
+        int hi = starts.length / 2 - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(starts[2 * mid], starts[2 * mid + 1], high, low) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
 
-        if (subnets.length != 4)
+    /**
+     * Parse an IPv4 or IPv6 address.
+     *
+     * @return the address as (high, low) 64 bits, IPv4 addresses as
+     *         IPv4-mapped IPv6 addresses, or null if it is not an address
+     */
+    static long[] parse(String ip) {
+        if (ip.indexOf(':') >= 0)
         {
-            throw new IPFormatException("needs to be a single IP address");
+            return parseV6(ip);
         }
+        long v4 = parseV4(ip);
+        return v4 < 0 ? null : new long[] { 0, 0xFFFF00000000L | v4 };
+    }
 
-        Map<String, Map<String, Set<String>>> first = map.get(subnets[0]);
+    /**
+     * @return the address, or -1 if it is not a full dotted IPv4 address
+     */
+    private static long parseV4(String ip) {
+        long address = 0;
+        int places = 0;
+        int value = -1;
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255)
+                {
+                    return -1;
+                }
+            } else if (c == '.' && value >= 0 && places < 3) {
+                address = (address << 8) | value;
+                places++;
+                value = -1;
+            } else {
+                return -1;
+            }
+        }
+        if (value < 0 || places != 3)
+        {
+            return -1;
+        }
+        return (address << 8) | value;
+    }
 
-        if (first == null)
+    private static long[] parseV6(String ip) {
+        int zone = ip.indexOf('%');
+        if (zone >= 0)
         {
-            return false;
+            ip = ip.substring(0, zone);
+        }
+        if (ip.startsWith("[") && ip.endsWith("]"))
+        {
+            ip = ip.substring(1, ip.length() - 1);
         }
 
-        Map<String, Set<String>> second = first.get(subnets[1]);
+        int[] groups = new int[8];
+        int count = 0;
+        int gap = -1;
+        int i = 0;
+        int length = ip.length();
 
-        if (second == null)
-        {
-            return false;
+        if (ip.startsWith("::")) {
+            gap = 0;
+            i = 2;
         }
+        while (i < length) {
+            int next = ip.indexOf(':', i);
+            String group = next < 0 ? ip.substring(i) : ip.substring(i, next);
+
+            if (group.indexOf('.') >= 0) {
+                // embedded IPv4 address at the end
+                long v4 = parseV4(group);
+                if (v4 < 0 || next >= 0 || count > 6)
+                {
+                    return null;
+                }
+                groups[count++] = (int) (v4 >>> 16);
+                groups[count++] = (int) (v4 & 0xFFFF);
+                break;
+            }
+
+            if (group.length() == 0 || group.length() > 4 || count == 8)
+            {
+                return null;
+            }
+            try {
+                groups[count++] = Integer.parseInt(group, 16);
+            } catch (NumberFormatException e) {
+                return null;
+            }
 
-        Set<String> third = second.get(subnets[2]);
+            if (next < 0)
+            {
+                break;
+            }
+            if (next + 1 < length && ip.charAt(next + 1) == ':') {
+                if (gap >= 0)
+                {
+                    return null;
+                }
+                gap = count;
+                i = next + 2;
+            } else {
+                if (next + 1 == length)
+                {
+                    return null;
+                }
+                i = next + 1;
+            }
+        }
 
-        if (third == null)
-        {
-            return false;
+        if (gap >= 0) {
+            if (count == 8)
+            {
+                return null;
+            }
+            int shift = 8 - count;
+            System.arraycopy(groups, gap, groups, gap + shift, count - gap);
+            Arrays.fill(groups, gap, gap + shift, 0);
+        } else if (count != 8) {
+            return null;
         }
 
-        return third.contains(subnets[3]) || third.contains("*");
+        long high = 0;
+        long low = 0;
+        for (int g = 0; g < 4; g++)
+        {
+            high = (high << 16) | groups[g];
+            low = (low << 16) | groups[g + 4];
+        }
+        return new long[] { high, low };
+    }
 
+    private static boolean isV4(long[] address) {
+        return address[0] == 0 && (address[1] >>> 32) == 0xFFFF;
     }
 
-    /** Convert to a Set.
-     * @return this table's content as a Set
+    /**
+     * @return the first (or last) address of the network with the given
+     *         prefix length
      */
-    public Set<String> toSet() {
-        HashSet<String> set = new HashSet<String>();
+    private static long[] mask(long[] address, int length, boolean last) {
+        long high = address[0];
+        long low = address[1];
+        long highMask = length >= 64 ? -1L : (length == 0 ? 0 : -1L << (64 - length));
+        long lowMask = length <= 64 ? 0 : (length == 128 ? -1L : -1L << (128 - length));
+        if (last)
+        {
+            return new long[] { high | ~highMask, low | ~lowMask };
+        }
+        return new long[] { high & highMask, low & lowMask };
+    }
 
-        for (Map.Entry<String, Map<String, Map<String, Set<String>>>> first : map.entrySet()) {
-            String firstString = first.getKey();
-            Map<String, Map<String, Set<String>>> secondMap = first.getValue();
+    private static long[] increment(long[] address) {
+        long low = address[1] + 1;
+        long high = low == 0 ? address[0] + 1 : address[0];
+        return new long[] { high, low };
+    }
 
-            for (Map.Entry<String, Map<String, Set<String>>> second : secondMap.entrySet()) {
-                String secondString = second.getKey();
-                Map<String, Set<String>> thirdMap = second.getValue();
+    private static int compare(long[] a, long[] b) {
+        return compare(a[0], a[1], b[0], b[1]);
+    }
 
-                for (Map.Entry<String, Set<String>> third : thirdMap.entrySet()) {
-                    String thirdString = third.getKey();
-                    Set<String> fourthSet = third.getValue();
+    private static int compare(long aHigh, long aLow, long[] b) {
+        return compare(aHigh, aLow, b[0], b[1]);
+    }
 
-                    if (fourthSet.contains("*")) {
-                        set.add(firstString + "." + secondString + "." + thirdString);
-                    } else {
-                        for (String fourth : fourthSet) {
-                            set.add(firstString + "." + secondString + "." + thirdString + "." + fourth);
-                        }
-                    }
+    /** Unsigned comparison of two 128 bit addresses */
+    private static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+        if (aHigh != bHigh)
+        {
+            return (aHigh + Long.MIN_VALUE) < (bHigh + Long.MIN_VALUE) ? -1 : 1;
+        }
+        if (aLow != bLow)
+        {
+            return (aLow + Long.MIN_VALUE) < (bLow + Long.MIN_VALUE) ? -1 : 1;
+        }
+        return 0;
+    }
 
-                }
+    private static String format(long address, int places) {
+        StringBuilder sb = new StringBuilder(15);
+        for (int place = places - 1; place >= 0; place--) {
+            sb.append((address >>> (8 * place)) & 0xFF);
+            if (place > 0)
+            {
+                sb.append('.');
             }
         }
+        return sb.toString();
+    }
 
-        return set;
+    private static String formatV6(long[] address) {
+        StringBuilder sb = new StringBuilder(39);
+        for (int g = 0; g < 8; g++) {
+            long half = g < 4 ? address[0] : address[1];
+            sb.append(Long.toHexString((half >>> (16 * (3 - g % 4))) & 0xFFFF));
+            if (g < 7)
+            {
+                sb.append(':');
+            }
+        }
+        return sb.toString();
     }
 
 
@@ -0,0 +1,95 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Finds any of a list of regular expressions in a string, and remembers the
+ * verdict for the most recently seen strings. Spiders send the same few
+ * User-Agent strings and come from the same few hosts over and over, so most
+ * checks are answered without running a single pattern.
+ * <P>
+ * The patterns are tried one by one rather than combined into a single
+ * alternation: <code>java.util.regex</code> backtracks through every branch
+ * of an alternation at each position, and loses the fast literal search it
+ * uses for single patterns, which makes the combined pattern several times
+ * slower (see <code>SpiderDetectorBenchmark</code> in the tests).
+ * <P>
+ * Thread safe.
+ */
+public class PatternMatcher
+{
+    private final List<Pattern> patterns;
+
+    private final Map<String, Boolean> verdicts;
+
+    /**
+     * @param patterns
+     *            the regular expressions
+     * @param cacheSize
+     *            number of strings whose verdict is remembered
+     */
+    public PatternMatcher(List<Pattern> patterns, final int cacheSize)
+    {
+        this.patterns = new ArrayList<Pattern>(patterns);
+        this.verdicts = new LinkedHashMap<String, Boolean>(cacheSize * 2, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+            {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param input
+     *            the string to search
+     * @return true if any of the patterns is found in the string
+     */
+    public boolean find(String input)
+    {
+        Boolean verdict;
+        synchronized (verdicts)
+        {
+            verdict = verdicts.get(input);
+        }
+
+        if (verdict == null)
+        {
+            verdict = Boolean.FALSE;
+            for (Pattern pattern : patterns)
+            {
+                if (pattern.matcher(input).find())
+                {
+                    verdict = Boolean.TRUE;
+                    break;
+                }
+            }
+
+            synchronized (verdicts)
+            {
+                verdicts.put(input, verdict);
+            }
+        }
+        return verdict;
+    }
+
+    /**
+     * @return number of patterns
+     */
+    public int size()
+    {
+        return patterns.size();
+    }
+}
@@ -39,13 +39,16 @@ public class SpiderDetector {
     /**
      * Sparse HashTable structure to hold IP address ranges.
      */
-    private static IPTable table = null;
+    private static volatile IPTable table = null;
 
-    /** Collection of regular expressions to match known spiders' agents. */
-    private static List<Pattern> agents = new ArrayList<Pattern>();
+    /** Number of agent strings and host names whose verdict is remembered */
+    private static final int VERDICT_CACHE_SIZE = 1000;
 
-    /** Collection of regular expressions to match known spiders' domain names. */
-    private static List<Pattern> domains = new ArrayList<Pattern>();
+    /** Regular expressions to match known spiders' agents, or null if not loaded. */
+    private static PatternMatcher agents = null;
+
+    /** Regular expressions to match known spiders' domain names, or null if not loaded. */
+    private static PatternMatcher domains = null;
 
     /**
      * Utility method which reads lines from a file & returns them in a Set.
@@ -94,14 +97,28 @@ public class SpiderDetector {
         return table.toSet();
     }
 
+    /**
+     * Get Solr queries matching the Spider Addresses in a field, a few for
+     * each range however large it is.
+     *
+     * @param field the field holding the addresses
+     * @return the queries
+     * @see IPTable#toQueries(String)
+     */
+    public static Set<String> getSpiderIpQueries(String field) {
+
+        loadSpiderIpAddresses();
+        return table.toQueries(field);
+    }
+
     /*
      *  private loader to populate the table from files.
      */
 
-    private static void loadSpiderIpAddresses() {
+    private static synchronized void loadSpiderIpAddresses() {
 
         if (table == null) {
-            table = new IPTable();
+            IPTable ips = new IPTable();
 
             String filePath = ConfigurationManager.getProperty("dspace.dir");
 
@@ -114,7 +131,7 @@ public class SpiderDetector {
                         {
                             for (String ip : readPatterns(file)) {
                                 log.debug("Loading {}", ip);
-                                if (!Character.isDigit(ip.charAt(0)))
+                                if (!Character.isDigit(ip.charAt(0)) && ip.indexOf(':') < 0)
                                 {
                                     try {
                                         ip = DnsLookup.forward(ip);
@@ -124,7 +141,7 @@ public class SpiderDetector {
                                         continue;
                                     }
                                 }
-                                table.add(ip);
+                                ips.add(ip);
                             }
                             log.info("Loaded Spider IP file: " + file);
                         }
@@ -136,7 +153,7 @@ public class SpiderDetector {
             catch (Exception e) {
                 log.error("Error Loading Spiders:" + e.getMessage(), e);
             }
-
+            table = ips;
         }
 
     }
@@ -182,11 +199,33 @@ public class SpiderDetector {
         }
     }
 
+    private static synchronized PatternMatcher getAgents()
+    {
+        if (agents == null)
+        {
+            List<Pattern> patterns = new ArrayList<Pattern>();
+            loadPatterns("agents", patterns);
+            agents = new PatternMatcher(patterns, VERDICT_CACHE_SIZE);
+        }
+        return agents;
+    }
+
+    private static synchronized PatternMatcher getDomains()
+    {
+        if (domains == null)
+        {
+            List<Pattern> patterns = new ArrayList<Pattern>();
+            loadPatterns("domains", patterns);
+            domains = new PatternMatcher(patterns, VERDICT_CACHE_SIZE);
+        }
+        return domains;
+    }
+
     /**
      * Static Service Method for testing spiders against existing spider files.
      * <p>
-     * In future spiders HashSet may be optimized as byte offset array to
-     * improve performance and memory footprint further.
+     * The verdicts for recently seen agents and domain names are remembered,
+     * and IP addresses are looked up in a compiled {@link IPTable}.
      *
      * @param clientIP address of the client.
      * @param proxyIPs comma-list of X-Forwarded-For addresses, or null.
@@ -198,18 +237,9 @@ public class SpiderDetector {
             String hostname, String agent)
     {
         // See if any agent patterns match
-        if (null != agent)
+        if (null != agent && getAgents().find(agent))
         {
-            if (agents.isEmpty())
-                loadPatterns("agents", agents);
-
-            for (Pattern candidate : agents)
-            {
-                if (candidate.matcher(agent).find())
-                {
-                    return true;
-                }
-            }
+            return true;
         }
 
         // No.  See if any IP addresses match
@@ -227,20 +257,9 @@ public class SpiderDetector {
             return true;
 
         // No.  See if any DNS names match
-        if (null != hostname)
+        if (null != hostname && getDomains().find(hostname))
         {
-            if (domains.isEmpty())
-            {
-                loadPatterns("domains", domains);
-            }
-
-            for (Pattern candidate : domains)
-            {
-                if (candidate.matcher(hostname).find())
-                {
-                    return true;
-                }
-            }
+            return true;
         }
 
         // Not a known spider.
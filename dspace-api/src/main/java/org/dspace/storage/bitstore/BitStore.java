@@ -0,0 +1,121 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.dspace.storage.rdbms.TableRow;
+
+/**
+ * An asset store: keeps the bits of the bitstreams whose
+ * <code>store_number</code> refers to it. The {@link BitstreamStorageManager}
+ * creates one instance per store number, of the class configured as
+ * <code>assetstore.class</code> (store 0) or <code>assetstore.class.N</code>
+ * (default {@link GeneralBitStore}), and passes it the <code>bitstream</code>
+ * table row of each bitstream it stores or reads.
+ * <P>
+ * Several rows may share one <code>internal_id</code>, e.g. after a bitstream
+ * is cloned for a new item version. The BitstreamStorageManager only removes
+ * the bits of an internal ID once no other row refers to it, so the rows
+ * themselves count the references.
+ * <P>
+ * Implementations must be thread safe.
+ *
+ * @see BitstreamStorageManager
+ */
+public interface BitStore
+{
+    /** Key of {@link #about}: whether the bits exist, a Boolean */
+    public static final String EXISTS = "exists";
+
+    /** Key of {@link #about}: size in bytes, a Long */
+    public static final String SIZE = "size_bytes";
+
+    /** Key of {@link #about}: last modification time in milliseconds, a Long */
+    public static final String MODIFIED = "modified";
+
+    /** Key of {@link #about}: the local java.io.File holding the bits, if any */
+    public static final String FILE = "file";
+
+    /**
+     * Set up the store, before any other method is called.
+     *
+     * @param storeNumber
+     *            the number of this store, whose configuration is read
+     * @throws IOException
+     *             if the store cannot be used
+     */
+    public void init(int storeNumber) throws IOException;
+
+    /**
+     * Store the bits of a new bitstream. On return, the
+     * <code>internal_id</code>, <code>size_bytes</code>, <code>checksum</code>
+     * and <code>checksum_algorithm</code> columns of the row describe the
+     * stored bits; the row is not written to the database.
+     *
+     * @param bitstream
+     *            the row of the new bitstream, with a unique
+     *            <code>internal_id</code>, which the store may replace
+     * @param in
+     *            the bits, which are read to the end but not closed
+     * @throws IOException
+     *             if the bits could not be stored
+     */
+    public void put(TableRow bitstream, InputStream in) throws IOException;
+
+    /**
+     * Read the bits of a bitstream.
+     *
+     * @param bitstream
+     *            the row of the bitstream
+     * @return the bits
+     * @throws IOException
+     *             if the bits do not exist or cannot be read
+     */
+    public InputStream get(TableRow bitstream) throws IOException;
+
+    /**
+     * Read part of the bits of a bitstream, without reading what comes
+     * before it where the store allows.
+     *
+     * @param bitstream
+     *            the row of the bitstream
+     * @param offset
+     *            the first byte
+     * @param length
+     *            the maximum number of bytes
+     * @return the bits
+     * @throws IOException
+     *             if the bits do not exist or cannot be read
+     */
+    public InputStream getRange(TableRow bitstream, long offset, long length) throws IOException;
+
+    /**
+     * Describe the stored bits of a bitstream.
+     *
+     * @param bitstream
+     *            the row of the bitstream
+     * @return {@link #EXISTS}, and {@link #SIZE}, {@link #MODIFIED} and
+     *         {@link #FILE} where known
+     * @throws IOException
+     */
+    public Map<String, Object> about(TableRow bitstream) throws IOException;
+
+    /**
+     * Remove the bits of a bitstream. The caller makes sure that no other
+     * row refers to the same <code>internal_id</code>.
+     *
+     * @param bitstream
+     *            the row of the bitstream
+     * @return true if the bits were removed
+     * @throws IOException
+     */
+    public boolean remove(TableRow bitstream) throws IOException;
+}
@@ -10,13 +10,11 @@ package org.dspace.storage.bitstore;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.dspace.checker.BitstreamInfoDAO;
@@ -26,14 +24,6 @@ import org.dspace.core.Utils;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 
-import edu.sdsc.grid.io.FileFactory;
-import edu.sdsc.grid.io.GeneralFile;
-import edu.sdsc.grid.io.GeneralFileOutputStream;
-import edu.sdsc.grid.io.local.LocalFile;
-import edu.sdsc.grid.io.srb.SRBAccount;
-import edu.sdsc.grid.io.srb.SRBFile;
-import edu.sdsc.grid.io.srb.SRBFileSystem;
-
 /**
  * <P>
  * Stores, retrieves and deletes bitstreams.
@@ -67,146 +57,69 @@ public class BitstreamStorageManager
     /** log4j log */
     private static Logger log = Logger.getLogger(BitstreamStorageManager.class);
 
-	/**
-	 * The asset store locations. The information for each GeneralFile in the
-	 * array comes from dspace.cfg, so see the comments in that file.
-	 *
-	 * If an array element refers to a conventional (non_SRB) asset store, the
-	 * element will be a LocalFile object (similar to a java.io.File object)
-	 * referencing a local directory under which the bitstreams are stored.
-	 *
-	 * If an array element refers to an SRB asset store, the element will be an
-	 * SRBFile object referencing an SRB 'collection' (directory) under which
-	 * the bitstreams are stored.
-	 *
-	 * An SRBFile object is obtained by (1) using dspace.cfg properties to
-	 * create an SRBAccount object (2) using the account to create an
-	 * SRBFileSystem object (similar to a connection) (3) using the
-	 * SRBFileSystem object to create an SRBFile object
-	 */
-	private static GeneralFile[] assetStores;
+    /**
+     * The asset stores, by store number. Each is an instance of the class
+     * configured as <code>assetstore.class</code> (store 0) or
+     * <code>assetstore.class.N</code>, by default {@link GeneralBitStore},
+     * which reads the location of the store from <code>assetstore.dir</code>
+     * or the <code>srb.*</code> properties; see the comments in dspace.cfg.
+     */
+    private static BitStore[] stores;
 
     /** The asset store to use for new bitstreams */
     private static int incoming;
 
-    // These settings control the way an identifier is hashed into
-    // directory and file names
-    //
-    // With digitsPerLevel 2 and directoryLevels 3, an identifier
-    // like 12345678901234567890 turns into the relative name
-    // /12/34/56/12345678901234567890.
-    //
-    // You should not change these settings if you have data in the
-    // asset store, as the BitstreamStorageManager will be unable
-    // to find your existing data.
-    private static final int digitsPerLevel = 2;
-
-    private static final int directoryLevels = 3;
+    /** Whether new bitstreams are first recorded as deleted, on their own connection */
+    private static boolean trackIncoming;
 
 	/**
 	 * This prefix string marks registered bitstreams in internal_id
 	 */
-	private static final String REGISTERED_FLAG = "-R";
+	static final String REGISTERED_FLAG = "-R";
 
     /* Read in the asset stores from the config. */
     static
     {
-        List<Object> stores = new ArrayList<Object>();
-
-		// 'assetstore.dir' is always store number 0
-		String sAssetstoreDir = ConfigurationManager
-				.getProperty("assetstore.dir");
- 
-		// see if conventional assetstore or srb
-		if (sAssetstoreDir != null) {
-			stores.add(sAssetstoreDir); // conventional (non-srb)
-		} else if (ConfigurationManager.getProperty("srb.host") != null) {
-			stores.add(new SRBAccount( // srb
-					ConfigurationManager.getProperty("srb.host"),
-					ConfigurationManager.getIntProperty("srb.port"),
-					ConfigurationManager.getProperty("srb.username"),
-					ConfigurationManager.getProperty("srb.password"),
-					ConfigurationManager.getProperty("srb.homedirectory"),
-					ConfigurationManager.getProperty("srb.mdasdomainname"),
-					ConfigurationManager
-							.getProperty("srb.defaultstorageresource"),
-					ConfigurationManager.getProperty("srb.mcatzone")));
-		} else {
-			log.error("No default assetstore");
-		}
+        List<BitStore> list = new ArrayList<BitStore>();
 
-		// read in assetstores .1, .2, ....
-		for (int i = 1;; i++) { // i == 0 is default above
-			sAssetstoreDir = ConfigurationManager.getProperty("assetstore.dir."
-					+ i);
-
-			// see if 'i' conventional assetstore or srb
-			if (sAssetstoreDir != null) { 		// conventional (non-srb)
-				stores.add(sAssetstoreDir);
-			} else if (ConfigurationManager.getProperty("srb.host." + i)
-					!= null) { // srb
-				stores.add(new SRBAccount(
-						ConfigurationManager.getProperty("srb.host." + i),
-						ConfigurationManager.getIntProperty("srb.port." + i),
-						ConfigurationManager.getProperty("srb.username." + i),
-						ConfigurationManager.getProperty("srb.password." + i),
-						ConfigurationManager
-								.getProperty("srb.homedirectory." + i),
-						ConfigurationManager
-								.getProperty("srb.mdasdomainname." + i),
-						ConfigurationManager
-								.getProperty("srb.defaultstorageresource." + i),
-						ConfigurationManager.getProperty("srb.mcatzone." + i)));
-			} else {
-				break; // must be at the end of the assetstores
-			}
-		}
+        // 'assetstore.dir' is always store number 0, then .1, .2, ....
+        for (int i = 0;; i++)
+        {
+            String suffix = i == 0 ? "" : "." + i;
+            if (ConfigurationManager.getProperty("assetstore.dir" + suffix) == null
+                    && ConfigurationManager.getProperty("srb.host" + suffix) == null)
+            {
+                if (i == 0)
+                {
+                    log.error("No default assetstore");
+                }
+                break; // must be at the end of the assetstores
+            }
 
-		// convert list to array
-		// the elements (objects) in the list are class
-		//   (1) String - conventional non-srb assetstore
-		//   (2) SRBAccount - srb assetstore
-		assetStores = new GeneralFile[stores.size()];
-		for (int i = 0; i < stores.size(); i++) {
-			Object o = stores.get(i);
-			if (o == null) { // I don't know if this can occur
-				log.error("Problem with assetstore " + i);
-			}
-			if (o instanceof String) {
-				assetStores[i] = new LocalFile((String) o);
-			} else if (o instanceof SRBAccount) {
-				SRBFileSystem srbFileSystem = null;
-				try {
-					srbFileSystem = new SRBFileSystem((SRBAccount) o);
-				} catch (NullPointerException e) {
-					log.error("No SRBAccount for assetstore " + i);
-				} catch (IOException e) {
-					log.error("Problem getting SRBFileSystem for assetstore"
-							+ i);
-				}
-				if (srbFileSystem == null) {
-					log.error("SRB FileSystem is null for assetstore " + i);
-				}
-				String sSRBAssetstore = null;
-				if (i == 0) { // the zero (default) assetstore has no suffix
-					sSRBAssetstore = ConfigurationManager
-							.getProperty("srb.parentdir");
-				} else {
-					sSRBAssetstore = ConfigurationManager
-							.getProperty("srb.parentdir." + i);
-				}
-				if (sSRBAssetstore == null) {
-					log.error("srb.parentdir is undefined for assetstore " + i);
-				}
-				assetStores[i] = new SRBFile(srbFileSystem, sSRBAssetstore);
-			} else {
-				log.error("Unexpected " + o.getClass().toString()
-						+ " with assetstore " + i);
-			}
-		}
+            String className = ConfigurationManager.getProperty("assetstore.class" + suffix);
+            if (className == null)
+            {
+                className = GeneralBitStore.class.getName();
+            }
+            BitStore store = null;
+            try
+            {
+                store = (BitStore) Class.forName(className.trim()).newInstance();
+                store.init(i);
+            }
+            catch (Exception e)
+            {
+                log.error("Problem with assetstore " + i + " (" + className + ")", e);
+                store = null;
+            }
+            list.add(store);
+        }
+        stores = list.toArray(new BitStore[list.size()]);
 
         // Read asset store to put new files in. Default is 0.
         incoming = ConfigurationManager.getIntProperty("assetstore.incoming");
+
+        trackIncoming = ConfigurationManager.getBooleanProperty("assetstore.ingest.track", true);
     }
 
     /**
@@ -221,7 +134,11 @@ public class BitstreamStorageManager
      * <p>
      * If this method returns successfully and the context is aborted, then the
      * bits will be stored in the asset store and the RDBMS metadata entries
-     * will exist, but with the deleted flag set.
+     * will exist, but with the deleted flag set. Unless
+     * <code>assetstore.ingest.track</code> is false: then the row is only
+     * inserted in the given context, which saves a connection and a commit
+     * per bitstream, but the bits of an aborted ingest stay in the asset store
+     * unnoticed.
      * </p>
      * 
      * If this method throws an exception, then any of the following may be
@@ -252,95 +169,118 @@ public class BitstreamStorageManager
         // Create internal ID
         String id = Utils.generateKey();
 
-        // Create a deleted bitstream row, using a separate DB connection
-        TableRow bitstream;
-        Context tempContext = null;
-
-        try
-        {
-            tempContext = new Context();
-
-            bitstream = DatabaseManager.row("Bitstream");
-            bitstream.setColumn("deleted", true);
-            bitstream.setColumn("internal_id", id);
-
-            /*
-             * Set the store number of the new bitstream If you want to use some
-             * other method of working out where to put a new bitstream, here's
-             * where it should go
-             */
-            bitstream.setColumn("store_number", incoming);
+        TableRow bitstream = DatabaseManager.row("Bitstream");
+        bitstream.setColumn("deleted", true);
+        bitstream.setColumn("internal_id", id);
 
-            DatabaseManager.insert(tempContext, bitstream);
+        /*
+         * Set the store number of the new bitstream If you want to use some
+         * other method of working out where to put a new bitstream, here's
+         * where it should go
+         */
+        bitstream.setColumn("store_number", incoming);
 
-            tempContext.complete();
-        }
-        catch (SQLException sqle)
+        // Create a deleted bitstream row, using a separate DB connection
+        if (trackIncoming)
         {
-            if (tempContext != null)
+            Context tempContext = null;
+            try
             {
-                tempContext.abort();
+                tempContext = new Context();
+                DatabaseManager.insert(tempContext, bitstream);
+                tempContext.complete();
             }
+            catch (SQLException sqle)
+            {
+                if (tempContext != null)
+                {
+                    tempContext.abort();
+                }
 
-            throw sqle;
-        }
-
-        // Where on the file system will this new bitstream go?
-		GeneralFile file = getFile(bitstream);
-
-        // Make the parent dirs if necessary
-		GeneralFile parent = file.getParentFile();
-
-        if (!parent.exists())
-        {
-            parent.mkdirs();
+                throw sqle;
+            }
         }
 
-        //Create the corresponding file and open it
-        file.createNewFile();
-
-		GeneralFileOutputStream fos = FileFactory.newFileOutputStream(file);
-
-		// Read through a digest input stream that will work out the MD5
-        DigestInputStream dis = null;
-
+        BitStore store = getStore(bitstream);
         try
         {
-            dis = new DigestInputStream(is, MessageDigest.getInstance("MD5"));
+            if (store instanceof ContentAddressedBitStore && trackIncoming)
+            {
+                // the address must be on the deleted row before the bits are
+                // shared, for cleanup to see the new reference to them
+                ((ContentAddressedBitStore) store).put(bitstream, is, new ContentAddressedBitStore.Recorder()
+                {
+                    public void record(TableRow row) throws IOException
+                    {
+                        try
+                        {
+                            recordInternalID(row);
+                        }
+                        catch (SQLException e)
+                        {
+                            throw new IOException("Unable to record the internal ID of bitstream "
+                                    + row.getIntColumn("bitstream_id"), e);
+                        }
+                    }
+                });
+            }
+            else
+            {
+                store.put(bitstream, is);
+            }
         }
-        // Should never happen
-        catch (NoSuchAlgorithmException nsae)
+        finally
         {
-            log.warn("Caught NoSuchAlgorithmException", nsae);
+            is.close();
         }
 
-        Utils.bufferedCopy(dis, fos);
-        fos.close();
-        is.close();
-
-        bitstream.setColumn("size_bytes", file.length());
-
-        if (dis != null)
+        bitstream.setColumn("deleted", false);
+        if (!trackIncoming)
         {
-            bitstream.setColumn("checksum", Utils.toHex(dis.getMessageDigest()
-                    .digest()));
-            bitstream.setColumn("checksum_algorithm", "MD5");
+            DatabaseManager.insert(context, bitstream);
+            return bitstream.getIntColumn("bitstream_id");
         }
-        
-        bitstream.setColumn("deleted", false);
-        DatabaseManager.update(context, bitstream);
 
         int bitstreamId = bitstream.getIntColumn("bitstream_id");
 
-        if (log.isDebugEnabled())
+        // A store which chose its own internal ID (e.g. from the content)
+        // records it on the deleted row first, so that cleanup finds the
+        // bits if this context is aborted
+        if (!id.equals(bitstream.getStringColumn("internal_id")) && !(store instanceof ContentAddressedBitStore))
         {
-            log.debug("Stored bitstream " + bitstreamId + " in file "
-                    + file.getAbsolutePath());
+            recordInternalID(bitstream);
         }
 
+        DatabaseManager.update(context, bitstream);
+
         return bitstreamId;
     }
 
+    /**
+     * Record the internal ID of a new bitstream on its deleted row, using a
+     * separate DB connection.
+     */
+    private static void recordInternalID(TableRow bitstream) throws SQLException
+    {
+        Context tempContext = null;
+        try
+        {
+            tempContext = new Context();
+            DatabaseManager.updateQuery(tempContext,
+                    "UPDATE Bitstream SET internal_id = ? WHERE bitstream_id = ?",
+                    bitstream.getStringColumn("internal_id"), bitstream.getIntColumn("bitstream_id"));
+            tempContext.complete();
+        }
+        catch (SQLException sqle)
+        {
+            if (tempContext != null)
+            {
+                tempContext.abort();
+            }
+            throw sqle;
+        }
+    }
+
 	/**
 	 * Register a bitstream already in storage.
 	 *
@@ -382,106 +322,19 @@ public class BitstreamStorageManager
 			throw sqle;
 		}
 
-		// get a reference to the file
-		GeneralFile file = getFile(bitstream);
-
-		// read through a DigestInputStream that will work out the MD5
-		//
-		// DSpace refers to checksum, writes it in METS, and uses it as an
-		// AIP filename (!), but never seems to validate with it. Furthermore,
-		// DSpace appears to hardcode the algorithm to MD5 in some places--see 
-		// METSExport.java.
-		//
-		// To remain compatible with DSpace we calculate an MD5 checksum on 
-		// LOCAL registered files. But for REMOTE (e.g. SRB) files we 
-		// calculate an MD5 on just the fileNAME. The reasoning is that in the 
-		// case of a remote file, calculating an MD5 on the file itself will
-		// generate network traffic to read the file's bytes. In this case it 
-		// would be better have a proxy process calculate MD5 and store it as 
-		// an SRB metadata attribute so it can be retrieved simply from SRB.
-		//
-		// TODO set this up as a proxy server process so no net activity
-		
-		// FIXME this is a first class HACK! for the reasons described above
-		if (file instanceof LocalFile) 
+		// only the default store knows where registered files are
+		BitStore store = getStore(bitstream);
+		if (!(store instanceof GeneralBitStore))
 		{
-
-			// get MD5 on the file for local file
-			DigestInputStream dis = null;
-			try 
-			{
-				dis = new DigestInputStream(FileFactory.newFileInputStream(file), 
-						MessageDigest.getInstance("MD5"));
-			} 
-			catch (NoSuchAlgorithmException e) 
-			{
-				log.warn("Caught NoSuchAlgorithmException", e);
-				throw new IOException("Invalid checksum algorithm", e);
-			}
-			catch (IOException e) 
-			{
-				log.error("File: " + file.getAbsolutePath() 
-						+ " to be registered cannot be opened - is it "
-						+ "really there?");
-				throw e;
-			}
-			final int BUFFER_SIZE = 1024 * 4;
-			final byte[] buffer = new byte[BUFFER_SIZE];
-			while (true) 
-			{
-				final int count = dis.read(buffer, 0, BUFFER_SIZE);
-				if (count == -1) 
-				{
-					break;
-				}
-			}
-			bitstream.setColumn("checksum", Utils.toHex(dis.getMessageDigest()
-					.digest()));
-			dis.close();
-		} 
-		else if (file instanceof SRBFile)
-		{
-			if (!file.exists())
-			{
-				log.error("File: " + file.getAbsolutePath() 
-						+ " is not in SRB MCAT");
-				throw new IOException("File is not in SRB MCAT");
-			}
-
-			// get MD5 on just the filename (!) for SRB file
-			int iLastSlash = bitstreamPath.lastIndexOf('/');
-			String sFilename = bitstreamPath.substring(iLastSlash + 1);
-			MessageDigest md = null;
-			try 
-			{
-				md = MessageDigest.getInstance("MD5");
-			} 
-			catch (NoSuchAlgorithmException e) 
-			{
-				log.error("Caught NoSuchAlgorithmException", e);
-				throw new IOException("Invalid checksum algorithm", e);
-			}
-			bitstream.setColumn("checksum", 
-					Utils.toHex(md.digest(sFilename.getBytes())));
-		}
-		else
-		{
-			throw new IOException("Unrecognized file type - "
-					+ "not local, not SRB");
+			throw new IOException("Assetstore " + assetstore
+					+ " does not support registered bitstreams");
 		}
+		((GeneralBitStore) store).register(bitstream, bitstreamPath);
 
-		bitstream.setColumn("checksum_algorithm", "MD5");
-		bitstream.setColumn("size_bytes", file.length());
 		bitstream.setColumn("deleted", false);
 		DatabaseManager.update(context, bitstream);
 
-		int bitstreamId = bitstream.getIntColumn("bitstream_id");
-		if (log.isDebugEnabled()) 
-		{
-			log.debug("Stored bitstream " + bitstreamId + " in file "
-					+ file.getAbsolutePath());
-		}
-		return bitstreamId;
+		return bitstream.getIntColumn("bitstream_id");
 	}
 
 	/**
@@ -520,9 +373,61 @@ public class BitstreamStorageManager
     {
         TableRow bitstream = DatabaseManager.find(context, "bitstream", id);
 
-		GeneralFile file = getFile(bitstream);
+        return (bitstream != null) ? getStore(bitstream).get(bitstream) : null;
+    }
+
+    /**
+     * Retrieve part of the bits for the bitstream with ID, without reading
+     * the bits before it where the asset store allows. If the bitstream does
+     * not exist, returns null.
+     *
+     * @param context
+     *            The current context
+     * @param id
+     *            The ID of the bitstream to retrieve
+     * @param offset
+     *            The first byte to retrieve
+     * @param length
+     *            The maximum number of bytes to retrieve
+     * @exception IOException
+     *                If a problem occurs while retrieving the bits
+     * @exception SQLException
+     *                If a problem occurs accessing the RDBMS
+     *
+     * @return The stream of bits, or null
+     */
+    public static InputStream retrieve(Context context, int id, long offset, long length)
+            throws SQLException, IOException
+    {
+        TableRow bitstream = DatabaseManager.find(context, "bitstream", id);
+
+        return (bitstream != null) ? getStore(bitstream).getRange(bitstream, offset, length) : null;
+    }
+
+    /**
+     * Retrieve the file holding the bits of a bitstream, if it is kept in a
+     * local asset store. Callers can then read it through a
+     * <code>FileChannel</code> and serve any part of it without reading what
+     * comes before.
+     *
+     * @param context
+     *            The current context
+     * @param id
+     *            The ID of the bitstream to retrieve
+     * @exception IOException
+     *                If a problem occurs while determining the file
+     * @exception SQLException
+     *                If a problem occurs accessing the RDBMS
+     *
+     * @return The local file, or null if the bitstream does not exist or is
+     *         not in a local asset store
+     */
+    public static File retrieveFile(Context context, int id)
+            throws SQLException, IOException
+    {
+        TableRow bitstream = DatabaseManager.find(context, "bitstream", id);
 
-		return (file != null) ? FileFactory.newFileInputStream(file) : null;
+        return (bitstream != null) ? (File) getStore(bitstream).about(bitstream).get(BitStore.FILE) : null;
     }
 
     /**
@@ -587,10 +492,11 @@ public class BitstreamStorageManager
                 TableRow row = iterator.next();
                 int bid = row.getIntColumn("bitstream_id");
 
-				GeneralFile file = getFile(row);
+                BitStore store = getStore(row);
+                Map<String, Object> about = store.about(row);
 
                 // Make sure entries which do not exist are removed
-                if (file == null || !file.exists())
+                if (!Boolean.TRUE.equals(about.get(BitStore.EXISTS)))
                 {
                     log.debug("file is null");
                     if (deleteDbRecords)
@@ -605,14 +511,19 @@ public class BitstreamStorageManager
                         {
                             System.out.println(" - Deleting bitstream record from database (ID: " + bid + ")");
                         }
-                        DatabaseManager.delete(context, "Bitstream", bid);
+                        // unless a store has just recorded where it put the
+                        // bits, e.g. the address of content stored by
+                        // content (the bits were not there when looked for)
+                        DatabaseManager.updateQuery(context,
+                                "DELETE FROM Bitstream WHERE bitstream_id = ? AND internal_id = ?",
+                                bid, row.getStringColumn("internal_id"));
                     }
                     continue;
                 }
 
                 // This is a small chance that this is a file which is
                 // being stored -- get it next time.
-                if (isRecent(file))
+                if (isRecent(about))
                 {
                 	log.debug("file is recent");
                     continue;
@@ -640,12 +551,47 @@ public class BitstreamStorageManager
 
                 // Since versioning allows for multiple bitstreams, check if the internal identifier isn't used on another place
                 TableRow duplicateBitRow = DatabaseManager.querySingleTable(context, "Bitstream", "SELECT * FROM Bitstream WHERE internal_id = ? AND bitstream_id <> ?", row.getStringColumn("internal_id"), bid);
-                if(duplicateBitRow == null)
+                // A deduplicating store may just have handed the same bits to
+                // a new bitstream, touching them, so look again
+                if(duplicateBitRow == null && !isRecent(store.about(row)))
                 {
-                    boolean success = file.delete();
+                    // The store also removes empty parent directories.
+                    // Otherwise the cleanup script is set to
+                    // leave the db records then the file
+                    // and directories have already been deleted
+                    // if this is turned off then it still looks like the
+                    // file exists
+                    boolean success;
+                    if (store instanceof ContentAddressedBitStore)
+                    {
+                        // look for new references once more, with the bits
+                        // out of reach of a new bitstream
+                        final Context cleanupContext = context;
+                        success = ((ContentAddressedBitStore) store).remove(row, new ContentAddressedBitStore.References()
+                        {
+                            public boolean exist(TableRow bitstream) throws IOException
+                            {
+                                try
+                                {
+                                    return DatabaseManager.querySingleTable(cleanupContext, "Bitstream",
+                                            "SELECT * FROM Bitstream WHERE internal_id = ? AND bitstream_id <> ?",
+                                            bitstream.getStringColumn("internal_id"),
+                                            bitstream.getIntColumn("bitstream_id")) != null;
+                                }
+                                catch (SQLException e)
+                                {
+                                    throw new IOException(e);
+                                }
+                            }
+                        });
+                    }
+                    else
+                    {
+                        success = store.remove(row);
+                    }
 
-                    String message = ("Deleted bitstream " + bid + " (file "
-                                + file.getAbsolutePath() + ") with result "
+                    String message = ("Deleted bitstream " + bid + " (internal id "
+                                + row.getStringColumn("internal_id") + ") with result "
                                 + success);
                     if (log.isDebugEnabled())
                     {
@@ -655,18 +601,6 @@ public class BitstreamStorageManager
                     {
                         System.out.println(message);
                     }
-
-                    // if the file was deleted then
-                    // try deleting the parents
-                    // Otherwise the cleanup script is set to
-                    // leave the db records then the file
-                    // and directories have already been deleted
-                    // if this is turned off then it still looks like the
-                    // file exists
-                    if( success )
-                    {
-                        deleteParents(file);
-                    }
                 }
 
                 // Make sure to commit our outstanding work every 100
@@ -728,15 +662,20 @@ public class BitstreamStorageManager
     ////////////////////////////////////////
 
     /**
-     * Return true if this file is too recent to be deleted, false otherwise.
+     * Return true if these bits are too recent to be deleted, false otherwise.
      * 
-     * @param file
-     *            The file to check
-     * @return True if this file is too recent to be deleted
+     * @param about
+     *            The description of the bits, from {@link BitStore#about}
+     * @return True if these bits are too recent to be deleted
      */
-    private static boolean isRecent(GeneralFile file)
+    private static boolean isRecent(Map<String, Object> about)
     {
-        long lastmod = file.lastModified();
+        Long modified = (Long) about.get(BitStore.MODIFIED);
+        if (modified == null)
+        {
+            return false;
+        }
+        long lastmod = modified.longValue();
         long now = new java.util.Date().getTime();
 
         if (lastmod >= now)
@@ -749,58 +688,18 @@ public class BitstreamStorageManager
     }
 
     /**
-     * Delete empty parent directories.
-     * 
-     * @param file
-     *            The file with parent directories to delete
-     */
-    private static synchronized void deleteParents(GeneralFile file)
-    {
-        if (file == null )
-        {
-            return;
-        }
- 
-		GeneralFile tmp = file;
-
-        for (int i = 0; i < directoryLevels; i++)
-        {
-
-			GeneralFile directory = tmp.getParentFile();
-			GeneralFile[] files = directory.listFiles();
-
-            // Only delete empty directories
-            if (files.length != 0)
-            {
-                break;
-            }
-
-            directory.delete();
-            tmp = directory;
-        }
-    }
-
-    /**
-     * Return the file corresponding to a bitstream. It's safe to pass in
-     * <code>null</code>.
-     * 
+     * Return the asset store of a bitstream.
+     *
      * @param bitstream
-     *            the database table row for the bitstream. Can be
-     *            <code>null</code>
-     * 
-     * @return The corresponding file in the file system, or <code>null</code>
-     * 
+     *            the database table row for the bitstream
+     *
+     * @return The store
+     *
      * @exception IOException
-     *                If a problem occurs while determining the file
+     *                If the store is not configured
      */
-    private static GeneralFile getFile(TableRow bitstream) throws IOException
+    private static BitStore getStore(TableRow bitstream) throws IOException
     {
-        // Check that bitstream is not null
-        if (bitstream == null)
-        {
-            return null;
-        }
-
         // Get the store to use
         int storeNumber = bitstream.getIntColumn("store_number");
 
@@ -810,83 +709,10 @@ public class BitstreamStorageManager
             storeNumber = 0;
         }
 
-		GeneralFile assetstore = assetStores[storeNumber];
-
-		// turn the internal_id into a file path relative to the assetstore
-		// directory
-		String sInternalId = bitstream.getStringColumn("internal_id");
-
-		// there are 4 cases:
-		// -conventional bitstream, conventional storage
-		// -conventional bitstream, srb storage
-		// -registered bitstream, conventional storage
-		// -registered bitstream, srb storage
-		// conventional bitstream - dspace ingested, dspace random name/path
-		// registered bitstream - registered to dspace, any name/path
-		String sIntermediatePath = null;
-		if (isRegisteredBitstream(sInternalId)) {
-			sInternalId = sInternalId.substring(REGISTERED_FLAG.length());
-			sIntermediatePath = "";
-		} else {
-			
-			// Sanity Check: If the internal ID contains a
-			// pathname separator, it's probably an attempt to
-			// make a path traversal attack, so ignore the path
-			// prefix.  The internal-ID is supposed to be just a
-			// filename, so this will not affect normal operation.
-			if (sInternalId.indexOf(File.separator) != -1)
-            {
-                sInternalId = sInternalId.substring(sInternalId.lastIndexOf(File.separator) + 1);
-            }
-			
-			sIntermediatePath = getIntermediatePath(sInternalId);
-		}
-
-		StringBuffer bufFilename = new StringBuffer();
-		if (assetstore instanceof LocalFile) {
-			bufFilename.append(assetstore.getCanonicalPath());
-			bufFilename.append(File.separator);
-			bufFilename.append(sIntermediatePath);
-			bufFilename.append(sInternalId);
-			if (log.isDebugEnabled()) {
-				log.debug("Local filename for " + sInternalId + " is "
-						+ bufFilename.toString());
-			}
-			return new LocalFile(bufFilename.toString());
-		}
-		if (assetstore instanceof SRBFile) {
-			bufFilename.append(sIntermediatePath);
-			bufFilename.append(sInternalId);
-			if (log.isDebugEnabled()) {
-				log.debug("SRB filename for " + sInternalId + " is "
-						+ ((SRBFile) assetstore).toString()
-						+ bufFilename.toString());
-			}
-			return new SRBFile((SRBFile) assetstore, bufFilename.toString());
-		}
-		return null;
+        if (storeNumber >= stores.length || stores[storeNumber] == null)
+        {
+            throw new IOException("Assetstore " + storeNumber + " is not configured");
+        }
+        return stores[storeNumber];
     }
-
-	/**
-	 * Return the intermediate path derived from the internal_id. This method
-	 * splits the id into groups which become subdirectories.
-	 *
-	 * @param iInternalId
-	 *            The internal_id
-	 * @return The path based on the id without leading or trailing separators
-	 */
-	private static String getIntermediatePath(String iInternalId) {
-		StringBuffer buf = new StringBuffer();
-		for (int i = 0; i < directoryLevels; i++) {
-			int digits = i * digitsPerLevel;
-			if (i > 0) {
-				buf.append(File.separator);
-			}
-			buf.append(iInternalId.substring(digits, digits
-							+ digitsPerLevel));
-		}
-		buf.append(File.separator);
-		return buf.toString();
-	}
-
 }
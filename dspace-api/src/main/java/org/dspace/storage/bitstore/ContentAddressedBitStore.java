@@ -0,0 +1,424 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Utils;
+import org.dspace.storage.rdbms.TableRow;
+
+/**
+ * A deduplicating asset store in a local directory
+ * (<code>assetstore.dir</code> or <code>assetstore.dir.N</code>). The
+ * internal ID of a bitstream is the SHA-256 of its content, so identical
+ * content, e.g. the same PDF deposited in many items, is kept once, and all
+ * bitstreams with that content share one file.
+ * <P>
+ * New content is written to a temporary file in the <code>.incoming</code>
+ * directory of the store while both digests are computed, then renamed
+ * atomically into place; a reader never sees a partly written file. If the
+ * content is already there, the temporary file is dropped and the existing
+ * file is touched, so that a concurrent cleanup treats it as recent and
+ * leaves it alone.
+ * Until then, the internal ID of a bitstream is the key it was created
+ * with, and its temporary file is named after that key: the bitstream is
+ * recent while it is written, and missing once a failed put has dropped the
+ * file, so cleanup deletes its row.
+ * <P>
+ * The file is removed by cleanup once the last bitstream row with its
+ * internal ID is deleted. As a new bitstream may share the file at any time,
+ * the {@link BitstreamStorageManager} records the address on the row of a
+ * new bitstream before the existing file is touched, and the cleanup first
+ * moves the file aside, then looks for rows with its address once more, and
+ * puts it back if there are any. Whichever comes first, the new bitstream
+ * never refers to removed content. Bitstreams cannot be registered in this
+ * store.
+ */
+public class ContentAddressedBitStore implements BitStore
+{
+    /** log4j log */
+    private static Logger log = Logger.getLogger(ContentAddressedBitStore.class);
+
+    /** A hex SHA-256 */
+    private static final Pattern ADDRESS = Pattern.compile("[0-9a-f]{64}");
+
+    /** Name of the directory for content being written */
+    private static final String INCOMING = ".incoming";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Root directory of the store */
+    private File root;
+
+    /** Content stored which was already there */
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * Records the address of new content on the row of its bitstream, before
+     * existing content with that address is shared.
+     */
+    interface Recorder
+    {
+        void record(TableRow bitstream) throws IOException;
+    }
+
+    /**
+     * Tells whether bitstreams other than the one being removed refer to an
+     * address.
+     */
+    interface References
+    {
+        boolean exist(TableRow bitstream) throws IOException;
+    }
+
+    public ContentAddressedBitStore()
+    {
+    }
+
+    /**
+     * For tests: a store in the given directory.
+     */
+    ContentAddressedBitStore(File root)
+    {
+        this.root = root;
+    }
+
+    public void init(int storeNumber) throws IOException
+    {
+        String key = storeNumber == 0 ? "assetstore.dir" : "assetstore.dir." + storeNumber;
+        String dir = ConfigurationManager.getProperty(key);
+        if (dir == null)
+        {
+            throw new IOException(key + " is not set; a content addressed store must be a local directory");
+        }
+        root = new File(dir);
+    }
+
+    public void put(TableRow bitstream, InputStream in) throws IOException
+    {
+        put(bitstream, in, null);
+    }
+
+    /**
+     * Store the bits of a new bitstream, having the address recorded before
+     * the content is shared with other bitstreams.
+     *
+     * @param recorder
+     *            records the address set on the row, or null
+     */
+    void put(TableRow bitstream, InputStream in, Recorder recorder) throws IOException
+    {
+        MessageDigest sha;
+        MessageDigest md5;
+        try
+        {
+            sha = MessageDigest.getInstance("SHA-256");
+            md5 = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException("Missing digest algorithm", e);
+        }
+
+        File incoming = new File(root, INCOMING);
+        if (!incoming.isDirectory() && !incoming.mkdirs() && !incoming.isDirectory())
+        {
+            throw new IOException("Cannot create " + incoming);
+        }
+        File temp = File.createTempFile(incomingPrefix(bitstream), null, incoming);
+        try
+        {
+            long size = 0;
+            OutputStream out = new FileOutputStream(temp);
+            try
+            {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                {
+                    sha.update(buffer, 0, read);
+                    md5.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            String address = Utils.toHex(sha.digest());
+            File file = getFile(address);
+            bitstream.setColumn("internal_id", address);
+            if (recorder != null)
+            {
+                recorder.record(bitstream);
+            }
+
+            // touching the file fails if a cleanup has just removed it
+            if (file.length() == size && file.setLastModified(System.currentTimeMillis()))
+            {
+                duplicates.incrementAndGet();
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Bitstream " + bitstream.getIntColumn("bitstream_id")
+                            + " shares the content of " + address);
+                }
+            }
+            else
+            {
+                moveInto(temp, file);
+            }
+
+            bitstream.setColumn("size_bytes", size);
+            bitstream.setColumn("checksum", Utils.toHex(md5.digest()));
+            bitstream.setColumn("checksum_algorithm", "MD5");
+        }
+        finally
+        {
+            // still there unless it was moved into place
+            if (temp.exists() && !temp.delete())
+            {
+                log.warn("Cannot delete " + temp);
+            }
+        }
+    }
+
+    public InputStream get(TableRow bitstream) throws IOException
+    {
+        return new FileInputStream(getFile(bitstream));
+    }
+
+    public InputStream getRange(TableRow bitstream, long offset, long length) throws IOException
+    {
+        FileInputStream in = new FileInputStream(getFile(bitstream));
+        in.getChannel().position(offset);
+        return new BoundedInputStream(in, length);
+    }
+
+    public Map<String, Object> about(TableRow bitstream) throws IOException
+    {
+        Map<String, Object> about = new HashMap<String, Object>();
+        if (!isAddressed(bitstream))
+        {
+            // still being written, or left by a put which failed
+            File[] files = getIncoming(bitstream);
+            about.put(EXISTS, files.length > 0);
+            if (files.length > 0)
+            {
+                about.put(SIZE, files[0].length());
+                about.put(MODIFIED, files[0].lastModified());
+                about.put(FILE, files[0]);
+            }
+            return about;
+        }
+
+        File file = getFile(bitstream);
+        boolean exists = file.isFile();
+        about.put(EXISTS, exists);
+        if (exists)
+        {
+            about.put(SIZE, file.length());
+            about.put(MODIFIED, file.lastModified());
+            about.put(FILE, file);
+        }
+        return about;
+    }
+
+    public boolean remove(TableRow bitstream) throws IOException
+    {
+        return remove(bitstream, null);
+    }
+
+    /**
+     * Remove the bits of a bitstream unless other bitstreams refer to them:
+     * the file is moved aside, and put back if the references, checked
+     * once it is, show that another bitstream has come to share it.
+     *
+     * @param references
+     *            checks for other bitstreams with the address, or null
+     * @return true if the file was removed
+     */
+    boolean remove(TableRow bitstream, References references) throws IOException
+    {
+        if (!isAddressed(bitstream))
+        {
+            // a put which has stalled
+            boolean removed = false;
+            for (File file : getIncoming(bitstream))
+            {
+                removed |= file.delete();
+            }
+            return removed;
+        }
+
+        File file = getFile(bitstream);
+        File incoming = new File(root, INCOMING);
+        if (!incoming.isDirectory() && !incoming.mkdirs() && !incoming.isDirectory())
+        {
+            throw new IOException("Cannot create " + incoming);
+        }
+        File removing = File.createTempFile("remove", null, incoming);
+        try
+        {
+            Files.move(file.toPath(), removing.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (NoSuchFileException e)
+        {
+            removing.delete();
+            return false;
+        }
+
+        if (references != null && references.exist(bitstream))
+        {
+            // a new bitstream may have stored the same content meanwhile,
+            // which is as good
+            if (file.exists())
+            {
+                removing.delete();
+            }
+            else
+            {
+                moveInto(removing, file);
+            }
+            return false;
+        }
+        if (!removing.delete())
+        {
+            log.warn("Cannot delete " + removing);
+        }
+
+        // delete empty parent directories
+        File directory = file.getParentFile();
+        for (int i = 0; i < GeneralBitStore.directoryLevels; i++)
+        {
+            String[] files = directory.list();
+            if (files == null || files.length != 0 || !directory.delete())
+            {
+                break;
+            }
+            directory = directory.getParentFile();
+        }
+        return true;
+    }
+
+    /**
+     * Move a file into place, creating the directories it goes in again if
+     * the removal of another file deletes them meanwhile.
+     */
+    private void moveInto(File from, File to) throws IOException
+    {
+        File parent = to.getParentFile();
+        for (int attempt = 0; ; attempt++)
+        {
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+            {
+                throw new IOException("Cannot create " + parent);
+            }
+            try
+            {
+                Files.move(from.toPath(), to.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return;
+            }
+            catch (NoSuchFileException e)
+            {
+                if (attempt >= 2 || !from.exists())
+                {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of stored contents which were already in the store,
+     *         since startup
+     */
+    public long getDuplicates()
+    {
+        return duplicates.get();
+    }
+
+    /**
+     * Return the file of a bitstream.
+     *
+     * @throws IOException
+     *             if the internal ID is not a content address
+     */
+    /**
+     * @return whether the internal ID of a bitstream is a content address,
+     *         rather than the key it is given until its content is stored
+     */
+    private static boolean isAddressed(TableRow bitstream)
+    {
+        String address = bitstream.getStringColumn("internal_id");
+        return address != null && ADDRESS.matcher(address).matches();
+    }
+
+    /**
+     * @return the prefix of the temporary file of a bitstream's content, by
+     *         which it is found while it is written
+     */
+    private static String incomingPrefix(TableRow bitstream)
+    {
+        String id = bitstream.getStringColumn("internal_id");
+        return id == null || isAddressed(bitstream) ? "put" : "put-" + id + "-";
+    }
+
+    /**
+     * @return the temporary files of a bitstream being stored
+     */
+    private File[] getIncoming(TableRow bitstream)
+    {
+        final String prefix = incomingPrefix(bitstream);
+        File[] files = new File(root, INCOMING).listFiles(new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return name.startsWith(prefix);
+            }
+        });
+        return files == null || "put".equals(prefix) ? new File[0] : files;
+    }
+
+    private File getFile(TableRow bitstream) throws IOException
+    {
+        String address = bitstream.getStringColumn("internal_id");
+        if (address == null || !ADDRESS.matcher(address).matches())
+        {
+            throw new IOException("Bitstream " + bitstream.getIntColumn("bitstream_id")
+                    + " has internal ID " + address + ", not a content address");
+        }
+        return getFile(address);
+    }
+
+    private File getFile(String address)
+    {
+        return new File(root, GeneralBitStore.getIntermediatePath(address) + address);
+    }
+}
@@ -0,0 +1,552 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Utils;
+import org.dspace.storage.rdbms.TableRow;
+
+import edu.sdsc.grid.io.FileFactory;
+import edu.sdsc.grid.io.GeneralFile;
+import edu.sdsc.grid.io.local.LocalFile;
+import edu.sdsc.grid.io.srb.SRBAccount;
+import edu.sdsc.grid.io.srb.SRBFile;
+import edu.sdsc.grid.io.srb.SRBFileSystem;
+
+/**
+ * The default asset store: a directory of the local file system
+ * (<code>assetstore.dir</code>, <code>assetstore.dir.N</code>) or an SRB
+ * collection (<code>srb.*</code>, <code>srb.*.N</code>), in which each
+ * bitstream is a file named after its random internal ID. Registered
+ * bitstreams are files anywhere under the store, named by their path.
+ *
+ * @author Peter Breton, Robert Tansley, David Little, Nathan Sarr
+ */
+public class GeneralBitStore implements BitStore
+{
+    /** log4j log */
+    private static Logger log = Logger.getLogger(GeneralBitStore.class);
+
+    // These settings control the way an identifier is hashed into
+    // directory and file names
+    //
+    // With digitsPerLevel 2 and directoryLevels 3, an identifier
+    // like 12345678901234567890 turns into the relative name
+    // /12/34/56/12345678901234567890.
+    //
+    // You should not change these settings if you have data in the
+    // asset store, as the BitstreamStorageManager will be unable
+    // to find your existing data.
+    static final int digitsPerLevel = 2;
+
+    static final int directoryLevels = 3;
+
+    /** Appended to the name of a local file while it is written */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The asset store location. If the store is a conventional (non-SRB)
+     * asset store, this is a LocalFile object (similar to a java.io.File
+     * object) referencing a local directory under which the bitstreams are
+     * stored.
+     *
+     * If the store is an SRB asset store, this is an SRBFile object
+     * referencing an SRB 'collection' (directory) under which the bitstreams
+     * are stored. It is obtained by (1) using dspace.cfg properties to create
+     * an SRBAccount object (2) using the account to create an SRBFileSystem
+     * object (similar to a connection) (3) using the SRBFileSystem object to
+     * create an SRBFile object
+     */
+    private GeneralFile assetstore;
+
+    public void init(int storeNumber) throws IOException
+    {
+        // the zero (default) assetstore has no suffix
+        String suffix = storeNumber == 0 ? "" : "." + storeNumber;
+
+        // see if conventional assetstore or srb
+        String sAssetstoreDir = ConfigurationManager.getProperty("assetstore.dir" + suffix);
+        if (sAssetstoreDir != null)
+        {
+            assetstore = new LocalFile(sAssetstoreDir);
+            return;
+        }
+
+        if (ConfigurationManager.getProperty("srb.host" + suffix) == null)
+        {
+            throw new IOException("No assetstore.dir" + suffix + " or srb.host" + suffix);
+        }
+
+        SRBAccount account = new SRBAccount(
+                ConfigurationManager.getProperty("srb.host" + suffix),
+                ConfigurationManager.getIntProperty("srb.port" + suffix),
+                ConfigurationManager.getProperty("srb.username" + suffix),
+                ConfigurationManager.getProperty("srb.password" + suffix),
+                ConfigurationManager.getProperty("srb.homedirectory" + suffix),
+                ConfigurationManager.getProperty("srb.mdasdomainname" + suffix),
+                ConfigurationManager.getProperty("srb.defaultstorageresource" + suffix),
+                ConfigurationManager.getProperty("srb.mcatzone" + suffix));
+        SRBFileSystem srbFileSystem = null;
+        try
+        {
+            srbFileSystem = new SRBFileSystem(account);
+        }
+        catch (IOException e)
+        {
+            log.error("Problem getting SRBFileSystem for assetstore " + storeNumber);
+        }
+        if (srbFileSystem == null)
+        {
+            log.error("SRB FileSystem is null for assetstore " + storeNumber);
+        }
+        String sSRBAssetstore = ConfigurationManager.getProperty("srb.parentdir" + suffix);
+        if (sSRBAssetstore == null)
+        {
+            log.error("srb.parentdir is undefined for assetstore " + storeNumber);
+        }
+        assetstore = new SRBFile(srbFileSystem, sSRBAssetstore);
+    }
+
+    public void put(TableRow bitstream, InputStream in) throws IOException
+    {
+        // Where on the file system will this new bitstream go?
+        GeneralFile file = getFile(bitstream);
+
+        // Make the parent dirs if necessary
+        GeneralFile parent = file.getParentFile();
+
+        if (!parent.exists())
+        {
+            parent.mkdirs();
+        }
+
+        // A local file is written under a temporary name and renamed into
+        // place, so that it is never seen half written
+        GeneralFile target = file;
+        if (file instanceof LocalFile)
+        {
+            file = new LocalFile(file.getPath() + TEMP_SUFFIX);
+        }
+
+        //Create the corresponding file and open it
+        file.createNewFile();
+
+        OutputStream fos = new BufferedOutputStream(FileFactory.newFileOutputStream(file), BUFFER_SIZE);
+
+        // Read through a digest input stream that will work out the MD5
+        DigestInputStream dis = null;
+
+        try
+        {
+            dis = new DigestInputStream(in, MessageDigest.getInstance("MD5"));
+        }
+        // Should never happen
+        catch (NoSuchAlgorithmException nsae)
+        {
+            log.warn("Caught NoSuchAlgorithmException", nsae);
+        }
+
+        // count the bytes, rather than ask a remote store for the length
+        long size = 0;
+        boolean written = false;
+        try
+        {
+            InputStream source = dis != null ? dis : in;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = source.read(buffer)) != -1)
+            {
+                fos.write(buffer, 0, count);
+                size += count;
+            }
+            fos.close();
+            if (target != file)
+            {
+                Files.move(Paths.get(file.getPath()), Paths.get(target.getPath()),
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            written = true;
+        }
+        finally
+        {
+            if (!written)
+            {
+                fos.close();
+                if (target != file)
+                {
+                    file.delete();
+                }
+            }
+        }
+        file = target;
+
+        bitstream.setColumn("size_bytes", size);
+
+        if (dis != null)
+        {
+            bitstream.setColumn("checksum", Utils.toHex(dis.getMessageDigest()
+                    .digest()));
+            bitstream.setColumn("checksum_algorithm", "MD5");
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Stored bitstream " + bitstream.getIntColumn("bitstream_id")
+                    + " in file " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Register a bitstream already in this store: compute its checksum and
+     * size.
+     *
+     * @param bitstream
+     *            the row of the bitstream, whose <code>internal_id</code>
+     *            marks it as registered
+     * @param bitstreamPath
+     *            the path of the file, relative to the store
+     * @throws IOException
+     *             if the file is not there
+     */
+    void register(TableRow bitstream, String bitstreamPath) throws IOException
+    {
+        // get a reference to the file
+        GeneralFile file = getFile(bitstream);
+
+        // read through a DigestInputStream that will work out the MD5
+        //
+        // DSpace refers to checksum, writes it in METS, and uses it as an
+        // AIP filename (!), but never seems to validate with it. Furthermore,
+        // DSpace appears to hardcode the algorithm to MD5 in some places--see
+        // METSExport.java.
+        //
+        // To remain compatible with DSpace we calculate an MD5 checksum on
+        // LOCAL registered files. But for REMOTE (e.g. SRB) files we
+        // calculate an MD5 on just the fileNAME. The reasoning is that in the
+        // case of a remote file, calculating an MD5 on the file itself will
+        // generate network traffic to read the file's bytes. In this case it
+        // would be better have a proxy process calculate MD5 and store it as
+        // an SRB metadata attribute so it can be retrieved simply from SRB.
+        //
+        // TODO set this up as a proxy server process so no net activity
+
+        // FIXME this is a first class HACK! for the reasons described above
+        if (file instanceof LocalFile)
+        {
+            // get MD5 on the file for local file
+            DigestInputStream dis = null;
+            try
+            {
+                dis = new DigestInputStream(FileFactory.newFileInputStream(file),
+                        MessageDigest.getInstance("MD5"));
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                log.warn("Caught NoSuchAlgorithmException", e);
+                throw new IOException("Invalid checksum algorithm", e);
+            }
+            catch (IOException e)
+            {
+                log.error("File: " + file.getAbsolutePath()
+                        + " to be registered cannot be opened - is it "
+                        + "really there?");
+                throw e;
+            }
+            final int BUFFER_SIZE = 1024 * 4;
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (true)
+            {
+                final int count = dis.read(buffer, 0, BUFFER_SIZE);
+                if (count == -1)
+                {
+                    break;
+                }
+            }
+            bitstream.setColumn("checksum", Utils.toHex(dis.getMessageDigest()
+                    .digest()));
+            dis.close();
+        }
+        else if (file instanceof SRBFile)
+        {
+            if (!file.exists())
+            {
+                log.error("File: " + file.getAbsolutePath()
+                        + " is not in SRB MCAT");
+                throw new IOException("File is not in SRB MCAT");
+            }
+
+            // get MD5 on just the filename (!) for SRB file
+            int iLastSlash = bitstreamPath.lastIndexOf('/');
+            String sFilename = bitstreamPath.substring(iLastSlash + 1);
+            MessageDigest md = null;
+            try
+            {
+                md = MessageDigest.getInstance("MD5");
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                log.error("Caught NoSuchAlgorithmException", e);
+                throw new IOException("Invalid checksum algorithm", e);
+            }
+            bitstream.setColumn("checksum",
+                    Utils.toHex(md.digest(sFilename.getBytes())));
+        }
+        else
+        {
+            throw new IOException("Unrecognized file type - "
+                    + "not local, not SRB");
+        }
+
+        bitstream.setColumn("checksum_algorithm", "MD5");
+        bitstream.setColumn("size_bytes", file.length());
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Registered bitstream " + bitstream.getIntColumn("bitstream_id")
+                    + " in file " + file.getAbsolutePath());
+        }
+    }
+
+    public InputStream get(TableRow bitstream) throws IOException
+    {
+        return FileFactory.newFileInputStream(getFile(bitstream));
+    }
+
+    public InputStream getRange(TableRow bitstream, long offset, long length) throws IOException
+    {
+        GeneralFile file = getFile(bitstream);
+        InputStream in;
+        if (file instanceof LocalFile)
+        {
+            FileInputStream fis = new FileInputStream(file.getPath());
+            fis.getChannel().position(offset);
+            in = fis;
+        }
+        else
+        {
+            in = FileFactory.newFileInputStream(file);
+            skip(in, offset);
+        }
+        return new BoundedInputStream(in, length);
+    }
+
+    /** Skip the start of a stream, or close it and fail */
+    static void skip(InputStream in, long offset) throws IOException
+    {
+        long skipped = 0;
+        while (skipped < offset)
+        {
+            long count = in.skip(offset - skipped);
+            if (count <= 0)
+            {
+                in.close();
+                throw new IOException("Offset " + offset + " is beyond the end of the bitstream");
+            }
+            skipped += count;
+        }
+    }
+
+    public Map<String, Object> about(TableRow bitstream) throws IOException
+    {
+        GeneralFile file = getFile(bitstream);
+        Map<String, Object> about = new HashMap<String, Object>();
+        boolean exists = file != null && file.exists();
+        about.put(EXISTS, exists);
+        if (exists)
+        {
+            about.put(SIZE, file.length());
+            about.put(MODIFIED, file.lastModified());
+            if (file instanceof LocalFile)
+            {
+                about.put(FILE, new File(file.getPath()));
+            }
+        }
+        return about;
+    }
+
+    public boolean remove(TableRow bitstream) throws IOException
+    {
+        // do not delete registered bitstreams
+        if (BitstreamStorageManager.isRegisteredBitstream(bitstream.getStringColumn("internal_id")))
+        {
+            return false;
+        }
+
+        GeneralFile file = getFile(bitstream);
+        boolean success = file.delete();
+
+        // if the file was deleted then
+        // try deleting the parents
+        if (success)
+        {
+            deleteParents(file);
+        }
+        return success;
+    }
+
+    ////////////////////////////////////////
+    // Internal methods
+    ////////////////////////////////////////
+
+    /**
+     * Delete empty parent directories.
+     *
+     * @param file
+     *            The file with parent directories to delete
+     */
+    private static synchronized void deleteParents(GeneralFile file)
+    {
+        if (file == null )
+        {
+            return;
+        }
+
+        GeneralFile tmp = file;
+
+        for (int i = 0; i < directoryLevels; i++)
+        {
+            GeneralFile directory = tmp.getParentFile();
+            GeneralFile[] files = directory.listFiles();
+
+            // Only delete empty directories
+            if (files.length != 0)
+            {
+                break;
+            }
+
+            directory.delete();
+            tmp = directory;
+        }
+    }
+
+    /**
+     * Return the file corresponding to a bitstream. It's safe to pass in
+     * <code>null</code>.
+     *
+     * @param bitstream
+     *            the database table row for the bitstream. Can be
+     *            <code>null</code>
+     *
+     * @return The corresponding file in the file system, or <code>null</code>
+     *
+     * @exception IOException
+     *                If a problem occurs while determining the file
+     */
+    private GeneralFile getFile(TableRow bitstream) throws IOException
+    {
+        // Check that bitstream is not null
+        if (bitstream == null)
+        {
+            return null;
+        }
+
+        // turn the internal_id into a file path relative to the assetstore
+        // directory
+        String sInternalId = bitstream.getStringColumn("internal_id");
+
+        // there are 4 cases:
+        // -conventional bitstream, conventional storage
+        // -conventional bitstream, srb storage
+        // -registered bitstream, conventional storage
+        // -registered bitstream, srb storage
+        // conventional bitstream - dspace ingested, dspace random name/path
+        // registered bitstream - registered to dspace, any name/path
+        String sIntermediatePath = null;
+        if (BitstreamStorageManager.isRegisteredBitstream(sInternalId))
+        {
+            sInternalId = sInternalId.substring(BitstreamStorageManager.REGISTERED_FLAG.length());
+            sIntermediatePath = "";
+        }
+        else
+        {
+            // Sanity Check: If the internal ID contains a
+            // pathname separator, it's probably an attempt to
+            // make a path traversal attack, so ignore the path
+            // prefix.  The internal-ID is supposed to be just a
+            // filename, so this will not affect normal operation.
+            if (sInternalId.indexOf(File.separator) != -1)
+            {
+                sInternalId = sInternalId.substring(sInternalId.lastIndexOf(File.separator) + 1);
+            }
+
+            sIntermediatePath = getIntermediatePath(sInternalId);
+        }
+
+        StringBuffer bufFilename = new StringBuffer();
+        if (assetstore instanceof LocalFile)
+        {
+            bufFilename.append(assetstore.getCanonicalPath());
+            bufFilename.append(File.separator);
+            bufFilename.append(sIntermediatePath);
+            bufFilename.append(sInternalId);
+            if (log.isDebugEnabled())
+            {
+                log.debug("Local filename for " + sInternalId + " is "
+                        + bufFilename.toString());
+            }
+            return new LocalFile(bufFilename.toString());
+        }
+        if (assetstore instanceof SRBFile)
+        {
+            bufFilename.append(sIntermediatePath);
+            bufFilename.append(sInternalId);
+            if (log.isDebugEnabled())
+            {
+                log.debug("SRB filename for " + sInternalId + " is "
+                        + ((SRBFile) assetstore).toString()
+                        + bufFilename.toString());
+            }
+            return new SRBFile((SRBFile) assetstore, bufFilename.toString());
+        }
+        return null;
+    }
+
+    /**
+     * Return the intermediate path derived from the internal_id. This method
+     * splits the id into groups which become subdirectories.
+     *
+     * @param iInternalId
+     *            The internal_id
+     * @return The path based on the id without leading or trailing separators
+     */
+    static String getIntermediatePath(String iInternalId)
+    {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < directoryLevels; i++)
+        {
+            int digits = i * digitsPerLevel;
+            if (i > 0)
+            {
+                buf.append(File.separator);
+            }
+            buf.append(iInternalId.substring(digits, digits
+                            + digitsPerLevel));
+        }
+        buf.append(File.separator);
+        return buf.toString();
+    }
+}
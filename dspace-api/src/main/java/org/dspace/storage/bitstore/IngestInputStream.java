@@ -0,0 +1,215 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Utils;
+
+/**
+ * Watches the bits of a new bitstream go by on their way into the asset
+ * store, so that nothing has to read them again afterwards: it counts them,
+ * computes the digests listed in <code>assetstore.ingest.digests</code>
+ * (besides the MD5 the asset store computes) and keeps the first bytes, from
+ * which the format can be recognised by its magic number.
+ * <P>
+ * Not thread safe, like the stream it wraps.
+ *
+ * @see org.dspace.content.FormatIdentifier#sniffFormat
+ */
+public class IngestInputStream extends FilterInputStream
+{
+    /** log4j log */
+    private static Logger log = Logger.getLogger(IngestInputStream.class);
+
+    /** Bytes kept for format recognition */
+    public static final int HEADER_SIZE = 512;
+
+    /** Additional digest algorithms, from the configuration */
+    private static final String[] configuredAlgorithms;
+
+    static
+    {
+        String digests = ConfigurationManager.getProperty("assetstore.ingest.digests");
+        configuredAlgorithms = (digests == null || digests.trim().length() == 0)
+                ? new String[0] : digests.trim().split("\\s*,\\s*");
+    }
+
+    private final String[] algorithms;
+
+    private final MessageDigest[] digests;
+
+    private final byte[] header;
+
+    private int headerLength = 0;
+
+    private long size = 0;
+
+    /**
+     * Watch a stream, with the configured digests.
+     *
+     * @param in
+     *            the bits of the new bitstream
+     */
+    public IngestInputStream(InputStream in)
+    {
+        this(in, configuredAlgorithms, HEADER_SIZE);
+    }
+
+    /**
+     * Watch a stream.
+     *
+     * @param in
+     *            the bits of the new bitstream
+     * @param algorithms
+     *            names of the digests to compute; unknown ones are logged and
+     *            ignored
+     * @param headerSize
+     *            number of bytes to keep
+     */
+    public IngestInputStream(InputStream in, String[] algorithms, int headerSize)
+    {
+        super(in);
+        String[] names = new String[algorithms.length];
+        MessageDigest[] found = new MessageDigest[algorithms.length];
+        int count = 0;
+        for (String algorithm : algorithms)
+        {
+            try
+            {
+                found[count] = MessageDigest.getInstance(algorithm);
+                names[count] = algorithm;
+                count++;
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                log.warn("Unknown digest algorithm in assetstore.ingest.digests: " + algorithm);
+            }
+        }
+        this.algorithms = Arrays.copyOf(names, count);
+        this.digests = Arrays.copyOf(found, count);
+        this.header = new byte[headerSize];
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int b = in.read();
+        if (b != -1)
+        {
+            byte[] one = { (byte) b };
+            seen(one, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        int count = in.read(b, off, len);
+        if (count > 0)
+        {
+            seen(b, off, count);
+        }
+        return count;
+    }
+
+    /**
+     * Skipped bytes are read, so that they are digested too.
+     */
+    @Override
+    public long skip(long n) throws IOException
+    {
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n)
+        {
+            int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (count < 0)
+            {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit)
+    {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException
+    {
+        throw new IOException("mark/reset not supported");
+    }
+
+    private void seen(byte[] b, int off, int len)
+    {
+        for (MessageDigest digest : digests)
+        {
+            digest.update(b, off, len);
+        }
+        if (headerLength < header.length)
+        {
+            int count = Math.min(len, header.length - headerLength);
+            System.arraycopy(b, off, header, headerLength, count);
+            headerLength += count;
+        }
+        size += len;
+    }
+
+    /**
+     * @return the number of bytes read so far
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return the first bytes read, up to the header size
+     */
+    public byte[] getHeader()
+    {
+        return Arrays.copyOf(header, headerLength);
+    }
+
+    /**
+     * Finish the digests. Call it once, after the stream has been read to the
+     * end.
+     *
+     * @return the hex digest of the bytes read, by algorithm name, in the
+     *         configured order
+     */
+    public Map<String, String> getChecksums()
+    {
+        Map<String, String> checksums = new LinkedHashMap<String, String>();
+        for (int i = 0; i < digests.length; i++)
+        {
+            checksums.put(algorithms[i], Utils.toHex(digests[i].digest()));
+        }
+        return checksums;
+    }
+}
@@ -7,7 +7,9 @@
  */
 package org.dspace.storage.rdbms;
 
+import java.io.Serializable;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -19,10 +21,26 @@ import java.util.Map;
  * @author Peter Breton
  * @version $Revision$
  */
-public class TableRow
+public class TableRow implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     /** Marker object to indicate NULLs. */
-    private static final Object NULL_OBJECT = new Object();
+    private static final Object NULL_OBJECT = new NullValue();
+
+    /**
+     * Type of the NULL marker, which stays a singleton when a row is
+     * serialized, e.g. by a cache.
+     */
+    private static final class NullValue implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private Object readResolve()
+        {
+            return NULL_OBJECT;
+        }
+    }
 
     /** The name of the database table containing this row */
     private String table;
@@ -593,6 +611,31 @@ public class TableRow
     // Utility methods
     ////////////////////////////////////////
 
+    /**
+     * Return an independent copy of this row: same table, columns, values and
+     * changed flags. Changes made to the copy are not visible in this row and
+     * vice versa.
+     *
+     * @return a copy of this row
+     */
+    public TableRow copy()
+    {
+        TableRow copy = new TableRow(table, new ArrayList<String>(data.keySet()));
+
+        for (Map.Entry<String, Object> entry : data.entrySet())
+        {
+            Object value = entry.getValue();
+            if (value instanceof java.util.Date)
+            {
+                value = ((java.util.Date) value).clone();
+            }
+            copy.data.put(entry.getKey(), value);
+        }
+        copy.changed.putAll(changed);
+
+        return copy;
+    }
+
     /**
      * Return a String representation of this object.
      * 
@@ -0,0 +1,154 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.itemexport;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the ZipItemExporter class
+ */
+public class ZipItemExporterTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ZipItemExporterTest.class);
+
+    /** larger than the bitstreams prefetched by default */
+    private static final byte[] LARGE = new byte[2 * 1024 * 1024];
+
+    private List<Integer> items;
+
+    private File target;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            Collection collection = Community.create(null, context).createCollection();
+            items = new ArrayList<Integer>();
+
+            Item small = WorkspaceItem.create(context, collection, false).getItem();
+            small.addMetadata("dc", "title", null, null, "Small");
+            small.update();
+            Bitstream bs = small.createBundle("ORIGINAL").createBitstream(
+                    new ByteArrayInputStream("small".getBytes("UTF-8")));
+            bs.setName("small.txt");
+            bs.update();
+            items.add(small.getID());
+
+            Arrays.fill(LARGE, (byte) 'x');
+            Item large = WorkspaceItem.create(context, collection, false).getItem();
+            bs = large.createBundle("ORIGINAL").createBitstream(new ByteArrayInputStream(LARGE));
+            bs.setName("large.bin");
+            bs.update();
+            items.add(large.getID());
+            context.commit();
+
+            target = File.createTempFile("export", ".zip");
+        }
+        catch (IOException ex)
+        {
+            log.error("IO Error in init", ex);
+            fail("IO Error in init: " + ex.getMessage());
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in init", ex);
+            fail("SQL Error in init: " + ex.getMessage());
+        }
+        catch (AuthorizeException ex)
+        {
+            log.error("Authorization Error in init", ex);
+            fail("Authorization Error in init: " + ex.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        context.restoreAuthSystemState();
+        if (target != null && !target.delete())
+        {
+            log.warn("Unable to delete " + target);
+        }
+        super.destroy();
+    }
+
+    /**
+     * Test of export method, of class ZipItemExporter.
+     */
+    @Test
+    public void testExport() throws Exception
+    {
+        ItemExportProgress progress = new ItemExportProgress(target.getName(), 1, items.size());
+        ZipItemExporter exporter = new ZipItemExporter(context, target.getPath(), true, progress);
+        exporter.export(items, "collection_1/", 1);
+        List<String> parts = exporter.close();
+        assertThat("testExport 0", parts, equalTo(Arrays.asList(target.getPath())));
+        assertThat("testExport 1", progress.getExportedItems(), equalTo(2));
+        // all but the zip's central directory
+        assertTrue("testExport 2", progress.getBytesWritten() > 0 && progress.getBytesWritten() < target.length());
+
+        ZipFile zip = new ZipFile(target);
+        try
+        {
+            String metadata = IOUtils.toString(zip.getInputStream(zip.getEntry("collection_1/1/dublin_core.xml")), "UTF-8");
+            assertTrue("testExport 3", metadata.contains(">Small</dcvalue>"));
+            String contents = IOUtils.toString(zip.getInputStream(zip.getEntry("collection_1/1/contents")));
+            assertThat("testExport 4", contents.trim(), equalTo("small.txt\tbundle:ORIGINAL"));
+            assertThat("testExport 5", IOUtils.toString(zip.getInputStream(zip.getEntry("collection_1/1/small.txt")), "UTF-8"),
+                    equalTo("small"));
+            assertThat("testExport 6", IOUtils.toByteArray(zip.getInputStream(zip.getEntry("collection_1/2/large.bin"))),
+                    equalTo(LARGE));
+            assertThat("testExport 7", zip.getEntry("collection_1/1/handle"), nullValue());
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    /**
+     * Test of getPartName method, of class ZipItemExporter.
+     */
+    @Test
+    public void testGetPartName()
+    {
+        String dir = "exports" + File.separator;
+        assertThat("testGetPartName 0", ZipItemExporter.getPartName(dir + "item_export_1_42.zip", 1),
+                equalTo(dir + "item_export_1_42.zip"));
+        assertThat("testGetPartName 1", ZipItemExporter.getPartName(dir + "item_export_1_42.zip", 2),
+                equalTo(dir + "item_export_1_part2_42.zip"));
+        assertThat("testGetPartName 2", ZipItemExporter.getPartName("export.zip", 3),
+                equalTo("export_part3.zip"));
+    }
+}
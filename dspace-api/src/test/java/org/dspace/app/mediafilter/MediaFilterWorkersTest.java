@@ -0,0 +1,272 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.mediafilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Bitstream;
+import org.dspace.content.BitstreamFormat;
+import org.dspace.content.Bundle;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the MediaFilterWorkers class, with the checkpoint of the
+ * MediaFilterManager
+ */
+public class MediaFilterWorkersTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(MediaFilterWorkersTest.class);
+
+    /** Upper cases text, slowly or not at all if it says so */
+    public static class UpperCaseFilter extends MediaFilter implements SelfRegisterInputFormats
+    {
+        public String getFilteredName(String sourceName)
+        {
+            return sourceName + ".upper";
+        }
+
+        public String getBundleName()
+        {
+            return "TEXT";
+        }
+
+        public String getFormatString()
+        {
+            return "Text";
+        }
+
+        public String getDescription()
+        {
+            return "Upper case text";
+        }
+
+        public InputStream getDestinationStream(InputStream source) throws Exception
+        {
+            String text = IOUtils.toString(source, "UTF-8");
+            if (text.startsWith("slow"))
+            {
+                Thread.sleep(10000);
+            }
+            if (text.startsWith("failing"))
+            {
+                throw new IOException("Unable to filter " + text);
+            }
+            return new ByteArrayInputStream(text.toUpperCase().getBytes("UTF-8"));
+        }
+
+        public String[] getInputMIMETypes()
+        {
+            return null;
+        }
+
+        public String[] getInputDescriptions()
+        {
+            return new String[] { "Text" };
+        }
+
+        public String[] getInputExtensions()
+        {
+            return null;
+        }
+    }
+
+    private List<Integer> items;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            Collection collection = Community.create(null, context).createCollection();
+            BitstreamFormat text = BitstreamFormat.findByShortDescription(context, "Text");
+            items = new ArrayList<Integer>();
+            for (String content : new String[] { "first", "slow second", "third", "failing fourth" })
+            {
+                Item item = WorkspaceItem.create(context, collection, false).getItem();
+                Bitstream bs = item.createBundle("ORIGINAL").createBitstream(
+                        new ByteArrayInputStream(content.getBytes("UTF-8")));
+                bs.setName(content.replace(' ', '_') + ".txt");
+                bs.setFormat(text);
+                bs.update();
+                items.add(item.getID());
+            }
+            context.commit();
+            MediaFilterManager.isQuiet = true;
+            MediaFilterManager.processed = 0;
+        }
+        catch (IOException ex)
+        {
+            log.error("IO Error in init", ex);
+            fail("IO Error in init: " + ex.getMessage());
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in init", ex);
+            fail("SQL Error in init: " + ex.getMessage());
+        }
+        catch (AuthorizeException ex)
+        {
+            log.error("Authorization Error in init", ex);
+            fail("Authorization Error in init: " + ex.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        context.restoreAuthSystemState();
+        MediaFilterManager.closeCheckpoint();
+        MediaFilterManager.isQuiet = false;
+        items = null;
+        super.destroy();
+    }
+
+    /** @return the content of the rendition of an item, or null */
+    private String rendition(int id) throws Exception
+    {
+        Item item = Item.find(context, id);
+        Bundle[] bundles = item.getBundles("TEXT");
+        if (bundles.length == 0)
+        {
+            return null;
+        }
+        Bitstream[] bitstreams = bundles[0].getBitstreams();
+        assertThat("rendition 0", bitstreams.length, equalTo(1));
+        assertThat("rendition 1", bitstreams[0].getName(), containsString(".upper"));
+        return IOUtils.toString(bitstreams[0].retrieve(), "UTF-8");
+    }
+
+    /**
+     * Test of filtering several items concurrently, of class
+     * MediaFilterWorkers.
+     */
+    @Test
+    public void testFilter() throws Exception
+    {
+        MediaFilterWorkers workers = new MediaFilterWorkers(new FormatFilter[] { new UpperCaseFilter() }, 2, 0L);
+        for (int id : new int[] { items.get(0), items.get(2) })
+        {
+            workers.submit(context, Item.find(context, id));
+        }
+        workers.finish(context);
+
+        assertThat("testFilter 0", rendition(items.get(0)), equalTo("FIRST"));
+        assertThat("testFilter 1", rendition(items.get(2)), equalTo("THIRD"));
+        assertThat("testFilter 2", MediaFilterManager.processed, equalTo(2));
+    }
+
+    /**
+     * Test that a filter taking too long is skipped, of class
+     * MediaFilterWorkers.
+     */
+    @Test
+    public void testTimeout() throws Exception
+    {
+        MediaFilterWorkers workers = new MediaFilterWorkers(new FormatFilter[] { new UpperCaseFilter() }, 2, 1L);
+        long start = System.currentTimeMillis();
+        for (int id : items)
+        {
+            workers.submit(context, Item.find(context, id));
+        }
+        workers.finish(context);
+
+        assertTrue("testTimeout 0", System.currentTimeMillis() - start < 9000);
+        assertThat("testTimeout 1", rendition(items.get(0)), equalTo("FIRST"));
+        assertThat("testTimeout 2", rendition(items.get(1)), nullValue());
+        assertThat("testTimeout 3", rendition(items.get(2)), equalTo("THIRD"));
+    }
+
+    /**
+     * Test that finished bitstreams are skipped by the next run, of class
+     * MediaFilterManager.
+     */
+    @Test
+    public void testCheckpoint() throws Exception
+    {
+        File file = File.createTempFile("mediafilter", ".checkpoint");
+        try
+        {
+            MediaFilterManager.openCheckpoint(file);
+            MediaFilterWorkers workers = new MediaFilterWorkers(new FormatFilter[] { new UpperCaseFilter() }, 1, 0L);
+            workers.submit(context, Item.find(context, items.get(0)));
+            workers.finish(context);
+            MediaFilterManager.closeCheckpoint();
+
+            Bitstream first = Item.find(context, items.get(0)).getBundles("ORIGINAL")[0].getBitstreams()[0];
+            Bitstream third = Item.find(context, items.get(2)).getBundles("ORIGINAL")[0].getBitstreams()[0];
+            assertThat("testCheckpoint 0", FileUtils.readFileToString(file).trim(),
+                    equalTo(String.valueOf(first.getID())));
+
+            MediaFilterManager.openCheckpoint(file);
+            assertThat("testCheckpoint 1", MediaFilterManager.isCheckpointed(first), equalTo(true));
+            assertThat("testCheckpoint 2", MediaFilterManager.isCheckpointed(third), equalTo(false));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Test that bitstreams a filter failed or timed out on are not
+     * checkpointed, of class MediaFilterManager.
+     */
+    @Test
+    public void testCheckpointFailures() throws Exception
+    {
+        File file = File.createTempFile("mediafilter", ".checkpoint");
+        try
+        {
+            MediaFilterManager.openCheckpoint(file);
+            MediaFilterWorkers workers = new MediaFilterWorkers(new FormatFilter[] { new UpperCaseFilter() }, 2, 1L);
+            for (int id : items)
+            {
+                workers.submit(context, Item.find(context, id));
+            }
+            workers.finish(context);
+            MediaFilterManager.closeCheckpoint();
+
+            MediaFilterManager.openCheckpoint(file);
+            Bitstream[] originals = new Bitstream[items.size()];
+            for (int i = 0; i < originals.length; i++)
+            {
+                originals[i] = Item.find(context, items.get(i)).getBundles("ORIGINAL")[0].getBitstreams()[0];
+            }
+            assertThat("testCheckpointFailures 0", MediaFilterManager.isCheckpointed(originals[0]), equalTo(true));
+            assertThat("testCheckpointFailures 1", MediaFilterManager.isCheckpointed(originals[1]), equalTo(false));
+            assertThat("testCheckpointFailures 2", MediaFilterManager.isCheckpointed(originals[2]), equalTo(true));
+            assertThat("testCheckpointFailures 3", MediaFilterManager.isCheckpointed(originals[3]), equalTo(false));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
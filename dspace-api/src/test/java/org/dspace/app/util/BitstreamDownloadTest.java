@@ -0,0 +1,209 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.Utils;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the BitstreamDownload class
+ */
+public class BitstreamDownloadTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(BitstreamDownloadTest.class);
+
+    private Bitstream bs;
+
+    private byte[] content;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            File f = new File(testProps.get("test.bitstream").toString());
+            context.turnOffAuthorisationSystem();
+            Collection collection = Community.create(null, context).createCollection();
+            Item item = WorkspaceItem.create(context, collection, false).getItem();
+            bs = item.createBundle("ORIGINAL").createBitstream(new FileInputStream(f));
+            context.commit();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            InputStream in = new FileInputStream(f);
+            Utils.copy(in, bytes);
+            in.close();
+            content = bytes.toByteArray();
+        }
+        catch (IOException ex)
+        {
+            log.error("IO Error in init", ex);
+            fail("IO Error in init: " + ex.getMessage());
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in init", ex);
+            fail("SQL Error in init: " + ex.getMessage());
+        }
+        catch (AuthorizeException ex)
+        {
+            log.error("Authorization Error in init", ex);
+            fail("Authorization Error in init: " + ex.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        context.restoreAuthSystemState();
+        bs = null;
+        content = null;
+        super.destroy();
+    }
+
+    /**
+     * Test of parseRange method, of class BitstreamDownload.
+     */
+    @Test
+    public void testParseRange()
+    {
+        assertThat("testParseRange 0", BitstreamDownload.parseRange("bytes=0-499", 1000),
+                equalTo(new long[] { 0, 499 }));
+        assertThat("testParseRange 1", BitstreamDownload.parseRange("bytes=500-", 1000),
+                equalTo(new long[] { 500, 999 }));
+        assertThat("testParseRange 2", BitstreamDownload.parseRange("bytes=-100", 1000),
+                equalTo(new long[] { 900, 999 }));
+        assertThat("testParseRange 3", BitstreamDownload.parseRange("bytes=-5000", 1000),
+                equalTo(new long[] { 0, 999 }));
+        assertThat("testParseRange 4", BitstreamDownload.parseRange("bytes=900-5000", 1000),
+                equalTo(new long[] { 900, 999 }));
+        assertTrue("testParseRange 5", BitstreamDownload.parseRange("bytes=1000-", 1000)
+                == BitstreamDownload.UNSATISFIABLE);
+        assertTrue("testParseRange 6", BitstreamDownload.parseRange("bytes=-0", 1000)
+                == BitstreamDownload.UNSATISFIABLE);
+
+        // ignored
+        assertThat("testParseRange 7", BitstreamDownload.parseRange("bytes=5-4", 1000), nullValue());
+        assertThat("testParseRange 8", BitstreamDownload.parseRange("bytes=a-b", 1000), nullValue());
+        assertThat("testParseRange 9", BitstreamDownload.parseRange("items=0-4", 1000), nullValue());
+        assertThat("testParseRange 10", BitstreamDownload.parseRange("bytes=0-4,10-14", 1000), nullValue());
+    }
+
+    /**
+     * Test of evaluate method with conditional headers, of class BitstreamDownload.
+     */
+    @Test
+    public void testConditional()
+    {
+        BitstreamDownload download = new BitstreamDownload(context, bs);
+        String etag = download.getETag();
+        assertThat("testConditional 0", etag, equalTo('"' + bs.getChecksum() + '"'));
+
+        assertThat("testConditional 1", download.evaluate(null, -1, null, null), equalTo(200));
+        assertThat("testConditional 2", download.getContentLength(), equalTo(bs.getSize()));
+        assertThat("testConditional 3", download.evaluate(etag, -1, null, null), equalTo(304));
+        assertThat("testConditional 4", download.evaluate("\"other\", W/" + etag, -1, null, null),
+                equalTo(304));
+        assertThat("testConditional 5", download.evaluate("\"other\"", -1, null, null), equalTo(200));
+
+        // If-Modified-Since is only compared when there is a date
+        long now = System.currentTimeMillis();
+        assertThat("testConditional 6", download.evaluate(null, now, null, null), equalTo(200));
+        download.setLastModified(now - 60000);
+        assertThat("testConditional 7", download.evaluate(null, now, null, null), equalTo(304));
+        assertThat("testConditional 8", download.evaluate(null, now - 120000, null, null), equalTo(200));
+        // If-None-Match takes precedence
+        assertThat("testConditional 9", download.evaluate("\"other\"", now, null, null), equalTo(200));
+    }
+
+    /**
+     * Test of evaluate method with range headers, of class BitstreamDownload.
+     */
+    @Test
+    public void testRange()
+    {
+        BitstreamDownload download = new BitstreamDownload(context, bs);
+        long size = bs.getSize();
+
+        assertThat("testRange 0", download.evaluate(null, -1, null, "bytes=10-19"), equalTo(206));
+        assertThat("testRange 1", download.getContentLength(), equalTo(10L));
+        assertThat("testRange 2", download.getContentRange(), equalTo("bytes 10-19/" + size));
+
+        assertThat("testRange 3", download.evaluate(null, -1, null, "bytes=" + size + "-"), equalTo(416));
+        assertThat("testRange 4", download.getContentRange(), equalTo("bytes */" + size));
+        assertThat("testRange 5", download.hasContent(), equalTo(false));
+
+        // If-Range: the range is only served if the client's copy is current
+        assertThat("testRange 6", download.evaluate(null, -1, download.getETag(), "bytes=10-19"),
+                equalTo(206));
+        assertThat("testRange 7", download.evaluate(null, -1, "\"other\"", "bytes=10-19"), equalTo(200));
+        assertThat("testRange 8", download.getContentLength(), equalTo(size));
+
+        long modified = 1400000000000L;
+        download.setLastModified(modified);
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        assertThat("testRange 9", download.evaluate(null, -1, format.format(new Date(modified)), "bytes=10-19"),
+                equalTo(206));
+        assertThat("testRange 10", download.evaluate(null, -1, format.format(new Date(modified - 1000)),
+                "bytes=10-19"), equalTo(200));
+    }
+
+    /**
+     * Test of write method, of class BitstreamDownload.
+     */
+    @Test
+    public void testWrite() throws IOException, SQLException, AuthorizeException
+    {
+        BitstreamDownload download = new BitstreamDownload(context, bs);
+        int size = content.length;
+
+        download.evaluate(null, -1, null, null);
+        download.open();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        download.write(out);
+        assertThat("testWrite 0", out.toByteArray(), equalTo(content));
+
+        download.evaluate(null, -1, null, "bytes=1000-1999");
+        download.open();
+        out = new ByteArrayOutputStream();
+        download.write(out);
+        assertThat("testWrite 1", out.toByteArray(), equalTo(Arrays.copyOfRange(content, 1000, 2000)));
+
+        download.evaluate(null, -1, null, "bytes=-10");
+        download.open();
+        out = new ByteArrayOutputStream();
+        download.write(out);
+        assertThat("testWrite 2", out.toByteArray(), equalTo(Arrays.copyOfRange(content, size - 10, size)));
+    }
+}
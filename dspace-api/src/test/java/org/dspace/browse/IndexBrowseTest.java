@@ -0,0 +1,489 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import mockit.Mock;
+import mockit.MockUp;
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.Context;
+import org.dspace.sort.SortException;
+import org.dspace.sort.SortOption;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the indexing of items in the database browse tables by
+ * IndexBrowse, and for its DistinctIDCache.
+ */
+public class IndexBrowseTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(IndexBrowseTest.class);
+
+    /** the metadata index of the authors */
+    private BrowseIndex authors;
+
+    private Collection collection;
+
+    private Item item1;
+
+    private Item item2;
+
+    private Item item3;
+
+    /**
+     * The Oracle DAO, for the test database which is H2 in Oracle mode,
+     * without the statements H2 does not take.
+     */
+    static class H2BrowseCreateDAO extends BrowseCreateDAOOracle
+    {
+        private Context context;
+
+        H2BrowseCreateDAO(Context context) throws BrowseException
+        {
+            super(context);
+            this.context = context;
+        }
+
+        @Override
+        public String[] createMapIndices(String disTable, String mapTable, boolean execute)
+            throws BrowseException
+        {
+            // no index on UPPER(value)
+            try
+            {
+                String[] arr = new String[] {
+                    "CREATE INDEX " + disTable + "_svalue_idx ON " + disTable + "(sort_value)",
+                    "CREATE INDEX " + disTable + "_value_idx ON " + disTable + "(value)",
+                    "CREATE INDEX " + mapTable + "_item_id_idx ON " + mapTable + "(item_id)",
+                    "CREATE INDEX " + mapTable + "_dist_idx ON " + mapTable + "(distinct_id)"
+                };
+                if (execute)
+                {
+                    for (String query : arr)
+                    {
+                        DatabaseManager.updateQuery(context, query);
+                    }
+                }
+                return arr;
+            }
+            catch (SQLException e)
+            {
+                throw new BrowseException(e);
+            }
+        }
+
+        @Override
+        public String dropView(String view, boolean execute) throws BrowseException
+        {
+            try
+            {
+                String dropView = "DROP VIEW IF EXISTS " + view;
+                if (execute)
+                {
+                    DatabaseManager.updateQuery(context, dropView);
+                }
+                return dropView + ";";
+            }
+            catch (SQLException e)
+            {
+                throw new BrowseException(e);
+            }
+        }
+    }
+
+    /**
+     * The database browse DAOs, whichever the configured ones are
+     */
+    public static class MockBrowseDAOFactory extends MockUp<BrowseDAOFactory>
+    {
+        @Mock
+        public static BrowseCreateDAO getCreateInstance(Context context) throws BrowseException
+        {
+            return new H2BrowseCreateDAO(context);
+        }
+    }
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            new MockBrowseDAOFactory();
+            authors = BrowseIndex.getBrowseIndex("author");
+
+            context.turnOffAuthorisationSystem();
+            Community community = Community.create(null, context);
+            collection = community.createCollection();
+            item1 = install("First", "Smith, John", "Jones, Mary");
+            item2 = install("Second", "Smith, John");
+            item3 = install("Third", "Brown, Ann");
+            context.commit();
+
+            rebuild(1, 100);
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        context.restoreAuthSystemState();
+        authors = null;
+        collection = null;
+        item1 = null;
+        item2 = null;
+        item3 = null;
+        super.destroy();
+    }
+
+    private Item install(String title, String... names) throws Exception
+    {
+        WorkspaceItem wsi = WorkspaceItem.create(context, collection, false);
+        Item item = wsi.getItem();
+        item.addMetadata("dc", "title", null, null, title);
+        item.addMetadata("dc", "contributor", "author", null, names);
+        item.update();
+        return InstallItem.installItem(context, wsi);
+    }
+
+    /**
+     * Rebuild all the browse tables, the way the command line tool does.
+     */
+    private void rebuild(int threads, int batchSize) throws SQLException, BrowseException
+    {
+        Context indexContext = new Context();
+        try
+        {
+            indexContext.turnOffAuthorisationSystem();
+            IndexBrowse indexer = new IndexBrowse(indexContext);
+            indexer.setRebuild(true);
+            indexer.setExecute(true);
+            indexer.setThreads(threads);
+            indexer.setBatchSize(batchSize);
+            indexer.initBrowse();
+        }
+        finally
+        {
+            if (indexContext.isValid())
+            {
+                indexContext.abort();
+            }
+        }
+    }
+
+    /**
+     * @return the authors an item is mapped to
+     */
+    private Set<String> authorsOf(Item item) throws SQLException
+    {
+        Set<String> values = new TreeSet<String>();
+        TableRowIterator rows = DatabaseManager.query(context,
+                "SELECT d.value FROM " + authors.getDistinctTableName() + " d, " + authors.getMapTableName()
+                + " m WHERE d.id = m.distinct_id AND m.item_id = ?", item.getID());
+        try
+        {
+            while (rows.hasNext())
+            {
+                values.add(rows.next().getStringColumn("value"));
+            }
+        }
+        finally
+        {
+            rows.close();
+        }
+        return values;
+    }
+
+    /**
+     * @return the number of rows of the distinct table with a value
+     */
+    private int distinctRows(String value) throws SQLException
+    {
+        TableRow row = DatabaseManager.querySingle(context,
+                "SELECT COUNT(*) AS num FROM " + authors.getDistinctTableName() + " WHERE value = ?", value);
+        return (int) row.getLongColumn("num");
+    }
+
+    /**
+     * @return the sort title of an item in the item index, or null if it is
+     *         not in it
+     */
+    private String sortTitleOf(Item item) throws SQLException, SortException
+    {
+        String column = null;
+        for (SortOption so : SortOption.getSortOptions())
+        {
+            if ("title".equals(so.getName()))
+            {
+                column = "sort_" + so.getNumber();
+            }
+        }
+        TableRow row = DatabaseManager.querySingle(context,
+                "SELECT " + column + " AS title FROM " + BrowseIndex.getItemBrowseIndex().getTableName()
+                + " WHERE item_id = ?", item.getID());
+        return row == null ? null : row.getStringColumn("title");
+    }
+
+    /**
+     * @return the item id and author of every mapping of the test items
+     */
+    private Map<Integer, Set<String>> snapshot() throws SQLException, SortException
+    {
+        Map<Integer, Set<String>> mappings = new HashMap<Integer, Set<String>>();
+        for (Item item : Arrays.asList(item1, item2, item3))
+        {
+            Set<String> values = authorsOf(item);
+            values.add("title " + sortTitleOf(item));
+            mappings.put(item.getID(), values);
+        }
+        return mappings;
+    }
+
+    /**
+     * Test of initBrowse method, of class IndexBrowse.
+     */
+    @Test
+    public void testInitBrowse() throws Exception
+    {
+        assertThat("testInitBrowse 0", authorsOf(item1), equalTo((Set<String>) new TreeSet<String>(
+                Arrays.asList("Jones, Mary", "Smith, John"))));
+        assertThat("testInitBrowse 1", authorsOf(item2), equalTo((Set<String>) new TreeSet<String>(
+                Arrays.asList("Smith, John"))));
+        assertThat("testInitBrowse 2", authorsOf(item3), equalTo((Set<String>) new TreeSet<String>(
+                Arrays.asList("Brown, Ann"))));
+        // a value shared by two items is stored once
+        assertThat("testInitBrowse 3", distinctRows("Smith, John"), equalTo(1));
+        assertThat("testInitBrowse 4", sortTitleOf(item1), equalTo("first"));
+    }
+
+    /**
+     * Test of indexItems method, of class IndexBrowse.
+     */
+    @Test
+    public void testIndexItems() throws Exception
+    {
+        item1.clearMetadata("dc", "contributor", "author", Item.ANY);
+        item1.addMetadata("dc", "contributor", "author", null, "Brown, Ann");
+        item1.update();
+        item2.clearMetadata("dc", "title", null, Item.ANY);
+        item2.addMetadata("dc", "title", null, null, "Renamed");
+        item2.addMetadata("dc", "contributor", "author", null, "White, Bob");
+        item2.update();
+
+        IndexBrowse indexer = new IndexBrowse(context);
+        indexer.indexItems(Arrays.asList(item1, item2));
+
+        assertThat("testIndexItems 0", authorsOf(item1), equalTo((Set<String>) new TreeSet<String>(
+                Arrays.asList("Brown, Ann"))));
+        assertThat("testIndexItems 1", authorsOf(item2), equalTo((Set<String>) new TreeSet<String>(
+                Arrays.asList("Smith, John", "White, Bob"))));
+        assertThat("testIndexItems 2", authorsOf(item3), equalTo((Set<String>) new TreeSet<String>(
+                Arrays.asList("Brown, Ann"))));
+        assertThat("testIndexItems 3", distinctRows("Brown, Ann"), equalTo(1));
+        assertThat("testIndexItems 4", sortTitleOf(item1), equalTo("first"));
+        assertThat("testIndexItems 5", sortTitleOf(item2), equalTo("renamed"));
+
+        // indexing again changes nothing
+        Map<Integer, Set<String>> before = snapshot();
+        indexer.indexItems(Arrays.asList(item1, item2, item3));
+        assertThat("testIndexItems 6", snapshot(), equalTo(before));
+    }
+
+    /**
+     * Test that the values no item is mapped to any more are pruned by
+     * indexItems and itemRemoved, of class IndexBrowse.
+     */
+    @Test
+    public void testPrune() throws Exception
+    {
+        IndexBrowse indexer = new IndexBrowse(context);
+        indexer.indexItems(Arrays.asList(item1));
+
+        // Jones is only an author of item1
+        item1.clearMetadata("dc", "contributor", "author", Item.ANY);
+        item1.addMetadata("dc", "contributor", "author", null, "Smith, John");
+        item1.update();
+        indexer.indexItems(Arrays.asList(item1));
+        assertThat("testPrune 0", distinctRows("Jones, Mary"), equalTo(0));
+        assertThat("testPrune 1", distinctRows("Smith, John"), equalTo(1));
+
+        // a value pruned and used again is inserted again, not taken from the cache
+        item2.addMetadata("dc", "contributor", "author", null, "Jones, Mary");
+        item2.update();
+        indexer.indexItems(Arrays.asList(item2));
+        assertThat("testPrune 2", distinctRows("Jones, Mary"), equalTo(1));
+        assertThat("testPrune 3", authorsOf(item2), equalTo((Set<String>) new TreeSet<String>(
+                Arrays.asList("Jones, Mary", "Smith, John"))));
+
+        // a withdrawn item is not mapped to its values any more
+        item3.withdraw();
+        indexer.indexItems(Arrays.asList(item3));
+        assertThat("testPrune 4", authorsOf(item3).isEmpty(), equalTo(true));
+        assertThat("testPrune 5", distinctRows("Brown, Ann"), equalTo(0));
+        assertThat("testPrune 6", sortTitleOf(item3), nullValue());
+
+        indexer.itemRemoved(item2);
+        assertThat("testPrune 7", authorsOf(item2).isEmpty(), equalTo(true));
+        assertThat("testPrune 8", sortTitleOf(item2), nullValue());
+        assertThat("testPrune 9", authorsOf(item1), equalTo((Set<String>) new TreeSet<String>(
+                Arrays.asList("Smith, John"))));
+    }
+
+    /**
+     * Test that the indexes built with several threads are those built with
+     * one, of class IndexBrowse.
+     */
+    @Test
+    public void testCreateIndexParallel() throws Exception
+    {
+        List<Item> more = new ArrayList<Item>();
+        for (int i = 0; i < 6; i++)
+        {
+            more.add(install("More " + i, "Smith, John", "Author " + (i % 3)));
+        }
+        context.commit();
+
+        rebuild(1, 2);
+        Map<Integer, Set<String>> serial = snapshot();
+        Map<Integer, Set<String>> serialMore = new HashMap<Integer, Set<String>>();
+        for (Item item : more)
+        {
+            serialMore.put(item.getID(), authorsOf(item));
+        }
+
+        rebuild(3, 2);
+        assertThat("testCreateIndexParallel 0", snapshot(), equalTo(serial));
+        for (Item item : more)
+        {
+            assertThat("testCreateIndexParallel 1", authorsOf(item), equalTo(serialMore.get(item.getID())));
+        }
+        // the threads share the values they insert
+        assertThat("testCreateIndexParallel 2", distinctRows("Smith, John"), equalTo(1));
+        assertThat("testCreateIndexParallel 3", distinctRows("Author 0"), equalTo(1));
+    }
+
+    /**
+     * Test of getID and forget methods, of class DistinctIDCache.
+     */
+    @Test
+    public void testDistinctIDCache() throws Exception
+    {
+        BrowseCreateDAO dao = new H2BrowseCreateDAO(context);
+        DistinctIDCache cache = new DistinctIDCache(dao, null);
+        String table = authors.getDistinctTableName();
+
+        int smith = cache.getID(table, "Smith, John", null, "smith, john");
+        assertThat("testDistinctIDCache 0", smith, equalTo(dao.getDistinctID(table, "Smith, John", null, "smith, john")));
+        int white = cache.getID(table, "White, Bob", null, "white, bob");
+        assertThat("testDistinctIDCache 1", distinctRows("White, Bob"), equalTo(1));
+        assertThat("testDistinctIDCache 2", white, not(equalTo(smith)));
+
+        // a value with an authority is another value
+        int authority = cache.getID(table, "Smith, John", "auth-1", "smith, john");
+        assertThat("testDistinctIDCache 3", authority, not(equalTo(smith)));
+
+        // cached values are not looked up again
+        DatabaseManager.updateQuery(context, "DELETE FROM " + table + " WHERE id = ?", white);
+        assertThat("testDistinctIDCache 4", cache.getID(table, "White, Bob", null, "white, bob"), equalTo(white));
+
+        // forgotten ones are
+        cache.forget(table, Arrays.asList(white));
+        int again = cache.getID(table, "White, Bob", null, "white, bob");
+        assertThat("testDistinctIDCache 5", again, not(equalTo(white)));
+        assertThat("testDistinctIDCache 6", distinctRows("White, Bob"), equalTo(1));
+        assertThat("testDistinctIDCache 7", cache.getID(table, "Smith, John", null, "smith, john"), equalTo(smith));
+
+        cache.forget(table, null);
+        DatabaseManager.updateQuery(context, "DELETE FROM " + table + " WHERE id = ?", again);
+        assertThat("testDistinctIDCache 8", cache.getID(table, "White, Bob", null, "white, bob"), not(equalTo(again)));
+    }
+
+    /**
+     * Test of the statements of BrowseCreateBatch, with more rows and ids
+     * than fit in one batch or IN list.
+     */
+    @Test
+    public void testBrowseCreateBatch() throws Exception
+    {
+        BrowseCreateDAO dao = new H2BrowseCreateDAO(context);
+        String table = authors.getDistinctTableName();
+        String map = authors.getMapTableName();
+        int count = BrowseCreateBatch.CHUNK_SIZE * 2 + 1;
+
+        Set<Integer> distinctIDs = new TreeSet<Integer>();
+        for (int i = 0; i < count; i++)
+        {
+            distinctIDs.add(dao.getDistinctID(table, "Value " + i, null, "value " + i));
+        }
+        Map<Integer, Set<Integer>> mappings = new HashMap<Integer, Set<Integer>>();
+        mappings.put(item3.getID(), distinctIDs);
+        dao.insertDistinctMappings(map, mappings);
+        assertThat("testBrowseCreateBatch 0", authorsOf(item3).size(), equalTo(count + 1));
+
+        // the ids of the items, among many others
+        int[] itemIDs = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            itemIDs[i] = -i;
+        }
+        itemIDs[count - 1] = item3.getID();
+        itemIDs[BrowseCreateBatch.CHUNK_SIZE] = item2.getID();
+        List<Integer> removed = dao.deleteMappingsByItemIDs(map, itemIDs);
+        distinctIDs.add(dao.getDistinctID(table, "Brown, Ann", null, "brown, ann"));
+        distinctIDs.add(dao.getDistinctID(table, "Smith, John", null, "smith, john"));
+        assertThat("testBrowseCreateBatch 1", (Set<Integer>) new TreeSet<Integer>(removed), equalTo(distinctIDs));
+        assertThat("testBrowseCreateBatch 2", authorsOf(item3).isEmpty(), equalTo(true));
+        assertThat("testBrowseCreateBatch 3", authorsOf(item2).isEmpty(), equalTo(true));
+        assertThat("testBrowseCreateBatch 4", authorsOf(item1).size(), equalTo(2));
+
+        // rows with a column of no value
+        String itemTable = BrowseIndex.getItemBrowseIndex().getTableName();
+        dao.deleteByItemIDs(itemTable, itemIDs);
+        assertThat("testBrowseCreateBatch 5", sortTitleOf(item3), nullValue());
+        Map<Integer, Map<Integer, String>> sortCols = new HashMap<Integer, Map<Integer, String>>();
+        sortCols.put(item2.getID(), new HashMap<Integer, String>());
+        sortCols.put(item3.getID(), new HashMap<Integer, String>());
+        for (SortOption so : SortOption.getSortOptions())
+        {
+            sortCols.get(item3.getID()).put(so.getNumber(), "value " + so.getName());
+        }
+        dao.insertIndexes(itemTable, sortCols);
+        assertThat("testBrowseCreateBatch 6", sortTitleOf(item3), equalTo("value title"));
+        assertThat("testBrowseCreateBatch 7", DatabaseManager.querySingle(context,
+                "SELECT COUNT(*) AS num FROM " + itemTable + " WHERE item_id = ?", item2.getID())
+                .getLongColumn("num"), equalTo(1L));
+        assertThat("testBrowseCreateBatch 8", sortTitleOf(item2), nullValue());
+    }
+}
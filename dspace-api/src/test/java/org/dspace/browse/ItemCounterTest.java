@@ -0,0 +1,151 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the ItemCounter class, with a database ItemCountDAO
+ */
+public class ItemCounterTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ItemCounterTest.class);
+
+    private ItemCountDAO dao;
+
+    private ItemCounter counter;
+
+    /** top contains sub and col2, sub contains col1 */
+    private Community top;
+
+    private Community sub;
+
+    private Collection col1;
+
+    private Collection col2;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            top = Community.create(null, context);
+            sub = top.createSubcommunity();
+            col1 = sub.createCollection();
+            col2 = top.createCollection();
+            install(col1);
+            install(col1);
+            install(col2);
+            context.commit();
+
+            dao = new ItemCountDAOPostgres();
+            counter = new ItemCounter(context, dao);
+        }
+        catch (ItemCountException ex)
+        {
+            log.error("Item count Error in init", ex);
+            fail("Item count Error in init: " + ex.getMessage());
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in init", ex);
+            fail("SQL Error in init: " + ex.getMessage());
+        }
+        catch (AuthorizeException ex)
+        {
+            log.error("Authorization Error in init", ex);
+            fail("Authorization Error in init: " + ex.getMessage());
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        context.restoreAuthSystemState();
+        dao = null;
+        counter = null;
+        super.destroy();
+    }
+
+    private Item install(Collection collection) throws Exception
+    {
+        WorkspaceItem wsi = WorkspaceItem.create(context, collection, false);
+        return InstallItem.installItem(context, wsi);
+    }
+
+    /**
+     * Test of buildItemCounts method, of class ItemCounter.
+     */
+    @Test
+    public void testBuildItemCounts() throws Exception
+    {
+        counter.buildItemCounts();
+        assertThat("testBuildItemCounts 0", dao.getCount(col1), equalTo(2));
+        assertThat("testBuildItemCounts 1", dao.getCount(col2), equalTo(1));
+        assertThat("testBuildItemCounts 2", dao.getCount(sub), equalTo(2));
+        assertThat("testBuildItemCounts 3", dao.getCount(top), equalTo(3));
+    }
+
+    /**
+     * Test of update method, of class ItemCounter.
+     */
+    @Test
+    public void testUpdate() throws Exception
+    {
+        counter.buildItemCounts();
+
+        // a new item, and one withdrawn
+        install(col1);
+        Item withdrawn = col2.getItems().next();
+        withdrawn.withdraw();
+        Set<Integer> collections = new HashSet<Integer>();
+        collections.add(col1.getID());
+        collections.add(col2.getID());
+        counter.update(collections, Collections.<Integer>emptySet());
+
+        assertThat("testUpdate 0", dao.getCount(col1), equalTo(3));
+        assertThat("testUpdate 1", dao.getCount(col2), equalTo(0));
+        assertThat("testUpdate 2", dao.getCount(sub), equalTo(3));
+        assertThat("testUpdate 3", dao.getCount(top), equalTo(3));
+
+        // a collection moved up from the sub-community
+        top.addCollection(col1);
+        sub.removeCollection(col1);
+        Set<Integer> communities = new HashSet<Integer>();
+        communities.add(top.getID());
+        communities.add(sub.getID());
+        counter.update(Collections.<Integer>emptySet(), communities);
+        assertThat("testUpdate 4", dao.getCount(sub), equalTo(0));
+        assertThat("testUpdate 5", dao.getCount(top), equalTo(3));
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.checker;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Bundle;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.Utils;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the CheckerCommand class, with the SimpleDispatcher,
+ * BitstreamDigester and IOThrottle it uses
+ */
+public class CheckerCommandTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(CheckerCommandTest.class);
+
+    /** Collects the results instead of logging them */
+    private static class RecordingCollector implements ChecksumResultsCollector
+    {
+        final List<BitstreamInfo> results = Collections.synchronizedList(new ArrayList<BitstreamInfo>());
+
+        public void collect(BitstreamInfo info)
+        {
+            results.add(info);
+        }
+    }
+
+    private List<Integer> ids;
+
+    private List<byte[]> contents;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            Collection collection = Community.create(null, context).createCollection();
+            Bundle bundle = WorkspaceItem.create(context, collection, false).getItem().createBundle("ORIGINAL");
+            ids = new ArrayList<Integer>();
+            contents = new ArrayList<byte[]>();
+            Random random = new Random(5);
+            for (int i = 0; i < 5; i++)
+            {
+                byte[] content = new byte[10000 * i + 17];
+                random.nextBytes(content);
+                Bitstream bs = bundle.createBitstream(new ByteArrayInputStream(content));
+                ids.add(bs.getID());
+                contents.add(content);
+            }
+            context.commit();
+        }
+        catch (IOException ex)
+        {
+            log.error("IO Error in init", ex);
+            fail("IO Error in init: " + ex.getMessage());
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in init", ex);
+            fail("SQL Error in init: " + ex.getMessage());
+        }
+        catch (AuthorizeException ex)
+        {
+            log.error("Authorization Error in init", ex);
+            fail("Authorization Error in init: " + ex.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        context.restoreAuthSystemState();
+        ids = null;
+        contents = null;
+        super.destroy();
+    }
+
+    private static String hex(String algorithm, byte[] content) throws Exception
+    {
+        return Utils.toHex(MessageDigest.getInstance(algorithm).digest(content));
+    }
+
+    /**
+     * Test checking with several threads and an additional digest, of class
+     * CheckerCommand.
+     */
+    @Test
+    public void testProcess() throws Exception
+    {
+        RecordingCollector collector = new RecordingCollector();
+        CheckerCommand checker = new CheckerCommand();
+        checker.setThreads(3);
+        checker.setBufferSize(4096);
+        checker.setAdditionalAlgorithms(new String[] { "SHA-256" });
+        checker.setReportVerbose(true);
+        checker.setCollector(collector);
+        checker.setProcessStartDate(new Date());
+        checker.setDispatcher(new ListDispatcher(new ArrayList<Integer>(ids)));
+        checker.process();
+
+        assertThat("testProcess 0", collector.results.size(), equalTo(ids.size()));
+        long bytes = 0;
+        for (BitstreamInfo info : collector.results)
+        {
+            byte[] content = contents.get(ids.indexOf(info.getBitstreamId()));
+            bytes += content.length;
+            assertThat("testProcess 1", info.getChecksumCheckResult(),
+                    equalTo(ChecksumCheckResults.CHECKSUM_MATCH));
+            assertThat("testProcess 2", info.getCalculatedChecksum(), equalTo(hex("MD5", content)));
+            assertThat("testProcess 3", info.getAdditionalChecksums().get("SHA-256"),
+                    equalTo(hex("SHA-256", content)));
+        }
+        assertThat("testProcess 4", checker.getBitstreamsChecked(), equalTo((long) ids.size()));
+        assertThat("testProcess 5", checker.getBytesChecked(), equalTo(bytes));
+
+        // the results were written
+        for (int i = 0; i < ids.size(); i++)
+        {
+            TableRow row = DatabaseManager.querySingle(context,
+                    "SELECT current_checksum FROM most_recent_checksum WHERE bitstream_id = ?", ids.get(i));
+            assertThat("testProcess 6", row.getStringColumn("current_checksum"), equalTo(hex("MD5", contents.get(i))));
+            row = DatabaseManager.querySingle(context,
+                    "SELECT COUNT(*) AS checks FROM checksum_history WHERE bitstream_id = ? AND checksum_calculated = ?",
+                    ids.get(i), hex("MD5", contents.get(i)));
+            // the first row is added with the bitstream, the second by the check
+            assertThat("testProcess 7", row.getLongColumn("checks"), equalTo(2L));
+        }
+    }
+
+    /**
+     * Test that a single pass hands out each bitstream once, in batches, of
+     * class SimpleDispatcher.
+     */
+    @Test
+    public void testSimpleDispatcher() throws Exception
+    {
+        BitstreamInfoDAO dao = new BitstreamInfoDAO();
+        dao.updateMissingBitstreams();
+        Thread.sleep(10);
+
+        SimpleDispatcher dispatcher = new SimpleDispatcher(dao, new Date(), false, 2);
+        Set<Integer> seen = new HashSet<Integer>();
+        int id;
+        while ((id = dispatcher.next()) != BitstreamDispatcher.SENTINEL)
+        {
+            assertThat("testSimpleDispatcher 0", seen.add(id), equalTo(true));
+        }
+        assertThat("testSimpleDispatcher 1", seen.containsAll(ids), equalTo(true));
+
+        // looping starts again at the end
+        SimpleDispatcher looping = new SimpleDispatcher(dao, new Date(), true, 2);
+        for (int i = 0; i < 3 * seen.size(); i++)
+        {
+            assertThat("testSimpleDispatcher 2", looping.next(), not(equalTo(BitstreamDispatcher.SENTINEL)));
+        }
+    }
+
+    /**
+     * Test of digesting files and streams, of class BitstreamDigester.
+     */
+    @Test
+    public void testDigester() throws Exception
+    {
+        byte[] content = contents.get(4);
+        File file = File.createTempFile("digester", ".bin");
+        try
+        {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(content);
+            out.close();
+
+            BitstreamDigester digester = new BitstreamDigester(4096, null);
+            MessageDigest[] digests = { MessageDigest.getInstance("MD5"), MessageDigest.getInstance("SHA-256") };
+            assertThat("testDigester 0", digester.digest(file, digests), equalTo((long) content.length));
+            assertThat("testDigester 1", Utils.toHex(digests[0].digest()), equalTo(hex("MD5", content)));
+            assertThat("testDigester 2", Utils.toHex(digests[1].digest()), equalTo(hex("SHA-256", content)));
+
+            assertThat("testDigester 3", digester.digest(new ByteArrayInputStream(content), digests),
+                    equalTo((long) content.length));
+            assertThat("testDigester 4", Utils.toHex(digests[0].digest()), equalTo(hex("MD5", content)));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Test of the rate cap, of class IOThrottle.
+     */
+    @Test
+    public void testThrottle() throws Exception
+    {
+        IOThrottle throttle = new IOThrottle(1000000);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++)
+        {
+            throttle.acquire(50000);
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        // the fifth read waits for the first four
+        assertTrue("testThrottle 0", elapsed >= 190);
+    }
+}
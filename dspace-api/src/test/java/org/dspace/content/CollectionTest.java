@@ -163,6 +163,28 @@ public class CollectionTest extends AbstractDSpaceObjectTest
         assertTrue("testFindAll 2",added);
     }
 
+    /**
+     * Test of findAllAfter method, of class Collection.
+     */
+    @Test
+    public void testFindAllAfter() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        Collection next = Collection.create(context);
+        context.restoreAuthSystemState();
+
+        Collection[] page = Collection.findAllAfter(context, c.getID() - 1, 1);
+        assertThat("testFindAllAfter 0", page.length, equalTo(1));
+        assertThat("testFindAllAfter 1", page[0], equalTo(c));
+
+        page = Collection.findAllAfter(context, c.getID(), -1);
+        assertThat("testFindAllAfter 2", page.length, equalTo(1));
+        assertThat("testFindAllAfter 3", page[0], equalTo(next));
+
+        page = Collection.findAllAfter(context, next.getID(), 10);
+        assertThat("testFindAllAfter 4", page.length, equalTo(0));
+    }
+
     /**
      * Test of getItems method, of class Collection.
      */
@@ -177,6 +199,31 @@ public class CollectionTest extends AbstractDSpaceObjectTest
         assertThat("testGetItems 3", items.nextID(), equalTo(-1));
     }
 
+    /**
+     * Test of getItems method with load hints, of class Collection.
+     */
+    @Test
+    public void testGetItemsLoadHints() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        int[] ids = new int[3];
+        for (int i = 0; i < ids.length; i++)
+        {
+            Item it = Item.create(context);
+            it.setArchived(true);
+            it.update();
+            c.addItem(it);
+            ids[i] = it.getID();
+        }
+        context.restoreAuthSystemState();
+
+        ItemIterator items = c.getItems(LoadHints.METADATA).startAfter(ids[0]);
+        assertThat("testGetItemsLoadHints 0", items.next().getID(), equalTo(ids[1]));
+        assertThat("testGetItemsLoadHints 1", items.next().getID(), equalTo(ids[2]));
+        assertFalse("testGetItemsLoadHints 2", items.hasNext());
+        items.close();
+    }
+
     /**
      * Test of getAllItems method, of class Collection.
      */
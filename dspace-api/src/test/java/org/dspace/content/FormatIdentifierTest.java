@@ -7,8 +7,12 @@
  */
 package org.dspace.content;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.File;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.dspace.AbstractUnitTest;
 import org.apache.log4j.Logger;
 import org.junit.*;
@@ -90,4 +94,60 @@ public class FormatIdentifierTest extends AbstractUnitTest
         assertThat("testGuessFormat 4",result.getExtensions(), equalTo(pdf.getExtensions()));
     }
 
-}
\ No newline at end of file
+    /**
+     * Test of identifyFormat method, of class FormatIdentifier.
+     */
+    @Test
+    public void testIdentifyFormat() throws Exception
+    {
+        File f = new File(testProps.get("test.bitstream").toString());
+        BitstreamFormat pdf = BitstreamFormat.findByShortDescription(context, "Adobe PDF");
+
+        // no extension: recognised by its first bytes
+        Bitstream bs = Bitstream.create(context, new FileInputStream(f));
+        bs.setName("file_without_extension.");
+        context.commit();
+        BitstreamFormat result = FormatIdentifier.identifyFormat(context, bs);
+        assertThat("testIdentifyFormat 0", result.getID(), equalTo(pdf.getID()));
+
+        // the extension comes first
+        bs.setName("text.txt");
+        result = FormatIdentifier.identifyFormat(context, bs);
+        assertThat("testIdentifyFormat 1", result.getMIMEType(), equalTo("text/plain"));
+    }
+
+    /**
+     * Test of sniffMIMEType method, of class FormatIdentifier.
+     */
+    @Test
+    public void testSniffMIMEType() throws Exception
+    {
+        assertThat("testSniffMIMEType 0", FormatIdentifier.sniffMIMEType(null), nullValue());
+        assertThat("testSniffMIMEType 1", FormatIdentifier.sniffMIMEType("%PDF-1.4".getBytes("US-ASCII")),
+                equalTo("application/pdf"));
+        assertThat("testSniffMIMEType 2", FormatIdentifier.sniffMIMEType(
+                new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0 }), equalTo("image/png"));
+        assertThat("testSniffMIMEType 3", FormatIdentifier.sniffMIMEType("<?xml version=\"1.0\"?>".getBytes("US-ASCII")),
+                equalTo("text/xml"));
+        assertThat("testSniffMIMEType 4", FormatIdentifier.sniffMIMEType("just text".getBytes("US-ASCII")),
+                nullValue());
+        assertThat("testSniffMIMEType 5", FormatIdentifier.sniffMIMEType(new byte[] { (byte) 0xff, (byte) 0xd8 }),
+                nullValue());
+
+        // an OpenDocument zip names its type in its first, stored entry
+        String type = "application/vnd.oasis.opendocument.text";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        ZipEntry entry = new ZipEntry("mimetype");
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(type.length());
+        CRC32 crc = new CRC32();
+        crc.update(type.getBytes("US-ASCII"));
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(type.getBytes("US-ASCII"));
+        zip.closeEntry();
+        zip.close();
+        assertThat("testSniffMIMEType 6", FormatIdentifier.sniffMIMEType(bytes.toByteArray()), equalTo(type));
+    }
+}
@@ -165,6 +165,95 @@ public class ItemIteratorTest extends AbstractUnitTest
         }
     }
 
+    /**
+     * Test of paging by ID, of class ItemIterator.
+     */
+    @Test
+    public void testPages() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 5; i++)
+        {
+            Item it = Item.create(context);
+            it.setArchived(true);
+            it.update();
+            ids.add(it.getID());
+        }
+        // one that is not archived
+        Item.create(context).update();
+        context.restoreAuthSystemState();
+        context.commit();
+        context.clearCache();
+
+        ItemIterator pages = new ItemIterator(context,
+                "SELECT item_id FROM item WHERE in_archive='1' AND item_id >= ?",
+                2, LoadHints.METADATA, ids.get(0));
+        ArrayList<Integer> found = new ArrayList<Integer>();
+        Item first = null;
+        while (pages.hasNext())
+        {
+            Item item = pages.next();
+            if (first == null)
+            {
+                first = item;
+            }
+            assertThat("testPages 0", context.fromCache(Item.class, item.getID()), notNullValue());
+            found.add(item.getID());
+        }
+        assertThat("testPages 1", found, equalTo(ids));
+        // the first page was released when the iterator moved on
+        assertThat("testPages 2", context.fromCache(Item.class, first.getID()), nullValue());
+        pages.close();
+        assertThat("testPages 3", context.fromCache(Item.class, ids.get(4)), nullValue());
+
+        // IDs only, nothing is loaded
+        pages = new ItemIterator(context,
+                "SELECT item_id FROM item WHERE in_archive='1' AND item_id >= ?",
+                4, LoadHints.NONE, ids.get(0));
+        for (int i = 0; i < ids.size(); i++)
+        {
+            assertThat("testPages 4", pages.nextID(), equalTo(ids.get(i)));
+        }
+        assertThat("testPages 5", pages.nextID(), equalTo(-1));
+        assertThat("testPages 6", context.fromCache(Item.class, ids.get(0)), nullValue());
+        pages.close();
+    }
+
+    /**
+     * Test of startAfter method, of class ItemIterator.
+     */
+    @Test
+    public void testStartAfter() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 3; i++)
+        {
+            Item it = Item.create(context);
+            it.setArchived(true);
+            it.update();
+            ids.add(it.getID());
+        }
+        context.restoreAuthSystemState();
+
+        ItemIterator pages = Item.findAll(context, LoadHints.NONE).startAfter(ids.get(0));
+        assertThat("testStartAfter 0", pages.nextID(), equalTo(ids.get(1)));
+        assertThat("testStartAfter 1", pages.nextID(), equalTo(ids.get(2)));
+        assertThat("testStartAfter 2", pages.nextID(), equalTo(-1));
+        pages.close();
+
+        try
+        {
+            iitid.startAfter(ids.get(0));
+            fail("testStartAfter 3");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected, not paging by ID
+        }
+    }
+
     /**
      * Test of close method, of class ItemIterator.
      */
@@ -147,6 +147,31 @@ public class ItemTest  extends AbstractDSpaceObjectTest
         assertTrue("testFindAll 1",added);
     }
 
+    /**
+     * Test of findAll method with ids and load hints, of class Item.
+     */
+    @Test
+    public void testFindAllByIds() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        it.addMetadata("dc", "title", null, null, "bulk title");
+        it.update();
+        Bundle bundle = it.createBundle("ORIGINAL");
+        context.restoreAuthSystemState();
+        context.commit();
+        context.removeCached(bundle, bundle.getID());
+        context.removeCached(it, it.getID());
+
+        int id = it.getID();
+        Item[] found = Item.findAll(context, new int[] { id, Integer.MAX_VALUE, id }, LoadHints.ALL);
+        assertThat("testFindAllByIds 0", found.length, equalTo(2));
+        assertThat("testFindAllByIds 1", found[0].getID(), equalTo(id));
+        assertThat("testFindAllByIds 2", found[1], sameInstance(found[0]));
+        assertThat("testFindAllByIds 3", found[0].getName(), equalTo("bulk title"));
+        assertThat("testFindAllByIds 4", found[0].getBundles("ORIGINAL").length, equalTo(1));
+        assertThat("testFindAllByIds 5", (Item) context.fromCache(Item.class, id), sameInstance(found[0]));
+    }
+
     /**
      * Test of findBySubmitter method, of class Item.
      */
@@ -14,6 +14,7 @@ import mockit.NonStrictExpectations;
 import org.dspace.AbstractUnitTest;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
+import org.dspace.content.Community;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
 import org.junit.*;
@@ -572,6 +573,45 @@ public class ContextTest extends AbstractUnitTest
         cleanupContext(instance);
     }
 
+    /**
+     * Test of getAuthorizationCache method, of class Context.
+     */
+    @Test
+    public void testGetAuthorizationCache() throws SQLException, AuthorizeException
+    {
+        context.turnOffAuthorisationSystem();
+        Community community = Community.create(null, context);
+        Group group = Group.create(context);
+        context.restoreAuthSystemState();
+
+        // Policies are memoized, but forgotten when changed in this context
+        int before = AuthorizeManager.getPoliciesActionFilter(context, community, Constants.ADD).size();
+        AuthorizeManager.addPolicy(context, community, Constants.ADD, group);
+        assertThat("testGetAuthorizationCache 0",
+                AuthorizeManager.getPoliciesActionFilter(context, community, Constants.ADD).size(),
+                equalTo(before + 1));
+        AuthorizeManager.removePoliciesActionFilter(context, community, Constants.ADD);
+        assertThat("testGetAuthorizationCache 1",
+                AuthorizeManager.getPoliciesActionFilter(context, community, Constants.ADD).size(),
+                equalTo(0));
+
+        // Group memberships of the current user follow the special groups
+        assertThat("testGetAuthorizationCache 2",
+                Group.allMemberGroupIDs(context, context.getCurrentUser()).contains(group.getID()),
+                equalTo(false));
+        context.setSpecialGroup(group.getID());
+        assertThat("testGetAuthorizationCache 3",
+                Group.allMemberGroupIDs(context, context.getCurrentUser()).contains(group.getID()),
+                equalTo(true));
+        assertThat("testGetAuthorizationCache 4", Group.isMember(context, group.getID()), equalTo(true));
+        assertThat("testGetAuthorizationCache 5",
+                context.getAuthorizationCache().getMemberGroups(), notNullValue());
+
+        context.clearCache();
+        assertThat("testGetAuthorizationCache 6",
+                context.getAuthorizationCache().getMemberGroups(), nullValue());
+    }
+
     /**
      * Test of finalize method, of class Context.
      */
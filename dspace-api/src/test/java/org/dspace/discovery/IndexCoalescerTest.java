@@ -0,0 +1,170 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the IndexCoalescer class
+ */
+public class IndexCoalescerTest
+{
+    /** Records the batches instead of indexing them */
+    private static class RecordingCoalescer extends IndexCoalescer
+    {
+        final List<List<String>> updates = Collections.synchronizedList(new ArrayList<List<String>>());
+
+        final List<List<String>> deletes = Collections.synchronizedList(new ArrayList<List<String>>());
+
+        volatile boolean failing = false;
+
+        RecordingCoalescer(long window, long maxDelay, int maxBatch)
+        {
+            super(null, window, maxDelay, maxBatch);
+        }
+
+        @Override
+        protected void push(List<String> batchUpdates, List<String> batchDeletes) throws Exception
+        {
+            if (failing)
+            {
+                throw new IllegalStateException("Solr is down");
+            }
+            updates.add(batchUpdates);
+            deletes.add(batchDeletes);
+        }
+    }
+
+    private static final List<String> NONE = Collections.emptyList();
+
+    /**
+     * Test that changes to the same object are pushed once, of class
+     * IndexCoalescer.
+     */
+    @Test
+    public void testCoalesce()
+    {
+        RecordingCoalescer coalescer = new RecordingCoalescer(1000, 10000, 100);
+        coalescer.add(Arrays.asList("2-1", "2-2"), NONE, 0);
+        coalescer.add(Arrays.asList("2-2", "4-3"), Arrays.asList("123456789/1"), 10);
+        coalescer.add(Arrays.asList("2-1"), Arrays.asList("123456789/1"), 20);
+
+        assertThat("testCoalesce 0", coalescer.getPendingUpdates(), equalTo(3));
+        assertThat("testCoalesce 1", coalescer.getPendingDeletes(), equalTo(1));
+        assertThat("testCoalesce 2", coalescer.getReceived(), equalTo(7L));
+        assertThat("testCoalesce 3", coalescer.getPendingUpdateKeys(), equalTo(Arrays.asList("2-1", "2-2", "4-3")));
+
+        assertThat("testCoalesce 4", coalescer.flush(), equalTo(4));
+        assertThat("testCoalesce 5", coalescer.updates, equalTo(Arrays.asList(Arrays.asList("2-1", "2-2", "4-3"))));
+        assertThat("testCoalesce 6", coalescer.deletes, equalTo(Arrays.asList(Arrays.asList("123456789/1"))));
+        assertThat("testCoalesce 7", coalescer.getPendingUpdates(), equalTo(0));
+        assertThat("testCoalesce 8", coalescer.getFlushes(), equalTo(1L));
+        assertThat("testCoalesce 9", coalescer.getPushed(), equalTo(4L));
+    }
+
+    /**
+     * Test that changes are pushed once nothing has been added for the
+     * window, or the oldest change has waited the maximum delay, of class
+     * IndexCoalescer.
+     */
+    @Test
+    public void testWindowAndMaxDelay()
+    {
+        RecordingCoalescer coalescer = new RecordingCoalescer(1000, 3000, 100);
+        assertThat("testWindowAndMaxDelay 0", coalescer.isDue(0), equalTo(false));
+
+        coalescer.add(Arrays.asList("2-1"), NONE, 0);
+        assertThat("testWindowAndMaxDelay 1", coalescer.isDue(999), equalTo(false));
+        coalescer.add(Arrays.asList("2-2"), NONE, 900);
+        assertThat("testWindowAndMaxDelay 2", coalescer.isDue(1500), equalTo(false));
+        assertThat("testWindowAndMaxDelay 3", coalescer.flushDue(1500), equalTo(0));
+        assertThat("testWindowAndMaxDelay 4", coalescer.isDue(1900), equalTo(true));
+        assertThat("testWindowAndMaxDelay 5", coalescer.flushDue(1900), equalTo(2));
+        assertThat("testWindowAndMaxDelay 6", coalescer.updates.size(), equalTo(1));
+
+        // a steady trickle of changes is pushed after the maximum delay
+        for (long now = 10000; now < 13000; now += 500)
+        {
+            coalescer.add(Arrays.asList("2-" + now), NONE, now);
+            assertThat("testWindowAndMaxDelay 7", coalescer.isDue(now), equalTo(false));
+        }
+        assertThat("testWindowAndMaxDelay 8", coalescer.isDue(13000), equalTo(true));
+        assertThat("testWindowAndMaxDelay 9", coalescer.flushDue(13000), equalTo(6));
+        assertThat("testWindowAndMaxDelay 10", coalescer.isDue(20000), equalTo(false));
+    }
+
+    /**
+     * Test that no more than a batch is pushed at once, and that a full batch
+     * is pushed at once, of class IndexCoalescer.
+     */
+    @Test
+    public void testMaxBatch()
+    {
+        RecordingCoalescer coalescer = new RecordingCoalescer(1000, 10000, 3);
+        coalescer.add(Arrays.asList("2-1", "2-2", "2-3", "2-4", "2-5"), Arrays.asList("123456789/9", "123456789/8"), 0);
+        assertThat("testMaxBatch 0", coalescer.isDue(0), equalTo(true));
+        assertThat("testMaxBatch 1", coalescer.flushDue(0), equalTo(6));
+
+        // deletes go first, the rest waits for the window
+        assertThat("testMaxBatch 2", coalescer.deletes.get(0), equalTo(Arrays.asList("123456789/9", "123456789/8")));
+        assertThat("testMaxBatch 3", coalescer.updates.get(0), equalTo(Arrays.asList("2-1")));
+        assertThat("testMaxBatch 4", coalescer.updates.get(1), equalTo(Arrays.asList("2-2", "2-3", "2-4")));
+        assertThat("testMaxBatch 5", coalescer.getPendingUpdateKeys(), equalTo(Arrays.asList("2-5")));
+        assertThat("testMaxBatch 6", coalescer.flushDue(1000), equalTo(1));
+        assertThat("testMaxBatch 7", coalescer.getFlushes(), equalTo(3L));
+    }
+
+    /**
+     * Test that a batch that fails is kept, of class IndexCoalescer.
+     */
+    @Test
+    public void testFailure()
+    {
+        RecordingCoalescer coalescer = new RecordingCoalescer(0, 0, 100);
+        coalescer.failing = true;
+        coalescer.add(Arrays.asList("2-1", "2-2"), Arrays.asList("123456789/1"), 0);
+        assertThat("testFailure 0", coalescer.flushDue(0), equalTo(0));
+        assertThat("testFailure 1", coalescer.getFailures(), equalTo(1L));
+        assertThat("testFailure 2", coalescer.getPendingUpdates(), equalTo(2));
+        assertThat("testFailure 3", coalescer.getPendingDeletes(), equalTo(1));
+
+        coalescer.failing = false;
+        assertThat("testFailure 4", coalescer.flushDue(10), equalTo(3));
+        assertThat("testFailure 5", coalescer.getPendingUpdates(), equalTo(0));
+    }
+
+    /**
+     * Test the background flusher, and that shutdown pushes what is left,
+     * of class IndexCoalescer.
+     */
+    @Test
+    public void testFlusher() throws Exception
+    {
+        RecordingCoalescer coalescer = new RecordingCoalescer(50, 1000, 100);
+        coalescer.start();
+        coalescer.add(Arrays.asList("2-1", "2-2"), NONE, System.currentTimeMillis());
+        long end = System.currentTimeMillis() + 10000;
+        while (coalescer.updates.isEmpty() && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertThat("testFlusher 0", coalescer.updates, equalTo(Arrays.asList(Arrays.asList("2-1", "2-2"))));
+
+        coalescer.add(Arrays.asList("2-3"), NONE, System.currentTimeMillis() + 60000);
+        coalescer.shutdown();
+        assertThat("testFlusher 1", coalescer.updates.size(), equalTo(2));
+        assertThat("testFlusher 2", coalescer.getPendingUpdates(), equalTo(0));
+    }
+}
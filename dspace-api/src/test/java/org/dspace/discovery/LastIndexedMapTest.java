@@ -0,0 +1,83 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the LastIndexedMap class
+ */
+public class LastIndexedMapTest
+{
+    /**
+     * Test of put, get and remove methods, of class LastIndexedMap.
+     */
+    @Test
+    public void testPutGetRemove()
+    {
+        LastIndexedMap map = new LastIndexedMap(0);
+        map.put(0, 10L);
+        map.put(1, 11L);
+        map.put(1, 12L);
+
+        assertThat("testPutGetRemove 0", map.size(), equalTo(2));
+        assertThat("testPutGetRemove 1", map.get(0), equalTo(10L));
+        assertThat("testPutGetRemove 2", map.get(1), equalTo(12L));
+        assertThat("testPutGetRemove 3", map.get(2), equalTo(LastIndexedMap.NOT_FOUND));
+        assertThat("testPutGetRemove 4", map.get(-1), equalTo(LastIndexedMap.NOT_FOUND));
+
+        assertThat("testPutGetRemove 5", map.remove(1), equalTo(12L));
+        assertThat("testPutGetRemove 6", map.remove(1), equalTo(LastIndexedMap.NOT_FOUND));
+        assertThat("testPutGetRemove 7", map.size(), equalTo(1));
+        assertThat("testPutGetRemove 8", map.keys(), equalTo(new int[] { 0 }));
+    }
+
+    /**
+     * Test of growing and removing many entries, of class LastIndexedMap.
+     */
+    @Test
+    public void testManyEntries()
+    {
+        LastIndexedMap map = new LastIndexedMap(4);
+        Map<Integer, Long> expected = new HashMap<Integer, Long>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++)
+        {
+            int id = random.nextInt(50000);
+            long value = random.nextLong();
+            map.put(id, value);
+            expected.put(id, value);
+        }
+        for (int i = 0; i < 10000; i++)
+        {
+            int id = random.nextInt(50000);
+            Long value = expected.remove(id);
+            assertThat("testManyEntries 0", map.remove(id),
+                    equalTo(value == null ? LastIndexedMap.NOT_FOUND : value));
+        }
+
+        assertThat("testManyEntries 1", map.size(), equalTo(expected.size()));
+        for (Map.Entry<Integer, Long> entry : expected.entrySet())
+        {
+            assertThat("testManyEntries 2", map.get(entry.getKey()), equalTo(entry.getValue()));
+        }
+        int[] keys = map.keys();
+        assertThat("testManyEntries 3", keys.length, equalTo(expected.size()));
+        for (int i = 1; i < keys.length; i++)
+        {
+            assertTrue("testManyEntries 4", keys[i - 1] < keys[i]);
+        }
+    }
+}
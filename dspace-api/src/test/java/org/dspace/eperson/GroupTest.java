@@ -0,0 +1,94 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.util.Set;
+
+import org.dspace.AbstractUnitTest;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the membership lookups of the Group class
+ */
+public class GroupTest extends AbstractUnitTest
+{
+    private Group parent;
+
+    private Group child;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            parent = Group.create(context);
+            child = Group.create(context);
+            context.restoreAuthSystemState();
+        }
+        catch (Exception ex)
+        {
+            fail("Exception creating groups: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Test of allMemberGroupIDs method with nested groups, of class Group.
+     */
+    @Test
+    public void testAllMemberGroupIDsNested() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        child.addMember(eperson);
+        child.update();
+        parent.addMember(child);
+        parent.update();
+        context.restoreAuthSystemState();
+
+        Set<Integer> groupIDs = Group.allMemberGroupIDs(context, eperson);
+        assertThat("testAllMemberGroupIDsNested 0", groupIDs.contains(child.getID()), equalTo(true));
+        assertThat("testAllMemberGroupIDsNested 1", groupIDs.contains(parent.getID()), equalTo(true));
+        assertThat("testAllMemberGroupIDsNested 2", groupIDs.contains(Group.ANONYMOUS_ID), equalTo(true));
+        assertThat("testAllMemberGroupIDsNested 3", Group.isMember(context, parent.getID()), equalTo(true));
+
+        // removing the subgroup also removes the parent group
+        context.turnOffAuthorisationSystem();
+        parent.removeMember(child);
+        parent.update();
+        context.restoreAuthSystemState();
+
+        groupIDs = Group.allMemberGroupIDs(context, eperson);
+        assertThat("testAllMemberGroupIDsNested 4", groupIDs.contains(child.getID()), equalTo(true));
+        assertThat("testAllMemberGroupIDsNested 5", groupIDs.contains(parent.getID()), equalTo(false));
+        assertThat("testAllMemberGroupIDsNested 6", Group.isMember(context, parent.getID()), equalTo(false));
+    }
+
+    /**
+     * Test of allMemberGroupIDs method after a group is deleted, of class Group.
+     */
+    @Test
+    public void testAllMemberGroupIDsDeleted() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        child.addMember(eperson);
+        child.update();
+        parent.addMember(child);
+        parent.update();
+
+        child.delete();
+        context.restoreAuthSystemState();
+
+        Set<Integer> groupIDs = Group.allMemberGroupIDs(context, eperson);
+        assertThat("testAllMemberGroupIDsDeleted 0", groupIDs.contains(child.getID()), equalTo(false));
+        assertThat("testAllMemberGroupIDsDeleted 1", groupIDs.contains(parent.getID()), equalTo(false));
+    }
+}
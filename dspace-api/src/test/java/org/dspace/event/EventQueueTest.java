@@ -0,0 +1,360 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.io.FileUtils;
+import org.dspace.AbstractUnitTest;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the EventQueue class
+ */
+public class EventQueueTest extends AbstractUnitTest
+{
+    /** Records the subject IDs of the batches it ends, and fails as told */
+    private static class RecordingConsumer implements Consumer
+    {
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+
+        private final List<Integer> batch = new ArrayList<Integer>();
+
+        /** Subject ID to fail on, and how many times */
+        volatile int failOn = -1;
+
+        volatile int failures = 0;
+
+        /** If set, consume waits until it is opened */
+        volatile CountDownLatch gate = null;
+
+        public void initialize()
+        {
+        }
+
+        public void consume(Context ctx, Event event) throws Exception
+        {
+            CountDownLatch wait = gate;
+            if (wait != null)
+            {
+                wait.await();
+            }
+            if (event.getSubjectID() == failOn && failures > 0)
+            {
+                failures--;
+                batch.clear();
+                throw new IllegalStateException("failing on " + failOn);
+            }
+            batch.add(event.getSubjectID());
+        }
+
+        public void end(Context ctx)
+        {
+            received.addAll(batch);
+            batch.clear();
+        }
+
+        public void finish(Context ctx)
+        {
+        }
+    }
+
+    private File journal;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            journal = File.createTempFile("event-journal", "");
+            journal.delete();
+        }
+        catch (IOException e)
+        {
+            fail("Unable to create journal: " + e.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        FileUtils.deleteQuietly(journal);
+        super.destroy();
+    }
+
+    private static ConsumerProfile profile(String name, Consumer consumer, String objects, String events)
+    {
+        int[] filter = new int[2];
+        filter[Event.SUBJECT_MASK] = Event.parseObjectType(objects);
+        filter[Event.EVENT_MASK] = Event.parseEventType(events);
+        List<int[]> filters = new ArrayList<int[]>();
+        filters.add(filter);
+        return new ConsumerProfile(name, consumer, filters);
+    }
+
+    private static List<Event> batch(int... ids)
+    {
+        List<Event> events = new ArrayList<Event>();
+        for (int id : ids)
+        {
+            events.add(new Event(Event.MODIFY, Constants.ITEM, id, null));
+        }
+        return events;
+    }
+
+    private static void waitFor(RecordingConsumer consumer, int count) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 10000;
+        while (consumer.received.size() < count && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<Integer> range(int from, int to)
+    {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = from; i < to; i++)
+        {
+            ids.add(i);
+        }
+        return ids;
+    }
+
+    /**
+     * Test that each consumer gets every batch in order, of class EventQueue.
+     */
+    @Test
+    public void testOrder() throws Exception
+    {
+        RecordingConsumer first = new RecordingConsumer();
+        RecordingConsumer second = new RecordingConsumer();
+        EventQueue queue = new EventQueue("test", Arrays.asList(
+                profile("first", first, "Item", "Modify"),
+                profile("second", second, "Item", "Modify")), 2, journal, 0, 10);
+
+        for (int i = 0; i < 20; i++)
+        {
+            assertThat("testOrder 0", queue.submit(batch(2 * i, 2 * i + 1)), equalTo(true));
+        }
+        waitFor(first, 40);
+        waitFor(second, 40);
+        queue.shutdown(10000);
+
+        assertThat("testOrder 1", first.received, equalTo(range(0, 40)));
+        assertThat("testOrder 2", second.received, equalTo(range(0, 40)));
+        assertThat("testOrder 3", queue.getLanes().get(0).getBatches(), equalTo(20L));
+        assertThat("testOrder 4", queue.getLanes().get(0).getEvents(), equalTo(40L));
+        assertThat("testOrder 5", queue.getLanes().get(0).getPending(), equalTo(0));
+        assertThat("testOrder 6", journal.list().length, equalTo(0));
+    }
+
+    /**
+     * Test that batches are only queued for consumers whose filters they
+     * pass, of class EventQueue.
+     */
+    @Test
+    public void testFilters() throws Exception
+    {
+        RecordingConsumer items = new RecordingConsumer();
+        RecordingConsumer collections = new RecordingConsumer();
+        EventQueue queue = new EventQueue("test", Arrays.asList(
+                profile("items", items, "Item", "Modify"),
+                profile("collections", collections, "Collection", "Modify")), 1, journal, 0, 10);
+
+        assertThat("testFilters 0", queue.submit(Arrays.asList(
+                new Event(Event.CREATE, Constants.ITEM, 1, null))), equalTo(false));
+        assertThat("testFilters 1", queue.submit(batch(2)), equalTo(true));
+        waitFor(items, 1);
+        queue.shutdown(10000);
+
+        assertThat("testFilters 2", items.received, equalTo(Arrays.asList(2)));
+        assertThat("testFilters 3", queue.getLanes().get(1).getBatches(), equalTo(0L));
+    }
+
+    /**
+     * Test of retries and dead letters, of class EventQueue.
+     */
+    @Test
+    public void testRetryAndDeadLetter() throws Exception
+    {
+        RecordingConsumer flaky = new RecordingConsumer();
+        flaky.failOn = 1;
+        flaky.failures = 2;
+        RecordingConsumer broken = new RecordingConsumer();
+        broken.failOn = 1;
+        broken.failures = Integer.MAX_VALUE;
+        EventQueue queue = new EventQueue("test", Arrays.asList(
+                profile("flaky", flaky, "Item", "Modify"),
+                profile("broken", broken, "Item", "Modify")), 2, journal, 2, 10);
+
+        queue.submit(batch(0));
+        queue.submit(batch(1));
+        queue.submit(batch(2));
+        waitFor(flaky, 3);
+        waitFor(broken, 2);
+        queue.shutdown(10000);
+
+        // the later batch waits for the retries
+        assertThat("testRetryAndDeadLetter 0", flaky.received, equalTo(Arrays.asList(0, 1, 2)));
+        assertThat("testRetryAndDeadLetter 1", queue.getLanes().get(0).getRetries(), equalTo(2L));
+        assertThat("testRetryAndDeadLetter 2", queue.getLanes().get(0).getDeadLetters(), equalTo(0L));
+
+        // the batch given up on is skipped and kept
+        assertThat("testRetryAndDeadLetter 3", broken.received, equalTo(Arrays.asList(0, 2)));
+        assertThat("testRetryAndDeadLetter 4", queue.getLanes().get(1).getRetries(), equalTo(3L));
+        assertThat("testRetryAndDeadLetter 5", queue.getLanes().get(1).getDeadLetters(), equalTo(1L));
+        assertThat("testRetryAndDeadLetter 6", new File(journal, "dead").list().length, equalTo(1));
+        assertThat("testRetryAndDeadLetter 7", new File(journal, "dead").list()[0],
+                endsWith("_" + String.format("%019d", 2) + ".events.broken"));
+    }
+
+    /**
+     * Test that batches left in the journal are delivered by the next queue,
+     * of class EventQueue.
+     */
+    @Test
+    public void testRecovery() throws Exception
+    {
+        RecordingConsumer stuck = new RecordingConsumer();
+        CountDownLatch gate = new CountDownLatch(1);
+        stuck.gate = gate;
+        EventQueue queue = new EventQueue("test", Arrays.asList(
+                profile("consumer", stuck, "Item", "Modify")), 1, journal, 0, 10);
+        queue.submit(batch(0, 1));
+        queue.submit(batch(2));
+        queue.submit(batch(3));
+        queue.shutdown(100);
+        assertThat("testRecovery 0", batches().length, equalTo(3));
+
+        RecordingConsumer recovered = new RecordingConsumer();
+        EventQueue next = new EventQueue("test", Arrays.asList(
+                profile("consumer", recovered, "Item", "Modify")), 1, journal, 0, 10);
+        waitFor(recovered, 4);
+        next.shutdown(10000);
+        gate.countDown();
+
+        assertThat("testRecovery 1", recovered.received, equalTo(range(0, 4)));
+        assertThat("testRecovery 2", next.getLanes().get(0).getBatches(), equalTo(3L));
+    }
+
+    /**
+     * Test that a queue leaves the batches of a running queue sharing the
+     * journal alone, and takes them over once it has stopped, of class
+     * EventQueue.
+     */
+    @Test
+    public void testSharedJournal() throws Exception
+    {
+        RecordingConsumer stuck = new RecordingConsumer();
+        CountDownLatch gate = new CountDownLatch(1);
+        stuck.gate = gate;
+        EventQueue running = new EventQueue("test", Arrays.asList(
+                profile("consumer", stuck, "Item", "Modify")), 1, journal, 0, 10);
+        running.submit(batch(0));
+        running.submit(batch(1));
+
+        RecordingConsumer other = new RecordingConsumer();
+        EventQueue queue = new EventQueue("test", Arrays.asList(
+                profile("consumer", other, "Item", "Modify")), 1, journal, 0, 10);
+        queue.recoverEvery(20);
+        queue.submit(batch(2));
+        waitFor(other, 1);
+        Thread.sleep(100);
+        assertThat("testSharedJournal 0", other.received, equalTo(Arrays.asList(2)));
+        assertThat("testSharedJournal 1", batches().length, equalTo(2));
+
+        // stopped with its batches undelivered
+        running.shutdown(100);
+        waitFor(other, 3);
+        queue.shutdown(10000);
+        gate.countDown();
+
+        assertThat("testSharedJournal 2", other.received, equalTo(Arrays.asList(2, 0, 1)));
+        assertThat("testSharedJournal 3", batches().length, equalTo(0));
+    }
+
+    /**
+     * Test that batches of an earlier version, which have no owner, are
+     * recovered, of class EventQueue.
+     */
+    @Test
+    public void testRecoverWithoutOwner() throws Exception
+    {
+        RecordingConsumer stuck = new RecordingConsumer();
+        CountDownLatch gate = new CountDownLatch(1);
+        stuck.gate = gate;
+        EventQueue queue = new EventQueue("test", Arrays.asList(
+                profile("consumer", stuck, "Item", "Modify")), 1, journal, 0, 10);
+        queue.submit(batch(0));
+        queue.shutdown(100);
+        String[] left = batches();
+        assertThat("testRecoverWithoutOwner 0", left.length, equalTo(1));
+        assertTrue("testRecoverWithoutOwner 1", new File(journal, left[0]).renameTo(
+                new File(journal, String.format("%019d", 1) + ".events")));
+
+        RecordingConsumer recovered = new RecordingConsumer();
+        EventQueue next = new EventQueue("test", Arrays.asList(
+                profile("consumer", recovered, "Item", "Modify")), 1, journal, 0, 10);
+        waitFor(recovered, 1);
+        next.shutdown(10000);
+        gate.countDown();
+
+        assertThat("testRecoverWithoutOwner 2", recovered.received, equalTo(Arrays.asList(0)));
+        assertThat("testRecoverWithoutOwner 3", batches().length, equalTo(0));
+    }
+
+    /**
+     * Test that shutting down waits for the queued batches, of class
+     * EventQueue.
+     */
+    @Test
+    public void testShutdownDrains() throws Exception
+    {
+        RecordingConsumer slow = new RecordingConsumer();
+        CountDownLatch gate = new CountDownLatch(1);
+        slow.gate = gate;
+        EventQueue queue = new EventQueue("test", Arrays.asList(
+                profile("consumer", slow, "Item", "Modify")), 1, journal, 0, 10);
+        for (int i = 0; i < 5; i++)
+        {
+            queue.submit(batch(i));
+        }
+        gate.countDown();
+        queue.shutdown(10000);
+
+        assertThat("testShutdownDrains 0", slow.received, equalTo(range(0, 5)));
+        assertThat("testShutdownDrains 1", journal.list().length, equalTo(0));
+    }
+
+    /** @return the names of the batches in the journal */
+    private String[] batches()
+    {
+        return journal.list(new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(".events");
+            }
+        });
+    }
+}
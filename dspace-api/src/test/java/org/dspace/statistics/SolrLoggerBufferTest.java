@@ -0,0 +1,180 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the SolrLoggerBuffer class
+ */
+public class SolrLoggerBufferTest
+{
+    /** Records the documents it is sent, or fails while unavailable */
+    private static class RecordingSolrServer extends SolrServer
+    {
+        final List<SolrInputDocument> received
+                = Collections.synchronizedList(new ArrayList<SolrInputDocument>());
+
+        volatile boolean available = true;
+
+        /** If set, requests wait until it is opened */
+        volatile CountDownLatch gate = null;
+
+        @Override
+        public NamedList<Object> request(SolrRequest request) throws SolrServerException, IOException
+        {
+            CountDownLatch wait = gate;
+            if (wait != null)
+            {
+                try
+                {
+                    wait.await();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new SolrServerException(e);
+                }
+            }
+            if (!available)
+            {
+                throw new SolrServerException("unavailable");
+            }
+            List<SolrInputDocument> docs = ((UpdateRequest) request).getDocuments();
+            if (docs != null)
+            {
+                received.addAll(docs);
+            }
+            return new NamedList<Object>();
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+
+    private File spillFile;
+
+    @Before
+    public void init() throws IOException
+    {
+        spillFile = File.createTempFile("statistics-buffer", ".dat");
+        spillFile.delete();
+    }
+
+    @After
+    public void destroy()
+    {
+        spillFile.delete();
+        new File(spillFile.getPath() + ".replay").delete();
+    }
+
+    private static SolrInputDocument event(int id)
+    {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", id);
+        return doc;
+    }
+
+    private static void waitFor(RecordingSolrServer solr, int count) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 10000;
+        while (solr.received.size() < count && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Test that queued events are flushed by shutdown, of class SolrLoggerBuffer.
+     */
+    @Test
+    public void testFlushOnShutdown() throws Exception
+    {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        SolrLoggerBuffer buffer = new SolrLoggerBuffer(solr, 100, 10, 10,
+                SolrLoggerBuffer.Overflow.DROP, 0, null, false);
+        buffer.start();
+        for (int i = 0; i < 50; i++)
+        {
+            buffer.add(event(i));
+        }
+        buffer.shutdown(10000);
+
+        assertThat("testFlushOnShutdown 0", solr.received.size(), equalTo(50));
+        assertThat("testFlushOnShutdown 1", buffer.getWritten(), equalTo(50L));
+        assertThat("testFlushOnShutdown 2", buffer.getQueueSize(), equalTo(0));
+    }
+
+    /**
+     * Test of the drop overflow policy, of class SolrLoggerBuffer.
+     */
+    @Test
+    public void testDrop() throws Exception
+    {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        CountDownLatch gate = new CountDownLatch(1);
+        solr.gate = gate;
+        SolrLoggerBuffer buffer = new SolrLoggerBuffer(solr, 2, 10, 10,
+                SolrLoggerBuffer.Overflow.DROP, 0, null, false);
+        buffer.start();
+        // while Solr hangs, the flusher holds at most what it drained from the queue
+        for (int i = 0; i < 10; i++)
+        {
+            buffer.add(event(i));
+        }
+        assertThat("testDrop 0", buffer.getDropped() >= 6, equalTo(true));
+        assertThat("testDrop 1", buffer.getQueueSize() <= 2, equalTo(true));
+
+        gate.countDown();
+        buffer.shutdown(10000);
+        assertThat("testDrop 2", solr.received.size() + buffer.getDropped(), equalTo(10L));
+        assertThat("testDrop 3", buffer.getFailed(), equalTo(0L));
+    }
+
+    /**
+     * Test of the spill overflow policy, of class SolrLoggerBuffer.
+     */
+    @Test
+    public void testSpillAndReplay() throws Exception
+    {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        SolrLoggerBuffer buffer = new SolrLoggerBuffer(solr, 1, 10, 10,
+                SolrLoggerBuffer.Overflow.SPILL, 0, spillFile, false);
+        buffer.start();
+        solr.available = false;
+        for (int i = 0; i < 20; i++)
+        {
+            buffer.add(event(i));
+        }
+        assertThat("testSpillAndReplay 0", buffer.getSpilled() > 0, equalTo(true));
+        assertThat("testSpillAndReplay 1", buffer.getDropped(), equalTo(0L));
+
+        solr.available = true;
+        waitFor(solr, 20);
+        buffer.shutdown(10000);
+
+        assertThat("testSpillAndReplay 2", solr.received.size(), equalTo(20));
+        assertThat("testSpillAndReplay 3", spillFile.exists() && spillFile.length() > 0, equalTo(false));
+    }
+}
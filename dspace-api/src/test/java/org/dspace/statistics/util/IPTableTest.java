@@ -0,0 +1,264 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the IPTable class
+ */
+public class IPTableTest
+{
+    /**
+     * Test of single addresses and three place subnets, of class IPTable.
+     */
+    @Test
+    public void testAddressesAndSubnets() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("66.249.64.1");
+        table.add("128.177.243");
+
+        assertTrue(table.contains("66.249.64.1"));
+        assertFalse(table.contains("66.249.64.2"));
+        assertTrue(table.contains("128.177.243.0"));
+        assertTrue(table.contains("128.177.243.255"));
+        assertFalse(table.contains("128.177.244.0"));
+        assertTrue("IPv4-mapped address", table.contains("::ffff:66.249.64.1"));
+    }
+
+    /**
+     * Test of ranges and CIDR notation, of class IPTable.
+     */
+    @Test
+    public void testRangesAndCidr() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("10.0.0.250-10.0.1.5");
+        table.add("66.249.64.0/19");
+        table.add("66.249.64.0/20");
+
+        assertTrue(table.contains("10.0.0.250"));
+        assertTrue(table.contains("10.0.1.0"));
+        assertTrue(table.contains("10.0.1.5"));
+        assertFalse(table.contains("10.0.0.249"));
+        assertFalse(table.contains("10.0.1.6"));
+
+        assertTrue(table.contains("66.249.64.0"));
+        assertTrue(table.contains("66.249.95.255"));
+        assertFalse(table.contains("66.249.96.0"));
+        assertFalse(table.contains("66.249.63.255"));
+    }
+
+    /**
+     * Test of IPv6 addresses, of class IPTable.
+     */
+    @Test
+    public void testIPv6() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("2001:4860:4801::/48");
+        table.add("2a03:2880::1");
+        table.add("fe80::1-fe80::ff");
+
+        assertTrue(table.contains("2001:4860:4801:0:0:0:0:1"));
+        assertTrue(table.contains("2001:4860:4801:ffff:ffff:ffff:ffff:ffff"));
+        assertFalse(table.contains("2001:4860:4802::"));
+        assertTrue(table.contains("2a03:2880:0:0::1"));
+        assertFalse(table.contains("2a03:2880::2"));
+        assertTrue(table.contains("[fe80::10]"));
+        assertFalse(table.contains("fe80::100"));
+        assertFalse("IPv4 is not IPv6", table.contains("32.3.40.128"));
+    }
+
+    /**
+     * Test that IPv6 networks include the IPv4-mapped addresses they cover,
+     * of class IPTable.
+     */
+    @Test
+    public void testIPv6CoversIPv4() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("::ffff:0:0/96");
+
+        assertTrue(table.contains("1.2.3.4"));
+        assertTrue(table.contains("255.255.255.255"));
+    }
+
+    /**
+     * Test that invalid input is rejected, of class IPTable.
+     */
+    @Test
+    public void testInvalid() throws Exception
+    {
+        IPTable table = new IPTable();
+        for (String invalid : new String[] { "1.2", "1.2.3.256", "1.2.3.4/33", "1.2.3.9-1.2.3.4",
+                "1.2.3.4-::1", "1:2:3", "spider.example.com" })
+        {
+            try
+            {
+                table.add(invalid);
+                fail(invalid + " was accepted");
+            }
+            catch (IPTable.IPFormatException e)
+            {
+                // expected
+            }
+        }
+
+        try
+        {
+            table.contains("1.2.3");
+            fail("1.2.3 was accepted as an address");
+        }
+        catch (IPTable.IPFormatException e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Test of toSet method, of class IPTable.
+     */
+    @Test
+    public void testToSet() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("128.177.243");
+        table.add("128.177.244.100");
+        table.add("10.0.0.254-10.0.1.255");
+        table.add("2001:db8::/32");
+
+        Set<String> set = table.toSet();
+        assertEquals(6, set.size());
+        assertTrue(set.contains("128.177.243"));
+        assertTrue(set.contains("128.177.244.100"));
+        assertTrue(set.contains("10.0.0.254"));
+        assertTrue(set.contains("10.0.0.255"));
+        assertTrue(set.contains("10.0.1"));
+        assertTrue(set.contains("2001:db8:0:0:0:0:0:0/32"));
+    }
+
+    /**
+     * Test of toQueries method, of class IPTable: the queries match the
+     * addresses of the table in an index of addresses as they are logged.
+     */
+    @Test
+    public void testToQueries() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("12.0.0.0/8");
+        assertEquals(1, table.toQueries("ip").size());
+        assertTrue(table.toQueries("ip").contains("ip:12.*"));
+
+        table.add("66.249.64.0/19");
+        table.add("10.0.0.254-10.0.1.255");
+        table.add("128.177.243");
+        table.add("1.2.3.4");
+        table.add("99.5.3.7-99.20.1.2");
+        table.add("2001:db8::/32");
+        table.add("2001:db9:1::/116");
+        table.add("fe80::/10");
+        table.add("2a03:2880::9-2a03:2880::1f3");
+        assertTrue(table.toQueries("ip").size() < 40);
+
+        // addresses next to the ends of the ranges, and ones whose text is
+        // close to that of addresses in them
+        Set<String> addresses = new HashSet<String>();
+        for (String address : new String[] { "12.0.0.0", "12.255.255.255", "11.255.255.255", "13.0.0.0",
+                "120.0.0.1", "1.2.0.0", "66.249.64.0", "66.249.95.255", "66.249.63.255", "66.249.96.0",
+                "66.249.6.1", "66.249.9.1", "66.249.640.1", "66.249.100.1", "10.0.0.253", "10.0.0.254",
+                "10.0.1.255", "10.0.2.0", "10.0.10.1", "10.0.0.25", "128.177.243.0", "128.177.243.255",
+                "128.177.24.1", "128.177.2430.1", "1.2.3.4", "1.2.3.40", "1.2.3.5", "99.5.3.6", "99.5.3.7",
+                "99.5.3.70", "99.5.30.1", "99.6.0.0", "99.20.1.2", "99.20.1.3", "99.20.1.20", "99.2.1.1",
+                "99.19.200.1", "99.200.1.1", "2001:db8:0:0:0:0:0:1", "2001:db8:ffff:ffff:ffff:ffff:ffff:ffff",
+                "2001:db9:0:0:0:0:0:0", "2001:db80:0:0:0:0:0:1", "2001:db9:1:0:0:0:0:0", "2001:db9:1:0:0:0:0:fff",
+                "2001:db9:1:0:0:0:0:1000", "2001:db9:1:0:0:0:1:0", "fe80:0:0:0:0:0:0:1", "febf:1:0:0:0:0:0:0",
+                "fec0:0:0:0:0:0:0:0",
+                "fe7f:0:0:0:0:0:0:1", "fe8:0:0:0:0:0:0:1", "2a03:2880:0:0:0:0:0:8", "2a03:2880:0:0:0:0:0:9",
+                "2a03:2880:0:0:0:0:0:f", "2a03:2880:0:0:0:0:0:10", "2a03:2880:0:0:0:0:0:1f3",
+                "2a03:2880:0:0:0:0:0:1f4", "2a03:2880:0:0:0:0:0:1e", "2a03:2880:0:0:0:0:0:200" })
+        {
+            addresses.add(address);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++)
+        {
+            byte[] bytes = new byte[i % 2 == 0 ? 4 : 16];
+            random.nextBytes(bytes);
+            // mostly close to the ranges
+            if (bytes.length == 4 && i % 4 == 0)
+            {
+                bytes[0] = (byte) (i % 8 == 0 ? 66 : 99);
+                bytes[1] = (byte) (i % 8 == 0 ? 249 : random.nextInt(25));
+            }
+            else if (bytes.length == 16 && i % 4 == 1)
+            {
+                bytes[0] = (byte) 0xfe;
+                bytes[1] = (byte) (0x70 + random.nextInt(0x60));
+            }
+            addresses.add(InetAddress.getByAddress(bytes).getHostAddress());
+        }
+
+        Directory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory,
+                new IndexWriterConfig(Version.LUCENE_44, new KeywordAnalyzer()));
+        for (String address : addresses)
+        {
+            Document document = new Document();
+            document.add(new StringField("ip", address, Field.Store.YES));
+            writer.addDocument(document);
+        }
+        writer.close();
+
+        QueryParser parser = new QueryParser(Version.LUCENE_44, "ip", new KeywordAnalyzer());
+        BooleanQuery query = new BooleanQuery();
+        for (String clause : table.toQueries("ip"))
+        {
+            query.add(parser.parse(clause), BooleanClause.Occur.SHOULD);
+        }
+        DirectoryReader reader = DirectoryReader.open(directory);
+        Set<String> matched = new HashSet<String>();
+        for (ScoreDoc hit : new IndexSearcher(reader).search(query, addresses.size()).scoreDocs)
+        {
+            matched.add(reader.document(hit.doc).get("ip"));
+        }
+        reader.close();
+
+        for (String address : addresses)
+        {
+            boolean valid = IPTable.parse(address) != null;
+            assertEquals(address, valid && table.contains(address), matched.contains(address));
+        }
+    }
+}
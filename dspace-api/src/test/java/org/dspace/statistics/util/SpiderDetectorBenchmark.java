@@ -0,0 +1,172 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the cost of the spider checks made for every usage event, using
+ * the spider lists shipped in <code>dspace/config/spiders</code>:
+ * <ul>
+ * <li>looking up client addresses in an {@link IPTable}, and</li>
+ * <li>matching User-Agent strings against the agent patterns: one by one
+ * every time, combined into a single alternation, and through a
+ * {@link PatternMatcher}, which remembers the verdicts.</li>
+ * </ul>
+ * Not run with the unit tests. Run it with the test classpath:
+ * <pre>
+ * java -cp ... org.dspace.statistics.util.SpiderDetectorBenchmark [spiders directory]
+ * </pre>
+ */
+public class SpiderDetectorBenchmark
+{
+    private static final int LOOKUPS = 1000000;
+
+    private static final String[] BROWSERS = {
+        "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/37.0.2062.124 Safari/537.36",
+        "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_9_5) AppleWebKit/537.78.2 (KHTML, like Gecko) Version/7.0.6 Safari/537.78.2",
+        "Mozilla/5.0 (Windows NT 6.3; WOW64; rv:32.0) Gecko/20100101 Firefox/32.0",
+        "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+        "Mozilla/5.0 (compatible; bingbot/2.0; +http://www.bing.com/bingbot.htm)",
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+        File spiders = new File(args.length > 0 ? args[0] : "dspace/config/spiders");
+        if (!spiders.isDirectory())
+        {
+            System.err.println("No spiders directory at " + spiders.getAbsolutePath());
+            System.exit(1);
+        }
+
+        IPTable table = new IPTable();
+        int ranges = 0;
+        for (File file : spiders.listFiles())
+        {
+            if (file.isFile())
+            {
+                for (String ip : SpiderDetector.readPatterns(file))
+                {
+                    if (Character.isDigit(ip.charAt(0)) || ip.indexOf(':') >= 0)
+                    {
+                        table.add(ip);
+                        ranges++;
+                    }
+                }
+            }
+        }
+
+        List<Pattern> agents = new ArrayList<Pattern>();
+        File agentsDir = new File(spiders, "agents");
+        if (agentsDir.isDirectory())
+        {
+            for (File file : agentsDir.listFiles())
+            {
+                for (String pattern : SpiderDetector.readPatterns(file))
+                {
+                    agents.add(Pattern.compile(pattern));
+                }
+            }
+        }
+        StringBuilder alternation = new StringBuilder();
+        for (Pattern pattern : agents)
+        {
+            alternation.append(alternation.length() == 0 ? "" : "|")
+                    .append("(?:").append(pattern.pattern()).append(')');
+        }
+        Pattern combined = Pattern.compile(alternation.toString());
+        PatternMatcher matcher = new PatternMatcher(agents, 1000);
+
+        // mostly the same few agents, now and then one never seen before
+        String[] userAgents = new String[10000];
+        for (int i = 0; i < userAgents.length; i++)
+        {
+            userAgents[i] = isNew(i) ? BROWSERS[i % BROWSERS.length] + " " + i : BROWSERS[i % BROWSERS.length];
+        }
+
+        Random random = new Random(42);
+        String[] addresses = new String[10000];
+        for (int i = 0; i < addresses.length; i++)
+        {
+            addresses[i] = random.nextInt(256) + "." + random.nextInt(256) + "."
+                    + random.nextInt(256) + "." + random.nextInt(256);
+        }
+
+        System.out.println(ranges + " address entries, " + agents.size() + " agent patterns");
+
+        for (int round = 0; round < 3; round++)
+        {
+            int hits = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++)
+            {
+                if (table.contains(addresses[i % addresses.length]))
+                {
+                    hits++;
+                }
+            }
+            report("IPTable.contains", start, LOOKUPS, hits);
+
+            int agentLookups = LOOKUPS / 10;
+            hits = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < agentLookups; i++)
+            {
+                String agent = userAgents[i % userAgents.length];
+                for (Pattern pattern : agents)
+                {
+                    if (pattern.matcher(agent).find())
+                    {
+                        hits++;
+                        break;
+                    }
+                }
+            }
+            report("agent patterns, one by one", start, agentLookups, hits);
+
+            hits = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < agentLookups; i++)
+            {
+                if (combined.matcher(userAgents[i % userAgents.length]).find())
+                {
+                    hits++;
+                }
+            }
+            report("agent patterns, combined", start, agentLookups, hits);
+
+            hits = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < agentLookups; i++)
+            {
+                if (matcher.find(userAgents[i % userAgents.length]))
+                {
+                    hits++;
+                }
+            }
+            report("agent patterns, PatternMatcher", start, agentLookups, hits);
+        }
+    }
+
+    /** One agent string in a hundred is new */
+    private static boolean isNew(int i)
+    {
+        return i % 100 == 99;
+    }
+
+    private static void report(String what, long start, int lookups, int hits)
+    {
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-30s %8.0f ns/lookup (%d hits)",
+                what, (double) elapsed / lookups, hits));
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import mockit.Deencapsulation;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the BitstreamStorageManager class, with new bitstreams in a
+ * ContentAddressedBitStore in a temporary directory.
+ */
+public class BitstreamStorageManagerTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(BitstreamStorageManagerTest.class);
+
+    private File root;
+
+    private BitStore[] stores;
+
+    private int incoming;
+
+    private byte[] content;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            root = File.createTempFile("cas", "");
+            root.delete();
+            root.mkdirs();
+
+            // the configured stores, and the content addressed one
+            stores = Deencapsulation.getField(BitstreamStorageManager.class, "stores");
+            incoming = Deencapsulation.<Integer>getField(BitstreamStorageManager.class, "incoming");
+            BitStore[] withStore = new BitStore[stores.length + 1];
+            System.arraycopy(stores, 0, withStore, 0, stores.length);
+            withStore[stores.length] = new ContentAddressedBitStore(root);
+            Deencapsulation.setField(BitstreamStorageManager.class, "stores", withStore);
+            Deencapsulation.setField(BitstreamStorageManager.class, "incoming", stores.length);
+
+            content = new byte[100000];
+            new Random(14).nextBytes(content);
+        }
+        catch (IOException ex)
+        {
+            log.error("IO Error in init", ex);
+            fail("IO Error in init: " + ex.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        Deencapsulation.setField(BitstreamStorageManager.class, "stores", stores);
+        Deencapsulation.setField(BitstreamStorageManager.class, "incoming", incoming);
+        FileUtils.deleteQuietly(root);
+        super.destroy();
+    }
+
+    private TableRow find(int id) throws Exception
+    {
+        return DatabaseManager.querySingleTable(context, "Bitstream",
+                "SELECT * FROM Bitstream WHERE bitstream_id = ?", id);
+    }
+
+    /**
+     * Test of cleanup method, of class BitstreamStorageManager, after a
+     * bitstream failed to be stored.
+     */
+    @Test
+    public void testCleanupFailedStore() throws Exception
+    {
+        try
+        {
+            BitstreamStorageManager.store(context, ContentAddressedBitStoreTest.failing(content, 70000));
+            fail("testCleanupFailedStore 0");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        TableRow failed = DatabaseManager.querySingleTable(context, "Bitstream",
+                "SELECT * FROM Bitstream WHERE store_number = ? AND deleted = '1'", stores.length);
+        assertThat("testCleanupFailedStore 1", failed, notNullValue());
+
+        // a bitstream whose content is no longer used
+        int removed = BitstreamStorageManager.store(context, new ByteArrayInputStream(content));
+        DatabaseManager.updateQuery(context, "UPDATE Bitstream SET deleted = '1' WHERE bitstream_id = ?", removed);
+        String address = find(removed).getStringColumn("internal_id");
+        File file = new File(root, GeneralBitStore.getIntermediatePath(address) + address);
+        file.setLastModified(System.currentTimeMillis() - 3600000);
+        context.commit();
+
+        BitstreamStorageManager.cleanup(true, false);
+        assertThat("testCleanupFailedStore 2", find(failed.getIntColumn("bitstream_id")), nullValue());
+        assertThat("testCleanupFailedStore 3", find(removed), nullValue());
+        assertThat("testCleanupFailedStore 4", file.exists(), equalTo(false));
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.dspace.core.Utils;
+import org.dspace.storage.rdbms.TableRow;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the ContentAddressedBitStore class, in a temporary
+ * directory.
+ */
+public class ContentAddressedBitStoreTest
+{
+    private File root;
+
+    private ContentAddressedBitStore store;
+
+    private byte[] content;
+
+    @Before
+    public void init() throws IOException
+    {
+        root = File.createTempFile("cas", "");
+        root.delete();
+        root.mkdirs();
+        store = new ContentAddressedBitStore(root);
+        content = new byte[100000];
+        new Random(14).nextBytes(content);
+    }
+
+    @After
+    public void destroy() throws IOException
+    {
+        FileUtils.deleteDirectory(root);
+    }
+
+    private static TableRow row(int id)
+    {
+        TableRow row = new TableRow("bitstream", Arrays.asList("bitstream_id", "internal_id",
+                "size_bytes", "checksum", "checksum_algorithm", "store_number"));
+        row.setColumn("bitstream_id", id);
+        row.setColumn("internal_id", Utils.generateKey());
+        return row;
+    }
+
+    private static String hex(String algorithm, byte[] content) throws Exception
+    {
+        return Utils.toHex(MessageDigest.getInstance(algorithm).digest(content));
+    }
+
+    /**
+     * Test of put, of class ContentAddressedBitStore.
+     */
+    @Test
+    public void testPut() throws Exception
+    {
+        TableRow row = row(1);
+        store.put(row, new ByteArrayInputStream(content));
+
+        String address = hex("SHA-256", content);
+        assertThat("testPut 0", row.getStringColumn("internal_id"), equalTo(address));
+        assertThat("testPut 1", row.getLongColumn("size_bytes"), equalTo((long) content.length));
+        assertThat("testPut 2", row.getStringColumn("checksum"), equalTo(hex("MD5", content)));
+        assertThat("testPut 3", row.getStringColumn("checksum_algorithm"), equalTo("MD5"));
+
+        File file = new File(root, address.substring(0, 2) + "/" + address.substring(2, 4) + "/"
+                + address.substring(4, 6) + "/" + address);
+        assertThat("testPut 4", file.length(), equalTo((long) content.length));
+        // nothing is left behind
+        assertThat("testPut 5", new File(root, ".incoming").list().length, equalTo(0));
+    }
+
+    /**
+     * Test that the same content is kept once, of class
+     * ContentAddressedBitStore.
+     */
+    @Test
+    public void testDeduplicate() throws Exception
+    {
+        TableRow first = row(1);
+        store.put(first, new ByteArrayInputStream(content));
+        File file = (File) store.about(first).get(BitStore.FILE);
+        file.setLastModified(System.currentTimeMillis() - 3600000L);
+
+        TableRow second = row(2);
+        store.put(second, new ByteArrayInputStream(content));
+        assertThat("testDeduplicate 0", second.getStringColumn("internal_id"),
+                equalTo(first.getStringColumn("internal_id")));
+        assertThat("testDeduplicate 1", store.getDuplicates(), equalTo(1L));
+        // touched, so that cleanup leaves it alone
+        assertTrue("testDeduplicate 2", file.lastModified() > System.currentTimeMillis() - 60000L);
+
+        TableRow other = row(3);
+        store.put(other, new ByteArrayInputStream(Arrays.copyOf(content, 10)));
+        assertThat("testDeduplicate 3", other.getStringColumn("internal_id"),
+                not(equalTo(first.getStringColumn("internal_id"))));
+        assertThat("testDeduplicate 4", store.getDuplicates(), equalTo(1L));
+    }
+
+    /**
+     * Test of get and getRange, of class ContentAddressedBitStore.
+     */
+    @Test
+    public void testGet() throws Exception
+    {
+        TableRow row = row(1);
+        store.put(row, new ByteArrayInputStream(content));
+
+        InputStream in = store.get(row);
+        assertThat("testGet 0", IOUtils.toByteArray(in), equalTo(content));
+        in.close();
+
+        in = store.getRange(row, 5000, 200);
+        assertThat("testGet 1", IOUtils.toByteArray(in), equalTo(Arrays.copyOfRange(content, 5000, 5200)));
+        in.close();
+
+        // the range ends with the content
+        in = store.getRange(row, content.length - 10, 200);
+        assertThat("testGet 2", IOUtils.toByteArray(in).length, equalTo(10));
+        in.close();
+    }
+
+    /**
+     * Test that only content addresses are accepted, of class
+     * ContentAddressedBitStore.
+     */
+    @Test(expected = IOException.class)
+    public void testGetNotAddress() throws Exception
+    {
+        TableRow row = row(1);
+        row.setColumn("internal_id", "../../../etc/passwd");
+        store.get(row);
+    }
+
+    /**
+     * Test of about and remove, of class ContentAddressedBitStore.
+     */
+    @Test
+    public void testRemove() throws Exception
+    {
+        TableRow row = row(1);
+        store.put(row, new ByteArrayInputStream(content));
+
+        Map<String, Object> about = store.about(row);
+        assertThat("testRemove 0", (Boolean) about.get(BitStore.EXISTS), equalTo(true));
+        assertThat("testRemove 1", (Long) about.get(BitStore.SIZE), equalTo((long) content.length));
+
+        assertThat("testRemove 2", store.remove(row), equalTo(true));
+        assertThat("testRemove 3", (Boolean) store.about(row).get(BitStore.EXISTS), equalTo(false));
+        assertThat("testRemove 4", store.remove(row), equalTo(false));
+        // the empty directories went too
+        assertThat("testRemove 5", new File(root, row.getStringColumn("internal_id").substring(0, 2)).exists(),
+                equalTo(false));
+    }
+
+    /**
+     * Test that the address of shared content is recorded before the content
+     * is shared, so that a cleanup removing it in between is noticed, of
+     * class ContentAddressedBitStore.
+     */
+    @Test
+    public void testPutRecordsBeforeSharing() throws Exception
+    {
+        final TableRow first = row(1);
+        store.put(first, new ByteArrayInputStream(content));
+
+        final String[] recorded = new String[1];
+        TableRow second = row(2);
+        store.put(second, new ByteArrayInputStream(content), new ContentAddressedBitStore.Recorder()
+        {
+            public void record(TableRow bitstream) throws IOException
+            {
+                recorded[0] = bitstream.getStringColumn("internal_id");
+                // a cleanup removing the content before it is shared
+                store.remove(first);
+            }
+        });
+
+        assertThat("testPutRecordsBeforeSharing 0", recorded[0], equalTo(hex("SHA-256", content)));
+        assertThat("testPutRecordsBeforeSharing 1", store.getDuplicates(), equalTo(0L));
+        InputStream in = store.get(second);
+        assertThat("testPutRecordsBeforeSharing 2", IOUtils.toByteArray(in), equalTo(content));
+        in.close();
+    }
+
+    /**
+     * Test that content is kept if a new bitstream comes to share it while it
+     * is removed, of class ContentAddressedBitStore.
+     */
+    @Test
+    public void testRemoveWithNewReference() throws Exception
+    {
+        TableRow row = row(1);
+        store.put(row, new ByteArrayInputStream(content));
+
+        assertThat("testRemoveWithNewReference 0", store.remove(row, new ContentAddressedBitStore.References()
+        {
+            public boolean exist(TableRow bitstream)
+            {
+                return true;
+            }
+        }), equalTo(false));
+        InputStream in = store.get(row);
+        assertThat("testRemoveWithNewReference 1", IOUtils.toByteArray(in), equalTo(content));
+        in.close();
+
+        // the new bitstream stored the content again while it was moved aside
+        final TableRow second = row(2);
+        assertThat("testRemoveWithNewReference 2", store.remove(row, new ContentAddressedBitStore.References()
+        {
+            public boolean exist(TableRow bitstream) throws IOException
+            {
+                store.put(second, new ByteArrayInputStream(content));
+                return true;
+            }
+        }), equalTo(false));
+        in = store.get(second);
+        assertThat("testRemoveWithNewReference 3", IOUtils.toByteArray(in), equalTo(content));
+        in.close();
+        assertThat("testRemoveWithNewReference 4", new File(root, ".incoming").list().length, equalTo(0));
+
+        assertThat("testRemoveWithNewReference 5", store.remove(row, new ContentAddressedBitStore.References()
+        {
+            public boolean exist(TableRow bitstream)
+            {
+                return false;
+            }
+        }), equalTo(true));
+        assertThat("testRemoveWithNewReference 6", (Boolean) store.about(second).get(BitStore.EXISTS),
+                equalTo(false));
+    }
+
+    /**
+     * An input stream which fails after some of the content, like an
+     * aborted upload.
+     */
+    static InputStream failing(final byte[] content, final int length)
+    {
+        return new InputStream()
+        {
+            private int read = 0;
+
+            public int read() throws IOException
+            {
+                if (read == length)
+                {
+                    throw new IOException("Upload aborted");
+                }
+                return content[read++] & 0xFF;
+            }
+        };
+    }
+
+    /**
+     * Test of about, of class ContentAddressedBitStore, for a bitstream
+     * whose content is being stored, and one whose put failed.
+     */
+    @Test
+    public void testAboutIncoming() throws Exception
+    {
+        final TableRow row = row(1);
+        final Map<String, Object>[] during = new Map[1];
+        InputStream in = new InputStream()
+        {
+            private final InputStream content = failing(ContentAddressedBitStoreTest.this.content, 70000);
+
+            public int read() throws IOException
+            {
+                if (during[0] == null)
+                {
+                    during[0] = store.about(row);
+                }
+                return content.read();
+            }
+        };
+        try
+        {
+            store.put(row, in);
+            fail("testAboutIncoming 0");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+
+        assertThat("testAboutIncoming 1", (Boolean) during[0].get(BitStore.EXISTS), equalTo(true));
+        assertThat("testAboutIncoming 2", (Long) during[0].get(BitStore.MODIFIED) > System.currentTimeMillis() - 60000,
+                equalTo(true));
+        Map<String, Object> about = store.about(row);
+        assertThat("testAboutIncoming 3", (Boolean) about.get(BitStore.EXISTS), equalTo(false));
+        assertThat("testAboutIncoming 4", new File(root, ".incoming").list().length, equalTo(0));
+        assertThat("testAboutIncoming 5", store.remove(row), equalTo(false));
+    }
+}
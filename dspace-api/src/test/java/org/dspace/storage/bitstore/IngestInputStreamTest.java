@@ -0,0 +1,66 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.dspace.core.Utils;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit tests for the IngestInputStream class.
+ */
+public class IngestInputStreamTest
+{
+    /**
+     * Test that reading through the stream counts, digests and keeps the
+     * header, of class IngestInputStream.
+     */
+    @Test
+    public void testRead() throws Exception
+    {
+        byte[] content = new byte[70000];
+        new Random(15).nextBytes(content);
+
+        IngestInputStream in = new IngestInputStream(new ByteArrayInputStream(content),
+                new String[] { "SHA-256", "SHA-1", "NO-SUCH-DIGEST" }, 16);
+        // a single byte, then a skip, then the rest
+        assertThat("testRead 0", in.read(), equalTo(content[0] & 0xff));
+        assertThat("testRead 1", in.skip(99), equalTo(99L));
+        assertThat("testRead 2", IOUtils.toByteArray(in), equalTo(Arrays.copyOfRange(content, 100, content.length)));
+
+        assertThat("testRead 3", in.getSize(), equalTo((long) content.length));
+        assertThat("testRead 4", in.getHeader(), equalTo(Arrays.copyOf(content, 16)));
+        Map<String, String> checksums = in.getChecksums();
+        assertThat("testRead 5", checksums.size(), equalTo(2));
+        assertThat("testRead 6", checksums.get("SHA-256"),
+                equalTo(Utils.toHex(MessageDigest.getInstance("SHA-256").digest(content))));
+        assertThat("testRead 7", checksums.get("SHA-1"),
+                equalTo(Utils.toHex(MessageDigest.getInstance("SHA-1").digest(content))));
+    }
+
+    /**
+     * Test of a stream shorter than the header, of class IngestInputStream.
+     */
+    @Test
+    public void testShort() throws Exception
+    {
+        IngestInputStream in = new IngestInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3 }),
+                new String[0], 16);
+        IOUtils.toByteArray(in);
+        assertThat("testShort 0", in.getHeader(), equalTo(new byte[] { 1, 2, 3 }));
+        assertThat("testShort 1", in.getChecksums().isEmpty(), equalTo(true));
+    }
+}
@@ -10,6 +10,7 @@ package org.dspace.storage.rdbms;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -485,6 +486,30 @@ public class TableRowTest
     }
 */
 
+    /**
+     * Test of copy method, of class TableRow.
+     */
+    @Test
+    public void testCopy()
+    {
+        System.out.println("copy");
+        List<String> columns = new ArrayList<>();
+        columns.add("name");
+        columns.add("created");
+        TableRow instance = new TableRow("row", columns);
+        instance.setColumn("name", "original");
+        instance.setColumn("created", new Date(0));
+
+        TableRow copy = instance.copy();
+        assertEquals("Copy should have the same table", "row", copy.getTable());
+        assertEquals("Copy should have the same values", instance, copy);
+
+        copy.setColumn("name", "changed");
+        copy.getDateColumn("created").setTime(1000);
+        assertEquals("Original value should be unchanged", "original", instance.getStringColumn("name"));
+        assertEquals("Original date should be unchanged", 0, instance.getDateColumn("created").getTime());
+    }
+
     /**
      * Test of resetChanged method, of class TableRow.
      */
@@ -8,7 +8,6 @@
 package org.dspace.app.webui.servlet;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.sql.SQLException;
 
 import javax.servlet.ServletConfig;
@@ -17,6 +16,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.dspace.app.util.BitstreamDownload;
 import org.dspace.app.webui.util.JSPManager;
 import org.dspace.app.webui.util.UIUtil;
 import org.dspace.authorize.AuthorizeException;
@@ -28,7 +28,6 @@ import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
-import org.dspace.core.Utils;
 import org.dspace.handle.HandleManager;
 import org.dspace.usage.UsageEvent;
 import org.dspace.utils.DSpace;
@@ -36,7 +35,10 @@ import org.dspace.utils.DSpace;
 /**
  * Servlet for retrieving bitstreams. The bits are simply piped to the user. If
  * there is an <code>If-Modified-Since</code> header, only a 304 status code
- * is returned if the containing item has not been modified since that date.
+ * is returned if the containing item has not been modified since that date;
+ * likewise if an <code>If-None-Match</code> header names the checksum of the
+ * bitstream. A <code>Range</code> header is answered with that part of the
+ * bitstream, see {@link BitstreamDownload}.
  * <P>
  * <code>/bitstream/handle/sequence_id/filename</code>
  * 
@@ -170,16 +172,8 @@ public class BitstreamServlet extends DSpaceServlet
         log.info(LogManager.getHeader(context, "view_bitstream",
                 "bitstream_id=" + bitstream.getID()));
         
-        //new UsageEvent().fire(request, context, AbstractUsageEvent.VIEW,
-		//		Constants.BITSTREAM, bitstream.getID());
-
-        new DSpace().getEventService().fireEvent(
-        		new UsageEvent(
-        				UsageEvent.Action.VIEW, 
-        				request, 
-        				context, 
-        				bitstream));
-        
+        BitstreamDownload download = new BitstreamDownload(context, bitstream);
+
         // Modification date
         // Only use last-modified if this is an anonymous access
         // - caching content that may be generated under authorisation
@@ -188,38 +182,46 @@ public class BitstreamServlet extends DSpaceServlet
         {
             // TODO: Currently the date of the item, since we don't have dates
             // for files
-            response.setDateHeader("Last-Modified", item.getLastModified()
-                    .getTime());
+            download.setLastModified(item.getLastModified().getTime());
+        }
 
-            // Check for if-modified-since header
-            long modSince = request.getDateHeader("If-Modified-Since");
+        // Check for If-None-Match, If-Modified-Since and Range headers
+        download.evaluate(request);
+        if (!download.hasContent())
+        {
+            // 304 if the client's copy is current, 416 for a range beyond the end
+            download.setHeaders(response);
+            return;
+        }
 
-            if (modSince != -1 && item.getLastModified().getTime() < modSince)
-            {
-                // Item has not been modified since requested date,
-                // hence bitstream has not; return 304
-                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-                return;
-            }
+        // A resumed download is only counted once
+        if (!download.isContinuation())
+        {
+            //new UsageEvent().fire(request, context, AbstractUsageEvent.VIEW,
+            //		Constants.BITSTREAM, bitstream.getID());
+
+            new DSpace().getEventService().fireEvent(
+                    new UsageEvent(
+                            UsageEvent.Action.VIEW, 
+                            request, 
+                            context, 
+                            bitstream));
         }
-        
+
         // Pipe the bits
-        InputStream is = bitstream.retrieve();
-     
+        download.open();
+
 		// Set the response MIME type
         response.setContentType(bitstream.getFormat().getMIMEType());
 
-        // Response length
-        response.setHeader("Content-Length", String
-                .valueOf(bitstream.getSize()));
+        // Status, ETag, Last-Modified and response length
+        download.setHeaders(response);
 
 		if(threshold != -1 && bitstream.getSize() >= threshold)
 		{
 			UIUtil.setBitstreamDisposition(bitstream.getName(), request, response);
 		}
 
-        Utils.bufferedCopy(is, response.getOutputStream());
-        is.close();
-        response.getOutputStream().flush();
+        download.write(response.getOutputStream());
     }
 }
@@ -739,6 +739,7 @@ public class MyDSpaceServlet extends DSpaceServlet
         request.setAttribute("display.groupmemberships", Boolean.valueOf(displayMemberships));
         request.setAttribute("supervised.items", supervisedItems);
         request.setAttribute("export.archives", exportArchives);
+        request.setAttribute("export.progress", ItemExport.getExportsInProgress(currentUser));
 
         // Forward to main mydspace page
         JSPManager.showJSP(request, response, "/mydspace/main.jsp");
@@ -29,6 +29,7 @@
 
 <%@ page  import="javax.servlet.jsp.jstl.fmt.LocaleSupport" %>
 
+<%@ page import="org.dspace.app.itemexport.ItemExportProgress" %>
 <%@ page import="org.dspace.app.webui.servlet.MyDSpaceServlet" %>
 <%@ page import="org.dspace.content.Collection" %>
 <%@ page import="org.dspace.content.DCDate" %>
@@ -65,6 +66,8 @@
         (SupervisedItem[]) request.getAttribute("supervised.items");
     
     List<String> exportsAvailable = (List<String>)request.getAttribute("export.archives");
+
+    List<ItemExportProgress> exportsInProgress = (List<ItemExportProgress>)request.getAttribute("export.progress");
     
     // Is the logged in user an admin
     Boolean displayMembership = (Boolean)request.getAttribute("display.groupmemberships");
@@ -399,6 +402,15 @@
 		<% } %>
 	</ol>
 	<%} %>
+
+	<%if(exportsInProgress!=null && exportsInProgress.size()>0){ %>
+	<h3><fmt:message key="jsp.mydspace.main.heading8"/></h3>
+	<ul class="exportArchives">
+		<%for(ItemExportProgress progress:exportsInProgress){%>
+			<li><fmt:message key="jsp.mydspace.main.export.progress"><fmt:param><%= progress.getFileName() %></fmt:param><fmt:param><%= progress.getExportedItems() %></fmt:param><fmt:param><%= progress.getTotalItems() %></fmt:param></fmt:message></li>
+		<% } %>
+	</ul>
+	<%} %>
 	</div>
 </div>	
 </dspace:layout>
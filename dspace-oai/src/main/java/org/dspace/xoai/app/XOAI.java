@@ -21,6 +21,7 @@ import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrQuery.ORDER;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.dspace.authorize.AuthorizeException;
@@ -31,6 +32,7 @@ import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRowIterator;
+import org.dspace.xoai.data.DSpaceItem;
 import org.dspace.xoai.exceptions.CompilingException;
 import org.dspace.xoai.services.api.cache.XOAICacheService;
 import org.dspace.xoai.services.api.cache.XOAIItemCacheService;
@@ -40,9 +42,11 @@ import org.dspace.xoai.services.api.config.XOAIManagerResolver;
 import org.dspace.xoai.services.api.context.ContextService;
 import org.dspace.xoai.services.api.database.CollectionsService;
 import org.dspace.xoai.services.api.solr.SolrServerResolver;
+import org.dspace.xoai.services.impl.xoai.DSpaceResumptionCursor;
 import org.dspace.xoai.solr.DSpaceSolrSearch;
 import org.dspace.xoai.solr.exceptions.DSpaceSolrException;
 import org.dspace.xoai.solr.exceptions.DSpaceSolrIndexerException;
+import org.dspace.xoai.util.CompressionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
@@ -55,10 +59,15 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.lyncode.xoai.dataprovider.core.Granularity.Second;
-import static org.dspace.content.Item.find;
 import static org.dspace.xoai.util.ItemUtils.retrieveMetadata;
 
 /**
@@ -72,6 +81,8 @@ public class XOAI {
     private boolean optimize;
     private boolean verbose;
     private boolean clean;
+    /** The OAI identifiers of the items indexed by an incremental import */
+    private List<String> indexed = new ArrayList<String>();
 
     @Autowired
     private SolrServerResolver solrServerResolver;
@@ -173,73 +184,131 @@ public class XOAI {
                 sqlQuery = "SELECT item_id FROM item WHERE in_archive=1 AND discoverable=1 AND last_modified > ?";
         }
 
-        try {
-            TableRowIterator iterator = DatabaseManager
-                    .query(context,
-                            sqlQuery,
-                            new java.sql.Timestamp(last.getTime()));
-            return this.index(iterator);
-        } catch (SQLException ex) {
-            throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
-        }
+        return this.index(sqlQuery, new java.sql.Timestamp(last.getTime()));
     }
 
     private int indexAll() throws DSpaceSolrIndexerException {
         System.out.println("Full import");
-        try {
-
-            String sqlQuery = "SELECT item_id FROM item WHERE in_archive=TRUE AND discoverable=TRUE";
-            if(DatabaseManager.isOracle()){
-                sqlQuery = "SELECT item_id FROM item WHERE in_archive=1 AND discoverable=1";
-            }
-
-            TableRowIterator iterator = DatabaseManager.query(context,
-                    sqlQuery);
-            return this.index(iterator);
-        } catch (SQLException ex) {
-            throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
+        String sqlQuery = "SELECT item_id FROM item WHERE in_archive=TRUE AND discoverable=TRUE";
+        if(DatabaseManager.isOracle()){
+            sqlQuery = "SELECT item_id FROM item WHERE in_archive=1 AND discoverable=1";
         }
+
+        return this.index(sqlQuery);
     }
 
-    private int index(TableRowIterator iterator)
+    /**
+     * Index the items selected by the given query. Batches of items are
+     * turned into Solr documents by a pool of threads, each batch in a
+     * context of its own, and sent to Solr with a single request. At most two
+     * batches per thread are built ahead of the one being sent.
+     */
+    private int index(String sqlQuery, Object... params)
             throws DSpaceSolrIndexerException {
+        int threads = Math.max(1, ConfigurationManager.getIntProperty("oai", "import.threads", 2));
+        int batchSize = Math.max(1, ConfigurationManager.getIntProperty("oai", "import.batch.size", 100));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
         try {
+            List<Integer> ids = new ArrayList<Integer>();
+            TableRowIterator rows = DatabaseManager.query(context, sqlQuery, params);
+            try {
+                while (rows.hasNext())
+                    ids.add(rows.next().getIntColumn("item_id"));
+            } finally {
+                rows.close();
+            }
+
             int i = 0;
+            int next = 0;
             SolrServer server = solrServerResolver.getServer();
-            while (iterator.hasNext()) {
+            LinkedList<Future<List<SolrInputDocument>>> ahead = new LinkedList<Future<List<SolrInputDocument>>>();
+            while (next < ids.size() || !ahead.isEmpty()) {
+                while (next < ids.size() && ahead.size() < threads * 2) {
+                    List<Integer> batch = ids.subList(next, Math.min(next + batchSize, ids.size()));
+                    ahead.add(pool.submit(new BatchIndexer(batch)));
+                    next += batch.size();
+                }
+
+                List<SolrInputDocument> docs;
                 try {
-                    server.add(this.index(find(context, iterator.next().getIntColumn("item_id"))));
-                    context.clearCache();
-                } catch (SQLException ex) {
-                    log.error(ex.getMessage(), ex);
-                } catch (MetadataBindException e) {
-                    log.error(e.getMessage(), e);
-                } catch (ParseException e) {
-                    log.error(e.getMessage(), e);
-                } catch (XMLStreamException e) {
-                    log.error(e.getMessage(), e);
-                } catch (WritingXmlException e) {
-                    log.error(e.getMessage(), e);
+                    docs = ahead.removeFirst().get();
+                } catch (ExecutionException ex) {
+                    throw new DSpaceSolrIndexerException(ex.getCause().getMessage(), ex.getCause());
                 }
-                i++;
-                if (i % 100 == 0) System.out.println(i + " items imported so far...");
+                if (!docs.isEmpty())
+                    server.add(docs);
+                if (!clean)
+                    for (SolrInputDocument doc : docs)
+                        indexed.add(DSpaceItem.buildIdentifier((String) doc.getFieldValue("item.handle")));
+
+                int before = i;
+                i += docs.size();
+                if (i / 100 > before / 100) System.out.println(i + " items imported so far...");
             }
             System.out.println("Total: " + i + " items");
             server.commit();
             return i;
+        } catch (InterruptedException ex) {
+            throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
         } catch (SQLException ex) {
             throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
         } catch (SolrServerException ex) {
             throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
         } catch (IOException ex) {
             throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
+        } finally {
+            pool.shutdownNow();
         }
     }
 
-    private SolrInputDocument index(Item item) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException {
+    /**
+     * Builds the Solr documents of a batch of items, in a context of its own.
+     */
+    private class BatchIndexer implements Callable<List<SolrInputDocument>> {
+        private final List<Integer> ids;
+
+        BatchIndexer(List<Integer> ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public List<SolrInputDocument> call() throws SQLException {
+            Context ctx = new Context();
+            try {
+                int[] batch = new int[ids.size()];
+                for (int i = 0; i < batch.length; i++)
+                    batch[i] = ids.get(i);
+
+                List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(batch.length);
+                for (Item item : Item.findAll(ctx, batch, LoadHints.ALL)) {
+                    try {
+                        docs.add(index(ctx, item));
+                    } catch (SQLException ex) {
+                        log.error(ex.getMessage(), ex);
+                    } catch (MetadataBindException e) {
+                        log.error(e.getMessage(), e);
+                    } catch (ParseException e) {
+                        log.error(e.getMessage(), e);
+                    } catch (XMLStreamException e) {
+                        log.error(e.getMessage(), e);
+                    } catch (WritingXmlException e) {
+                        log.error(e.getMessage(), e);
+                    } catch (IOException e) {
+                        log.error(e.getMessage(), e);
+                    }
+                }
+                return docs;
+            } finally {
+                // nothing was changed
+                ctx.abort();
+            }
+        }
+    }
+
+    private SolrInputDocument index(Context ctx, Item item) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException, IOException {
         SolrInputDocument doc = new SolrInputDocument();
         doc.addField("item.id", item.getID());
-        boolean pub = this.isPublic(item);
+        boolean pub = this.isPublic(ctx, item);
         doc.addField("item.public", pub);
         String handle = item.getHandle();
         doc.addField("item.handle", handle);
@@ -276,7 +345,7 @@ public class XOAI {
         retrieveMetadata(item).write(context);
         context.getWriter().flush();
         context.getWriter().close();
-        doc.addField("item.compile", out.toString());
+        doc.addField("item.compile.gz", CompressionUtils.compress(out.toByteArray()));
 
         if (verbose) {
             println("Item with handle " + handle + " indexed");
@@ -286,7 +355,7 @@ public class XOAI {
         return doc;
     }
 
-    private boolean isPublic(Item item) {
+    private boolean isPublic(Context context, Item item) {
         try {
             AuthorizeManager.authorizeAction(context, item, Constants.READ);
             for (Bundle b : item.getBundles())
@@ -339,10 +408,18 @@ public class XOAI {
         xoaiCacheService.deleteAll();
     }
 
+    private static void cleanCache(XOAIItemCacheService xoaiItemCacheService, XOAICacheService xoaiCacheService,
+                                   List<String> identifiers) throws IOException {
+        System.out.println("Purging cached OAI responses including the " + identifiers.size() + " items imported.");
+        xoaiItemCacheService.deleteAll();
+        xoaiCacheService.deleteItems(identifiers);
+    }
+
     private static final String COMMAND_IMPORT = "import";
     private static final String COMMAND_CLEAN_CACHE = "clean-cache";
     private static final String COMMAND_COMPILE_ITEMS = "compile-items";
     private static final String COMMAND_ERASE_COMPILED_ITEMS = "erase-compiled-items";
+    private static final String COMMAND_BENCHMARK = "benchmark";
 
     public static void main(String[] argv) throws IOException, ConfigurationException {
 
@@ -366,7 +443,7 @@ public class XOAI {
             options.addOption("n", "number", true, "FOR DEVELOPMENT MUST DELETE");
             CommandLine line = parser.parse(options, argv);
 
-            String[] validSolrCommands = {COMMAND_IMPORT, COMMAND_CLEAN_CACHE};
+            String[] validSolrCommands = {COMMAND_IMPORT, COMMAND_CLEAN_CACHE, COMMAND_BENCHMARK};
             String[] validDatabaseCommands = {COMMAND_CLEAN_CACHE, COMMAND_COMPILE_ITEMS, COMMAND_ERASE_COMPILED_ITEMS};
 
 
@@ -403,7 +480,8 @@ public class XOAI {
                     applicationContext.getAutowireCapableBeanFactory().autowireBean(indexer);
 
                     int imported = indexer.index();
-                    if (imported > 0) cleanCache(itemCacheService, cacheService);
+                    if (line.hasOption('c')) cleanCache(itemCacheService, cacheService);
+                    else if (imported > 0) cleanCache(itemCacheService, cacheService, indexer.indexed);
 
                     ctx.abort();
                 } else if (COMMAND_CLEAN_CACHE.equals(command)) {
@@ -422,6 +500,13 @@ public class XOAI {
                 } else if (COMMAND_ERASE_COMPILED_ITEMS.equals(command)) {
                     cleanCompiledItems(itemCacheService);
                     cleanCache(itemCacheService, cacheService);
+                } else if (COMMAND_BENCHMARK.equals(command)) {
+                    XOAI benchmark = new XOAI(null, line.hasOption('v'));
+                    applicationContext.getAutowireCapableBeanFactory().autowireBean(benchmark);
+
+                    String[] args = line.getArgs();
+                    benchmark.benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 4000,
+                            args.length > 2 ? Integer.parseInt(args[2]) : 100);
                 }
 
                 System.out.println("OAI 2.0 manager action ended. It took "
@@ -438,6 +523,54 @@ public class XOAI {
         }
     }
 
+    /**
+     * Compare the time taken to retrieve the first and the last of the given
+     * number of pages of the index, skipping to the page by offset, as old
+     * resumption tokens do, and walking to it with the cursor of each page.
+     */
+    private void benchmark(int pages, int rows) throws SolrServerException, DSpaceSolrException {
+        SolrServer server = solrServerResolver.getServer();
+
+        long firstByOffset = timePage(server, new SolrQuery("*:*").setRows(rows).setStart(0));
+        long lastByOffset = timePage(server, new SolrQuery("*:*").setRows(rows).setStart((pages - 1) * rows));
+
+        DSpaceResumptionCursor cursor = null;
+        long firstByCursor = 0;
+        long lastByCursor = 0;
+        int page = 1;
+        while (true) {
+            SolrQuery query = new SolrQuery("*:*").setRows(rows);
+            if (cursor != null)
+                query.addFilterQuery(cursor.toFilterQuery());
+            long start = System.nanoTime();
+            SolrDocumentList documents = DSpaceSolrSearch.query(server,
+                    query.addSortField("item.lastmodified", ORDER.asc).addSortField("item.id", ORDER.asc));
+            lastByCursor = System.nanoTime() - start;
+            if (page == 1)
+                firstByCursor = lastByCursor;
+            if (verbose)
+                println("Page " + page + " by cursor: " + (lastByCursor / 1000000) + " ms");
+            if (page == pages || documents.size() < rows)
+                break;
+            SolrDocument last = documents.get(documents.size() - 1);
+            cursor = new DSpaceResumptionCursor(page * rows,
+                    (Date) last.getFieldValue("item.lastmodified"),
+                    (Integer) last.getFieldValue("item.id"));
+            page++;
+        }
+
+        println("Pages of " + rows + " items, page 1 / page " + page + ":");
+        println("  by offset: " + (firstByOffset / 1000000) + " ms / " + (lastByOffset / 1000000) + " ms");
+        println("  by cursor: " + (firstByCursor / 1000000) + " ms / " + (lastByCursor / 1000000) + " ms");
+    }
+
+    private long timePage(SolrServer server, SolrQuery query) throws DSpaceSolrException {
+        long start = System.nanoTime();
+        DSpaceSolrSearch.query(server,
+                query.addSortField("item.lastmodified", ORDER.asc).addSortField("item.id", ORDER.asc));
+        return System.nanoTime() - start;
+    }
+
     private static void cleanCompiledItems(XOAIItemCacheService itemCacheService) throws IOException {
         System.out.println("Purging compiled items");
         itemCacheService.deleteAll();
@@ -450,18 +583,24 @@ public class XOAI {
 
             if (last == null) {
                 System.out.println("Retrieving all items to be compiled");
-                iterator = Item.findAll(context);
+                iterator = Item.findAll(context, LoadHints.ALL);
             } else {
                 System.out.println("Retrieving items modified after " + last + " to be compiled");
-                String query = "SELECT * FROM item WHERE last_modified>?";
-                iterator = new ItemIterator(context, DatabaseManager.query(context, query, new java.sql.Date(last.getTime())));
+                String query = "SELECT item_id FROM item WHERE last_modified>?";
+                iterator = new ItemIterator(context, query, 0, LoadHints.ALL, new java.sql.Date(last.getTime()));
             }
 
-            while (iterator.hasNext()) {
-                Item item = iterator.next();
-                if (verbose) System.out.println("Compiling item with handle: " + item.getHandle());
-                xoaiItemCacheService.put(item, retrieveMetadata(item));
-                context.clearCache();
+            try {
+                int i = 0;
+                int pageSize = ItemIterator.getDefaultPageSize();
+                while (iterator.hasNext()) {
+                    Item item = iterator.next();
+                    if (verbose) System.out.println("Compiling item with handle: " + item.getHandle());
+                    xoaiItemCacheService.put(item, retrieveMetadata(item));
+                    if (++i % pageSize == 0) context.clearCache();
+                }
+            } finally {
+                iterator.close();
             }
 
             xoaiLastCompilationCacheService.put(new Date());
@@ -483,6 +622,7 @@ public class XOAI {
             System.out.println("> Possible actions:");
             System.out.println("     " + COMMAND_IMPORT + " - To import DSpace items into OAI index and cache system");
             System.out.println("     " + COMMAND_CLEAN_CACHE + " - Cleans the OAI cached responses");
+            System.out.println("     " + COMMAND_BENCHMARK + " [pages] [rows] - Times the first and last of [pages] (4000) pages of [rows] (100) items, by offset and by resumption cursor");
             System.out.println("> Parameters:");
             System.out.println("     -o Optimize index after indexing (" + COMMAND_IMPORT + " only)");
             System.out.println("     -c Clear index (" + COMMAND_IMPORT + " only)");
@@ -7,6 +7,7 @@
  */
 package org.dspace.xoai.data;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -14,6 +15,8 @@ import java.util.List;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.util.Base64;
+import org.dspace.xoai.util.CompressionUtils;
 
 import com.lyncode.xoai.dataprovider.core.ItemMetadata;
 import com.lyncode.xoai.dataprovider.core.ReferenceSet;
@@ -28,6 +31,7 @@ public class DSpaceSolrItem extends DSpaceItem
             .getLogger(DSpaceSolrItem.class);
     
     private String unparsedMD;
+    private byte[] compressedMD;
     private ItemMetadata metadata;
     private String handle;
     private Date lastMod;
@@ -36,7 +40,13 @@ public class DSpaceSolrItem extends DSpaceItem
     
     public DSpaceSolrItem (SolrDocument doc) {
     	log.debug("Creating OAI Item from Solr source");
-        unparsedMD = (String) doc.getFieldValue("item.compile");
+        Object compressed = doc.getFieldValue("item.compile.gz");
+        if (compressed instanceof String)
+            compressedMD = Base64.base64ToByteArray((String) compressed);
+        else if (compressed != null)
+            compressedMD = (byte[]) compressed;
+        else // indexed before the metadata was compressed
+            unparsedMD = (String) doc.getFieldValue("item.compile");
         handle = (String) doc.getFieldValue("item.handle");
         lastMod = (Date) doc.getFieldValue("item.lastmodified");
         sets = new ArrayList<ReferenceSet>();
@@ -51,6 +61,14 @@ public class DSpaceSolrItem extends DSpaceItem
     public ItemMetadata getMetadata()
     {
         if (metadata == null) {
+            if (compressedMD != null) {
+                try {
+                    unparsedMD = new String(CompressionUtils.decompress(compressedMD), "UTF-8");
+                } catch (IOException e) {
+                    log.error(e.getMessage(), e);
+                }
+                compressedMD = null;
+            }
             metadata = new ItemMetadata(unparsedMD);
         }
         return metadata;
@@ -11,6 +11,7 @@ import com.lyncode.xoai.dataprovider.xml.oaipmh.OAIPMH;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collection;
 
 
 public interface XOAICacheService {
@@ -19,5 +20,15 @@ public interface XOAICacheService {
     void handle (String requestID, OutputStream out) throws IOException;
     void store (String requestID, OAIPMH response) throws IOException;
     void delete (String requestID);
+
+    /**
+     * Delete the cached responses that may include any of the given items:
+     * those about the items themselves, the lists of items, and the responses
+     * to the other requests, such as Identify and ListSets, which depend on
+     * the repository as a whole.
+     *
+     * @param identifiers OAI identifiers of the items that changed
+     */
+    void deleteItems (Collection<String> identifiers) throws IOException;
     void deleteAll () throws IOException;
 }
@@ -12,6 +12,7 @@ import org.dspace.xoai.services.api.cache.XOAICacheService;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collection;
 
 public class DSpaceEmptyCacheService implements XOAICacheService {
     @Override
@@ -39,6 +40,11 @@ public class DSpaceEmptyCacheService implements XOAICacheService {
 
     }
 
+    @Override
+    public void deleteItems(Collection<String> identifiers) {
+
+    }
+
     @Override
     public void deleteAll() {
 
@@ -11,8 +11,9 @@ import com.lyncode.xoai.dataprovider.core.XOAIManager;
 import com.lyncode.xoai.dataprovider.exceptions.WritingXmlException;
 import com.lyncode.xoai.dataprovider.xml.XmlOutputContext;
 import com.lyncode.xoai.dataprovider.xml.oaipmh.OAIPMH;
-import com.lyncode.xoai.util.Base64Utils;
 import org.apache.commons.io.FileUtils;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.xoai.services.api.cache.XOAICacheService;
 import org.dspace.xoai.services.api.config.ConfigurationService;
@@ -21,16 +22,40 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static com.lyncode.xoai.dataprovider.core.Granularity.Second;
-import static org.apache.commons.io.FileUtils.deleteDirectory;
 import static org.apache.commons.io.IOUtils.copy;
 import static org.apache.commons.io.IOUtils.write;
 
 
+/**
+ * Caches OAI responses in two tiers: the most recently used ones in memory,
+ * up to <code>cache.memory.size</code> megabytes, in front of a single
+ * segment file on disk of up to <code>cache.disk.size</code> megabytes.
+ * Both hold the responses gzipped. Responses expire after
+ * <code>cache.ttl</code> seconds if set; otherwise they are kept until
+ * {@link #deleteItems} or {@link #deleteAll}.
+ *
+ * @see ResponseSegmentStore
+ */
 public class DSpaceXOAICacheService implements XOAICacheService {
+    private static final Logger log = LogManager.getLogger(DSpaceXOAICacheService.class);
+
     private static final String REQUEST_DIR = File.separator + "requests";
+    private static final String LIST_TAG = "list";
+    private static final String ITEM_TAG = "item:";
+    private static final String OTHER_TAG = "other";
+    private static final Pattern REQUEST = Pattern.compile("<request\\s[^>]*>");
     private static String baseDir;
     private static String staticHead;
 
@@ -58,17 +83,38 @@ public class DSpaceXOAICacheService implements XOAICacheService {
 
     private XOAIManager manager;
 
+    private ResponseSegmentStore store;
+
+    /** The most recently used responses, gzipped, with their entry in the store */
+    private final LinkedHashMap<String, CachedResponse> memory =
+            new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+    private long memoryBytes = 0;
+    private long maxMemoryBytes = -1;
+
+    private long ttl = -1;
+
     public DSpaceXOAICacheService(XOAIManager manager) {
         this.manager = manager;
     }
 
-    private File getCacheFile(String id) {
-        File dir = new File(getBaseDir());
-        if (!dir.exists())
-            dir.mkdirs();
+    private synchronized ResponseSegmentStore getStore() {
+        if (store == null) {
+            long maxSize = ConfigurationManager.getLongProperty("oai", "cache.disk.size", 1024) * 1048576L;
+            store = new ResponseSegmentStore(new File(getBaseDir()), maxSize);
+        }
+        return store;
+    }
 
-        String name = File.separator + Base64Utils.encode(id);
-        return new File(getBaseDir() + name);
+    private long getMaxMemoryBytes() {
+        if (maxMemoryBytes < 0)
+            maxMemoryBytes = ConfigurationManager.getLongProperty("oai", "cache.memory.size", 16) * 1048576L;
+        return maxMemoryBytes;
+    }
+
+    private long getTTL() {
+        if (ttl < 0)
+            ttl = ConfigurationManager.getLongProperty("oai", "cache.ttl", 0) * 1000L;
+        return ttl;
     }
 
     @Override
@@ -78,15 +124,47 @@ public class DSpaceXOAICacheService implements XOAICacheService {
 
     @Override
     public boolean hasCache(String requestID) {
-        return this.getCacheFile(requestID).exists();
+        try {
+            return getEntry(requestID) != null;
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private ResponseSegmentStore.Entry getEntry(String requestID) throws IOException {
+        ResponseSegmentStore.Entry entry = getStore().get(requestID);
+        if (entry != null && getTTL() > 0 && entry.getStored() + getTTL() < System.currentTimeMillis())
+            return null;
+        return entry;
     }
 
     @Override
     public void handle(String requestID, OutputStream out) throws IOException {
-        InputStream in = new FileInputStream(this.getCacheFile(requestID));
+        ResponseSegmentStore.Entry entry = getEntry(requestID);
+        byte[] data = null;
+        if (entry != null) {
+            synchronized (memory) {
+                CachedResponse cached = memory.get(requestID);
+                if (cached != null && cached.entry == entry)
+                    data = cached.data;
+            }
+            if (data == null) {
+                data = getStore().read(requestID, entry);
+                if (data != null)
+                    remember(requestID, entry, data);
+            }
+        }
+        if (data == null)
+            throw new IOException("No cached response for " + requestID);
+
         write(getStaticHead(manager, new Date()), out);
-        copy(in, out);
-        in.close();
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+        try {
+            copy(in, out);
+        } finally {
+            in.close();
+        }
     }
 
     @Override
@@ -98,7 +176,7 @@ public class DSpaceXOAICacheService implements XOAICacheService {
             context.getWriter().flush();
             context.getWriter().close();
 
-            String xoaiResponse = output.toString();
+            String xoaiResponse = output.toString("UTF-8");
 
             // Cutting the header (to allow one to change the response time)
             String end = "</responseDate>";
@@ -106,7 +184,13 @@ public class DSpaceXOAICacheService implements XOAICacheService {
             if (pos > 0)
                 xoaiResponse = xoaiResponse.substring(pos + (end.length()));
 
-            FileUtils.write(this.getCacheFile(requestID), xoaiResponse);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            OutputStream gzip = new GZIPOutputStream(compressed);
+            write(xoaiResponse, gzip, "UTF-8");
+            gzip.close();
+            byte[] data = compressed.toByteArray();
+
+            remember(requestID, getStore().store(requestID, getTags(xoaiResponse), data), data);
         } catch (XMLStreamException e) {
             throw new IOException(e);
         } catch (WritingXmlException e) {
@@ -114,14 +198,102 @@ public class DSpaceXOAICacheService implements XOAICacheService {
         }
     }
 
+    /**
+     * Get the tags to store a response with, from the request it echoes:
+     * the identifier of the item it is about, {@link #LIST_TAG} for
+     * responses listing items, or {@link #OTHER_TAG} for all the others,
+     * such as Identify and ListSets, which any import may change.
+     */
+    private static List<String> getTags(String xoaiResponse) {
+        List<String> tags = new ArrayList<String>();
+        Matcher request = REQUEST.matcher(xoaiResponse);
+        if (request.find()) {
+            String verb = getAttribute(request.group(), "verb");
+            String identifier = getAttribute(request.group(), "identifier");
+            if ("ListRecords".equals(verb) || "ListIdentifiers".equals(verb))
+                tags.add(LIST_TAG);
+            else if (identifier != null)
+                tags.add(ITEM_TAG + identifier);
+        }
+        if (tags.isEmpty())
+            tags.add(OTHER_TAG);
+        return tags;
+    }
+
+    private static String getAttribute(String element, String name) {
+        Matcher attribute = Pattern.compile("\\s" + name + "=\"([^\"]*)\"").matcher(element);
+        return attribute.find() ? attribute.group(1).replace("&amp;", "&") : null;
+    }
+
+    private void remember(String requestID, ResponseSegmentStore.Entry entry, byte[] data) {
+        if (entry == null || data.length > getMaxMemoryBytes() / 4)
+            return;
+        synchronized (memory) {
+            CachedResponse previous = memory.put(requestID, new CachedResponse(entry, data));
+            if (previous != null)
+                memoryBytes -= previous.data.length;
+            memoryBytes += data.length;
+            Iterator<CachedResponse> eldest = memory.values().iterator();
+            while (memoryBytes > getMaxMemoryBytes() && eldest.hasNext()) {
+                memoryBytes -= eldest.next().data.length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private void forget(String requestID) {
+        synchronized (memory) {
+            CachedResponse previous = memory.remove(requestID);
+            if (previous != null)
+                memoryBytes -= previous.data.length;
+        }
+    }
+
     @Override
     public void delete(String requestID) {
-        this.getCacheFile(requestID).delete();
+        forget(requestID);
+        try {
+            getStore().delete(requestID);
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void deleteItems(Collection<String> identifiers) throws IOException {
+        List<String> tags = new ArrayList<String>();
+        tags.add(LIST_TAG);
+        tags.add(OTHER_TAG);
+        for (String identifier : identifiers)
+            tags.add(ITEM_TAG + identifier);
+        // responses in memory go with their entries in the store
+        getStore().invalidate(tags);
     }
 
     @Override
     public void deleteAll() throws IOException {
-        deleteDirectory(new File(getBaseDir()));
+        synchronized (memory) {
+            memory.clear();
+            memoryBytes = 0;
+        }
+        File dir = new File(getBaseDir());
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                // responses cached one per file by earlier versions
+                if (!file.getName().startsWith("responses."))
+                    FileUtils.deleteQuietly(file);
+        getStore().clear();
     }
 
+    /** A response kept in memory */
+    private static class CachedResponse {
+        private final ResponseSegmentStore.Entry entry;
+        private final byte[] data;
+
+        CachedResponse(ResponseSegmentStore.Entry entry, byte[] data) {
+            this.entry = entry;
+            this.data = data;
+        }
+    }
 }
@@ -0,0 +1,415 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.xoai.services.impl.cache;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The disk tier of the OAI response cache: the compressed responses are
+ * appended to a single segment file, and an index of the file is kept in
+ * memory.
+ * <p>
+ * Every change is a record appended to the file: a response, the deletion
+ * of a response, or the invalidation of all the responses stored with a
+ * tag. The index is only ever updated by reading the records appended since
+ * it was last brought up to date, so the web application picks up the
+ * invalidations appended by the command line import, and the other way
+ * round. Appending, compacting and clearing the file are done holding a
+ * lock on a file next to it.
+ * <p>
+ * Once the file exceeds its maximum size it is rewritten with the live
+ * responses only, dropping the oldest ones if they still take more than
+ * half of it. The rewritten file has a new generation number in its header,
+ * so that the readers of the old one start over.
+ */
+public class ResponseSegmentStore {
+    private static final Logger log = LogManager.getLogger(ResponseSegmentStore.class);
+
+    private static final int MAGIC = 0x584f4331;
+    private static final int HEADER_SIZE = 12;
+
+    private static final byte STORE = 1;
+    private static final byte DELETE = 2;
+    private static final byte INVALIDATE = 3;
+
+    private static final Random random = new Random();
+
+    /** A response in the segment file */
+    public static class Entry {
+        private final long offset;
+        private final int length;
+        private final long stored;
+        private final String[] tags;
+
+        private Entry(long offset, int length, long stored, String[] tags) {
+            this.offset = offset;
+            this.length = length;
+            this.stored = stored;
+            this.tags = tags;
+        }
+
+        public long getStored() {
+            return stored;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    private final File segment;
+    private final File lock;
+    private final long maxSize;
+
+    /** The generation of the file the index was read from, and how far */
+    private long generation;
+    private long position;
+
+    /** The responses, oldest first */
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>();
+    private final Map<String, Set<String>> tagged = new HashMap<String, Set<String>>();
+    private long liveBytes = 0;
+
+    public ResponseSegmentStore(File dir, long maxSize) {
+        this.segment = new File(dir, "responses.seg");
+        this.lock = new File(dir, "responses.lock");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get a response, as of the last records appended to the file.
+     *
+     * @return the response, or null if there is none
+     */
+    public synchronized Entry get(String key) throws IOException {
+        refresh();
+        return index.get(key);
+    }
+
+    /**
+     * Read the compressed content of a response.
+     *
+     * @return the content, or null if the response was replaced or deleted
+     */
+    public synchronized byte[] read(String key, Entry entry) throws IOException {
+        while (true) {
+            refresh();
+            if (entry == null || index.get(key) != entry)
+                return null;
+            RandomAccessFile file;
+            try {
+                file = new RandomAccessFile(segment, "r");
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+            try {
+                // the file may have been rewritten by another process since
+                // the index was refreshed; the entry is then replaced by the
+                // next refresh
+                if (file.length() >= HEADER_SIZE && file.readInt() == MAGIC && file.readLong() == generation) {
+                    byte[] data = new byte[entry.length];
+                    file.seek(entry.offset);
+                    file.readFully(data);
+                    return data;
+                }
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Append a response, replacing the previous one with the same key.
+     *
+     * @return the new entry
+     */
+    public synchronized Entry store(String key, Collection<String> tags, byte[] data) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeByte(STORE);
+        out.writeUTF(key);
+        out.writeLong(System.currentTimeMillis());
+        out.writeShort(tags.size());
+        for (String tag : tags)
+            out.writeUTF(tag);
+        out.close();
+
+        List<byte[]> records = new ArrayList<byte[]>();
+        records.add(record(header.toByteArray(), data));
+        append(records);
+        return index.get(key);
+    }
+
+    public synchronized void delete(String key) throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>();
+        records.add(record(DELETE, key));
+        append(records);
+    }
+
+    /**
+     * Delete all the responses stored with any of the given tags.
+     */
+    public synchronized void invalidate(Collection<String> tags) throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>();
+        for (String tag : tags)
+            records.add(record(INVALIDATE, tag));
+        append(records);
+    }
+
+    /**
+     * Start a new, empty segment file.
+     */
+    public synchronized void clear() throws IOException {
+        FileLock fileLock = lock();
+        try {
+            rewrite(new ArrayList<String>());
+        } finally {
+            unlock(fileLock);
+        }
+    }
+
+    private static byte[] record(byte type, String value) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeByte(type);
+        out.writeUTF(value);
+        out.close();
+        return record(header.toByteArray(), new byte[0]);
+    }
+
+    private static byte[] record(byte[] header, byte[] data) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(8 + header.length + data.length);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(header.length);
+        out.writeInt(data.length);
+        out.write(header);
+        out.write(data);
+        out.close();
+        return record.toByteArray();
+    }
+
+    private void append(List<byte[]> records) throws IOException {
+        FileLock fileLock = lock();
+        try {
+            refresh();
+            // missing, or not a segment file
+            if (position == 0)
+                rewrite(new ArrayList<String>());
+
+            FileOutputStream out = new FileOutputStream(segment, true);
+            try {
+                for (byte[] record : records)
+                    out.write(record);
+            } finally {
+                out.close();
+            }
+            refresh();
+
+            if (segment.length() > maxSize)
+                compact();
+        } finally {
+            unlock(fileLock);
+        }
+    }
+
+    private FileLock lock() throws IOException {
+        if (!lock.getParentFile().exists())
+            lock.getParentFile().mkdirs();
+        FileChannel channel = new RandomAccessFile(lock, "rw").getChannel();
+        try {
+            return channel.lock();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void unlock(FileLock fileLock) throws IOException {
+        try {
+            fileLock.release();
+        } finally {
+            fileLock.channel().close();
+        }
+    }
+
+    /**
+     * Rewrite the segment file with the newest responses that fit in half
+     * of its maximum size.
+     */
+    private void compact() throws IOException {
+        List<String> keep = new ArrayList<String>(index.keySet());
+        long size = liveBytes;
+        Iterator<String> oldest = keep.iterator();
+        while (size > maxSize / 2 && oldest.hasNext()) {
+            size -= index.get(oldest.next()).length;
+            oldest.remove();
+        }
+        log.debug("Compacting " + segment + ", keeping " + keep.size() + " of " + index.size() + " responses");
+        rewrite(keep);
+    }
+
+    /**
+     * Replace the segment file with one holding the given responses, and
+     * read it into the index.
+     */
+    private void rewrite(List<String> keys) throws IOException {
+        File tmp = new File(segment.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(random.nextLong());
+            if (!keys.isEmpty()) {
+                RandomAccessFile in = new RandomAccessFile(segment, "r");
+                try {
+                    for (String key : keys) {
+                        Entry entry = index.get(key);
+                        ByteArrayOutputStream header = new ByteArrayOutputStream();
+                        DataOutputStream h = new DataOutputStream(header);
+                        h.writeByte(STORE);
+                        h.writeUTF(key);
+                        h.writeLong(entry.stored);
+                        h.writeShort(entry.tags.length);
+                        for (String tag : entry.tags)
+                            h.writeUTF(tag);
+                        h.close();
+
+                        byte[] data = new byte[entry.length];
+                        in.seek(entry.offset);
+                        in.readFully(data);
+                        out.write(record(header.toByteArray(), data));
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), segment.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        refresh();
+    }
+
+    /**
+     * Bring the index up to date with the segment file: read the records
+     * appended since the last time, or the whole file if it was replaced.
+     */
+    private void refresh() throws IOException {
+        if (!segment.exists()) {
+            reset();
+            return;
+        }
+
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            long length = file.length();
+            if (length < HEADER_SIZE || file.readInt() != MAGIC) {
+                log.warn("Ignoring " + segment + ", which is not a response cache segment");
+                reset();
+                return;
+            }
+            long gen = file.readLong();
+            if (position == 0 || gen != generation || length < position) {
+                reset();
+                generation = gen;
+                position = HEADER_SIZE;
+            }
+
+            while (position + 8 <= length) {
+                file.seek(position);
+                int headerLength = file.readInt();
+                int dataLength = file.readInt();
+                if (position + 8 + headerLength + dataLength > length)
+                    break; // still being appended
+                byte[] header = new byte[headerLength];
+                file.readFully(header);
+                apply(new DataInputStream(new ByteArrayInputStream(header)),
+                        position + 8 + headerLength, dataLength);
+                position += 8 + headerLength + dataLength;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private void reset() {
+        index.clear();
+        tagged.clear();
+        liveBytes = 0;
+        generation = 0;
+        position = 0;
+    }
+
+    private void apply(DataInputStream in, long dataOffset, int dataLength) throws IOException {
+        byte type = in.readByte();
+        String value = in.readUTF();
+        if (type == STORE) {
+            long stored = in.readLong();
+            String[] tags = new String[in.readShort()];
+            for (int i = 0; i < tags.length; i++)
+                tags[i] = in.readUTF();
+            remove(value);
+            index.put(value, new Entry(dataOffset, dataLength, stored, tags));
+            liveBytes += dataLength;
+            for (String tag : tags) {
+                Set<String> keys = tagged.get(tag);
+                if (keys == null)
+                    tagged.put(tag, keys = new HashSet<String>());
+                keys.add(value);
+            }
+        } else if (type == DELETE) {
+            remove(value);
+        } else if (type == INVALIDATE) {
+            Set<String> keys = tagged.remove(value);
+            if (keys != null)
+                for (String key : keys)
+                    remove(key);
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = index.remove(key);
+        if (entry != null) {
+            liveBytes -= entry.length;
+            for (String tag : entry.tags) {
+                Set<String> keys = tagged.get(tag);
+                if (keys != null) {
+                    keys.remove(key);
+                    if (keys.isEmpty())
+                        tagged.remove(tag);
+                }
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@ import com.lyncode.xoai.dataprovider.filter.ScopedFilter;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrQuery.ORDER;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
@@ -30,6 +31,7 @@ import org.dspace.xoai.solr.exceptions.DSpaceSolrException;
 import org.dspace.xoai.solr.exceptions.SolrSearchEmptyException;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -113,11 +115,31 @@ public class DSpaceItemSolrRepository extends DSpaceItemRepository
         List<Item> list = new ArrayList<Item>();
         SolrQuery params = new SolrQuery(solrQueryResolver.buildQuery(filters))
                 .setRows(length)
-                .setStart(offset);
+                .addSortField("item.lastmodified", ORDER.asc)
+                .addSortField("item.id", ORDER.asc);
+        // resume after the last item of the previous page rather than
+        // skipping offset items, if the resumption token says where that is
+        DSpaceResumptionCursor cursor = DSpaceResumptionCursor.takeRequested(offset);
+        if (cursor != null)
+            params.addFilterQuery(cursor.toFilterQuery());
+        else
+            params.setStart(offset);
         SolrDocumentList solrDocuments = DSpaceSolrSearch.query(server, params);
         for (SolrDocument doc : solrDocuments)
             list.add(new DSpaceSolrItem(doc));
-        return new QueryResult(list, (solrDocuments.getNumFound() > offset + length), (int) solrDocuments.getNumFound());
+
+        // with a cursor, only the items after it are found
+        int total = (int) solrDocuments.getNumFound() + (cursor != null ? offset : 0);
+        boolean hasMore = total > offset + length;
+        SolrDocument last = solrDocuments.isEmpty() ? null : solrDocuments.get(solrDocuments.size() - 1);
+        if (hasMore && last != null && last.getFieldValue("item.lastmodified") != null) {
+            DSpaceResumptionCursor.setNext(new DSpaceResumptionCursor(offset + length,
+                    (Date) last.getFieldValue("item.lastmodified"),
+                    (Integer) last.getFieldValue("item.id")));
+        } else {
+            DSpaceResumptionCursor.setNext(null);
+        }
+        return new QueryResult(list, hasMore, total);
     }
 
     private class QueryResult {
@@ -0,0 +1,137 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.xoai.services.impl.xoai;
+
+import org.apache.solr.client.solrj.util.ClientUtils;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * The position of a harvest in the OAI Solr core: the sort key
+ * (<code>item.lastmodified</code>, <code>item.id</code>) of the last item
+ * of the previous page. The next page is the items after it, so every page
+ * costs the same however deep the harvest, and items changed or removed
+ * behind the position do not shift the following pages.
+ * <p>
+ * XOAI only hands an offset between the resumption token and the item
+ * repository, so the cursor for the offset of the current request is passed
+ * alongside it, in the request thread: the token formatter sets the cursor it
+ * parsed, for the repository to take, and the repository sets the cursor of
+ * the next page, for the formatter to add to the next token.
+ *
+ * @see DSpaceResumptionTokenFormatter
+ * @see DSpaceItemSolrRepository
+ */
+public class DSpaceResumptionCursor
+{
+    private static final ThreadLocal<DSpaceResumptionCursor> requested = new ThreadLocal<DSpaceResumptionCursor>();
+
+    private static final ThreadLocal<DSpaceResumptionCursor> next = new ThreadLocal<DSpaceResumptionCursor>();
+
+    private final int offset;
+    private final Date lastModified;
+    private final int itemID;
+
+    public DSpaceResumptionCursor(int offset, Date lastModified, int itemID)
+    {
+        this.offset = offset;
+        this.lastModified = lastModified;
+        this.itemID = itemID;
+    }
+
+    /**
+     * Parse the cursor part of a resumption token.
+     *
+     * @throws NumberFormatException if it is not a cursor
+     */
+    public static DSpaceResumptionCursor parse(int offset, String value)
+    {
+        int dot = value.indexOf('.');
+        if (dot < 0)
+            throw new NumberFormatException(value);
+        return new DSpaceResumptionCursor(offset,
+                new Date(Long.parseLong(value.substring(0, dot))),
+                Integer.parseInt(value.substring(dot + 1)));
+    }
+
+    /**
+     * @return the cursor part of a resumption token
+     */
+    public String format()
+    {
+        return lastModified.getTime() + "." + itemID;
+    }
+
+    /**
+     * @return the number of items before the cursor
+     */
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * @return a Solr filter query matching the items after the cursor
+     */
+    public String toFilterQuery()
+    {
+        SimpleDateFormat solrDate = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        solrDate.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String date = ClientUtils.escapeQueryChars(solrDate.format(lastModified));
+        return "item.lastmodified:{" + date + " TO *] OR (item.lastmodified:" + date
+                + " AND item.id:{" + itemID + " TO *])";
+    }
+
+    /**
+     * Set the cursor of the resumption token of the current request, or
+     * null if it has none.
+     */
+    public static void setRequested(DSpaceResumptionCursor cursor)
+    {
+        requested.set(cursor);
+    }
+
+    /**
+     * Take the cursor of the resumption token of the current request.
+     *
+     * @return the cursor, or null if there is none for the given offset
+     */
+    public static DSpaceResumptionCursor takeRequested(int offset)
+    {
+        return take(requested, offset);
+    }
+
+    /**
+     * Set the cursor of the page following the one retrieved in the current
+     * request, or null if there are no more.
+     */
+    public static void setNext(DSpaceResumptionCursor cursor)
+    {
+        next.set(cursor);
+    }
+
+    /**
+     * Take the cursor of the page following the one retrieved in the current
+     * request.
+     *
+     * @return the cursor, or null if there is none for the given offset
+     */
+    public static DSpaceResumptionCursor takeNext(int offset)
+    {
+        return take(next, offset);
+    }
+
+    private static DSpaceResumptionCursor take(ThreadLocal<DSpaceResumptionCursor> holder, int offset)
+    {
+        DSpaceResumptionCursor cursor = holder.get();
+        holder.remove();
+        return (cursor != null && cursor.offset == offset) ? cursor : null;
+    }
+}
@@ -27,12 +27,16 @@ public class DSpaceResumptionTokenFormatter implements ResumptionTokenFormatter
 
     @Override
     public ResumptionToken parse(String resumptionToken) throws BadResumptionToken {
+        DSpaceResumptionCursor.setRequested(null);
         if (resumptionToken == null) return new ResumptionToken();
         String[] res = resumptionToken.split("/", -1);
-        if (res.length != 5) throw new BadResumptionToken();
+        if (res.length != 5 && res.length != 6) throw new BadResumptionToken();
         else {
             try {
                 int offset = Integer.parseInt(res[4]);
+                // tokens with a cursor resume after it, older ones at the offset
+                if (res.length == 6)
+                    DSpaceResumptionCursor.setRequested(DSpaceResumptionCursor.parse(offset, res[5]));
                 String prefix = (res[0].equals("")) ? null : res[0];
                 String set = (res[3].equals("")) ? null : res[3];
                 Date from = (res[1].equals("")) ? null : DateUtils.parse(res[1]);
@@ -62,6 +66,9 @@ public class DSpaceResumptionTokenFormatter implements ResumptionTokenFormatter
             result += resumptionToken.getSet();
         result += "/";
         result += resumptionToken.getOffset();
+        DSpaceResumptionCursor cursor = DSpaceResumptionCursor.takeNext(resumptionToken.getOffset());
+        if (cursor != null)
+            result += "/" + cursor.format();
         return result;
     }
 
@@ -29,7 +29,7 @@ public class DSpaceSolrSearch
     {
         try
         {
-            solrParams.addSortField("item.id", ORDER.asc);
+            addIdSort(solrParams);
             QueryResponse response = server.query(solrParams);
             return response.getResults();
         }
@@ -39,12 +39,29 @@ public class DSpaceSolrSearch
         }
     }
 
+    /**
+     * Sort on the item id, last, unless the query already does.
+     */
+    private static void addIdSort(SolrQuery solrParams)
+    {
+        String[] sortFields = solrParams.getSortFields();
+        if (sortFields != null)
+        {
+            for (String sortField : sortFields)
+            {
+                if (sortField.trim().startsWith("item.id "))
+                    return;
+            }
+        }
+        solrParams.addSortField("item.id", ORDER.asc);
+    }
+
     public static SolrDocument querySingle(SolrServer server, SolrQuery solrParams)
             throws SolrSearchEmptyException
     {
         try
         {
-            solrParams.addSortField("item.id", ORDER.asc);
+            addIdSort(solrParams);
             QueryResponse response = server.query(solrParams);
             if (response.getResults().getNumFound() > 0)
                 return response.getResults().get(0);
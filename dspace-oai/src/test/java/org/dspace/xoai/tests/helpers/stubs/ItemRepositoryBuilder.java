@@ -15,9 +15,11 @@ import com.lyncode.xoai.dataprovider.xml.XmlOutputContext;
 import com.lyncode.xoai.dataprovider.xml.xoai.Metadata;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.common.SolrInputDocument;
+import org.dspace.xoai.util.CompressionUtils;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -44,7 +46,7 @@ public class ItemRepositoryBuilder {
     }
 
 
-    private SolrInputDocument index(DSpaceItemBuilder item) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException {
+    private SolrInputDocument index(DSpaceItemBuilder item) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException, IOException {
         SolrInputDocument doc = new SolrInputDocument();
 
         doc.addField("item.id", item.getId());
@@ -65,7 +67,7 @@ public class ItemRepositoryBuilder {
         item.getMetadata().write(context);
         context.getWriter().flush();
         context.getWriter().close();
-        doc.addField("item.compile", out.toString());
+        doc.addField("item.compile.gz", CompressionUtils.compress(out.toByteArray()));
 
         return doc;
     }
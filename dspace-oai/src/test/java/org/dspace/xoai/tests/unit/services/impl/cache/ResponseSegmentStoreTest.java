@@ -0,0 +1,180 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.xoai.tests.unit.services.impl.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.dspace.xoai.services.impl.cache.ResponseSegmentStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseSegmentStoreTest {
+    private static final long MAX_SIZE = 10000;
+
+    private File dir;
+    private ResponseSegmentStore underTest;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("response-cache", "");
+        dir.delete();
+        dir.mkdirs();
+        underTest = new ResponseSegmentStore(dir, MAX_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    private static List<String> tags(String... tags) {
+        return Arrays.asList(tags);
+    }
+
+    private static byte[] data(String value, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value.charAt(0));
+        return data;
+    }
+
+    private byte[] read(ResponseSegmentStore store, String key) throws IOException {
+        return store.read(key, store.get(key));
+    }
+
+    @Test
+    public void storeAndRead() throws Exception {
+        ResponseSegmentStore.Entry entry = underTest.store("a", tags("list"), "first".getBytes("UTF-8"));
+
+        assertThat(entry, notNullValue());
+        assertThat(entry.getLength(), is(5));
+        assertThat(underTest.get("a"), is(entry));
+        assertThat(new String(underTest.read("a", entry), "UTF-8"), is("first"));
+        assertThat(underTest.get("b"), nullValue());
+        assertThat(underTest.read("b", null), nullValue());
+    }
+
+    @Test
+    public void storeReplacesPrevious() throws Exception {
+        ResponseSegmentStore.Entry first = underTest.store("a", tags("list"), "first".getBytes("UTF-8"));
+        ResponseSegmentStore.Entry second = underTest.store("a", tags("list"), "second".getBytes("UTF-8"));
+
+        assertThat(underTest.read("a", first), nullValue());
+        assertThat(new String(underTest.read("a", second), "UTF-8"), is("second"));
+    }
+
+    @Test
+    public void delete() throws Exception {
+        underTest.store("a", tags("list"), data("a", 10));
+        underTest.store("b", tags("list"), data("b", 10));
+        underTest.delete("a");
+
+        assertThat(underTest.get("a"), nullValue());
+        assertThat(read(underTest, "b"), is(data("b", 10)));
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        underTest.store("a", tags("item:1"), data("a", 10));
+        underTest.store("b", tags("item:2"), data("b", 10));
+        underTest.store("c", tags("item:1", "list"), data("c", 10));
+        underTest.store("d", Collections.<String>emptyList(), data("d", 10));
+        underTest.invalidate(tags("item:1"));
+
+        assertThat(underTest.get("a"), nullValue());
+        assertThat(underTest.get("c"), nullValue());
+        assertThat(read(underTest, "b"), is(data("b", 10)));
+        assertThat(read(underTest, "d"), is(data("d", 10)));
+
+        // a response stored again after the invalidation is kept
+        underTest.store("a", tags("item:1"), data("e", 10));
+        assertThat(read(underTest, "a"), is(data("e", 10)));
+    }
+
+    @Test
+    public void compactsPastMaxSize() throws Exception {
+        for (int i = 0; i < 30; i++)
+            underTest.store("key" + i, tags("list"), data(String.valueOf(i % 10), 1000));
+
+        File segment = new File(dir, "responses.seg");
+        assertTrue(segment.length() <= MAX_SIZE);
+        assertThat(underTest.get("key0"), nullValue());
+        assertThat(read(underTest, "key29"), is(data("9", 1000)));
+        assertThat(read(underTest, "key28"), is(data("8", 1000)));
+
+        // the responses deleted or invalidated are not written again
+        underTest.invalidate(tags("list"));
+        for (int i = 0; i < 10; i++)
+            underTest.store("other" + i, tags("other"), data("o", 1000));
+        assertThat(underTest.get("key29"), nullValue());
+        assertThat(read(underTest, "other9"), is(data("o", 1000)));
+    }
+
+    @Test
+    public void secondStoreSeesAppends() throws Exception {
+        ResponseSegmentStore other = new ResponseSegmentStore(dir, MAX_SIZE);
+        underTest.store("a", tags("item:1"), data("a", 10));
+
+        assertThat(read(other, "a"), is(data("a", 10)));
+
+        other.store("b", tags("item:2"), data("b", 10));
+        other.invalidate(tags("item:1"));
+        assertThat(underTest.get("a"), nullValue());
+        assertThat(read(underTest, "b"), is(data("b", 10)));
+
+        underTest.delete("b");
+        assertThat(other.get("b"), nullValue());
+    }
+
+    @Test
+    public void secondStoreSeesRewrites() throws Exception {
+        ResponseSegmentStore other = new ResponseSegmentStore(dir, MAX_SIZE);
+        underTest.store("a", tags("list"), data("a", 100));
+        ResponseSegmentStore.Entry stale = other.get("a");
+
+        // the first store compacts the file, dropping "a"
+        for (int i = 0; i < 20; i++)
+            underTest.store("key" + i, tags("list"), data(String.valueOf(i % 10), 1000));
+        assertThat(other.get("a"), nullValue());
+        assertThat(other.read("a", stale), nullValue());
+        assertThat(read(other, "key19"), is(data("9", 1000)));
+
+        // a stale entry of a response stored again after a rewrite is not
+        // read at the offsets of the new file
+        ResponseSegmentStore.Entry before = other.get("key19");
+        underTest.clear();
+        underTest.store("key19", tags("list"), data("z", 1000));
+        assertThat(other.read("key19", before), nullValue());
+        assertThat(other.get("key19"), not(before));
+        assertThat(read(other, "key19"), is(data("z", 1000)));
+
+        underTest.clear();
+        assertThat(other.get("key19"), nullValue());
+    }
+
+    @Test
+    public void ignoresForeignFile() throws Exception {
+        FileUtils.writeStringToFile(new File(dir, "responses.seg"), "not a segment file");
+
+        assertThat(underTest.get("a"), nullValue());
+        underTest.store("a", tags("list"), data("a", 10));
+        assertThat(read(underTest, "a"), is(data("a", 10)));
+    }
+}
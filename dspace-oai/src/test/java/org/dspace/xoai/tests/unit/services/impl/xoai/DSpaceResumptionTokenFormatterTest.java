@@ -0,0 +1,59 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.xoai.tests.unit.services.impl.xoai;
+
+import com.lyncode.xoai.dataprovider.core.ResumptionToken;
+import org.dspace.xoai.services.impl.xoai.DSpaceResumptionCursor;
+import org.dspace.xoai.services.impl.xoai.DSpaceResumptionTokenFormatter;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class DSpaceResumptionTokenFormatterTest {
+    private DSpaceResumptionTokenFormatter underTest = new DSpaceResumptionTokenFormatter();
+
+    @Test
+    public void formatWithCursor() throws Exception {
+        DSpaceResumptionCursor.setNext(new DSpaceResumptionCursor(100, new Date(1400000000000L), 42));
+        String token = underTest.format(new ResumptionToken(100, "oai_dc", null, null, null));
+
+        assertThat(token, is("oai_dc////100/1400000000000.42"));
+        assertThat(DSpaceResumptionCursor.takeNext(100), nullValue());
+    }
+
+    @Test
+    public void parseWithCursor() throws Exception {
+        ResumptionToken token = underTest.parse("oai_dc////100/1400000000000.42");
+
+        assertThat(token.getOffset(), is(100));
+        DSpaceResumptionCursor cursor = DSpaceResumptionCursor.takeRequested(100);
+        assertThat(cursor.format(), is("1400000000000.42"));
+        assertThat(cursor.toFilterQuery(), is("item.lastmodified:{2014\\-05\\-13T16\\:53\\:20.000Z TO *]"
+                + " OR (item.lastmodified:2014\\-05\\-13T16\\:53\\:20.000Z AND item.id:{42 TO *])"));
+    }
+
+    @Test
+    public void parseWithoutCursor() throws Exception {
+        DSpaceResumptionCursor.setRequested(new DSpaceResumptionCursor(100, new Date(), 1));
+        ResumptionToken token = underTest.parse("oai_dc////100");
+
+        assertThat(token.getOffset(), is(100));
+        assertThat(DSpaceResumptionCursor.takeRequested(100), nullValue());
+    }
+
+    @Test
+    public void cursorOfAnotherOffsetIsIgnored() throws Exception {
+        underTest.parse("oai_dc////100/1400000000000.42");
+
+        assertThat(DSpaceResumptionCursor.takeRequested(200), nullValue());
+    }
+}
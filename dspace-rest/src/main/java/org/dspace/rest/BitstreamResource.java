@@ -8,9 +8,11 @@
 package org.dspace.rest;
 
 import org.apache.log4j.Logger;
+import org.dspace.app.util.BitstreamDownload;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
 import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.rest.common.Bitstream;
@@ -20,11 +22,15 @@ import org.dspace.utils.DSpace;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.SQLException;
+import java.util.Date;
 
 /**
  * Created with IntelliJ IDEA.
@@ -85,11 +91,43 @@ public class BitstreamResource {
 
             org.dspace.content.Bitstream bitstream = org.dspace.content.Bitstream.find(context, bitstream_id);
             if(AuthorizeManager.authorizeActionBoolean(context, bitstream, org.dspace.core.Constants.READ)) {
-            	if(writeStatistics){
+                final BitstreamDownload download = new BitstreamDownload(context, bitstream);
+                DSpaceObject parent = bitstream.getParentObject();
+                if (parent instanceof Item) {
+                    // bitstreams have no date of their own, the REST context is always anonymous
+                    download.setLastModified(((Item) parent).getLastModified().getTime());
+                }
+                download.evaluate(request);
+                Response.ResponseBuilder builder = Response.status(download.getStatus())
+                        .header("Accept-Ranges", download.getAcceptRanges());
+                if (download.getLastModified() != -1) {
+                    builder.lastModified(new Date(download.getLastModified()));
+                }
+                if (download.getETag() != null) {
+                    builder.tag(new EntityTag(bitstream.getChecksum()));
+                }
+                if (download.getContentRange() != null) {
+                    builder.header("Content-Range", download.getContentRange());
+                }
+                if (!download.hasContent()) {
+                    return builder.build();
+                }
+
+                // a resumed download is only counted once
+            	if(writeStatistics && !download.isContinuation()){
     				writeStats(context, bitstream_id, user_ip, user_agent, xforwarderfor, headers, request);
     			}
-            	
-                return Response.ok(bitstream.retrieve()).type(bitstream.getFormat().getMIMEType()).build();
+
+                // open while the context is still available, the content is written after it is completed
+                download.open();
+                return builder.type(bitstream.getFormat().getMIMEType())
+                        .header("Content-Length", download.getContentLength())
+                        .entity(new StreamingOutput() {
+                            @Override
+                            public void write(OutputStream output) throws IOException {
+                                download.write(output);
+                            }
+                        }).build();
             } else {
                 throw new WebApplicationException(Response.Status.UNAUTHORIZED);
             }
@@ -24,8 +24,8 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
+import java.io.IOException;
 import java.sql.SQLException;
-import java.util.ArrayList;
 
 /*
 The "Path" annotation indicates the URI this class will be available at relative to your base URL.  For
@@ -46,52 +46,45 @@ public class CollectionsResource {
 		writeStatistics=ConfigurationManager.getBooleanProperty("rest","stats",false);
 	}
 
+    /**
+     * List the collections, a page of <code>limit</code> at a time: by
+     * <code>offset</code> in order of name, or, given <code>after</code>, the
+     * collections with IDs above it in order of ID.
+     */
     @GET
     @Path("/")
     @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    public org.dspace.rest.common.Collection[] list(@QueryParam("expand") String expand, @QueryParam("limit") @DefaultValue("100") Integer limit, @QueryParam("offset") @DefaultValue("0") Integer offset) {
-        org.dspace.core.Context context = null;
-        try {
-            context = new org.dspace.core.Context();
-
-            org.dspace.content.Collection[] collections;
-
-            //Only support paging if limit/offset are 0 or positive values.
-            if(limit != null && limit >= 0 && offset != null && offset >= 0) {
-                collections = org.dspace.content.Collection.findAll(context, limit, offset);
-            } else {
-                collections = org.dspace.content.Collection.findAll(context);
-            }
-
-            ArrayList<org.dspace.rest.common.Collection> collectionArrayList = new ArrayList<org.dspace.rest.common.Collection>();
-            for(org.dspace.content.Collection collection : collections) {
-                if(AuthorizeManager.authorizeActionBoolean(context, collection, org.dspace.core.Constants.READ)) {
-                    org.dspace.rest.common.Collection restCollection = new org.dspace.rest.common.Collection(collection, null, context, limit, offset);
-                    collectionArrayList.add(restCollection);
-                } // Not showing restricted-access collections
-            }
+    public Response list(@QueryParam("expand") String expand, @QueryParam("limit") @DefaultValue("100") final Integer limit, @QueryParam("offset") @DefaultValue("0") final Integer offset,
+            @QueryParam("after") final Integer after, @Context HttpHeaders headers) {
+        return new EntityListing<org.dspace.rest.common.Collection>(org.dspace.rest.common.Collection.class) {
+            @Override
+            protected void list(org.dspace.core.Context context, Sink<org.dspace.rest.common.Collection> sink) throws SQLException, IOException {
+                org.dspace.content.Collection[] collections;
 
-            return collectionArrayList.toArray(new org.dspace.rest.common.Collection[0]);
+                if(after != null) {
+                    collections = org.dspace.content.Collection.findAllAfter(context, after, limit != null ? limit : -1);
+                } else if(limit != null && limit >= 0 && offset != null && offset >= 0) {
+                    //Only support paging if limit/offset are 0 or positive values.
+                    collections = org.dspace.content.Collection.findAll(context, limit, offset);
+                } else {
+                    collections = org.dspace.content.Collection.findAll(context);
+                }
 
-        } catch (SQLException e) {
-            log.error(e.getMessage());
-            throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
-        } finally {
-            if(context != null) {
-                try {
-                    context.complete();
-                } catch (SQLException e) {
-                    log.error(e.getMessage() + " occurred while trying to close");
+                for(org.dspace.content.Collection collection : collections) {
+                    if(AuthorizeManager.authorizeActionBoolean(context, collection, org.dspace.core.Constants.READ)) {
+                        sink.add(new org.dspace.rest.common.Collection(collection, null, context, limit, offset));
+                    } // Not showing restricted-access collections
                 }
             }
-        }
+        }.respond(headers);
     }
 
     @GET
     @Path("/{collection_id}")
     @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    public org.dspace.rest.common.Collection getCollection(@PathParam("collection_id") Integer collection_id, @QueryParam("expand") String expand, 
+    public Response getCollection(@PathParam("collection_id") Integer collection_id, @QueryParam("expand") String expand, 
     		@QueryParam("limit") @DefaultValue("100") Integer limit, @QueryParam("offset") @DefaultValue("0") Integer offset,
+    		@QueryParam("after") Integer after,
     		@QueryParam("userIP") String user_ip, @QueryParam("userAgent") String user_agent, @QueryParam("xforwarderfor") String xforwarderfor,
     		@Context HttpHeaders headers, @Context HttpServletRequest request) {
         org.dspace.core.Context context = null;
@@ -100,10 +93,19 @@ public class CollectionsResource {
 
             org.dspace.content.Collection collection = org.dspace.content.Collection.find(context, collection_id);
             if(AuthorizeManager.authorizeActionBoolean(context, collection, org.dspace.core.Constants.READ)) {
+                ConditionalResponse conditional = new ConditionalResponse(context, collection, headers, request);
+                if(conditional.isNotModified()) {
+                    return conditional.notModified();
+                }
+
             	if(writeStatistics){
     				writeStats(context, collection_id, user_ip, user_agent, xforwarderfor, headers, request);
     			}
-                return new org.dspace.rest.common.Collection(collection, expand, context, limit, offset);
+                org.dspace.rest.common.Collection restCollection = conditional.getCached(org.dspace.rest.common.Collection.class);
+                if(restCollection == null) {
+                    restCollection = new org.dspace.rest.common.Collection(collection, expand, context, limit, offset, after);
+                }
+                return conditional.ok(restCollection);
             } else {
                 throw new WebApplicationException(Response.Status.UNAUTHORIZED);
             }
@@ -121,6 +123,38 @@ public class CollectionsResource {
         }
     }
     
+    /**
+     * List the items of a collection in order of ID, a page of
+     * <code>limit</code> after the item with the ID <code>after</code> at a
+     * time. The items of each page are loaded together.
+     */
+    @GET
+    @Path("/{collection_id}/items")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    public Response listItems(@PathParam("collection_id") final Integer collection_id, @QueryParam("expand") final String expand,
+            @QueryParam("limit") @DefaultValue("100") final Integer limit, @QueryParam("after") @DefaultValue("0") final Integer after,
+            @Context HttpHeaders headers) {
+        return new EntityListing<org.dspace.rest.common.Item>(org.dspace.rest.common.Item.class) {
+            @Override
+            protected void check(org.dspace.core.Context context) throws SQLException {
+                org.dspace.content.Collection collection = org.dspace.content.Collection.find(context, collection_id);
+                if(collection == null) {
+                    throw new WebApplicationException(Response.Status.NOT_FOUND);
+                }
+                if(!AuthorizeManager.authorizeActionBoolean(context, collection, org.dspace.core.Constants.READ)) {
+                    throw new WebApplicationException(Response.Status.UNAUTHORIZED);
+                }
+            }
+
+            @Override
+            protected void list(org.dspace.core.Context context, Sink<org.dspace.rest.common.Item> sink) throws SQLException, IOException {
+                org.dspace.content.Collection collection = org.dspace.content.Collection.find(context, collection_id);
+                ItemsResource.listItems(context, collection.getItems(ItemsResource.getLoadHints(expand)).startAfter(after),
+                        expand, limit, sink);
+            }
+        }.respond(headers);
+    }
+
     private void writeStats(org.dspace.core.Context context, Integer collection_id, String user_ip, String user_agent,
 			String xforwarderfor, HttpHeaders headers,
 			HttpServletRequest request) {
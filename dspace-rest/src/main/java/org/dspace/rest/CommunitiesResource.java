@@ -79,7 +79,7 @@ public class CommunitiesResource {
     @GET
     @Path("/{community_id}")
     @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    public org.dspace.rest.common.Community getCommunity(@PathParam("community_id") Integer community_id, @QueryParam("expand") String expand,
+    public Response getCommunity(@PathParam("community_id") Integer community_id, @QueryParam("expand") String expand,
     		@QueryParam("userIP") String user_ip, @QueryParam("userAgent") String user_agent, @QueryParam("xforwarderfor") String xforwarderfor,
     		@Context HttpHeaders headers, @Context HttpServletRequest request) {
         org.dspace.core.Context context = null;
@@ -88,10 +88,19 @@ public class CommunitiesResource {
 
             org.dspace.content.Community community = org.dspace.content.Community.find(context, community_id);
             if(AuthorizeManager.authorizeActionBoolean(context, community, org.dspace.core.Constants.READ)) {
+                ConditionalResponse conditional = new ConditionalResponse(context, community, headers, request);
+                if(conditional.isNotModified()) {
+                    return conditional.notModified();
+                }
+
             	if(writeStatistics){
     				writeStats(context, community_id, user_ip, user_agent, xforwarderfor, headers, request);
     			}
-                return new org.dspace.rest.common.Community(community, expand, context);
+                org.dspace.rest.common.Community restCommunity = conditional.getCached(org.dspace.rest.common.Community.class);
+                if(restCommunity == null) {
+                    restCommunity = new org.dspace.rest.common.Community(community, expand, context);
+                }
+                return conditional.ok(restCommunity);
             } else {
                 throw new WebApplicationException(Response.Status.UNAUTHORIZED);
             }
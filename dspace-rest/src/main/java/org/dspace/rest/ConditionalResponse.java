@@ -0,0 +1,274 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.rest;
+
+import org.apache.log4j.Logger;
+import org.dspace.app.util.BitstreamDownload;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.core.Utils;
+import org.dspace.eperson.Group;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The response to a conditional GET of a community, collection or item.
+ * <p>
+ * The version of the object is worked out before its representation is
+ * built, so that a client whose copy is current gets a 304 without it. An
+ * item's version is its last modification date, which is also sent as
+ * Last-Modified. Communities and collections have no date of their own, and
+ * their representations include the number of items below them, so their
+ * version is made of their own fields, those of their parents and children,
+ * and the latest modification date and count of the items in their
+ * collections. They only get an ETag, as a date would not tell a change of
+ * their fields.
+ * <p>
+ * The ETag also covers the groups of the user, as the representation leaves
+ * out what they may not read, and responses are marked private so shared
+ * caches do not pass one user's representation on to another.
+ * <p>
+ * If <code>rest.cache.size</code> is set, that many representations are kept
+ * in memory, for each resource, expand option, media type and set of groups
+ * of the user. A cached representation is only used while it is of the
+ * current version of the object, so changes made by other processes, whose
+ * content events are not seen here, are noticed too. Authorization policies
+ * are not part of the version: cached representations expire after
+ * <code>rest.cache.ttl</code> seconds for their changes to be picked up.
+ */
+class ConditionalResponse {
+    private static final Logger log = Logger.getLogger(ConditionalResponse.class);
+
+    private static final int cacheSize = ConfigurationManager.getIntProperty("rest", "cache.size", 0);
+
+    private static final long cacheTTL = ConfigurationManager.getLongProperty("rest", "cache.ttl", 300) * 1000L;
+
+    /** The number of collections whose items are counted in a query */
+    private static final int COLLECTIONS_PER_QUERY = 500;
+
+    /** The representations, least recently used first */
+    private static final Map<String, Cached> cache = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    private static class Cached {
+        private final String version;
+        private final long stored;
+        private final Object entity;
+
+        Cached(String version, Object entity) {
+            this.version = version;
+            this.stored = System.currentTimeMillis();
+            this.entity = entity;
+        }
+    }
+
+    private final MediaType type;
+    private final String key;
+    private final String version;
+    private final EntityTag etag;
+    private final long lastModified;
+    private final boolean notModified;
+
+    /**
+     * Work out the version of an object and evaluate the conditional
+     * headers of the request against it.
+     */
+    ConditionalResponse(Context context, DSpaceObject dso, HttpHeaders headers, HttpServletRequest request) throws SQLException {
+        type = EntityListing.prefersJson(headers) ? MediaType.APPLICATION_JSON_TYPE : MediaType.APPLICATION_XML_TYPE;
+        String variant = type + " " + request.getRequestURI()
+                + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        key = variant + " " + new TreeSet<Integer>(Group.allMemberGroupIDs(context, context.getCurrentUser()));
+
+        if (dso.getType() == Constants.ITEM) {
+            lastModified = ((Item) dso).getLastModified().getTime();
+            version = "item " + lastModified;
+        } else {
+            lastModified = -1;
+            version = getTreeVersion(context, dso);
+        }
+        // what a user may see depends on their groups
+        etag = new EntityTag(Utils.getMD5(key + "\n" + version), true);
+
+        notModified = isCurrent(request);
+    }
+
+    /**
+     * @return whether the client's copy is current
+     */
+    boolean isNotModified() {
+        return notModified;
+    }
+
+    /**
+     * @return a 304 for a client whose copy is current
+     */
+    Response notModified() {
+        return validators(Response.notModified()).build();
+    }
+
+    /**
+     * @return the cached representation of the current version, or null
+     */
+    <T> T getCached(Class<T> entityType) {
+        if (cacheSize <= 0) {
+            return null;
+        }
+        Cached cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        if (cached == null || !cached.version.equals(version) || !entityType.isInstance(cached.entity)
+                || (cacheTTL > 0 && cached.stored + cacheTTL < System.currentTimeMillis())) {
+            return null;
+        }
+        log.debug("Using the cached representation of " + key);
+        return entityType.cast(cached.entity);
+    }
+
+    /**
+     * @return a 200 with the representation, which is cached for the
+     *         following requests
+     */
+    Response ok(Object entity) {
+        if (cacheSize > 0) {
+            synchronized (cache) {
+                cache.put(key, new Cached(version, entity));
+            }
+        }
+        return validators(Response.ok(entity, type)).build();
+    }
+
+    private Response.ResponseBuilder validators(Response.ResponseBuilder builder) {
+        builder.tag(etag).header("Vary", HttpHeaders.ACCEPT).header("Cache-Control", "private");
+        if (lastModified != -1) {
+            builder.lastModified(new Date(lastModified));
+        }
+        return builder;
+    }
+
+    private boolean isCurrent(HttpServletRequest request) {
+        // If-None-Match takes precedence over If-Modified-Since, as for bitstreams
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return BitstreamDownload.matches(ifNoneMatch, etag.toString());
+        }
+        if (lastModified == -1) {
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * @return the version of a community or collection and everything shown
+     *         with it
+     */
+    private static String getTreeVersion(Context context, DSpaceObject dso) throws SQLException {
+        StringBuilder version = new StringBuilder();
+        List<Integer> collections = new ArrayList<Integer>();
+        if (dso.getType() == Constants.COLLECTION) {
+            Collection collection = (Collection) dso;
+            appendFields(version, collection);
+            for (Community parent : collection.getCommunities()) {
+                appendFields(version, parent);
+            }
+            collections.add(collection.getID());
+        } else if (dso.getType() == Constants.COMMUNITY) {
+            Community community = (Community) dso;
+            appendFields(version, community);
+            if (community.getParentCommunity() != null) {
+                appendFields(version, community.getParentCommunity());
+            }
+            for (Community child : community.getSubcommunities()) {
+                appendFields(version, child);
+            }
+            for (Collection child : community.getCollections()) {
+                appendFields(version, child);
+            }
+            for (Collection collection : community.getAllCollections()) {
+                collections.add(collection.getID());
+            }
+        } else {
+            appendFields(version, dso);
+        }
+        appendItems(version, context, collections);
+        return version.toString();
+    }
+
+    private static void appendFields(StringBuilder version, DSpaceObject dso) {
+        version.append(dso.getType()).append(' ').append(dso.getID()).append(' ').append(dso.getName());
+        if (dso instanceof Collection) {
+            Collection collection = (Collection) dso;
+            version.append(collection.getMetadata(Collection.SHORT_DESCRIPTION))
+                    .append(collection.getMetadata(Collection.INTRODUCTORY_TEXT))
+                    .append(collection.getMetadata(Collection.COPYRIGHT_TEXT))
+                    .append(collection.getMetadata(Collection.SIDEBAR_TEXT))
+                    .append(collection.getMetadata("license"))
+                    .append(collection.getLogo() != null ? collection.getLogo().getID() : -1);
+        } else if (dso instanceof Community) {
+            Community community = (Community) dso;
+            version.append(community.getMetadata(Community.SHORT_DESCRIPTION))
+                    .append(community.getMetadata(Community.INTRODUCTORY_TEXT))
+                    .append(community.getMetadata(Community.COPYRIGHT_TEXT))
+                    .append(community.getMetadata(Community.SIDEBAR_TEXT))
+                    .append(community.getLogo() != null ? community.getLogo().getID() : -1);
+        }
+        version.append('\n');
+    }
+
+    /**
+     * Append the latest modification date and the number of the items in
+     * the given collections.
+     */
+    private static void appendItems(StringBuilder version, Context context, List<Integer> collections) throws SQLException {
+        Iterator<Integer> ids = collections.iterator();
+        while (ids.hasNext()) {
+            StringBuilder query = new StringBuilder("SELECT MAX(item.last_modified) AS last_modified, COUNT(*) AS items "
+                    + "FROM item, collection2item WHERE item.item_id = collection2item.item_id "
+                    + "AND collection2item.collection_id IN (");
+            List<Object> params = new ArrayList<Object>();
+            while (ids.hasNext() && params.size() < COLLECTIONS_PER_QUERY) {
+                query.append(params.isEmpty() ? "?" : ", ?");
+                params.add(ids.next());
+            }
+            query.append(")");
+
+            TableRow row = DatabaseManager.querySingle(context, query.toString(), params.toArray());
+            Date latest = row.getDateColumn("last_modified");
+            version.append(latest != null ? latest.getTime() : -1).append(' ').append(row.getLongColumn("items")).append('\n');
+        }
+    }
+}
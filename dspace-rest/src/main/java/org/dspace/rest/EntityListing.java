@@ -0,0 +1,167 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.rest;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.AnnotationIntrospector;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
+import org.codehaus.jackson.map.introspect.JacksonAnnotationIntrospector;
+import org.codehaus.jackson.xc.JaxbAnnotationIntrospector;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A listing of REST entities, written out while they are loaded.
+ * <p>
+ * As JSON, each entity is serialized as soon as it is built, so the listing
+ * is never held in memory as a whole. As XML, which is written by JAXB, the
+ * entities are collected into an array first. Either way the entities are
+ * loaded in a context of the listing's own, which is open while it is
+ * written.
+ * <p>
+ * Listings are paged by ID: they are in order of ID, and the ID of the last
+ * entity of a page is passed as <code>after</code> to get the next one.
+ */
+public abstract class EntityListing<T> implements StreamingOutput {
+    private static final Logger log = Logger.getLogger(EntityListing.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    static {
+        // as the JSON provider of Jersey does
+        mapper.setAnnotationIntrospector(new AnnotationIntrospector.Pair(
+                new JacksonAnnotationIntrospector(), new JaxbAnnotationIntrospector()));
+        mapper.configure(SerializationConfig.Feature.FLUSH_AFTER_WRITE_VALUE, false);
+    }
+
+    /** Receives the entities of a listing as they are built */
+    protected interface Sink<T> {
+        void add(T entity) throws IOException;
+    }
+
+    private final Class<T> type;
+
+    protected EntityListing(Class<T> type) {
+        this.type = type;
+    }
+
+    /**
+     * Build the entities of the listing, in order, handing each to the sink.
+     */
+    protected abstract void list(org.dspace.core.Context context, Sink<T> sink) throws SQLException, IOException;
+
+    /**
+     * Check that the listing can be written, before the response is started,
+     * e.g. that its parent exists and can be read.
+     *
+     * @throws WebApplicationException with the status to respond with if not
+     */
+    protected void check(org.dspace.core.Context context) throws SQLException, WebApplicationException {
+    }
+
+    /**
+     * @return a response with the listing, as JSON or XML, whichever the
+     *         client prefers
+     */
+    public Response respond(HttpHeaders headers) {
+        org.dspace.core.Context context = null;
+        try {
+            context = new org.dspace.core.Context();
+            check(context);
+        } catch (SQLException e) {
+            log.error(e.getMessage());
+            throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+        } finally {
+            if(context != null) {
+                context.abort();
+            }
+        }
+
+        if (prefersJson(headers)) {
+            return Response.ok(this, MediaType.APPLICATION_JSON_TYPE).build();
+        }
+
+        final List<T> entities = new ArrayList<T>();
+        try {
+            list(new Sink<T>() {
+                @Override
+                public void add(T entity) {
+                    entities.add(entity);
+                }
+            });
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+        }
+        @SuppressWarnings("unchecked")
+        T[] array = (T[]) Array.newInstance(type, entities.size());
+        return Response.ok(entities.toArray(array), MediaType.APPLICATION_XML_TYPE).build();
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        final JsonGenerator json = mapper.getJsonFactory().createJsonGenerator(output, JsonEncoding.UTF8);
+        json.writeStartArray();
+        list(new Sink<T>() {
+            @Override
+            public void add(T entity) throws IOException {
+                mapper.writeValue(json, entity);
+            }
+        });
+        json.writeEndArray();
+        json.flush();
+    }
+
+    private void list(Sink<T> sink) throws IOException {
+        org.dspace.core.Context context = null;
+        try {
+            context = new org.dspace.core.Context();
+            list(context, sink);
+        } catch (SQLException e) {
+            log.error(e.getMessage());
+            throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+        } finally {
+            if(context != null) {
+                try {
+                    context.complete();
+                } catch (SQLException e) {
+                    log.error(e.getMessage() + " occurred while trying to close");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether JSON comes before XML among the media types the client
+     *         accepts, as it does for clients that accept anything
+     */
+    static boolean prefersJson(HttpHeaders headers) {
+        for (MediaType type : headers.getAcceptableMediaTypes()) {
+            if (type.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+                return true;
+            }
+            if (type.isCompatible(MediaType.APPLICATION_XML_TYPE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
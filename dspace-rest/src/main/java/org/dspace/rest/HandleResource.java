@@ -10,14 +10,16 @@ package org.dspace.rest;
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeManager;
 import org.dspace.core.Constants;
-import org.dspace.core.Context;
 import org.dspace.handle.HandleManager;
 import org.dspace.rest.common.Collection;
 import org.dspace.rest.common.Community;
 import org.dspace.rest.common.DSpaceObject;
 import org.dspace.rest.common.Item;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.sql.SQLException;
@@ -36,7 +38,8 @@ public class HandleResource {
     @GET
     @Path("/{prefix}/{suffix}")
     @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    public org.dspace.rest.common.DSpaceObject getObject(@PathParam("prefix") String prefix, @PathParam("suffix") String suffix, @QueryParam("expand") String expand) {
+    public Response getObject(@PathParam("prefix") String prefix, @PathParam("suffix") String suffix, @QueryParam("expand") String expand,
+            @Context HttpHeaders headers, @Context HttpServletRequest request) {
         org.dspace.core.Context context = null;
         try {
             context = new org.dspace.core.Context();
@@ -48,16 +51,30 @@ public class HandleResource {
             log.info("DSO Lookup by handle: [" + prefix + "] / [" + suffix + "] got result of: " + dso.getTypeText() + "_" + dso.getID());
 
             if(AuthorizeManager.authorizeActionBoolean(context, dso, org.dspace.core.Constants.READ)) {
-                switch(dso.getType()) {
-                    case Constants.COMMUNITY:
-                        return new Community((org.dspace.content.Community) dso, expand, context);
-                    case Constants.COLLECTION:
-                        return new Collection((org.dspace.content.Collection) dso, expand, context, null, null);
-                    case Constants.ITEM:
-                        return new Item((org.dspace.content.Item) dso, expand, context);
-                    default:
-                        return new DSpaceObject(dso);
+                if(dso.getType() != Constants.COMMUNITY && dso.getType() != Constants.COLLECTION && dso.getType() != Constants.ITEM) {
+                    return Response.ok(new DSpaceObject(dso)).build();
                 }
+
+                ConditionalResponse conditional = new ConditionalResponse(context, dso, headers, request);
+                if(conditional.isNotModified()) {
+                    return conditional.notModified();
+                }
+
+                DSpaceObject restObject = conditional.getCached(DSpaceObject.class);
+                if(restObject == null) {
+                    switch(dso.getType()) {
+                        case Constants.COMMUNITY:
+                            restObject = new Community((org.dspace.content.Community) dso, expand, context);
+                            break;
+                        case Constants.COLLECTION:
+                            restObject = new Collection((org.dspace.content.Collection) dso, expand, context, null, null);
+                            break;
+                        default:
+                            restObject = new Item((org.dspace.content.Item) dso, expand, context);
+                            break;
+                    }
+                }
+                return conditional.ok(restObject);
             } else {
                 throw new WebApplicationException(Response.Status.UNAUTHORIZED);
             }
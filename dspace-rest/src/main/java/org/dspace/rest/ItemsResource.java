@@ -16,9 +16,16 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
 
+import org.dspace.content.Bitstream;
+import org.dspace.content.Bundle;
 import org.dspace.content.DSpaceObject;
+import org.dspace.content.ItemIterator;
+import org.dspace.content.LoadHints;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.usage.UsageEvent;
@@ -42,12 +49,61 @@ public class ItemsResource {
 	
 	 /** log4j category */
     private static final Logger log = Logger.getLogger(ItemsResource.class);
-    //ItemList - Not Implemented
+
+    /**
+     * List the items in the archive in order of ID, a page of
+     * <code>limit</code> after the item with the ID <code>after</code> at a
+     * time. The items of each page are loaded together.
+     */
+    @GET
+    @Path("/")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    public Response list(@QueryParam("expand") final String expand, @QueryParam("limit") @DefaultValue("100") final Integer limit,
+            @QueryParam("after") @DefaultValue("0") final Integer after, @Context HttpHeaders headers) {
+        return new EntityListing<org.dspace.rest.common.Item>(org.dspace.rest.common.Item.class) {
+            @Override
+            protected void list(org.dspace.core.Context context, Sink<org.dspace.rest.common.Item> sink) throws SQLException, IOException {
+                listItems(context, org.dspace.content.Item.findAll(context, getLoadHints(expand)).startAfter(after),
+                        expand, limit, sink);
+            }
+        }.respond(headers);
+    }
+
+    /**
+     * Write the items of an iterator that the current user can read, up to
+     * the limit, if it is not negative.
+     */
+    static void listItems(org.dspace.core.Context context, ItemIterator items, String expand, Integer limit,
+            EntityListing.Sink<org.dspace.rest.common.Item> sink) throws SQLException, IOException {
+        try {
+            int listed = 0;
+            while ((limit == null || limit < 0 || listed < limit) && items.hasNext()) {
+                org.dspace.content.Item item = items.next();
+                if(AuthorizeManager.authorizeActionBoolean(context, item, org.dspace.core.Constants.READ)) {
+                    sink.add(new org.dspace.rest.common.Item(item, expand, context));
+                    listed++;
+                }
+            }
+        } finally {
+            items.close();
+        }
+    }
+
+    /**
+     * @return what to load with each page of items, for the expand option
+     */
+    static LoadHints getLoadHints(String expand) {
+        if(expand != null && (expand.contains("bitstreams") || expand.contains("all"))) {
+            return LoadHints.ALL;
+        }
+        // the name of an item is in its metadata
+        return LoadHints.METADATA;
+    }
 
     @GET
     @Path("/{item_id}")
     @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    public org.dspace.rest.common.Item getItem(@PathParam("item_id") Integer item_id, @QueryParam("expand") String expand,
+    public Response getItem(@PathParam("item_id") Integer item_id, @QueryParam("expand") String expand,
     		@QueryParam("userIP") String user_ip, @QueryParam("userAgent") String user_agent, @QueryParam("xforwarderfor") String xforwarderfor,
     		@Context HttpHeaders headers, @Context HttpServletRequest request) throws WebApplicationException {
 
@@ -58,10 +114,19 @@ public class ItemsResource {
             org.dspace.content.Item item = org.dspace.content.Item.find(context, item_id);
 
             if(AuthorizeManager.authorizeActionBoolean(context, item, org.dspace.core.Constants.READ)) {
+                ConditionalResponse conditional = new ConditionalResponse(context, item, headers, request);
+                if(conditional.isNotModified()) {
+                    return conditional.notModified();
+                }
+
             	if(writeStatistics){
     				writeStats(context, item_id, user_ip, user_agent, xforwarderfor, headers, request);
     			}
-                return new org.dspace.rest.common.Item(item, expand, context);
+                org.dspace.rest.common.Item restItem = conditional.getCached(org.dspace.rest.common.Item.class);
+                if(restItem == null) {
+                    restItem = new org.dspace.rest.common.Item(item, expand, context);
+                }
+                return conditional.ok(restItem);
             } else {
                 throw new WebApplicationException(Response.Status.UNAUTHORIZED);
             }
@@ -81,6 +146,56 @@ public class ItemsResource {
     }
     
     
+    /**
+     * List the bitstreams of an item in order of ID, a page of
+     * <code>limit</code> after the bitstream with the ID <code>after</code> at
+     * a time.
+     */
+    @GET
+    @Path("/{item_id}/bitstreams")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    public Response listBitstreams(@PathParam("item_id") final Integer item_id, @QueryParam("expand") final String expand,
+            @QueryParam("limit") @DefaultValue("100") final Integer limit, @QueryParam("after") @DefaultValue("0") final Integer after,
+            @Context HttpHeaders headers) {
+        return new EntityListing<org.dspace.rest.common.Bitstream>(org.dspace.rest.common.Bitstream.class) {
+            @Override
+            protected void check(org.dspace.core.Context context) throws SQLException {
+                org.dspace.content.Item item = org.dspace.content.Item.find(context, item_id);
+                if(item == null) {
+                    throw new WebApplicationException(Response.Status.NOT_FOUND);
+                }
+                if(!AuthorizeManager.authorizeActionBoolean(context, item, org.dspace.core.Constants.READ)) {
+                    throw new WebApplicationException(Response.Status.UNAUTHORIZED);
+                }
+            }
+
+            @Override
+            protected void list(org.dspace.core.Context context, Sink<org.dspace.rest.common.Bitstream> sink) throws SQLException, IOException {
+                org.dspace.content.Item item = org.dspace.content.Item.find(context, item_id);
+                // by ID, once even if the bitstream is in several bundles
+                Map<Integer, Bitstream> bitstreams = new TreeMap<Integer, Bitstream>();
+                for(Bundle bundle : item.getBundles()) {
+                    for(Bitstream bitstream : bundle.getBitstreams()) {
+                        if(bitstream.getID() > after) {
+                            bitstreams.put(bitstream.getID(), bitstream);
+                        }
+                    }
+                }
+
+                int listed = 0;
+                for(Bitstream bitstream : bitstreams.values()) {
+                    if(limit != null && limit >= 0 && listed >= limit) {
+                        break;
+                    }
+                    if(AuthorizeManager.authorizeActionBoolean(context, bitstream, org.dspace.core.Constants.READ)) {
+                        sink.add(new org.dspace.rest.common.Bitstream(bitstream, expand));
+                        listed++;
+                    }
+                }
+            }
+        }.respond(headers);
+    }
+
     private void writeStats(org.dspace.core.Context context, Integer item_id, String user_ip, String user_agent,
 			String xforwarderfor, HttpHeaders headers,
 			HttpServletRequest request) {
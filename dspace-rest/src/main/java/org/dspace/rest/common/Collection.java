@@ -7,9 +7,11 @@
  */
 package org.dspace.rest.common;
 
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeManager;
 import org.dspace.content.ItemIterator;
+import org.dspace.content.LoadHints;
 import org.dspace.core.Context;
 
 import javax.ws.rs.WebApplicationException;
@@ -48,11 +50,19 @@ public class Collection extends DSpaceObject {
     public Collection(){}
 
     public Collection(org.dspace.content.Collection collection, String expand, Context context, Integer limit, Integer offset) throws SQLException, WebApplicationException{
+        this(collection, expand, context, limit, offset, null);
+    }
+
+    /**
+     * @param after if not null, expand the items after the one with this ID,
+     *              in order of ID, rather than those at the offset
+     */
+    public Collection(org.dspace.content.Collection collection, String expand, Context context, Integer limit, Integer offset, Integer after) throws SQLException, WebApplicationException{
         super(collection);
-        setup(collection, expand, context, limit, offset);
+        setup(collection, expand, context, limit, offset, after);
     }
 
-    private void setup(org.dspace.content.Collection collection, String expand, Context context, Integer limit, Integer offset) throws SQLException{
+    private void setup(org.dspace.content.Collection collection, String expand, Context context, Integer limit, Integer offset, Integer after) throws SQLException{
         List<String> expandFields = new ArrayList<String>();
         if(expand != null) {
             expandFields = Arrays.asList(expand.split(","));
@@ -79,8 +89,20 @@ public class Collection extends DSpaceObject {
             this.addExpand("parentCommunity");
         }
 
-        //TODO: Item paging. limit, offset/page
-        if(expandFields.contains("items") || expandFields.contains("all")) {
+        if((expandFields.contains("items") || expandFields.contains("all")) && after != null) {
+            items = new ArrayList<Item>();
+            ItemIterator childItems = collection.getItems(LoadHints.METADATA).startAfter(after);
+            try {
+                while((limit == null || limit < 0 || items.size() < limit) && childItems.hasNext()) {
+                    org.dspace.content.Item item = childItems.next();
+                    if(AuthorizeManager.authorizeActionBoolean(context, item, org.dspace.core.Constants.READ)) {
+                        items.add(new Item(item, null, context));
+                    }
+                }
+            } finally {
+                childItems.close();
+            }
+        } else if(expandFields.contains("items") || expandFields.contains("all")) {
             ItemIterator childItems;
             if(limit != null && limit >= 0 && offset != null && offset >= 0) {
                 childItems = collection.getItems(limit, offset);
@@ -88,9 +110,14 @@ public class Collection extends DSpaceObject {
                 childItems = collection.getItems();
             }
 
-            items = new ArrayList<Item>();
+            List<Integer> itemIds = new ArrayList<Integer>();
             while(childItems.hasNext()) {
-                org.dspace.content.Item item = childItems.next();
+                itemIds.add(childItems.nextID());
+            }
+
+            items = new ArrayList<Item>();
+            int[] ids = ArrayUtils.toPrimitive(itemIds.toArray(new Integer[itemIds.size()]));
+            for(org.dspace.content.Item item : org.dspace.content.Item.findAll(context, ids, LoadHints.METADATA)) {
                 if(AuthorizeManager.authorizeActionBoolean(context, item, org.dspace.core.Constants.READ)) {
                     items.add(new Item(item, null, context));
                 }
@@ -23,6 +23,7 @@ import org.apache.cocoon.environment.SourceResolver;
 import org.apache.cocoon.util.HashUtil;
 import org.apache.excalibur.source.SourceValidity;
 import org.apache.excalibur.source.impl.validity.NOPValidity;
+import org.dspace.app.itemexport.ItemExportProgress;
 import org.dspace.app.xmlui.cocoon.AbstractDSpaceTransformer;
 import org.dspace.app.xmlui.utils.DSpaceValidity;
 import org.dspace.app.xmlui.utils.UIException;
@@ -71,6 +72,10 @@ public class ItemExport extends AbstractDSpaceTransformer implements
 
 	private static final Message T_avail_head = message("xmlui.administrative.ItemExport.available.head");
 
+	private static final Message T_progress_head = message("xmlui.administrative.ItemExport.progress.head");
+
+	private static final Message T_progress = message("xmlui.administrative.ItemExport.progress");
+
 	/** The Cocoon request */
 	Request request;
 
@@ -81,6 +86,8 @@ public class ItemExport extends AbstractDSpaceTransformer implements
 
 	java.util.List<String> availableExports;
 
+	java.util.List<ItemExportProgress> exportsInProgress;
+
 	Message message;
 
 	/** Cached validity object */
@@ -173,6 +180,11 @@ public class ItemExport extends AbstractDSpaceTransformer implements
 		} catch (Exception e) {
 			// nothing to do
 		}
+
+		if (context.getCurrentUser() != null) {
+			exportsInProgress = org.dspace.app.itemexport.ItemExport
+					.getExportsInProgress(context.getCurrentUser());
+		}
 	}
 
 	/**
@@ -203,6 +215,13 @@ public class ItemExport extends AbstractDSpaceTransformer implements
 				}
 			}
 
+			if (exportsInProgress != null) {
+				for (ItemExportProgress progress : exportsInProgress) {
+					key.append(":").append(progress.getFileName())
+							.append("/").append(progress.getExportedItems());
+				}
+			}
+
 			if (request.getQueryString() != null) {
 				key.append(request.getQueryString());
 			}
@@ -286,6 +305,18 @@ public class ItemExport extends AbstractDSpaceTransformer implements
 						fileName);
 			}
 		}
+
+		if (exportsInProgress != null && exportsInProgress.size() > 0) {
+			Division progressDiv = main.addDivision("exports-in-progress",
+					"exports-in-progress");
+			progressDiv.setHead(T_progress_head);
+
+			List progressList = progressDiv.addList("progress-files", List.TYPE_BULLETED);
+			for (ItemExportProgress progress : exportsInProgress) {
+				progressList.addItem(T_progress.parameterize(progress.getFileName(),
+						progress.getExportedItems(), progress.getTotalItems()));
+			}
+		}
 	}
 
 	/**
@@ -296,6 +327,7 @@ public class ItemExport extends AbstractDSpaceTransformer implements
 		this.errors = null;
 		this.message = null;
 		this.availableExports = null;
+		this.exportsInProgress = null;
 		super.recycle();
 	}
 
@@ -8,7 +8,6 @@
 package org.dspace.app.xmlui.cocoon;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.sql.SQLException;
@@ -26,10 +25,9 @@ import org.apache.cocoon.environment.Request;
 import org.apache.cocoon.environment.Response;
 import org.apache.cocoon.environment.SourceResolver;
 import org.apache.cocoon.environment.http.HttpEnvironment;
-import org.apache.cocoon.environment.http.HttpResponse;
 import org.apache.cocoon.reading.AbstractReader;
-import org.apache.cocoon.util.ByteRange;
 import org.apache.commons.lang.StringUtils;
+import org.dspace.app.util.BitstreamDownload;
 import org.dspace.app.xmlui.utils.AuthenticationUtil;
 import org.dspace.app.xmlui.utils.ContextUtil;
 import org.dspace.authorize.AuthorizeException;
@@ -114,12 +112,6 @@ public class BitstreamReader extends AbstractReader implements Recyclable
     private static final String AUTH_REQUIRED_HEADER = "xmlui.BitstreamReader.auth_header";
     private static final String AUTH_REQUIRED_MESSAGE = "xmlui.BitstreamReader.auth_message";
         
-    /**
-     * How big a buffer should we use when reading from the bitstream before
-     * writing to the HTTP response?
-     */
-    protected static final int BUFFER_SIZE = 8192;
-
     /**
      * When should a bitstream expire in milliseconds. This should be set to
      * some low value just to prevent someone hiting DSpace repeatedy from
@@ -136,8 +128,8 @@ public class BitstreamReader extends AbstractReader implements Recyclable
     /** The Cocoon request */
     protected Request request;
 
-    /** The bitstream file */
-    protected InputStream bitstreamInputStream;
+    /** The bitstream download, with the outcome of the request headers */
+    protected BitstreamDownload bitstreamDownload;
     
     /** The bitstream's reported size */
     protected long bitstreamSize;
@@ -319,8 +311,27 @@ public class BitstreamReader extends AbstractReader implements Recyclable
             }
                 
             // Success, bitstream found and the user has access to read it.
-            // Store these for later retrieval:
-            this.bitstreamInputStream = bitstream.retrieve();
+            // Check the conditional and range headers while the context is
+            // still open, and store these for later retrieval:
+            this.bitstreamDownload = new BitstreamDownload(context, bitstream);
+
+            // Only set Last-Modified: header for spiders or anonymous
+            // access, since it might encourage browse to cache the result
+            // which might leave a result only available to authenticated
+            // users in the cache for a response later to anonymous user.
+            if (item != null && (isSpider || context.getCurrentUser() == null))
+            {
+                // TODO:  Currently just borrow the date of the item, since
+                // we don't have last-mod dates for Bitstreams
+                this.bitstreamDownload.setLastModified(item.getLastModified().getTime());
+            }
+            this.bitstreamDownload.evaluate(request.getHeader("If-None-Match"),
+                    getDateHeader("If-Modified-Since"), request.getHeader("If-Range"),
+                    request.getHeader("Range"));
+            if (this.bitstreamDownload.hasContent())
+            {
+                this.bitstreamDownload.open();
+            }
             this.bitstreamSize = bitstream.getSize();
             this.bitstreamMimeType = bitstream.getFormat().getMIMEType();
             this.bitstreamName = bitstream.getName();
@@ -356,13 +367,17 @@ public class BitstreamReader extends AbstractReader implements Recyclable
             }
             
             // Log that the bitstream has been viewed, this is non-cached and the complexity
-            // of adding it to the sitemap for every possible bitstream uri is not very tractable
-            new DSpace().getEventService().fireEvent(
+            // of adding it to the sitemap for every possible bitstream uri is not very tractable.
+            // A resumed download is only counted once.
+            if (this.bitstreamDownload.hasContent() && !this.bitstreamDownload.isContinuation())
+            {
+                new DSpace().getEventService().fireEvent(
                                 new UsageEvent(
                                                 UsageEvent.Action.VIEW,
                                                 ObjectModelHelper.getRequest(objectModel),
                                                 ContextUtil.obtainContext(ObjectModelHelper.getRequest(objectModel)),
                                                 bitstream));
+            }
             
             // If we created the database connection close it, otherwise leave it open.
             if (BitstreamReaderOpenedContext)
@@ -507,48 +522,37 @@ public class BitstreamReader extends AbstractReader implements Recyclable
     public void generate() throws IOException, SAXException,
             ProcessingException
     {
-        if (this.bitstreamInputStream == null)
+        if (this.bitstreamDownload == null)
         {
             return;
         }
-        
-        // Only allow If-Modified-Since protocol if request is from a spider
-        // since response headers would encourage a browser to cache results
-        // that might change with different authentication.
-        if (isSpider)
+
+        // 304 if the item has not been modified since the requested date or
+        // the ETag matches, 206 for part of the bitstream, 416 for a range
+        // beyond its end. If-Modified-Since is only honoured where a
+        // Last-Modified date was set, i.e. for spiders and anonymous access.
+        int status = this.bitstreamDownload.getStatus();
+        if (status != HttpServletResponse.SC_OK)
         {
-            // Check for if-modified-since header -- ONLY if not authenticated
-            long modSince = request.getDateHeader("If-Modified-Since");
-            if (modSince != -1 && item != null && item.getLastModified().getTime() < modSince)
-            {
-                // Item has not been modified since requested date,
-                // hence bitstream has not been, either; return 304
-                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-                return;
-            }
+            response.setStatus(status);
         }
-
-        // Only set Last-Modified: header for spiders or anonymous
-        // access, since it might encourage browse to cache the result
-        // which might leave a result only available to authenticated
-        // users in the cache for a response later to anonymous user.
-        try
+        if (this.bitstreamDownload.getETag() != null)
         {
-            if (item != null && (isSpider || ContextUtil.obtainContext(request).getCurrentUser() == null))
-            {
-                // TODO:  Currently just borrow the date of the item, since
-                // we don't have last-mod dates for Bitstreams
-                response.setDateHeader("Last-Modified", item.getLastModified()
-                        .getTime());
-            }
+            response.setHeader("ETag", this.bitstreamDownload.getETag());
         }
-        catch (SQLException e)
+        if (this.bitstreamDownload.getLastModified() != -1)
         {
-            throw new ProcessingException(e);
+            response.setDateHeader("Last-Modified", this.bitstreamDownload.getLastModified());
+        }
+        response.setHeader("Accept-Ranges", this.bitstreamDownload.getAcceptRanges());
+        if (this.bitstreamDownload.getContentRange() != null)
+        {
+            response.setHeader("Content-Range", this.bitstreamDownload.getContentRange());
+        }
+        if (!this.bitstreamDownload.hasContent())
+        {
+            return;
         }
-
-        byte[] buffer = new byte[BUFFER_SIZE];
-        int length = -1;
 
         // Only encourage caching if this is not a restricted resource, i.e.
         // if it is accessed anonymously or is readable by Anonymous:
@@ -582,90 +586,20 @@ public class BitstreamReader extends AbstractReader implements Recyclable
                 response.setHeader("Content-Disposition", "attachment;filename=" + '"' + name + '"');
         }
 
-        ByteRange byteRange = null;
-
-        // Turn off partial downloads, they cause problems
-        // and are only rarely used. Specifically some windows pdf
-        // viewers are incapable of handling this request. You can
-        // uncomment the following lines to turn this feature back on.
-
-//        response.setHeader("Accept-Ranges", "bytes");
-//        String ranges = request.getHeader("Range");
-//        if (ranges != null)
-//        {
-//            try
-//            {
-//                ranges = ranges.substring(ranges.indexOf('=') + 1);
-//                byteRange = new ByteRange(ranges);
-//            }
-//            catch (NumberFormatException e)
-//            {
-//                byteRange = null;
-//                if (response instanceof HttpResponse)
-//                {
-//                    // Respond with status 416 (Request range not
-//                    // satisfiable)
-//                    response.setStatus(416);
-//                }
-//            }
-//        }
+        // Partial downloads can be turned off with bitstream.download.ranges
+        // in dspace.cfg, e.g. if some windows pdf viewers are incapable of
+        // handling them.
+        response.setHeader("Content-Length", String.valueOf(this.bitstreamDownload.getContentLength()));
 
         try
         {
-            if (byteRange != null)
-            {
-                String entityLength;
-                String entityRange;
-                if (this.bitstreamSize != -1)
-                {
-                    entityLength = "" + this.bitstreamSize;
-                    entityRange = byteRange.intersection(
-                            new ByteRange(0, this.bitstreamSize)).toString();
-                }
-                else
-                {
-                    entityLength = "*";
-                    entityRange = byteRange.toString();
-                }
-
-                response.setHeader("Content-Range", entityRange + "/" + entityLength);
-                if (response instanceof HttpResponse)
-                {
-                    // Response with status 206 (Partial content)
-                    response.setStatus(206);
-                }
-
-                int pos = 0;
-                int posEnd;
-                while ((length = this.bitstreamInputStream.read(buffer)) > -1)
-                {
-                    posEnd = pos + length - 1;
-                    ByteRange intersection = byteRange.intersection(new ByteRange(pos, posEnd));
-                    if (intersection != null)
-                    {
-                        out.write(buffer, (int) intersection.getStart() - pos, (int) intersection.length());
-                    }
-                    pos += length;
-                }
-            }
-            else
-            {
-                response.setHeader("Content-Length", String.valueOf(this.bitstreamSize));
-
-                while ((length = this.bitstreamInputStream.read(buffer)) > -1)
-                {
-                    out.write(buffer, 0, length);
-                }
-                out.flush();
-            }
+            // Closes the bitstream so that we don't leak a file descriptor
+            this.bitstreamDownload.write(out);
         }
         finally
         {
             try
             {
-                // Close the bitstream input stream so that we don't leak a file descriptor
-                this.bitstreamInputStream.close();
-                
                 // Close the output stream as per Cocoon docs: http://cocoon.apache.org/2.2/core-modules/core/2.2/681_1_1.html
                 out.close();
             } 
@@ -679,6 +613,21 @@ public class BitstreamReader extends AbstractReader implements Recyclable
 
     }
 
+    /**
+     * @return the date of a request header, or -1 if it is missing or invalid
+     */
+    private long getDateHeader(String name)
+    {
+        try
+        {
+            return request.getDateHeader(name);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return -1;
+        }
+    }
+
     /**
      * Returns the mime-type of the bitstream.
      */
@@ -693,7 +642,12 @@ public class BitstreamReader extends AbstractReader implements Recyclable
     public void recycle() {
         this.response = null;
         this.request = null;
-        this.bitstreamInputStream = null;
+        if (this.bitstreamDownload != null)
+        {
+            // in case it was opened but never written
+            this.bitstreamDownload.close();
+        }
+        this.bitstreamDownload = null;
         this.bitstreamSize = 0;
         this.bitstreamMimeType = null;
     }
@@ -66,6 +66,7 @@ DROP TABLE WorkspaceItem;
 DROP TABLE Handle;
 DROP TABLE Doi;
 DROP TABLE EPersonGroup2EPerson;
+DROP TABLE EPerson2GroupCache;
 DROP TABLE ResourcePolicy;
 DROP TABLE Collection2Item;
 DROP TABLE Community2Collection;
@@ -432,6 +432,22 @@ CREATE INDEX epersongroup2eperson_group_idx on EPersonGroup2EPerson(eperson_grou
 
 CREATE INDEX epg2ep_eperson_fk_idx ON EPersonGroup2EPerson(eperson_id);
 
+-------------------------------------------------------
+-- EPerson2GroupCache table, lists every group an
+-- eperson is a member of, either directly or through
+-- (nested) subgroups, so that all of the groups of an
+-- eperson can be looked up in a single simple query.
+-- Derived from EPersonGroup2EPerson and Group2GroupCache.
+-------------------------------------------------------
+CREATE TABLE EPerson2GroupCache
+(
+  eperson_id       INTEGER REFERENCES EPerson(eperson_id),
+  eperson_group_id INTEGER REFERENCES EPersonGroup(eperson_group_id),
+  PRIMARY KEY (eperson_id, eperson_group_id)
+);
+
+CREATE INDEX ep2gc_group_fk_idx ON EPerson2GroupCache(eperson_group_id);
+
 
 -------------------------------------------------------
 -- Handle table
@@ -12,3 +12,21 @@
 ------------------------------------------------------
 ALTER TABLE requestitem ADD request_message VARCHAR2(2000);
 
+------------------------------------------------------
+-- EPerson2GroupCache, all groups of each eperson
+------------------------------------------------------
+CREATE TABLE EPerson2GroupCache
+(
+  eperson_id       INTEGER REFERENCES EPerson(eperson_id),
+  eperson_group_id INTEGER REFERENCES EPersonGroup(eperson_group_id),
+  PRIMARY KEY (eperson_id, eperson_group_id)
+);
+
+CREATE INDEX ep2gc_group_fk_idx ON EPerson2GroupCache(eperson_group_id);
+
+INSERT INTO EPerson2GroupCache (eperson_id, eperson_group_id)
+  SELECT eperson_id, eperson_group_id FROM EPersonGroup2EPerson
+  UNION
+  SELECT m.eperson_id, c.parent_id FROM EPersonGroup2EPerson m, Group2GroupCache c
+  WHERE m.eperson_group_id = c.child_id;
+